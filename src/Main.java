@@ -1,3 +1,9 @@
+import java.io.Console;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 import customer.Customer;
 import customer.CustomerManager;
@@ -8,6 +14,7 @@ import account.SavingsAccount;
 import account.CheckingAccount;
 import account.AccountManager;
 import exceptions.ValidationException;
+import services.DatasetKeys;
 import services.FilePersistenceService;
 import transaction.TransactionManager;
 import transaction.Transaction;
@@ -26,14 +33,25 @@ public class Main {
     private static Scanner scanner = new Scanner(System.in);
     private static AccountUI accountUI;
     private static CustomerUI customerUI;
+    // Shared so the account table keeps tracking changes between saves
+    private static FilePersistenceService persistenceService;
     static InputService inputService = new InputService(scanner);
 
     public static void main(String[] args) {
-        loadDataOnStartup();
+        List<String> options = Arrays.asList(args);
+        DatasetKeys keys = null;
+        int keystore = options.indexOf("--keystore");
+        if (keystore >= 0) {
+            keys = openKeystore(keystore + 1 < args.length ? args[keystore + 1] : null);
+            if (keys == null) {
+                return;
+            }
+        }
+        loadDataOnStartup(options.contains("--lazy"), keys);
 
         // Initialize UI components
-        accountUI = new AccountUI(accountManager, scanner);
-        customerUI = new CustomerUI(accountManager, scanner);
+        accountUI = new AccountUI(accountManager, customerManager, transactionManager, scanner);
+        customerUI = new CustomerUI(accountManager, customerManager, scanner);
 
 
         int choice;
@@ -523,7 +541,13 @@ public class Main {
         String accountNumber = scanner.nextLine();
 
         // Generate the statement
-        String statement = accountManager.generateAccountStatement(accountNumber, transactionManager);
+        String statement;
+        try {
+            statement = accountManager.generateAccountStatement(accountNumber, transactionManager);
+        } catch (UncheckedIOException e) {
+            CustomUtils.printError("Failed to read transaction history: " + e.getCause().getMessage());
+            return;
+        }
 
         // Display the statement
         CustomUtils.print(statement);
@@ -535,21 +559,24 @@ public class Main {
 
     private static void saveOrLoadData() {
         CustomUtils.printSection("SAVE DATA TO FILES");
+        persistenceService.printSaveStatus();
 
         CustomUtils.print("1. Save All Data (Accounts, Customers, Transactions)");
         CustomUtils.print("2. Save Accounts Only");
         CustomUtils.print("3. Save Customers Only");
         CustomUtils.print("4. Save Transactions Only");
-        CustomUtils.print("5. Back to Main Menu");
-
-        int choice = inputService.getIntInRange("Select option (1-5): ", 1, 5);
+        CustomUtils.print("5. Export All Data as Text");
+        CustomUtils.print("6. Verify Data Files");
+        CustomUtils.print("7. Back Up Data");
+        CustomUtils.print("8. Verify Latest Backup");
+        CustomUtils.print("9. Back to Main Menu");
 
-        FilePersistenceService persistenceService = new FilePersistenceService(
-                accountManager, customerManager, transactionManager);
+        int choice = inputService.getIntInRange("Select option (1-9): ", 1, 9);
 
         switch (choice) {
             case 1:
-                persistenceService.saveAllData();
+                // Written on the snapshot thread; the menu comes straight back
+                persistenceService.saveAllDataInBackground();
                 break;
             case 2:
                 persistenceService.saveAccountsOnly();
@@ -561,25 +588,91 @@ public class Main {
                 persistenceService.saveTransactionsOnly();
                 break;
             case 5:
+                persistenceService.exportAsText();
+                break;
+            case 6:
+                persistenceService.verifyDataset();
+                break;
+            case 7:
+                // Point-in-time copy written on the snapshot thread; work carries on meanwhile
+                persistenceService.backupInBackground();
+                break;
+            case 8:
+                persistenceService.verifyLatestBackup();
+                break;
+            case 9:
                 return;
         }
     }
 
-    private static void loadDataOnStartup() {
-        FilePersistenceService persistenceService = new FilePersistenceService(
-                accountManager, customerManager, transactionManager);
+    // Lazy loading keeps only the records in use in memory, for datasets too large to read in full.
+    // It gives up the in-memory indexes and live reloading, so it is only used when asked for.
+    private static void loadDataOnStartup(boolean lazyRequested, DatasetKeys keys) {
+        persistenceService = new FilePersistenceService(
+                accountManager, customerManager, transactionManager, FilePersistenceService.DataFormat.BINARY);
+        if (keys != null) {
+            persistenceService.encryptWith(keys);
+        }
 
+        boolean lazy = false;
         if (persistenceService.anyDataFileExists()) {
             CustomUtils.printSection("LOADING SAVED DATA");
-            persistenceService.loadAllData();
+            // A binary dataset can be opened on demand; anything else is read in full
+            lazy = lazyRequested && persistenceService.loadLazily();
+            if (!lazy) {
+                persistenceService.loadAllData();
+            }
         } else {
             CustomUtils.printSection("NO SAVED DATA FOUND");
             CustomUtils.print("Starting with empty dataset.");
         }
+
+        // From here on changed accounts and new transactions are written out as they accumulate
+        persistenceService.startBackgroundFlush();
+        // Corrected customers.txt or accounts.txt dropped into the dataset directory are applied live
+        if (!lazy) {
+            persistenceService.startReloading();
+        }
+    }
+
+
+    // The password comes from BANK_KEYSTORE_PASSWORD or is asked for on the console. Returns null,
+    // and the application stops, when the keystore cannot be opened, rather than saving in plaintext.
+    private static DatasetKeys openKeystore(String path) {
+        if (path == null) {
+            CustomUtils.printError("--keystore needs the path of the keystore file.");
+            return null;
+        }
+        char[] password;
+        String fromEnvironment = System.getenv("BANK_KEYSTORE_PASSWORD");
+        Console console = System.console();
+        if (fromEnvironment != null) {
+            password = fromEnvironment.toCharArray();
+        } else if (console != null) {
+            password = console.readPassword("Keystore password: ");
+            if (password == null) {
+                return null;
+            }
+        } else {
+            CustomUtils.printError("Set BANK_KEYSTORE_PASSWORD to open the keystore without a console.");
+            return null;
+        }
+
+        try {
+            return DatasetKeys.open(Path.of(path), password);
+        } catch (IOException e) {
+            CustomUtils.printError("Failed to open keystore: " + e.getMessage());
+            return null;
+        } finally {
+            Arrays.fill(password, ' ');
+        }
     }
 
 
     private static void exitApplication() {
+        persistenceService.stopReloading();
+        persistenceService.stopBackgroundFlush();
+        persistenceService.close();
         CustomUtils.print();
         CustomUtils.printSuccess("Thank you for using Bank Account Management System!");
         CustomUtils.print("Goodbye!");
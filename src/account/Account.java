@@ -11,6 +11,7 @@ public abstract class Account implements Transactable {
     private Customer customer;
     private double balance;
     private String status;
+    private AccountListener listener;
 
     private static int accountCounter = 0;
 
@@ -21,19 +22,65 @@ public abstract class Account implements Transactable {
         this.status = "Active";
     }
 
+    // Restores a persisted account, keeping its original account number
+    protected Account(String accountNumber, Customer customer, double balance, String status) {
+        this.accountNumber = accountNumber;
+        this.customer = customer;
+        this.balance = balance;
+        this.status = status;
+        advanceCounterPast(accountNumber);
+    }
+
     private String generateAccountNumber() {
         accountCounter++;
         return String.format("ACC%03d", accountCounter);
     }
 
+    // Keep generated numbers ahead of any restored ones so they never collide
+    private static synchronized void advanceCounterPast(String accountNumber) {
+        try {
+            int number = Integer.parseInt(accountNumber.substring(3));
+            if (number > accountCounter) {
+                accountCounter = number;
+            }
+        } catch (RuntimeException ignored) {
+            // Non-standard account numbers do not affect the counter
+        }
+    }
+
     // Getters and Setters
     public String getAccountNumber() { return accountNumber; }
     public Customer getCustomer() { return customer; }
     public double getBalance() { return balance; }
     public String getStatus() { return status; }
     public static int getAccountCounter() { return accountCounter; }
-    public void setBalance(double balance) { this.balance = balance; }
-    public void setStatus(String status) { this.status = status; }
+    public void setBalance(double balance) {
+        double oldBalance = this.balance;
+        this.balance = balance;
+        if (listener != null && oldBalance != balance) {
+            listener.balanceChanged(this, oldBalance, balance);
+        }
+    }
+
+    public void setStatus(String status) {
+        String oldStatus = this.status;
+        this.status = status;
+        if (listener != null && !status.equals(oldStatus)) {
+            listener.statusChanged(this, oldStatus, status);
+        }
+    }
+
+    // Replaces the owner with a corrected copy of the same customer
+    void setCustomer(Customer customer) {
+        Customer oldCustomer = this.customer;
+        this.customer = customer;
+        if (listener != null && oldCustomer != customer) {
+            listener.customerChanged(this, oldCustomer, customer);
+        }
+    }
+
+    // Set by the AccountManager that owns this account
+    void setListener(AccountListener listener) { this.listener = listener; }
 
     // Abstract methods
     public abstract void displayAccountDetails();
@@ -44,7 +91,7 @@ public abstract class Account implements Transactable {
         if (amount <= 0) {
             throw new IllegalArgumentException("Deposit amount must be positive");
         }
-        balance += amount;
+        setBalance(balance + amount);
     }
 
     public boolean withdraw(double amount) throws OverdraftExceededException {
@@ -54,7 +101,7 @@ public abstract class Account implements Transactable {
         if (amount > balance) {
             throw new InsufficientFundsException(accountNumber, balance, amount);
         }
-        balance -= amount;
+        setBalance(balance - amount);
         return true;
     }
 
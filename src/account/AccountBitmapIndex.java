@@ -0,0 +1,136 @@
+package account;
+
+import utils.CompressedBitmap;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Bitmap indexes over the accounts of an AccountManager for AccountQuery. Each
+ * account gets an ordinal in the order it was added; every value of an indexed
+ * attribute and every flag has a compressed bitmap of the ordinals having it.
+ * The values last indexed for an account are remembered, so an update clears
+ * only the bits that changed. Updates arrive from any thread and queries are
+ * answered under the index's own lock.
+ */
+final class AccountBitmapIndex {
+    private static final CompressedBitmap NONE = new CompressedBitmap();
+
+    enum Attribute {
+        TYPE(Account::getAccountType),
+        STATUS(Account::getStatus),
+        CUSTOMER_TYPE(account -> account.getCustomer().getCustomerType());
+
+        private final Function<Account, String> value;
+
+        Attribute(Function<Account, String> value) {
+            this.value = value;
+        }
+
+        String of(Account account) {
+            return value.apply(account);
+        }
+    }
+
+    enum Flag {
+        OVERDRAWN(account -> account.getBalance() < 0),
+        BELOW_SAVINGS_MINIMUM(account -> account instanceof SavingsAccount savings
+                && savings.getBalance() < savings.getMinimumBalance());
+
+        private final Predicate<Account> test;
+
+        Flag(Predicate<Account> test) {
+            this.test = test;
+        }
+
+        boolean test(Account account) {
+            return test.test(account);
+        }
+    }
+
+    private final List<Account> accounts = new ArrayList<>();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    // Attribute values as last indexed, by ordinal
+    private final Map<Attribute, List<String>> indexed = new EnumMap<>(Attribute.class);
+    private final Map<Attribute, Map<String, CompressedBitmap>> bitmaps = new EnumMap<>(Attribute.class);
+    private final Map<Flag, CompressedBitmap> flags = new EnumMap<>(Flag.class);
+
+    AccountBitmapIndex() {
+        for (Attribute attribute : Attribute.values()) {
+            indexed.put(attribute, new ArrayList<>());
+            bitmaps.put(attribute, new HashMap<>());
+        }
+        for (Flag flag : Flag.values()) {
+            flags.put(flag, new CompressedBitmap());
+        }
+    }
+
+    synchronized void add(Account account) {
+        int ordinal = accounts.size();
+        accounts.add(account);
+        ordinals.put(account.getAccountNumber(), ordinal);
+        for (Attribute attribute : Attribute.values()) {
+            String value = attribute.of(account);
+            indexed.get(attribute).add(value);
+            bitmaps.get(attribute).computeIfAbsent(value, v -> new CompressedBitmap()).add(ordinal);
+        }
+        for (Flag flag : Flag.values()) {
+            if (flag.test(account)) {
+                flags.get(flag).add(ordinal);
+            }
+        }
+    }
+
+    // Brings the account's bits in line with its current status, customer and balance
+    synchronized void update(Account account) {
+        Integer ordinal = ordinals.get(account.getAccountNumber());
+        if (ordinal == null) {
+            return;
+        }
+        for (Attribute attribute : Attribute.values()) {
+            String value = attribute.of(account);
+            String previous = indexed.get(attribute).set(ordinal, value);
+            if (!previous.equals(value)) {
+                bitmaps.get(attribute).get(previous).remove(ordinal);
+                bitmaps.get(attribute).computeIfAbsent(value, v -> new CompressedBitmap()).add(ordinal);
+            }
+        }
+        for (Flag flag : Flag.values()) {
+            if (flag.test(account)) {
+                flags.get(flag).add(ordinal);
+            } else {
+                flags.get(flag).remove(ordinal);
+            }
+        }
+    }
+
+    // Matching accounts in the order they were added
+    synchronized List<Account> select(AccountQuery query) {
+        CompressedBitmap matches = query.evaluate(this);
+        List<Account> results = new ArrayList<>(matches.cardinality());
+        matches.forEach(ordinal -> results.add(accounts.get(ordinal)));
+        return results;
+    }
+
+    synchronized int count(AccountQuery query) {
+        return query.evaluate(this).cardinality();
+    }
+
+    // The index's own bitmaps; callers hold the lock and must not change them
+    CompressedBitmap bitmap(Attribute attribute, String value) {
+        return bitmaps.get(attribute).getOrDefault(value, NONE);
+    }
+
+    CompressedBitmap bitmap(Flag flag) {
+        return flags.get(flag);
+    }
+
+    CompressedBitmap all() {
+        return CompressedBitmap.range(accounts.size());
+    }
+}
@@ -0,0 +1,15 @@
+package account;
+
+import customer.Customer;
+
+// Callbacks for accounts registered with an AccountManager
+public interface AccountListener {
+
+    default void accountAdded(Account account) {}
+
+    default void balanceChanged(Account account, double oldBalance, double newBalance) {}
+
+    default void statusChanged(Account account, String oldStatus, String newStatus) {}
+
+    default void customerChanged(Account account, Customer oldCustomer, Customer newCustomer) {}
+}
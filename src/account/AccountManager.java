@@ -1,14 +1,77 @@
 package account;
 
+import customer.Customer;
 import transaction.Transaction;
 import transaction.TransactionManager;
 import utils.CustomUtils;
+import utils.Leaderboard;
+import utils.RecordFormatter;
+import utils.TrigramIndex;
+import utils.WTinyLfuCache;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class AccountManager {
     private final Map<String, Account> accounts; // Key: accountNumber, Value: Account
     private final List<Account> accountList; // For maintaining order and easy iteration
+    private final List<AccountListener> listeners = new CopyOnWriteArrayList<>();
+    private final TrigramIndex<Account> customerNameIndex =
+            new TrigramIndex<>(account -> account.getCustomer().getName());
+    // Every account ranked by balance, moved on each balance change
+    private final Leaderboard<Account> balanceLeaders = new Leaderboard<>();
+    // Accounts and running balance by account type, and the bank-wide balance; the lists are
+    // guarded by this manager, the totals move without it on every balance change
+    private final Map<String, TypeTotals> byType = new ConcurrentHashMap<>();
+    private final DoubleAdder totalBalance = new DoubleAdder();
+    // Attribute bitmaps over account ordinals for AccountQuery
+    private final AccountBitmapIndex bitmapIndex = new AccountBitmapIndex();
+
+    // Lazy mode: accounts stay on disk and only the ones in use are cached
+    private AccountStore store;
+    private WTinyLfuCache<String, Account> cache;
+
+    // Every managed account reports to this dispatcher, which fans out to the listeners
+    private final AccountListener dispatcher = new AccountListener() {
+        @Override
+        public void balanceChanged(Account account, double oldBalance, double newBalance) {
+            if (store == null) {
+                balanceLeaders.update(account.getAccountNumber(), account, account.getBalance());
+                TypeTotals totals = byType.get(account.getAccountType());
+                if (totals != null) {
+                    totals.balance.add(newBalance - oldBalance);
+                    totalBalance.add(newBalance - oldBalance);
+                }
+                bitmapIndex.update(account);
+            }
+            for (AccountListener listener : listeners) {
+                listener.balanceChanged(account, oldBalance, newBalance);
+            }
+        }
+
+        @Override
+        public void statusChanged(Account account, String oldStatus, String newStatus) {
+            if (store == null) {
+                bitmapIndex.update(account);
+            }
+            for (AccountListener listener : listeners) {
+                listener.statusChanged(account, oldStatus, newStatus);
+            }
+        }
+
+        @Override
+        public void customerChanged(Account account, Customer oldCustomer, Customer newCustomer) {
+            if (store == null) {
+                bitmapIndex.update(account);
+            }
+            for (AccountListener listener : listeners) {
+                listener.customerChanged(account, oldCustomer, newCustomer);
+            }
+        }
+    };
 
     public AccountManager() {
         this.accounts = new HashMap<>();
@@ -20,31 +83,163 @@ public class AccountManager {
         this.accountList = new ArrayList<>(initialCapacity);
     }
 
-    public boolean addAccount(Account account) {
+    // Synchronized with getAccounts, which background saves call from their own thread
+    public synchronized boolean addAccount(Account account) {
         String accountNumber = account.getAccountNumber();
 
-        // Check if account already exists
-        if (accounts.containsKey(accountNumber)) {
-            return false;
+        if (store != null) {
+            // Listeners (the account table) take the new account into the store
+            if (findAccount(accountNumber) != null) {
+                return false;
+            }
+            account.setListener(dispatcher);
+            cache.put(accountNumber, account);
+        } else {
+            // Check if account already exists
+            if (accounts.containsKey(accountNumber)) {
+                return false;
+            }
+
+            accounts.put(accountNumber, account);
+            accountList.add(account);
+            customerNameIndex.put(accountNumber, account);
+            balanceLeaders.update(accountNumber, account, account.getBalance());
+            TypeTotals totals = byType.computeIfAbsent(account.getAccountType(), type -> new TypeTotals());
+            totals.accounts.add(account);
+            totals.balance.add(account.getBalance());
+            totalBalance.add(account.getBalance());
+            bitmapIndex.add(account);
+            account.setListener(dispatcher);
         }
 
-        accounts.put(accountNumber, account);
-        accountList.add(account);
+        for (AccountListener listener : listeners) {
+            listener.accountAdded(account);
+        }
         return true;
     }
 
+    // Takes in accounts reloaded from an edited file as one step, so getAccounts sees all of them
+    // or none. Known accounts are updated in place, so operations already holding one carry on
+    // with it. Returns how many accounts were added or changed; a changed type is refused.
+    public synchronized int applyReload(List<Account> reloaded) {
+        int applied = 0;
+        for (Account account : reloaded) {
+            Account existing = findAccount(account.getAccountNumber());
+            if (existing == null) {
+                if (addAccount(account)) {
+                    applied++;
+                }
+            } else if (!existing.getAccountType().equals(account.getAccountType())) {
+                CustomUtils.printError("Reload cannot change the type of account " + account.getAccountNumber());
+            } else if (existing.getBalance() != account.getBalance()
+                    || !existing.getStatus().equals(account.getStatus())
+                    || existing.getCustomer() != account.getCustomer()) {
+                changeCustomer(existing, account.getCustomer());
+                existing.setBalance(account.getBalance());
+                existing.setStatus(account.getStatus());
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    // Points every account of a reloaded customer at the new copy; returns the accounts changed
+    public synchronized int replaceCustomers(Map<String, Customer> customers) {
+        int changed = 0;
+        for (Account account : currentAccounts()) {
+            Customer replacement = customers.get(account.getCustomer().getCustomerId());
+            if (replacement != null && replacement != account.getCustomer()) {
+                changeCustomer(account, replacement);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    // Re-indexes the account for name search only when the name changed, so it keeps its place
+    private void changeCustomer(Account account, Customer customer) {
+        String oldName = account.getCustomer().getName();
+        account.setCustomer(customer);
+        if (store == null && !oldName.equals(customer.getName())) {
+            customerNameIndex.put(account.getAccountNumber(), account);
+        }
+    }
+
+    public void addAccountListener(AccountListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeAccountListener(AccountListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Switches to lazy mode: accounts are read from the store when first looked up
+    public void enableLazyLoading(AccountStore store, int cacheSize) {
+        if (!accountList.isEmpty()) {
+            throw new IllegalStateException("Lazy loading must be enabled before accounts are added");
+        }
+        this.store = store;
+        this.cache = new WTinyLfuCache<>(cacheSize);
+    }
+
+    public boolean isLazy() {
+        return store != null;
+    }
+
+    // Cache metrics in lazy mode, null otherwise
+    public WTinyLfuCache<String, Account> getCache() {
+        return cache;
+    }
+
     public Account findAccount(String accountNumber) {
+        if (store != null) {
+            return cache.get(accountNumber, this::faultIn);
+        }
         return accounts.get(accountNumber); // Returns null if not found
     }
 
+    private Account faultIn(String accountNumber) {
+        Account account = store.loadAccount(accountNumber);
+        if (account != null) {
+            account.setListener(dispatcher);
+        }
+        return account;
+    }
+
+    // Every account; in lazy mode this streams the whole store, preferring cached instances
+    private List<Account> currentAccounts() {
+        if (store == null) {
+            return accountList;
+        }
+        List<Account> all = new ArrayList<>();
+        forEachAccount(all::add);
+        return all;
+    }
+
+    // Visits every account once without collecting them; in lazy mode one pass over the store
+    public void forEachAccount(Consumer<Account> action) {
+        if (store == null) {
+            getAccounts().forEach(action);
+            return;
+        }
+        store.forEachAccount(stored -> {
+            Account cached = cache.getIfPresent(stored.getAccountNumber());
+            if (cached == null) {
+                stored.setListener(dispatcher);
+            }
+            action.accept(cached != null ? cached : stored);
+        });
+    }
+
     // Display all accounts
     public void viewAllAccounts() {
-        if (accountList.isEmpty()) {
+        List<Account> allAccounts = currentAccounts();
+        if (allAccounts.isEmpty()) {
             CustomUtils.print("No accounts found.");
             return;
         }
 
-        double totalBalance = accountList.stream()
+        double totalBalance = store == null ? getTotalBalance() : allAccounts.stream()
                 .mapToDouble(Account::getBalance)
                 .sum();
 
@@ -53,28 +248,73 @@ public class AccountManager {
         CustomUtils.print("─".repeat(80));
 
         // Use forEach for printing
-        accountList.forEach(account -> {
+        allAccounts.forEach(account -> {
             account.displayAccountDetails();
             CustomUtils.print("─".repeat(80));
         });
 
-        CustomUtils.print("Total Accounts: " + accountList.size());
-        CustomUtils.print("Total Bank Balance: $" + String.format("%.2f", totalBalance));
+        CustomUtils.print("Total Accounts: " + allAccounts.size());
+        CustomUtils.print(new RecordFormatter().append("Total Bank Balance: $")
+                .appendMoneyGrouped(totalBalance).toString());
+    }
+
+    // Up to limit accounts, highest balance first; accounts with equal balances in the order added
+    public List<Account> getTopAccountsByBalance(int limit) {
+        if (store == null) {
+            return balanceLeaders.top(limit);
+        }
+
+        return currentAccounts().stream()
+                .sorted(Comparator.comparingDouble(Account::getBalance).reversed())
+                .limit(Math.max(0, limit))
+                .collect(Collectors.toList());
     }
 
     // Search accounts by customer name
     public List<Account> searchByCustomerName(String customerName) {
+        if (store == null) {
+            synchronized (this) {
+                return customerNameIndex.search(customerName);
+            }
+        }
+
         String searchName = customerName.toLowerCase();
 
-        return accountList.stream()
+        return currentAccounts().stream()
                 .filter(account ->
                         account.getCustomer().getName().toLowerCase().contains(searchName))
                 .collect(Collectors.toList());
     }
 
-    // Search accounts by account type
+    // Accounts matching the query, in the order they were added
+    public List<Account> findAccounts(AccountQuery query) {
+        if (store == null) {
+            return bitmapIndex.select(query);
+        }
+
+        return currentAccounts().stream()
+                .filter(query::matches)
+                .collect(Collectors.toList());
+    }
+
+    // Number of accounts matching the query, without listing them
+    public int countAccounts(AccountQuery query) {
+        if (store == null) {
+            return bitmapIndex.count(query);
+        }
+        return findAccounts(query).size();
+    }
+
+    // Search accounts by account type, in the order they were added
     public List<Account> searchByAccountType(String accountType) {
-        return accountList.stream()
+        if (store == null) {
+            synchronized (this) {
+                TypeTotals totals = byType.get(accountType);
+                return totals == null ? new ArrayList<>() : new ArrayList<>(totals.accounts);
+            }
+        }
+
+        return currentAccounts().stream()
                 .filter(account -> account.getAccountType().equals(accountType))
                 .collect(Collectors.toList());
     }
@@ -82,7 +322,12 @@ public class AccountManager {
 
     // Get total balance by account type
     public double getTotalBalanceByAccountType(String accountType) {
-        return accountList.stream()
+        if (store == null) {
+            TypeTotals totals = byType.get(accountType);
+            return totals == null ? 0 : totals.balance.sum();
+        }
+
+        return currentAccounts().stream()
                 .filter(account -> account.getAccountType().equals(accountType))
                 .mapToDouble(Account::getBalance)
                 .sum();
@@ -95,7 +340,7 @@ public class AccountManager {
             return "Error: Account not found!";
         }
 
-        StringBuilder statement = new StringBuilder();
+        RecordFormatter statement = new RecordFormatter(1024);
 
         // Line 1: Section header
         statement.append("GENERATE ACCOUNT STATEMENT\n");
@@ -116,7 +361,7 @@ public class AccountManager {
 
         // Line 5: Current balance
         statement.append("Current Balance: $")
-                .append(String.format("%.2f", account.getBalance()))
+                .appendMoneyGrouped(account.getBalance())
                 .append("\n");
 
         // Line 6: Blank line
@@ -150,13 +395,13 @@ public class AccountManager {
                 // Format: TXN001 | DEPOSIT  | +$1,500.00 | $6,750.00
                 statement.append(transaction.getTransactionId())
                         .append(" | ")
-                        .append(String.format("%-10s", transaction.getType()))
+                        .appendPadded(transaction.getType(), 10)
                         .append(" | ")
                         .append(sign)
                         .append("$")
-                        .append(String.format("%.2f", transaction.getAmount()))
+                        .appendMoneyGrouped(transaction.getAmount())
                         .append(" | $")
-                        .append(String.format("%.2f", transaction.getBalanceAfter()))
+                        .appendMoneyGrouped(transaction.getBalanceAfter())
                         .append("\n");
             }
         }
@@ -164,9 +409,9 @@ public class AccountManager {
         // Last separator line
         statement.append("_______".repeat(1)).append("\n");
 
-        // Calculate net change
-        double totalDeposits = transactionManager.calculateTotalDeposits(accountNumber);
-        double totalWithdrawals = transactionManager.calculateTotalWithdrawals(accountNumber);
+        // Calculate net change from the transactions already read
+        double totalDeposits = TransactionManager.sumByType(accountTransactions, "DEPOSIT");
+        double totalWithdrawals = TransactionManager.sumByType(accountTransactions, "WITHDRAWAL");
         double netChange = totalDeposits - totalWithdrawals;
 
         // Net Change line
@@ -174,21 +419,45 @@ public class AccountManager {
         statement.append("Net Change: ")
                 .append(netChangeSign)
                 .append("$")
-                .append(String.format("%.2f", Math.abs(netChange)))
+                .appendMoneyGrouped(Math.abs(netChange))
                 .append("\n");
 
         return statement.toString();
     }
 
     // Get all accounts as a List (better than array for collections)
-    public List<Account> getAccounts() {
-        return new ArrayList<>(accountList);
+    public synchronized List<Account> getAccounts() {
+        return store != null ? currentAccounts() : new ArrayList<>(accountList);
+    }
+
+    // Balance of every account in the bank
+    public double getTotalBalance() {
+        if (store == null) {
+            return totalBalance.sum();
+        }
+        return currentAccounts().stream()
+                .mapToDouble(Account::getBalance)
+                .sum();
+    }
+
+    // Number of accounts of a type
+    public int getAccountCountByType(String accountType) {
+        if (store == null) {
+            synchronized (this) {
+                TypeTotals totals = byType.get(accountType);
+                return totals == null ? 0 : totals.accounts.size();
+            }
+        }
+        return searchByAccountType(accountType).size();
     }
 
     // Get account count
     public int getActualAccountCount() {
-        return accountList.size();
+        return store != null ? (int) store.accountCount() : accountList.size();
     }
 
-
-}
\ No newline at end of file
+    private static final class TypeTotals {
+        final List<Account> accounts = new ArrayList<>();
+        final DoubleAdder balance = new DoubleAdder();
+    }
+}
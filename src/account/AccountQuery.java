@@ -0,0 +1,160 @@
+package account;
+
+import utils.CompressedBitmap;
+
+/**
+ * A condition on accounts, built from attribute tests with and, or and not:
+ *
+ * <pre>
+ * AccountQuery.type("Checking").and(AccountQuery.customerType("Premium"))
+ *         .and(AccountQuery.status("Active")).and(AccountQuery.overdrawn())
+ * </pre>
+ *
+ * AccountManager answers it from bitmap indexes over its accounts, combining
+ * one bitmap per test and reading only the accounts left at the end; in lazy
+ * mode every account is tested in turn.
+ */
+public abstract class AccountQuery {
+
+    public static AccountQuery type(String accountType) {
+        return new AttributeIs(AccountBitmapIndex.Attribute.TYPE, accountType);
+    }
+
+    public static AccountQuery status(String status) {
+        return new AttributeIs(AccountBitmapIndex.Attribute.STATUS, status);
+    }
+
+    public static AccountQuery customerType(String customerType) {
+        return new AttributeIs(AccountBitmapIndex.Attribute.CUSTOMER_TYPE, customerType);
+    }
+
+    // Balance below zero
+    public static AccountQuery overdrawn() {
+        return new FlagSet(AccountBitmapIndex.Flag.OVERDRAWN);
+    }
+
+    // Savings accounts holding less than their minimum balance
+    public static AccountQuery belowSavingsMinimum() {
+        return new FlagSet(AccountBitmapIndex.Flag.BELOW_SAVINGS_MINIMUM);
+    }
+
+    public AccountQuery and(AccountQuery other) {
+        return new And(this, other);
+    }
+
+    public AccountQuery or(AccountQuery other) {
+        return new Or(this, other);
+    }
+
+    public AccountQuery not() {
+        return new Not(this);
+    }
+
+    abstract boolean matches(Account account);
+
+    // The ordinals of the matching accounts; the result may be one of the index's own bitmaps
+    abstract CompressedBitmap evaluate(AccountBitmapIndex index);
+
+    private static final class AttributeIs extends AccountQuery {
+        private final AccountBitmapIndex.Attribute attribute;
+        private final String value;
+
+        AttributeIs(AccountBitmapIndex.Attribute attribute, String value) {
+            this.attribute = attribute;
+            this.value = value;
+        }
+
+        @Override
+        boolean matches(Account account) {
+            return attribute.of(account).equals(value);
+        }
+
+        @Override
+        CompressedBitmap evaluate(AccountBitmapIndex index) {
+            return index.bitmap(attribute, value);
+        }
+    }
+
+    private static final class FlagSet extends AccountQuery {
+        private final AccountBitmapIndex.Flag flag;
+
+        FlagSet(AccountBitmapIndex.Flag flag) {
+            this.flag = flag;
+        }
+
+        @Override
+        boolean matches(Account account) {
+            return flag.test(account);
+        }
+
+        @Override
+        CompressedBitmap evaluate(AccountBitmapIndex index) {
+            return index.bitmap(flag);
+        }
+    }
+
+    private static final class And extends AccountQuery {
+        private final AccountQuery left;
+        private final AccountQuery right;
+
+        And(AccountQuery left, AccountQuery right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean matches(Account account) {
+            return left.matches(account) && right.matches(account);
+        }
+
+        // A negated side is subtracted rather than complemented first
+        @Override
+        CompressedBitmap evaluate(AccountBitmapIndex index) {
+            if (right instanceof Not negated) {
+                return left.evaluate(index).andNot(negated.query.evaluate(index));
+            }
+            if (left instanceof Not negated) {
+                return right.evaluate(index).andNot(negated.query.evaluate(index));
+            }
+            return left.evaluate(index).and(right.evaluate(index));
+        }
+    }
+
+    private static final class Or extends AccountQuery {
+        private final AccountQuery left;
+        private final AccountQuery right;
+
+        Or(AccountQuery left, AccountQuery right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean matches(Account account) {
+            return left.matches(account) || right.matches(account);
+        }
+
+        @Override
+        CompressedBitmap evaluate(AccountBitmapIndex index) {
+            return left.evaluate(index).or(right.evaluate(index));
+        }
+    }
+
+    private static final class Not extends AccountQuery {
+        private final AccountQuery query;
+
+        Not(AccountQuery query) {
+            this.query = query;
+        }
+
+        @Override
+        boolean matches(Account account) {
+            return !query.matches(account);
+        }
+
+        @Override
+        CompressedBitmap evaluate(AccountBitmapIndex index) {
+            return index.all().andNot(query.evaluate(index));
+        }
+    }
+}
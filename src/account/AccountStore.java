@@ -0,0 +1,15 @@
+package account;
+
+import java.util.function.Consumer;
+
+// On-disk accounts that an AccountManager in lazy mode faults in on demand
+public interface AccountStore {
+
+    // The stored account, or null when there is none with this number
+    Account loadAccount(String accountNumber);
+
+    long accountCount();
+
+    // Streams every account in storage order without caching it
+    void forEachAccount(Consumer<Account> action);
+}
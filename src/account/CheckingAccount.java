@@ -14,6 +14,13 @@ public class CheckingAccount extends Account {
         this.monthlyFee = 10.0;
     }
 
+    // Restores a persisted account
+    public CheckingAccount(String accountNumber, Customer customer, double balance, String status) {
+        super(accountNumber, customer, balance, status);
+        this.overdraftLimit = 1000.0;
+        this.monthlyFee = 10.0;
+    }
+
     // Getters
     public double getOverdraftLimit() {
         return overdraftLimit;
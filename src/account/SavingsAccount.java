@@ -20,6 +20,13 @@ public class SavingsAccount extends Account {
         }
     }
 
+    // Restores a persisted account; the opening deposit rule does not apply
+    public SavingsAccount(String accountNumber, Customer customer, double balance, String status) {
+        super(accountNumber, customer, balance, status);
+        this.interestRate = 3.5;
+        this.minimumBalance = 500.0;
+    }
+
     // Getters
     public double getInterestRate() {
         return interestRate;
@@ -0,0 +1,101 @@
+package customer;
+
+import java.util.Arrays;
+
+/**
+ * Customers by age for CustomerManager: one bucket per year of age holding the
+ * customers' ordinals in registration order, prefix counts over the buckets,
+ * and the running sum of ages. Range counts and the average are O(1) and a
+ * range listing visits only the buckets in range. Ages below zero are counted
+ * as zero. Guarded by the owning manager.
+ */
+final class AgeIndex {
+    private int[][] members = new int[121][];
+    private int[] sizes = new int[121];
+    // prefix[a] is the number of customers younger than a
+    private int[] prefix = new int[122];
+    private long ageSum;
+    private int count;
+
+    void add(int age, int ordinal) {
+        int bucket = bucket(age);
+        if (bucket >= sizes.length) {
+            int length = Math.max(bucket + 1, sizes.length * 2);
+            members = Arrays.copyOf(members, length);
+            sizes = Arrays.copyOf(sizes, length);
+            int[] grown = Arrays.copyOf(prefix, length + 1);
+            Arrays.fill(grown, prefix.length, grown.length, prefix[prefix.length - 1]);
+            prefix = grown;
+        }
+
+        int[] list = members[bucket];
+        int size = sizes[bucket];
+        if (list == null || size == list.length) {
+            list = members[bucket] = list == null ? new int[4] : Arrays.copyOf(list, size * 2);
+        }
+        // Ordinals mostly arrive in increasing order; a re-registered customer is slotted in
+        int position = size;
+        while (position > 0 && list[position - 1] > ordinal) {
+            position--;
+        }
+        System.arraycopy(list, position, list, position + 1, size - position);
+        list[position] = ordinal;
+        sizes[bucket]++;
+
+        for (int a = bucket + 1; a < prefix.length; a++) {
+            prefix[a]++;
+        }
+        ageSum += age;
+        count++;
+    }
+
+    void remove(int age, int ordinal) {
+        int bucket = bucket(age);
+        int[] list = members[bucket];
+        int position = Arrays.binarySearch(list, 0, sizes[bucket], ordinal);
+        if (position < 0) {
+            return;
+        }
+        System.arraycopy(list, position + 1, list, position, sizes[bucket] - position - 1);
+        sizes[bucket]--;
+
+        for (int a = bucket + 1; a < prefix.length; a++) {
+            prefix[a]--;
+        }
+        ageSum -= age;
+        count--;
+    }
+
+    int count(int minAge, int maxAge) {
+        int from = clamp(minAge);
+        int to = clamp(maxAge + 1L);
+        return from < to ? prefix[to] - prefix[from] : 0;
+    }
+
+    // Ordinals of the customers aged minAge to maxAge, youngest first, in registration order
+    // within an age
+    int[] ordinals(int minAge, int maxAge) {
+        int[] result = new int[count(minAge, maxAge)];
+        int filled = 0;
+        for (int bucket = clamp(minAge); bucket < clamp(maxAge + 1L); bucket++) {
+            if (sizes[bucket] > 0) {
+                System.arraycopy(members[bucket], 0, result, filled, sizes[bucket]);
+                filled += sizes[bucket];
+            }
+        }
+        return result;
+    }
+
+    double average() {
+        return count == 0 ? 0.0 : (double) ageSum / count;
+    }
+
+    private static int bucket(int age) {
+        return Math.max(0, age);
+    }
+
+    // A bucket boundary within the index
+    private int clamp(long age) {
+        return (int) Math.max(0, Math.min(age, sizes.length));
+    }
+}
@@ -17,11 +17,33 @@ public abstract class Customer {
         this.address = address;
     }
 
+    // Restores a persisted customer, keeping its original ID
+    protected Customer(String customerId, String name, int age, String contact, String address) {
+        this.customerId = customerId;
+        this.name = name;
+        this.age = age;
+        this.contact = contact;
+        this.address = address;
+        advanceCounterPast(customerId);
+    }
+
     private String generateCustomerId() {
         customerCounter++;
         return String.format("CUS%03d", customerCounter);
     }
 
+    // Keep generated IDs ahead of any restored ones so they never collide
+    private static synchronized void advanceCounterPast(String customerId) {
+        try {
+            int number = Integer.parseInt(customerId.substring(3));
+            if (number > customerCounter) {
+                customerCounter = number;
+            }
+        } catch (RuntimeException ignored) {
+            // Non-standard IDs do not affect the counter
+        }
+    }
+
     // Getters
     public String getCustomerId() {
         return customerId;
@@ -1,51 +1,399 @@
 package customer;
 
 import account.Account;
+import account.AccountListener;
 import account.AccountManager;
+import utils.InputValidator;
+import utils.Leaderboard;
+import utils.LongIntHashMap;
+import utils.PrefixIndex;
+import utils.TrigramIndex;
+import utils.WTinyLfuCache;
 import java.util.*;
 
 public class CustomerManager {
+    // Orders autocomplete suggestions
+    public enum Ranking { TOTAL_BALANCE, RECENT_ACTIVITY }
+
     private AccountManager accountManager;
 
+    // Registry kept up to date as accounts are added, in the order customers first appeared.
+    // Guarded by this manager; the listener runs while AccountManager holds its own lock, so
+    // nothing here calls back into AccountManager while holding this one.
+    private final Map<String, Customer> customers = new LinkedHashMap<>();
+    private final Map<String, List<Account>> accountsByCustomer = new HashMap<>();
+    private TrigramIndex<Customer> nameIndex = new TrigramIndex<>(Customer::getName);
+    private TrigramIndex<Customer> addressIndex = new TrigramIndex<>(Customer::getAddress);
+    // Completions for names and customer IDs, and for account numbers, scored by balance and by
+    // the clock value of their last balance change
+    private PrefixIndex<Customer> customerCompletions = new PrefixIndex<>(Ranking.values().length);
+    private PrefixIndex<Account> accountCompletions = new PrefixIndex<>(Ranking.values().length);
+    private long activityClock;
+    // Every customer ever registered gets an ordinal; the contact index maps contact keys to them
+    private final List<Customer> customersByOrdinal = new ArrayList<>();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private LongIntHashMap contactIndex = new LongIntHashMap();
+    // Customers sharing a contact key are chained by ordinal, ascending from the one the index holds
+    private int[] nextSameContact = new int[16];
+    private AgeIndex ageIndex = new AgeIndex();
+    // Running total balance by ordinal, moved by every balance change, and the customers ordered by it
+    private double[] balanceTotals = new double[16];
+    private TreeSet<BalanceKey> byBalance = new TreeSet<>();
+    // Registered customers ranked by how many accounts they hold
+    private Leaderboard<Customer> accountCountLeaders = new Leaderboard<>();
+    // Read without the lock, so the statistics never wait for registration
+    private volatile StatisticsCounters statistics = new StatisticsCounters();
+
+    // Lazy mode: customers stay on disk and only the ones in use are cached
+    private CustomerStore store;
+    private WTinyLfuCache<String, Customer> cache;
+
     public CustomerManager(AccountManager accountManager) {
         this.accountManager = accountManager;
+        accountManager.addAccountListener(new AccountListener() {
+            @Override
+            public void accountAdded(Account account) {
+                register(account);
+            }
+
+            @Override
+            public void balanceChanged(Account account, double oldBalance, double newBalance) {
+                recordActivity(account, newBalance - oldBalance);
+            }
+
+            @Override
+            public void statusChanged(Account account, String oldStatus, String newStatus) {
+                StatisticsCounters counters = statistics;
+                if (store == null) {
+                    counters.begin();
+                    counters.statusChanged(oldStatus, newStatus);
+                    counters.end();
+                }
+            }
+
+            @Override
+            public void customerChanged(Account account, Customer oldCustomer, Customer newCustomer) {
+                replace(account, oldCustomer, newCustomer);
+            }
+        });
+        for (Account account : accountManager.getAccounts()) {
+            register(account);
+        }
     }
 
-    // Get all unique customers
-    public List<Customer> getAllCustomers() {
-        List<Account> accounts = accountManager.getAccounts();
-        Set<String> processedCustomerIds = new HashSet<>();
-        List<Customer> customers = new ArrayList<>();
+    private synchronized void register(Account account) {
+        if (store != null) {
+            return;
+        }
+        Customer customer = account.getCustomer();
+        statistics.begin();
+        try {
+            if (customers.putIfAbsent(customer.getCustomerId(), customer) == null) {
+                index(customer);
+            }
+            accountsByCustomer.computeIfAbsent(customer.getCustomerId(), id -> new ArrayList<>(2)).add(account);
+            adjustTotal(ordinals.get(customer.getCustomerId()), account.getBalance());
+            recount(customer.getCustomerId());
+            statistics.accountAdded(account);
+        } finally {
+            statistics.end();
+        }
+        accountCompletions.put(account.getAccountNumber(), account, account.getBalance(), ++activityClock);
+        rescore(customers.get(customer.getCustomerId()));
+    }
 
-        for (Account account : accounts) {
-            Customer customer = account.getCustomer();
-            String customerId = customer.getCustomerId();
+    private synchronized void recordActivity(Account account, double delta) {
+        if (store != null) {
+            return;
+        }
+        Integer ordinal = ordinals.get(account.getCustomer().getCustomerId());
+        if (ordinal != null) {
+            adjustTotal(ordinal, delta);
+        }
+        activityClock++;
+        accountCompletions.setScore(account, Ranking.TOTAL_BALANCE.ordinal(), account.getBalance());
+        accountCompletions.setScore(account, Ranking.RECENT_ACTIVITY.ordinal(), activityClock);
+        Customer customer = customers.get(account.getCustomer().getCustomerId());
+        if (customer != null) {
+            rescore(customer);
+        }
+    }
+
+    // Brings the customer's suggestion scores up to date, counting it as the latest activity
+    private void rescore(Customer customer) {
+        customerCompletions.setScore(customer, Ranking.TOTAL_BALANCE.ordinal(),
+                registeredBalance(customer.getCustomerId()));
+        customerCompletions.setScore(customer, Ranking.RECENT_ACTIVITY.ordinal(), activityClock);
+    }
 
-            if (!processedCustomerIds.contains(customerId)) {
-                customers.add(customer);
-                processedCustomerIds.add(customerId);
+    // A corrected copy of a known customer takes the original's place; an account moved to another
+    // customer is moved between their lists
+    private synchronized void replace(Account account, Customer oldCustomer, Customer newCustomer) {
+        if (store != null) {
+            return;
+        }
+        statistics.begin();
+        try {
+            move(account, oldCustomer, newCustomer);
+        } finally {
+            statistics.end();
+        }
+    }
+
+    private void move(Account account, Customer oldCustomer, Customer newCustomer) {
+        String oldId = oldCustomer.getCustomerId();
+        String newId = newCustomer.getCustomerId();
+        if (oldId.equals(newId)) {
+            Customer registered = customers.get(newId);
+            if (registered != null && registered != newCustomer) {
+                customers.put(newId, newCustomer);
+                index(newCustomer);
+                recount(newId);
             }
+            return;
         }
 
-        return customers;
+        List<Account> previous = accountsByCustomer.get(oldId);
+        Customer left = customers.get(oldId);
+        if (previous != null && previous.remove(account) && previous.isEmpty()) {
+            accountsByCustomer.remove(oldId);
+            customers.remove(oldId);
+            unindex(left);
+        } else if (left != null) {
+            adjustTotal(ordinals.get(oldId), -account.getBalance());
+            recount(oldId);
+            rescore(left);
+        }
+        Customer registered = customers.get(newId);
+        if (registered != newCustomer) {
+            customers.put(newId, newCustomer);
+            index(newCustomer);
+        }
+        accountsByCustomer.computeIfAbsent(newId, id -> new ArrayList<>(2)).add(account);
+        adjustTotal(ordinals.get(newId), account.getBalance());
+        recount(newId);
+        rescore(newCustomer);
+    }
+
+    // Adds the customer to every index, in place of the customer registered under its ID before
+    private void index(Customer customer) {
+        String customerId = customer.getCustomerId();
+        Integer ordinal = ordinals.get(customerId);
+        if (ordinal == null) {
+            ordinal = customersByOrdinal.size();
+            customersByOrdinal.add(customer);
+            ordinals.put(customerId, ordinal);
+            if (ordinal == balanceTotals.length) {
+                balanceTotals = Arrays.copyOf(balanceTotals, ordinal * 2);
+                nextSameContact = Arrays.copyOf(nextSameContact, ordinal * 2);
+            }
+            byBalance.add(new BalanceKey(0, ordinal));
+        } else {
+            Customer previous = customersByOrdinal.set(ordinal, customer);
+            customerCompletions.remove(previous);
+            unindexContact(previous, ordinal);
+            ageIndex.remove(previous.getAge(), ordinal);
+            statistics.customerRemoved(previous);
+        }
+        statistics.customerAdded(customer);
+        ageIndex.add(customer.getAge(), ordinal);
+
+        nameIndex.put(customerId, customer);
+        addressIndex.put(customerId, customer);
+        double[] scores = {registeredBalance(customerId), activityClock};
+        customerCompletions.put(customer.getName(), customer, scores);
+        customerCompletions.put(customerId, customer, scores);
+        indexContact(customer, ordinal);
+    }
+
+    private void unindex(Customer customer) {
+        String customerId = customer.getCustomerId();
+        int ordinal = ordinals.remove(customerId);
+        customersByOrdinal.set(ordinal, null);
+        byBalance.remove(new BalanceKey(balanceTotals[ordinal], ordinal));
+        balanceTotals[ordinal] = 0;
+        accountCountLeaders.remove(customerId);
+        nameIndex.remove(customerId);
+        addressIndex.remove(customerId);
+        customerCompletions.remove(customer);
+        unindexContact(customer, ordinal);
+        ageIndex.remove(customer.getAge(), ordinal);
+        statistics.customerRemoved(customer);
+    }
+
+    // Chains the customer among those sharing its contact; the earliest registered answers lookups
+    private void indexContact(Customer customer, int ordinal) {
+        long contactKey = InputValidator.contactKey(customer.getContact());
+        if (contactKey < 0) {
+            return;
+        }
+        int head = contactIndex.get(contactKey);
+        if (head == LongIntHashMap.MISSING || ordinal < head) {
+            nextSameContact[ordinal] = head;
+            contactIndex.put(contactKey, ordinal);
+            return;
+        }
+        int at = head;
+        while (nextSameContact[at] != LongIntHashMap.MISSING && nextSameContact[at] < ordinal) {
+            at = nextSameContact[at];
+        }
+        nextSameContact[ordinal] = nextSameContact[at];
+        nextSameContact[at] = ordinal;
+    }
+
+    // Unchains the customer; when it answered lookups, the next customer sharing the contact does
+    private void unindexContact(Customer customer, int ordinal) {
+        long contactKey = InputValidator.contactKey(customer.getContact());
+        if (contactKey < 0) {
+            return;
+        }
+        int head = contactIndex.get(contactKey);
+        if (head == ordinal) {
+            if (nextSameContact[ordinal] == LongIntHashMap.MISSING) {
+                contactIndex.remove(contactKey);
+            } else {
+                contactIndex.put(contactKey, nextSameContact[ordinal]);
+            }
+        } else if (head != LongIntHashMap.MISSING) {
+            int at = head;
+            while (nextSameContact[at] != LongIntHashMap.MISSING && nextSameContact[at] != ordinal) {
+                at = nextSameContact[at];
+            }
+            if (nextSameContact[at] == ordinal) {
+                nextSameContact[at] = nextSameContact[ordinal];
+            }
+        }
+        nextSameContact[ordinal] = LongIntHashMap.MISSING;
+    }
+
+    // Accounts of a registered customer, empty when there are none; callers must hold the lock
+    private List<Account> registeredAccounts(String customerId) {
+        return accountsByCustomer.getOrDefault(customerId, List.of());
+    }
+
+    private double registeredBalance(String customerId) {
+        Integer ordinal = ordinals.get(customerId);
+        return ordinal == null ? 0 : balanceTotals[ordinal];
+    }
+
+    // Ordered by total, and by registration among equal totals with the earliest last, so the
+    // richest customer is the last key and ties go to the earliest customer as the scans did
+    private record BalanceKey(double total, int ordinal) implements Comparable<BalanceKey> {
+        @Override
+        public int compareTo(BalanceKey other) {
+            int byTotal = Double.compare(total, other.total);
+            return byTotal != 0 ? byTotal : Integer.compare(other.ordinal, ordinal);
+        }
+    }
+
+    // Re-ranks the registered customer by its account count
+    private void recount(String customerId) {
+        accountCountLeaders.update(customerId, customers.get(customerId), registeredAccounts(customerId).size());
+    }
+
+    private void adjustTotal(int ordinal, double delta) {
+        byBalance.remove(new BalanceKey(balanceTotals[ordinal], ordinal));
+        balanceTotals[ordinal] += delta;
+        byBalance.add(new BalanceKey(balanceTotals[ordinal], ordinal));
+    }
+
+    // Switches to lazy mode: customers are read from the store when first looked up
+    public void enableLazyLoading(CustomerStore store, int cacheSize) {
+        synchronized (this) {
+            this.store = store;
+            customers.clear();
+            accountsByCustomer.clear();
+            nameIndex = new TrigramIndex<>(Customer::getName);
+            addressIndex = new TrigramIndex<>(Customer::getAddress);
+            customerCompletions = new PrefixIndex<>(Ranking.values().length);
+            accountCompletions = new PrefixIndex<>(Ranking.values().length);
+            customersByOrdinal.clear();
+            ordinals.clear();
+            contactIndex = new LongIntHashMap();
+            nextSameContact = new int[16];
+            ageIndex = new AgeIndex();
+            balanceTotals = new double[16];
+            byBalance = new TreeSet<>();
+            accountCountLeaders = new Leaderboard<>();
+            statistics = new StatisticsCounters();
+        }
+        this.cache = new WTinyLfuCache<>(cacheSize);
+    }
+
+    // Cache metrics in lazy mode, null otherwise
+    public WTinyLfuCache<String, Customer> getCache() {
+        return cache;
+    }
+
+    // Get all unique customers
+    public List<Customer> getAllCustomers() {
+        if (store != null) {
+            List<Customer> customers = new ArrayList<>();
+            store.forEachCustomer(customers::add);
+            return customers;
+        }
+
+        synchronized (this) {
+            return new ArrayList<>(customers.values());
+        }
     }
 
     // Get customer by ID
     public Customer getCustomerById(String customerId) {
-        List<Account> accounts = accountManager.getAccounts();
+        if (store != null) {
+            return cache.get(customerId, store::loadCustomer);
+        }
 
-        for (Account account : accounts) {
-            Customer customer = account.getCustomer();
-            if (customer.getCustomerId().equals(customerId)) {
-                return customer;
+        synchronized (this) {
+            return customers.get(customerId);
+        }
+    }
+
+    // Autocomplete: customers whose name or ID starts with prefix, best first. Lazy mode scans the
+    // store and returns the first matches unranked.
+    public List<Customer> completeCustomers(String prefix, int limit, Ranking ranking) {
+        if (store == null) {
+            return customerCompletions.complete(prefix, limit, ranking.ordinal());
+        }
+
+        String search = prefix.toLowerCase();
+        List<Customer> results = new ArrayList<>();
+        store.forEachCustomer(customer -> {
+            if (results.size() < limit && (customer.getName().toLowerCase().startsWith(search)
+                    || customer.getCustomerId().toLowerCase().startsWith(search))) {
+                results.add(customer);
             }
+        });
+        return results;
+    }
+
+    // Autocomplete: accounts whose number starts with prefix, best first; unranked in lazy mode
+    public List<Account> completeAccounts(String prefix, int limit, Ranking ranking) {
+        if (store == null) {
+            return accountCompletions.complete(prefix, limit, ranking.ordinal());
         }
 
-        return null;
+        String search = prefix.toLowerCase();
+        List<Account> results = new ArrayList<>();
+        for (Account account : accountManager.getAccounts()) {
+            if (results.size() == limit) {
+                break;
+            }
+            if (account.getAccountNumber().toLowerCase().startsWith(search)) {
+                results.add(account);
+            }
+        }
+        return results;
     }
 
     // Search customers by name
     public List<Customer> searchCustomersByName(String name) {
+        if (store == null) {
+            synchronized (this) {
+                return nameIndex.search(name);
+            }
+        }
+
         List<Customer> allCustomers = getAllCustomers();
         List<Customer> results = new ArrayList<>();
         String searchName = name.toLowerCase();
@@ -75,41 +423,85 @@ public class CustomerManager {
 
     // Get all accounts for a customer
     public List<Account> getAccountsForCustomer(String customerId) {
-        List<Account> allAccounts = accountManager.getAccounts();
-        List<Account> customerAccounts = new ArrayList<>();
+        if (store == null) {
+            synchronized (this) {
+                return new ArrayList<>(registeredAccounts(customerId));
+            }
+        }
 
-        for (Account account : allAccounts) {
+        List<Account> customerAccounts = new ArrayList<>();
+        accountManager.forEachAccount(account -> {
             if (account.getCustomer().getCustomerId().equals(customerId)) {
                 customerAccounts.add(account);
             }
-        }
+        });
 
         return customerAccounts;
     }
 
+    // Account count of every customer holding accounts, by customer ID
+    public Map<String, Integer> getAccountCountsByCustomer() {
+        Map<String, Integer> counts = new HashMap<>();
+        if (store == null) {
+            synchronized (this) {
+                accountsByCustomer.forEach((customerId, accounts) -> counts.put(customerId, accounts.size()));
+            }
+            return counts;
+        }
+
+        accountManager.forEachAccount(account -> counts.merge(account.getCustomer().getCustomerId(), 1, Integer::sum));
+        return counts;
+    }
+
+    // Lazy mode: every customer's accounts by customer ID, from one pass over the accounts
+    private Map<String, List<Account>> accountsByCustomerId() {
+        Map<String, List<Account>> accountsById = new HashMap<>();
+        accountManager.forEachAccount(account -> accountsById
+                .computeIfAbsent(account.getCustomer().getCustomerId(), id -> new ArrayList<>(2)).add(account));
+        return accountsById;
+    }
+
+    private static double totalBalance(List<Account> accounts) {
+        double totalBalance = 0;
+        for (Account account : accounts) {
+            totalBalance += account.getBalance();
+        }
+        return totalBalance;
+    }
+
     // Get account count for a customer
     public int getAccountCountForCustomer(String customerId) {
+        if (store == null) {
+            synchronized (this) {
+                return registeredAccounts(customerId).size();
+            }
+        }
         return getAccountsForCustomer(customerId).size();
     }
 
     // Get total balance for a customer
     public double getTotalBalanceForCustomer(String customerId) {
-        List<Account> accounts = getAccountsForCustomer(customerId);
-        double totalBalance = 0;
-
-        for (Account account : accounts) {
-            totalBalance += account.getBalance();
+        if (store == null) {
+            synchronized (this) {
+                return registeredBalance(customerId);
+            }
         }
 
-        return totalBalance;
+        return totalBalance(getAccountsForCustomer(customerId));
     }
 
     // Get customer statistics
     public CustomerStatistics getCustomerStatistics() {
+        if (store == null) {
+            return statistics.snapshot();
+        }
+
         List<Customer> allCustomers = getAllCustomers();
+        Map<String, List<Account>> accountsById = accountsByCustomerId();
         int regularCount = 0;
         int premiumCount = 0;
         int totalAccounts = 0;
+        int closedAccounts = 0;
 
         for (Customer customer : allCustomers) {
             if (customer.getCustomerType().equals("Regular")) {
@@ -117,14 +509,20 @@ public class CustomerManager {
             } else {
                 premiumCount++;
             }
-            totalAccounts += getAccountCountForCustomer(customer.getCustomerId());
+            for (Account account : accountsById.getOrDefault(customer.getCustomerId(), List.of())) {
+                totalAccounts++;
+                if (account.getStatus().equals("Closed")) {
+                    closedAccounts++;
+                }
+            }
         }
 
         return new CustomerStatistics(
                 allCustomers.size(),
                 regularCount,
                 premiumCount,
-                totalAccounts
+                totalAccounts,
+                closedAccounts
         );
     }
 
@@ -135,11 +533,23 @@ public class CustomerManager {
 
     // Get customers with multiple accounts
     public List<Customer> getCustomersWithMultipleAccounts(int minAccounts) {
-        List<Customer> allCustomers = getAllCustomers();
+        if (store == null) {
+            synchronized (this) {
+                List<Customer> results = new ArrayList<>();
+                for (Customer customer : customers.values()) {
+                    if (registeredAccounts(customer.getCustomerId()).size() >= minAccounts) {
+                        results.add(customer);
+                    }
+                }
+                return results;
+            }
+        }
+
+        Map<String, List<Account>> accountsById = accountsByCustomerId();
         List<Customer> results = new ArrayList<>();
 
-        for (Customer customer : allCustomers) {
-            if (getAccountCountForCustomer(customer.getCustomerId()) >= minAccounts) {
+        for (Customer customer : getAllCustomers()) {
+            if (accountsById.getOrDefault(customer.getCustomerId(), List.of()).size() >= minAccounts) {
                 results.add(customer);
             }
         }
@@ -147,13 +557,24 @@ public class CustomerManager {
         return results;
     }
 
-    // Get customers with high total balance
+    // Get customers with high total balance; richest first
     public List<Customer> getCustomersWithHighBalance(double minBalance) {
-        List<Customer> allCustomers = getAllCustomers();
+        if (store == null) {
+            synchronized (this) {
+                List<Customer> results = new ArrayList<>();
+                for (BalanceKey key : byBalance.tailSet(new BalanceKey(minBalance, Integer.MAX_VALUE), true)
+                        .descendingSet()) {
+                    results.add(customersByOrdinal.get(key.ordinal()));
+                }
+                return results;
+            }
+        }
+
+        Map<String, List<Account>> accountsById = accountsByCustomerId();
         List<Customer> results = new ArrayList<>();
 
-        for (Customer customer : allCustomers) {
-            if (getTotalBalanceForCustomer(customer.getCustomerId()) >= minBalance) {
+        for (Customer customer : getAllCustomers()) {
+            if (totalBalance(accountsById.getOrDefault(customer.getCustomerId(), List.of())) >= minBalance) {
                 results.add(customer);
             }
         }
@@ -161,13 +582,24 @@ public class CustomerManager {
         return results;
     }
 
-    // Get customer by contact number
+    // Get customer by contact number, ignoring spaces, dashes, parentheses and a leading +
     public Customer getCustomerByContact(String contact) {
+        long contactKey = InputValidator.contactKey(contact);
+        if (contactKey < 0) {
+            return null;
+        }
+        if (store == null) {
+            synchronized (this) {
+                int ordinal = contactIndex.get(contactKey);
+                return ordinal == LongIntHashMap.MISSING ? null : customersByOrdinal.get(ordinal);
+            }
+        }
+
         List<Account> accounts = accountManager.getAccounts();
 
         for (Account account : accounts) {
             Customer customer = account.getCustomer();
-            if (customer.getContact().equals(contact)) {
+            if (InputValidator.contactKey(customer.getContact()) == contactKey) {
                 return customer;
             }
         }
@@ -175,8 +607,19 @@ public class CustomerManager {
         return null;
     }
 
-    // Get customers in age range
+    // Get customers in age range; youngest first, in registration order within an age
     public List<Customer> getCustomersInAgeRange(int minAge, int maxAge) {
+        if (store == null) {
+            synchronized (this) {
+                int[] inRange = ageIndex.ordinals(minAge, maxAge);
+                List<Customer> results = new ArrayList<>(inRange.length);
+                for (int ordinal : inRange) {
+                    results.add(customersByOrdinal.get(ordinal));
+                }
+                return results;
+            }
+        }
+
         List<Customer> allCustomers = getAllCustomers();
         List<Customer> results = new ArrayList<>();
 
@@ -190,8 +633,24 @@ public class CustomerManager {
         return results;
     }
 
+    // Count customers in age range
+    public int countCustomersInAgeRange(int minAge, int maxAge) {
+        if (store == null) {
+            synchronized (this) {
+                return ageIndex.count(minAge, maxAge);
+            }
+        }
+        return getCustomersInAgeRange(minAge, maxAge).size();
+    }
+
     // Get customers by location (partial address match)
     public List<Customer> getCustomersByLocation(String location) {
+        if (store == null) {
+            synchronized (this) {
+                return addressIndex.search(location);
+            }
+        }
+
         List<Customer> allCustomers = getAllCustomers();
         List<Customer> results = new ArrayList<>();
         String searchLocation = location.toLowerCase();
@@ -207,6 +666,12 @@ public class CustomerManager {
 
     // Get average age of customers
     public double getAverageCustomerAge() {
+        if (store == null) {
+            synchronized (this) {
+                return ageIndex.average();
+            }
+        }
+
         List<Customer> allCustomers = getAllCustomers();
 
         if (allCustomers.isEmpty()) {
@@ -221,19 +686,44 @@ public class CustomerManager {
         return (double) totalAge / allCustomers.size();
     }
 
+    // Up to limit customers, most accounts first; customers with equal counts in registration order
+    public List<Customer> getTopCustomersByAccountCount(int limit) {
+        if (store == null) {
+            synchronized (this) {
+                return accountCountLeaders.top(limit);
+            }
+        }
+
+        Map<String, Integer> counts = getAccountCountsByCustomer();
+        List<Customer> ranked = new ArrayList<>();
+        for (Customer customer : getAllCustomers()) {
+            if (counts.containsKey(customer.getCustomerId())) {
+                ranked.add(customer);
+            }
+        }
+        ranked.sort(Comparator.comparingInt((Customer customer) -> counts.get(customer.getCustomerId())).reversed());
+        return ranked.subList(0, Math.max(0, Math.min(limit, ranked.size())));
+    }
+
     // Get customer with most accounts
     public Customer getCustomerWithMostAccounts() {
+        if (store == null) {
+            List<Customer> top = getTopCustomersByAccountCount(1);
+            return top.isEmpty() ? null : top.get(0);
+        }
+
         List<Customer> allCustomers = getAllCustomers();
 
         if (allCustomers.isEmpty()) {
             return null;
         }
 
+        Map<String, List<Account>> accountsById = accountsByCustomerId();
         Customer customerWithMostAccounts = allCustomers.get(0);
-        int maxAccounts = getAccountCountForCustomer(customerWithMostAccounts.getCustomerId());
+        int maxAccounts = accountsById.getOrDefault(customerWithMostAccounts.getCustomerId(), List.of()).size();
 
         for (Customer customer : allCustomers) {
-            int accountCount = getAccountCountForCustomer(customer.getCustomerId());
+            int accountCount = accountsById.getOrDefault(customer.getCustomerId(), List.of()).size();
             if (accountCount > maxAccounts) {
                 maxAccounts = accountCount;
                 customerWithMostAccounts = customer;
@@ -245,17 +735,24 @@ public class CustomerManager {
 
     // Get customer with the highest total balance
     public Customer getCustomerWithHighestBalance() {
+        if (store == null) {
+            synchronized (this) {
+                return byBalance.isEmpty() ? null : customersByOrdinal.get(byBalance.last().ordinal());
+            }
+        }
+
         List<Customer> allCustomers = getAllCustomers();
 
         if (allCustomers.isEmpty()) {
             return null;
         }
 
+        Map<String, List<Account>> accountsById = accountsByCustomerId();
         Customer richestCustomer = allCustomers.get(0);
-        double maxBalance = getTotalBalanceForCustomer(richestCustomer.getCustomerId());
+        double maxBalance = totalBalance(accountsById.getOrDefault(richestCustomer.getCustomerId(), List.of()));
 
         for (Customer customer : allCustomers) {
-            double balance = getTotalBalanceForCustomer(customer.getCustomerId());
+            double balance = totalBalance(accountsById.getOrDefault(customer.getCustomerId(), List.of()));
             if (balance > maxBalance) {
                 maxBalance = balance;
                 richestCustomer = customer;
@@ -271,19 +768,27 @@ public class CustomerManager {
         private int regularCustomers;
         private int premiumCustomers;
         private int totalAccounts;
+        private int closedAccounts;
 
         public CustomerStatistics(int totalCustomers, int regularCustomers,
                                   int premiumCustomers, int totalAccounts) {
+            this(totalCustomers, regularCustomers, premiumCustomers, totalAccounts, 0);
+        }
+
+        public CustomerStatistics(int totalCustomers, int regularCustomers,
+                                  int premiumCustomers, int totalAccounts, int closedAccounts) {
             this.totalCustomers = totalCustomers;
             this.regularCustomers = regularCustomers;
             this.premiumCustomers = premiumCustomers;
             this.totalAccounts = totalAccounts;
+            this.closedAccounts = closedAccounts;
         }
 
         public int getTotalCustomers() { return totalCustomers; }
         public int getRegularCustomers() { return regularCustomers; }
         public int getPremiumCustomers() { return premiumCustomers; }
         public int getTotalAccounts() { return totalAccounts; }
+        public int getClosedAccounts() { return closedAccounts; }
 
         public double getAverageAccountsPerCustomer() {
             return totalCustomers > 0 ? (double) totalAccounts / totalCustomers : 0;
@@ -297,6 +802,7 @@ public class CustomerManager {
             System.out.printf("Regular Customers: %d%n", regularCustomers);
             System.out.printf("Premium Customers: %d%n", premiumCustomers);
             System.out.printf("Total Accounts: %d%n", totalAccounts);
+            System.out.printf("Closed Accounts: %d%n", closedAccounts);
             System.out.printf("Average Accounts per Customer: %.1f%n", getAverageAccountsPerCustomer());
             System.out.println("─".repeat(50));
         }
@@ -0,0 +1,13 @@
+package customer;
+
+import java.util.function.Consumer;
+
+// On-disk customers that a CustomerManager in lazy mode faults in on demand
+public interface CustomerStore {
+
+    // The stored customer, or null when there is none with this ID
+    Customer loadCustomer(String customerId);
+
+    // Streams every customer in storage order without caching it
+    void forEachCustomer(Consumer<Customer> action);
+}
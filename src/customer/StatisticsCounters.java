@@ -0,0 +1,77 @@
+package customer;
+
+import account.Account;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counts behind CustomerManager.CustomerStatistics, kept as striped
+ * counters so concurrent updates do not contend on one memory location.
+ *
+ * Every group of updates is bracketed by the started and finished counters. A snapshot
+ * reads finished, then the counts, then started; when started has not moved
+ * past the finished count read first, no group overlapped the reads and the
+ * counts belong together. Otherwise the snapshot is taken again.
+ */
+final class StatisticsCounters {
+    private final LongAdder started = new LongAdder();
+    private final LongAdder finished = new LongAdder();
+    private final LongAdder regularCustomers = new LongAdder();
+    private final LongAdder premiumCustomers = new LongAdder();
+    private final LongAdder accounts = new LongAdder();
+    private final LongAdder closedAccounts = new LongAdder();
+
+    // Brackets a group of changes that snapshots must see all or none of; groups may nest
+    void begin() {
+        started.increment();
+    }
+
+    void end() {
+        finished.increment();
+    }
+
+    // The changes below are only made between begin and end
+
+    void customerAdded(Customer customer) {
+        (isRegular(customer) ? regularCustomers : premiumCustomers).increment();
+    }
+
+    void customerRemoved(Customer customer) {
+        (isRegular(customer) ? regularCustomers : premiumCustomers).decrement();
+    }
+
+    void accountAdded(Account account) {
+        accounts.increment();
+        if (isClosed(account.getStatus())) {
+            closedAccounts.increment();
+        }
+    }
+
+    void statusChanged(String oldStatus, String newStatus) {
+        closedAccounts.add((isClosed(newStatus) ? 1 : 0) - (isClosed(oldStatus) ? 1 : 0));
+    }
+
+    CustomerManager.CustomerStatistics snapshot() {
+        while (true) {
+            long before = finished.sum();
+            long regular = regularCustomers.sum();
+            long premium = premiumCustomers.sum();
+            long total = accounts.sum();
+            long closed = closedAccounts.sum();
+            if (started.sum() == before) {
+                return new CustomerManager.CustomerStatistics((int) (regular + premium), (int) regular,
+                        (int) premium, (int) total, (int) closed);
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    // Matches the type split getCustomerStatistics has always used
+    private static boolean isRegular(Customer customer) {
+        return customer.getCustomerType().equals("Regular");
+    }
+
+    private static boolean isClosed(String status) {
+        return "Closed".equals(status);
+    }
+}
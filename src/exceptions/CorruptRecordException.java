@@ -0,0 +1,9 @@
+package exceptions;
+
+public class CorruptRecordException extends IllegalStateException {
+
+    public CorruptRecordException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,543 @@
+package services;
+
+import account.Account;
+import account.AccountListener;
+import account.CheckingAccount;
+import account.SavingsAccount;
+import customer.Customer;
+import exceptions.CorruptRecordException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Account table file (accounts.tbl) with one fixed-width record per account,
+ * addressed by the account's ordinal and memory-mapped for reads and writes.
+ *
+ * Registered as an {@link AccountListener}, the table remembers which accounts
+ * changed since the last {@link #sync()}. A sync rewrites only those records in
+ * place, appends accounts added in the meantime, and forces just the byte ranges
+ * it touched, so saving after a transfer writes two records instead of the
+ * whole file.
+ *
+ * Account numbers are located through a memory-mapped hash index beside the
+ * table (accounts.tbl.idx), so opening the table does not read its records and
+ * single accounts can be faulted in by number.
+ *
+ * Layout: a 32-byte header (magic, version, record size, record count) followed
+ * by 64-byte records: account number and customer ID as length-prefixed 20-byte
+ * fields, a type byte, a length-prefixed 11-byte status, the balance as a double
+ * and the CRC32C of the preceding 60 bytes. Type-specific settings are fixed per
+ * account type and not stored. Version 1 tables, which had a 15-byte status and
+ * no checksum, are upgraded in place when opened.
+ */
+public final class AccountTable implements AccountListener, Closeable {
+    private static final int MAGIC = 0x41435442; // "ACTB"
+    private static final short VERSION = 2;
+    private static final short UNCHECKED_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int COUNT_OFFSET = 8;
+
+    static final int RECORD_SIZE = 64;
+    private static final int ACCOUNT_NUMBER_OFFSET = 0;
+    private static final int CUSTOMER_ID_OFFSET = 20;
+    private static final int ID_WIDTH = 20;
+    private static final int TYPE_OFFSET = 40;
+    private static final int STATUS_OFFSET = 41;
+    private static final int STATUS_WIDTH = 11;
+    private static final int BALANCE_OFFSET = 52;
+    private static final int CHECKSUM_OFFSET = 60;
+
+    // Version 1 record fields that moved
+    private static final int V1_STATUS_WIDTH = 15;
+    private static final int V1_BALANCE_OFFSET = 56;
+
+    private static final byte TYPE_SAVINGS = 'S';
+    private static final byte TYPE_CHECKING = 'C';
+
+    // Records per mapping; keeps every window well below the 2 GB mapping limit
+    private static final int RECORDS_PER_WINDOW = 1 << 20;
+    private static final int MIN_GROWTH = 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final Path indexFile;
+    private final List<MappedByteBuffer> windows = new ArrayList<>();
+    private DiskHashIndex ordinals;
+
+    // Filled by listener callbacks, possibly from several threads, and drained by sync
+    private final Map<String, Account> dirty = new ConcurrentHashMap<>();
+    private final Queue<Account> added = new ConcurrentLinkedQueue<>();
+
+    private int recordCount;
+    private int capacity;
+    private int[] dirtyFrom = new int[0];
+    private int[] dirtyTo = new int[0];
+    private int lastSyncRecords;
+    private boolean indexChanged;
+    private int corruptRecords;
+
+    private AccountTable(Path file, FileChannel channel) throws IOException {
+        this.file = file;
+        this.indexFile = file.resolveSibling(file.getFileName() + ".idx");
+        this.channel = channel;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    }
+
+    // Opens the table, creating an empty one when the file does not exist yet
+    public static AccountTable open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean created = channel.size() == 0;
+            AccountTable table = new AccountTable(file, channel);
+            if (created) {
+                table.writeHeader();
+            } else {
+                table.readExisting();
+            }
+            table.openIndex();
+            return table;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void writeHeader() {
+        header.putInt(0, MAGIC);
+        header.putShort(4, VERSION);
+        header.putShort(6, (short) RECORD_SIZE);
+        header.putInt(COUNT_OFFSET, 0);
+        header.force();
+    }
+
+    private void readExisting() throws IOException {
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not an account table: " + file);
+        }
+        short version = header.getShort(4);
+        if ((version != VERSION && version != UNCHECKED_VERSION) || header.getShort(6) != RECORD_SIZE) {
+            throw new IOException("Unsupported account table version in " + file);
+        }
+
+        int count = header.getInt(COUNT_OFFSET);
+        long available = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+        if (count < 0 || count > available) {
+            throw new IOException("Account table is truncated: " + file);
+        }
+
+        ensureCapacity((int) Math.min(available, Integer.MAX_VALUE));
+        recordCount = count;
+        if (version == UNCHECKED_VERSION) {
+            upgradeRecords();
+        }
+    }
+
+    // Moves version 1 records to the checksummed layout; the fields before the status are unchanged
+    private void upgradeRecords() throws IOException {
+        for (int ordinal = 0; ordinal < recordCount; ordinal++) {
+            MappedByteBuffer window = windowFor(ordinal);
+            int offset = offsetOf(ordinal);
+            String status = readString(ordinal, STATUS_OFFSET);
+            double balance = window.getDouble(offset + V1_BALANCE_OFFSET);
+            if (status.getBytes(StandardCharsets.UTF_8).length >= STATUS_WIDTH) {
+                throw new IOException("Status too long to upgrade account table " + file + ": " + status);
+            }
+
+            writeString(window, offset + STATUS_OFFSET, STATUS_WIDTH, status);
+            window.putDouble(offset + BALANCE_OFFSET, balance);
+            sealRecord(window, offset, ordinal);
+        }
+        header.putShort(4, VERSION);
+        flushDirtyRanges();
+    }
+
+    // Reuses the saved index when it matches the table, otherwise rebuilds it from the records
+    private void openIndex() throws IOException {
+        ordinals = DiskHashIndex.openIfValid(indexFile);
+        if (ordinals != null && ordinals.size() == recordCount) {
+            return;
+        }
+        if (ordinals != null) {
+            ordinals.close();
+        }
+        rebuildIndex();
+        force();
+    }
+
+    private void rebuildIndex() throws IOException {
+        if (ordinals != null) {
+            ordinals.close();
+        }
+        ordinals = DiskHashIndex.create(indexFile, recordCount);
+        for (int ordinal = 0; ordinal < recordCount; ordinal++) {
+            ordinals.put(DiskHashIndex.hash(readString(ordinal, ACCOUNT_NUMBER_OFFSET)), ordinal);
+        }
+        indexChanged = true;
+    }
+
+    public int size() {
+        return recordCount;
+    }
+
+    // Ordinal of the account's record, or -1 when it has not been written yet
+    public synchronized int ordinalOf(String accountNumber) {
+        return (int) ordinals.find(DiskHashIndex.hash(accountNumber),
+                ordinal -> readString((int) ordinal, ACCOUNT_NUMBER_OFFSET).equals(accountNumber));
+    }
+
+    // Records written by the last sync or rewrite
+    public int getLastSyncRecords() {
+        return lastSyncRecords;
+    }
+
+    // Records skipped by readAccounts because they failed their checksum
+    public synchronized int getCorruptRecords() {
+        return corruptRecords;
+    }
+
+    public boolean hasPendingChanges() {
+        return !dirty.isEmpty() || !added.isEmpty();
+    }
+
+    // Stored records plus accounts added since the last sync
+    public synchronized long accountCount() {
+        return recordCount + added.size();
+    }
+
+    // Accounts in ordinal order; records whose customer is missing or that fail their checksum are skipped
+    public synchronized List<Account> readAccounts(Map<String, Customer> customersById) {
+        List<Account> accounts = new ArrayList<>(recordCount);
+        corruptRecords = 0;
+        for (int ordinal = 0; ordinal < recordCount; ordinal++) {
+            try {
+                Account account = readAccount(ordinal, customersById::get);
+                if (account != null) {
+                    accounts.add(account);
+                }
+            } catch (CorruptRecordException e) {
+                corruptRecords++;
+            }
+        }
+        return accounts;
+    }
+
+    // The account with this number: an unsaved in-memory instance first, then the stored record
+    public synchronized Account findAccount(String accountNumber, Function<String, Customer> customers) {
+        Account unsaved = unsavedAccount(accountNumber);
+        if (unsaved != null) {
+            return unsaved;
+        }
+        int ordinal = ordinalOf(accountNumber);
+        return ordinal < 0 ? null : readAccount(ordinal, customers);
+    }
+
+    // Streams stored accounts, substituting unsaved instances, then accounts not yet written
+    public synchronized void forEachAccount(Function<String, Customer> customers, Consumer<Account> action) {
+        for (int ordinal = 0; ordinal < recordCount; ordinal++) {
+            Account unsaved = dirty.get(readString(ordinal, ACCOUNT_NUMBER_OFFSET));
+            Account account = unsaved != null ? unsaved : readAccount(ordinal, customers);
+            if (account != null) {
+                action.accept(account);
+            }
+        }
+        for (Account account : added) {
+            if (ordinalOf(account.getAccountNumber()) < 0) {
+                action.accept(account);
+            }
+        }
+    }
+
+    private Account unsavedAccount(String accountNumber) {
+        Account changed = dirty.get(accountNumber);
+        if (changed != null) {
+            return changed;
+        }
+        for (Account account : added) {
+            if (account.getAccountNumber().equals(accountNumber)) {
+                return account;
+            }
+        }
+        return null;
+    }
+
+    // Throws CorruptRecordException when the record does not match its checksum
+    private Account readAccount(int ordinal, Function<String, Customer> customers) {
+        MappedByteBuffer window = windowFor(ordinal);
+        int offset = offsetOf(ordinal);
+        if (!recordIntact(window, offset)) {
+            throw new CorruptRecordException("Account table record " + ordinal + " failed its checksum");
+        }
+
+        Customer customer = customers.apply(readString(ordinal, CUSTOMER_ID_OFFSET));
+        if (customer == null) {
+            return null;
+        }
+
+        String accountNumber = readString(ordinal, ACCOUNT_NUMBER_OFFSET);
+        String status = readString(ordinal, STATUS_OFFSET);
+        double balance = window.getDouble(offset + BALANCE_OFFSET);
+
+        if (window.get(offset + TYPE_OFFSET) == TYPE_SAVINGS) {
+            return new SavingsAccount(accountNumber, customer, balance, status);
+        }
+        return new CheckingAccount(accountNumber, customer, balance, status);
+    }
+
+    // Replaces the whole table with the given accounts, in order
+    public synchronized int rewrite(List<Account> accounts) throws IOException {
+        int written = stageRewrite(accounts);
+        force();
+        return written;
+    }
+
+    // Writes changed and newly added accounts in place and returns how many records it touched
+    public synchronized int sync() throws IOException {
+        int written = stageChanges();
+        force();
+        return written;
+    }
+
+    // rewrite without the disk flush: records are copied into the mapping and reach disk on force
+    public synchronized int stageRewrite(List<Account> accounts) throws IOException {
+        dirty.clear();
+        added.clear();
+        ensureCapacity(accounts.size());
+
+        for (int ordinal = 0; ordinal < accounts.size(); ordinal++) {
+            writeRecord(ordinal, accounts.get(ordinal));
+        }
+        recordCount = accounts.size();
+        header.putInt(COUNT_OFFSET, recordCount);
+        rebuildIndex();
+        lastSyncRecords = accounts.size();
+        return lastSyncRecords;
+    }
+
+    // sync without the disk flush, so the copy can be taken quickly and forced later
+    public synchronized int stageChanges() throws IOException {
+        int written = 0;
+
+        boolean appended = false;
+
+        Account account;
+        while ((account = added.peek()) != null) {
+            dirty.remove(account.getAccountNumber(), account);
+            int ordinal = ordinalOf(account.getAccountNumber());
+            if (ordinal < 0) {
+                ordinal = recordCount;
+                ensureCapacity(recordCount + 1);
+                ordinals.put(DiskHashIndex.hash(account.getAccountNumber()), ordinal);
+                recordCount++;
+                appended = true;
+            }
+            writeRecord(ordinal, account);
+            // Dequeue only once the record is readable, so lookups never miss the account
+            added.poll();
+            written++;
+        }
+
+        for (Map.Entry<String, Account> entry : dirty.entrySet()) {
+            // Remove before writing so a change racing with this sync is picked up next time
+            Account changed = entry.getValue();
+            dirty.remove(entry.getKey(), changed);
+            int ordinal = ordinalOf(entry.getKey());
+            if (ordinal >= 0) {
+                writeRecord(ordinal, changed);
+                written++;
+            }
+        }
+
+        header.putInt(COUNT_OFFSET, recordCount);
+        indexChanged |= appended;
+
+        lastSyncRecords = written;
+        return written;
+    }
+
+    // Flushes staged records, the header and any index changes to disk
+    public synchronized void force() {
+        flushDirtyRanges();
+        if (indexChanged) {
+            ordinals.force();
+            indexChanged = false;
+        }
+    }
+
+    @Override
+    public void accountAdded(Account account) {
+        added.add(account);
+    }
+
+    @Override
+    public void balanceChanged(Account account, double oldBalance, double newBalance) {
+        dirty.put(account.getAccountNumber(), account);
+    }
+
+    @Override
+    public void statusChanged(Account account, String oldStatus, String newStatus) {
+        dirty.put(account.getAccountNumber(), account);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flushDirtyRanges();
+        ordinals.close();
+        channel.close();
+    }
+
+    private void writeRecord(int ordinal, Account account) throws IOException {
+        MappedByteBuffer window = windowFor(ordinal);
+        int offset = offsetOf(ordinal);
+
+        writeString(window, offset + ACCOUNT_NUMBER_OFFSET, ID_WIDTH, account.getAccountNumber());
+        writeString(window, offset + CUSTOMER_ID_OFFSET, ID_WIDTH, account.getCustomer().getCustomerId());
+        window.put(offset + TYPE_OFFSET, account instanceof SavingsAccount ? TYPE_SAVINGS : TYPE_CHECKING);
+        writeString(window, offset + STATUS_OFFSET, STATUS_WIDTH, account.getStatus());
+        window.putDouble(offset + BALANCE_OFFSET, account.getBalance());
+        sealRecord(window, offset, ordinal);
+    }
+
+    // Stores the record's checksum and marks it for flushing
+    private void sealRecord(MappedByteBuffer window, int offset, int ordinal) {
+        window.putInt(offset + CHECKSUM_OFFSET, RecordChecksum.of(window, offset, offset + CHECKSUM_OFFSET));
+
+        int index = ordinal / RECORDS_PER_WINDOW;
+        dirtyFrom[index] = Math.min(dirtyFrom[index], offset);
+        dirtyTo[index] = Math.max(dirtyTo[index], offset + RECORD_SIZE);
+    }
+
+    private static boolean recordIntact(ByteBuffer records, int offset) {
+        return records.getInt(offset + CHECKSUM_OFFSET) == RecordChecksum.of(records, offset, offset + CHECKSUM_OFFSET);
+    }
+
+    // Checks the records in [from, to) of a table file without opening it for writing
+    static void verify(FileChannel channel, int from, int to, DatasetVerifier.Tally tally) throws IOException {
+        if (to <= from) {
+            return;
+        }
+        MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY,
+                HEADER_SIZE + (long) from * RECORD_SIZE, (long) (to - from) * RECORD_SIZE);
+        for (int i = 0; i < to - from; i++) {
+            if (recordIntact(records, i * RECORD_SIZE)) {
+                tally.records++;
+            } else {
+                tally.corrupt("record " + (from + i));
+            }
+        }
+    }
+
+    record StoredHeader(int recordCount, boolean checksummed) {}
+
+    // Header of a table file, read without opening the table for writing
+    static StoredHeader readStoredHeader(FileChannel channel, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Keep reading until the header is complete or the file ends
+        }
+        if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getShort(6) != RECORD_SIZE) {
+            throw new IOException("Not an account table: " + file);
+        }
+        int count = header.getInt(COUNT_OFFSET);
+        if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE > channel.size()) {
+            throw new IOException("Account table is truncated: " + file);
+        }
+        return new StoredHeader(count, header.getShort(4) == VERSION);
+    }
+
+    private void writeString(MappedByteBuffer window, int offset, int width, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= width) {
+            throw new IOException("Value too long for account table field: " + value);
+        }
+        window.put(offset, (byte) bytes.length);
+        window.put(offset + 1, bytes);
+        for (int i = offset + 1 + bytes.length; i < offset + width; i++) {
+            window.put(i, (byte) 0);
+        }
+    }
+
+    private String readString(int ordinal, int fieldOffset) {
+        MappedByteBuffer window = windowFor(ordinal);
+        int offset = offsetOf(ordinal) + fieldOffset;
+        byte[] bytes = new byte[window.get(offset)];
+        window.get(offset + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private MappedByteBuffer windowFor(int ordinal) {
+        return windows.get(ordinal / RECORDS_PER_WINDOW);
+    }
+
+    private static int offsetOf(int ordinal) {
+        return (ordinal % RECORDS_PER_WINDOW) * RECORD_SIZE;
+    }
+
+    // Forces only the bytes written since the last flush, window by window
+    private void flushDirtyRanges() {
+        for (int i = 0; i < windows.size(); i++) {
+            if (dirtyTo[i] > dirtyFrom[i]) {
+                windows.get(i).force(dirtyFrom[i], dirtyTo[i] - dirtyFrom[i]);
+            }
+            dirtyFrom[i] = Integer.MAX_VALUE;
+            dirtyTo[i] = 0;
+        }
+        header.force();
+    }
+
+    // Grows the last window (doubling) or maps a new one until the records fit
+    private void ensureCapacity(int records) throws IOException {
+        while (capacity < records) {
+            int lastIndex = windows.size() - 1;
+            int lastCapacity = windows.isEmpty() ? RECORDS_PER_WINDOW : capacity - lastIndex * RECORDS_PER_WINDOW;
+
+            if (lastCapacity == RECORDS_PER_WINDOW) {
+                int size = Math.min(RECORDS_PER_WINDOW, Math.max(MIN_GROWTH, records - capacity));
+                windows.add(mapWindow(windows.size(), size));
+                dirtyFrom = growRanges(dirtyFrom, Integer.MAX_VALUE);
+                dirtyTo = growRanges(dirtyTo, 0);
+                capacity += size;
+            } else {
+                int needed = records - lastIndex * RECORDS_PER_WINDOW;
+                int size = Math.min(RECORDS_PER_WINDOW, Math.max(lastCapacity * 2, needed));
+                // The new mapping shares the same pages, so only pending forces need carrying over
+                MappedByteBuffer previous = windows.get(lastIndex);
+                if (dirtyTo[lastIndex] > dirtyFrom[lastIndex]) {
+                    previous.force(dirtyFrom[lastIndex], dirtyTo[lastIndex] - dirtyFrom[lastIndex]);
+                    dirtyFrom[lastIndex] = Integer.MAX_VALUE;
+                    dirtyTo[lastIndex] = 0;
+                }
+                windows.set(lastIndex, mapWindow(lastIndex, size));
+                capacity += size - lastCapacity;
+            }
+        }
+    }
+
+    private MappedByteBuffer mapWindow(int index, int records) throws IOException {
+        long position = HEADER_SIZE + (long) index * RECORDS_PER_WINDOW * RECORD_SIZE;
+        return channel.map(FileChannel.MapMode.READ_WRITE, position, (long) records * RECORD_SIZE);
+    }
+
+    private static int[] growRanges(int[] ranges, int initial) {
+        int[] grown = Arrays.copyOf(ranges, ranges.length + 1);
+        grown[ranges.length] = initial;
+        return grown;
+    }
+}
@@ -0,0 +1,120 @@
+package services;
+
+import utils.CustomUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Persists changes in the background, on a fixed interval or as soon as enough
+ * changes have piled up, whichever comes first.
+ *
+ * Changes are only counted here; what a flush writes is decided by its owner,
+ * which in binary mode means the dirty account records and the transactions
+ * not yet in the log. The cost of a flush therefore follows how much changed
+ * since the last one, not how much data there is.
+ *
+ * Flushes run one at a time on a daemon thread. A failed flush is reported and
+ * its changes are retried on the next tick.
+ */
+public final class BackgroundFlusher implements AutoCloseable {
+
+    // Writes whatever is pending; returns the number of records written
+    @FunctionalInterface
+    interface Flush {
+        int run() throws IOException;
+    }
+
+    public record Stats(long flushes, long recordsFlushed, long lastDurationNanos, int pendingChanges) {
+        public double lastDurationMillis() {
+            return lastDurationNanos / 1_000_000.0;
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+    private final Flush flush;
+    private final BooleanSupplier hasPendingWork;
+    private final int threshold;
+
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong recordsFlushed = new AtomicLong();
+    private volatile long lastDurationNanos;
+
+    // hasPendingWork covers changes that are not reported through noteChange
+    BackgroundFlusher(Duration interval, int threshold, Flush flush, BooleanSupplier hasPendingWork) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Flush threshold must be at least 1");
+        }
+        this.flush = flush;
+        this.hasPendingWork = hasPendingWork;
+        this.threshold = threshold;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "background-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = Math.max(1, interval.toMillis());
+        executor.scheduleWithFixedDelay(this::flushIfPending, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    // Called for every change; reaching the threshold starts a flush without waiting for the timer
+    public void noteChange() {
+        if (pendingChanges.incrementAndGet() >= threshold && flushQueued.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::flushIfPending);
+            } catch (RejectedExecutionException e) {
+                // Closing: the last flush in close() picks the change up
+                flushQueued.set(false);
+            }
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(flushes.get(), recordsFlushed.get(), lastDurationNanos, pendingChanges.get());
+    }
+
+    private void flushIfPending() {
+        flushQueued.set(false);
+        if (pendingChanges.get() > 0 || hasPendingWork.getAsBoolean()) {
+            flushNow();
+        }
+    }
+
+    private synchronized void flushNow() {
+        int changes = pendingChanges.getAndSet(0);
+        long start = System.nanoTime();
+        try {
+            recordsFlushed.addAndGet(flush.run());
+            flushes.incrementAndGet();
+            lastDurationNanos = System.nanoTime() - start;
+        } catch (IOException | RuntimeException e) {
+            pendingChanges.addAndGet(changes);
+            CustomUtils.printError("Background flush failed: " + e.getMessage());
+        }
+    }
+
+    // Stops the timer, waits for a running flush, then flushes what is left on the calling thread
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushIfPending();
+    }
+}
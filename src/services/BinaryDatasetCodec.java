@@ -0,0 +1,525 @@
+package services;
+
+import account.Account;
+import account.CheckingAccount;
+import account.SavingsAccount;
+import customer.Customer;
+import customer.PremiumCustomer;
+import customer.RegularCustomer;
+import exceptions.CorruptRecordException;
+import transaction.Transaction;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary encoding for the dataset files.
+ *
+ * Every file starts with a header (magic number, format version, record kind),
+ * followed by a string table holding values that repeat across records
+ * (types, statuses, customer IDs, account numbers, timestamps) and then the
+ * records themselves. Numbers are written as fixed-width big-endian values and
+ * unique strings as length-prefixed UTF-8, so nothing has to be split or parsed
+ * as text on load.
+ *
+ * Since version 2 every record is followed by the CRC32C of its bytes. Version 1
+ * files, which have none, are still read.
+ */
+public final class BinaryDatasetCodec {
+    public static final int MAGIC = 0x42414E4B; // "BANK"
+    public static final short VERSION = 2;
+    private static final short UNCHECKED_VERSION = 1;
+
+    static final byte KIND_CUSTOMERS = 1;
+    static final byte KIND_ACCOUNTS = 2;
+    static final byte KIND_TRANSACTIONS = 3;
+    private static final byte ANY_KIND = 0;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private BinaryDatasetCodec() {}
+
+    // ---------------------------------------------------------------- writing
+
+    public static int writeCustomers(Path file, List<Customer> customers) throws IOException {
+        return writeCustomers(file, customers, (customer, offset) -> {});
+    }
+
+    // Also reports the byte offset of each record, for building a lookup index
+    public static int writeCustomers(Path file, List<Customer> customers, ObjLongConsumer<Customer> offsets)
+            throws IOException {
+        StringTable table = new StringTable();
+        for (Customer customer : customers) {
+            table.add(customer.getCustomerType());
+        }
+
+        CountingOutputStream counter = new CountingOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+        try (RecordOutput out = new RecordOutput(counter)) {
+            writeHeader(out, KIND_CUSTOMERS, table, customers.size());
+            for (Customer customer : customers) {
+                offsets.accept(customer, counter.count);
+                out.beginRecord();
+                writeString(out, customer.getCustomerId());
+                writeString(out, customer.getName());
+                out.writeInt(customer.getAge());
+                writeString(out, customer.getContact());
+                writeString(out, customer.getAddress());
+                out.writeInt(table.indexOf(customer.getCustomerType()));
+                out.endRecord();
+            }
+        }
+        return customers.size();
+    }
+
+    public static int writeAccounts(Path file, List<Account> accounts) throws IOException {
+        StringTable table = new StringTable();
+        for (Account account : accounts) {
+            table.add(account.getAccountType());
+            table.add(account.getCustomer().getCustomerId());
+            table.add(account.getStatus());
+        }
+
+        try (RecordOutput out = openForWrite(file)) {
+            writeHeader(out, KIND_ACCOUNTS, table, accounts.size());
+            for (Account account : accounts) {
+                out.beginRecord();
+                writeString(out, account.getAccountNumber());
+                out.writeInt(table.indexOf(account.getAccountType()));
+                out.writeInt(table.indexOf(account.getCustomer().getCustomerId()));
+                out.writeDouble(account.getBalance());
+                out.writeInt(table.indexOf(account.getStatus()));
+
+                if (account instanceof SavingsAccount savings) {
+                    out.writeDouble(savings.getInterestRate());
+                    out.writeDouble(savings.getMinimumBalance());
+                } else if (account instanceof CheckingAccount checking) {
+                    out.writeDouble(checking.getOverdraftLimit());
+                    out.writeDouble(checking.getMonthlyFee());
+                } else {
+                    out.writeDouble(0);
+                    out.writeDouble(0);
+                }
+                out.endRecord();
+            }
+        }
+        return accounts.size();
+    }
+
+    public static int writeTransactions(Path file, List<Transaction> transactions) throws IOException {
+        StringTable table = new StringTable();
+        for (Transaction transaction : transactions) {
+            table.add(transaction.getAccountNumber());
+            table.add(transaction.getType());
+            table.add(transaction.getTimestamp());
+        }
+
+        try (RecordOutput out = openForWrite(file)) {
+            writeHeader(out, KIND_TRANSACTIONS, table, transactions.size());
+            for (Transaction transaction : transactions) {
+                out.beginRecord();
+                writeString(out, transaction.getTransactionId());
+                out.writeInt(table.indexOf(transaction.getAccountNumber()));
+                out.writeInt(table.indexOf(transaction.getType()));
+                out.writeDouble(transaction.getAmount());
+                out.writeDouble(transaction.getBalanceAfter());
+                out.writeInt(table.indexOf(transaction.getTimestamp()));
+                out.endRecord();
+            }
+        }
+        return transactions.size();
+    }
+
+    // ---------------------------------------------------------------- reading
+
+    public static List<Customer> readCustomers(Path file) throws IOException {
+        List<Customer> customers = new ArrayList<>();
+        forEachCustomer(file, (customer, offset) -> customers.add(customer));
+        return customers;
+    }
+
+    // Streams customers with the byte offset of each record
+    public static void forEachCustomer(Path file, ObjLongConsumer<Customer> action) throws IOException {
+        CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+        try (RecordInput in = new RecordInput(counter)) {
+            String[] table = readHeader(in, KIND_CUSTOMERS, file);
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                long offset = counter.count;
+                in.beginRecord();
+                String customerId = readString(in);
+                String name = readString(in);
+                int age = in.readInt();
+                String contact = readString(in);
+                String address = readString(in);
+                String customerType = table[in.readInt()];
+                in.endRecord(file, i);
+                action.accept(newCustomer(customerId, name, age, contact, address, customerType), offset);
+            }
+        }
+    }
+
+    // String table and record count of a customers file, for decoding records at arbitrary offsets
+    public static FileHeader readCustomerHeader(Path file) throws IOException {
+        try (RecordInput in = openForRead(file)) {
+            String[] table = readHeader(in, KIND_CUSTOMERS, file);
+            return new FileHeader(table, in.readInt(), in.checked);
+        }
+    }
+
+    public record FileHeader(String[] strings, int recordCount, boolean checksummed) {}
+
+    // Decodes the customer record starting at offset
+    public static Customer readCustomerAt(FileChannel channel, long offset, FileHeader header) throws IOException {
+        String[] table = header.strings();
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        while (true) {
+            buffer.clear();
+            channel.read(buffer, offset);
+            buffer.flip();
+            try {
+                String customerId = readString(buffer);
+                String name = readString(buffer);
+                int age = buffer.getInt();
+                String contact = readString(buffer);
+                String address = readString(buffer);
+                String customerType = table[buffer.getInt()];
+                if (header.checksummed()
+                        && buffer.getInt(buffer.position()) != RecordChecksum.of(buffer.array(), 0, buffer.position())) {
+                    throw new CorruptRecordException("Customer record at " + offset + " failed its checksum");
+                }
+                return newCustomer(customerId, name, age, contact, address, customerType);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                // Record longer than the buffer, or cut off by the end of the file
+                if (buffer.limit() < buffer.capacity()) {
+                    throw new EOFException("Customer record at " + offset + " runs past the end of the file");
+                }
+                buffer = ByteBuffer.allocate(buffer.capacity() * 4);
+            }
+        }
+    }
+
+    private static Customer newCustomer(String customerId, String name, int age, String contact,
+                                        String address, String customerType) {
+        if (customerType.equals("Premium")) {
+            return new PremiumCustomer(customerId, name, age, contact, address);
+        }
+        return new RegularCustomer(customerId, name, age, contact, address);
+    }
+
+    // Accounts whose customer is missing from the lookup are skipped
+    public static List<Account> readAccounts(Path file, Map<String, Customer> customersById) throws IOException {
+        try (RecordInput in = openForRead(file)) {
+            String[] table = readHeader(in, KIND_ACCOUNTS, file);
+            int count = in.readInt();
+            List<Account> accounts = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                in.beginRecord();
+                String accountNumber = readString(in);
+                String accountType = table[in.readInt()];
+                String customerId = table[in.readInt()];
+                double balance = in.readDouble();
+                String status = table[in.readInt()];
+                in.readDouble(); // type-specific settings are fixed per account type
+                in.readDouble();
+                in.endRecord(file, i);
+
+                Customer customer = customersById.get(customerId);
+                if (customer == null) {
+                    continue;
+                }
+
+                if (accountType.equals("Savings")) {
+                    accounts.add(new SavingsAccount(accountNumber, customer, balance, status));
+                } else {
+                    accounts.add(new CheckingAccount(accountNumber, customer, balance, status));
+                }
+            }
+            return accounts;
+        }
+    }
+
+    public static List<Transaction> readTransactions(Path file) throws IOException {
+        try (RecordInput in = openForRead(file)) {
+            String[] table = readHeader(in, KIND_TRANSACTIONS, file);
+            int count = in.readInt();
+            List<Transaction> transactions = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                in.beginRecord();
+                String transactionId = readString(in);
+                String accountNumber = table[in.readInt()];
+                String type = table[in.readInt()];
+                double amount = in.readDouble();
+                double balanceAfter = in.readDouble();
+                String timestamp = table[in.readInt()];
+                in.endRecord(file, i);
+
+                transactions.add(new Transaction(transactionId, accountNumber, type,
+                        amount, balanceAfter, timestamp));
+            }
+            return transactions;
+        }
+    }
+
+    // ---------------------------------------------------------------- verifying
+
+    // Checks every record's checksum without building objects; stops at the first unreadable record
+    static void verify(Path file, DatasetVerifier.Tally tally) throws IOException {
+        try (RecordInput in = openForRead(file)) {
+            readHeader(in, ANY_KIND, file);
+            byte kind = in.kind;
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                in.beginRecord();
+                switch (kind) {
+                    case KIND_CUSTOMERS -> {
+                        skipString(in);
+                        skipString(in);
+                        in.readInt();
+                        skipString(in);
+                        skipString(in);
+                        in.readInt();
+                    }
+                    case KIND_ACCOUNTS -> {
+                        skipString(in);
+                        in.skipNBytes(4 + 4 + 8 + 4 + 8 + 8);
+                    }
+                    default -> {
+                        skipString(in);
+                        in.skipNBytes(4 + 4 + 8 + 8 + 4);
+                    }
+                }
+                if (!in.checked) {
+                    tally.unchecked++;
+                } else if (in.recordIntact()) {
+                    tally.records++;
+                } else {
+                    tally.corrupt("record " + i);
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- helpers
+
+    private static RecordOutput openForWrite(Path file) throws IOException {
+        return new RecordOutput(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+    }
+
+    private static RecordInput openForRead(Path file) throws IOException {
+        return new RecordInput(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+    }
+
+    private static void writeHeader(DataOutputStream out, byte kind, StringTable table, int recordCount)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeByte(kind);
+        out.writeByte(0); // reserved
+
+        out.writeInt(table.size());
+        for (String value : table.values()) {
+            writeString(out, value);
+        }
+        out.writeInt(recordCount);
+    }
+
+    private static String[] readHeader(RecordInput in, byte expectedKind, Path file) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a binary dataset file: " + file);
+        }
+        short version = in.readShort();
+        if (version != VERSION && version != UNCHECKED_VERSION) {
+            throw new IOException("Unsupported dataset version " + version + " in " + file);
+        }
+        in.checked = version == VERSION;
+        byte kind = in.readByte();
+        if (kind < KIND_CUSTOMERS || kind > KIND_TRANSACTIONS || (expectedKind != ANY_KIND && kind != expectedKind)) {
+            throw new IOException("Unexpected record kind " + kind + " in " + file);
+        }
+        in.kind = kind;
+        in.readByte(); // reserved
+
+        String[] table = new String[in.readInt()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = readString(in);
+        }
+        return table;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IOException("String field too long to encode (" + bytes.length + " bytes)");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(DataInputStream in) throws IOException {
+        in.skipNBytes(in.readUnsignedShort());
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Writes the CRC32C of each record's bytes after the record
+    private static final class RecordOutput extends DataOutputStream {
+        private final CRC32C crc;
+
+        RecordOutput(OutputStream out) {
+            this(out, new CRC32C());
+        }
+
+        private RecordOutput(OutputStream out, CRC32C crc) {
+            super(new CheckedOutputStream(out, crc));
+            this.crc = crc;
+        }
+
+        void beginRecord() {
+            crc.reset();
+        }
+
+        void endRecord() throws IOException {
+            writeInt((int) crc.getValue());
+        }
+    }
+
+    // Checks the CRC32C after each record of a version 2 file
+    private static final class RecordInput extends DataInputStream {
+        private final CRC32C crc;
+        boolean checked;
+        byte kind;
+
+        RecordInput(InputStream in) {
+            this(in, new CRC32C());
+        }
+
+        private RecordInput(InputStream in, CRC32C crc) {
+            super(new CheckedInputStream(in, crc));
+            this.crc = crc;
+        }
+
+        void beginRecord() {
+            crc.reset();
+        }
+
+        boolean recordIntact() throws IOException {
+            if (!checked) {
+                return true;
+            }
+            int expected = (int) crc.getValue();
+            return readInt() == expected;
+        }
+
+        void endRecord(Path file, int index) throws IOException {
+            if (!recordIntact()) {
+                throw new IOException("Record " + index + " of " + file + " failed its checksum");
+            }
+        }
+    }
+
+    // Counts bytes passed through, so record offsets can be reported while streaming
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    // Distinct values in first-seen order, addressed by index
+    private static class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        void add(String value) {
+            if (!indexes.containsKey(value)) {
+                indexes.put(value, values.size());
+                values.add(value);
+            }
+        }
+
+        int indexOf(String value) {
+            return indexes.get(value);
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        List<String> values() {
+            return values;
+        }
+    }
+}
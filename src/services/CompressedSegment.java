@@ -0,0 +1,378 @@
+package services;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+import java.util.function.ToLongFunction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only, block-compressed copy of a sealed transaction log segment
+ * (segment-NNNNNN.blk).
+ *
+ * Whole records are grouped into blocks of about 16 KB that are deflated
+ * independently, so any block can be read without the ones before it. A block
+ * index at the end of the file gives, per block, its position in the original
+ * segment and in this file, the sequence number of its first record and the
+ * earliest and latest record time. Offsets from the segment's .idx file stay
+ * valid: they are positions in the uncompressed segment.
+ *
+ * Layout: "TXBZ" magic and version, the compressed blocks, the block index,
+ * then a footer with the index position, the block count and the magic again.
+ */
+final class CompressedSegment implements Closeable {
+    private static final int MAGIC = 0x5458425A; // "TXBZ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int FOOTER_SIZE = 16;
+    private static final int ENTRY_SIZE = 52;
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int blockCount;
+    private final long[] rawStarts;
+    private final long[] fileOffsets;
+    private final int[] compressedLengths;
+    private final int[] rawLengths;
+    private final long[] firstSequences;
+    private final long[] minTimes;
+    private final long[] maxTimes;
+    private final int[] recordCounts;
+
+    // One decompressed block is kept, since index lookups for an account tend to cluster
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[0];
+    private byte[] cachedBytes = new byte[0];
+    private int cachedBlock = -1;
+    private long blocksInflated;
+
+    private CompressedSegment(Path path, FileChannel channel, ByteBuffer index, int blockCount) {
+        this.path = path;
+        this.channel = channel;
+        this.blockCount = blockCount;
+        rawStarts = new long[blockCount];
+        fileOffsets = new long[blockCount];
+        compressedLengths = new int[blockCount];
+        rawLengths = new int[blockCount];
+        firstSequences = new long[blockCount];
+        minTimes = new long[blockCount];
+        maxTimes = new long[blockCount];
+        recordCounts = new int[blockCount];
+
+        for (int block = 0; block < blockCount; block++) {
+            rawStarts[block] = index.getLong();
+            fileOffsets[block] = index.getLong();
+            compressedLengths[block] = index.getInt();
+            rawLengths[block] = index.getInt();
+            firstSequences[block] = index.getLong();
+            minTimes[block] = index.getLong();
+            maxTimes[block] = index.getLong();
+            recordCounts[block] = index.getInt();
+        }
+    }
+
+    static CompressedSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE + FOOTER_SIZE) {
+                throw new IOException("Truncated compressed segment: " + path);
+            }
+            ByteBuffer header = readAt(channel, 0, HEADER_SIZE);
+            ByteBuffer footer = readAt(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            int blocks = footer.getInt();
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || footer.getInt() != MAGIC
+                    || blocks < 0 || indexOffset + (long) blocks * ENTRY_SIZE != size - FOOTER_SIZE) {
+                throw new IOException("Not a compressed transaction segment: " + path);
+            }
+            return new CompressedSegment(path, channel, readAt(channel, indexOffset, blocks * ENTRY_SIZE), blocks);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Deflates a raw segment (4-byte length-prefixed records) into target.
+     * timeOf gives a record body's time in epoch milliseconds, or -1 when unknown.
+     * The file is written beside target and renamed into place once complete.
+     */
+    static void write(Path rawSegment, Path target, long firstSequence, ToLongFunction<ByteBuffer> timeOf)
+            throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(rawSegment), BLOCK_SIZE));
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            BlockWriter writer = new BlockWriter(out, deflater, firstSequence);
+            writeFully(out, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip());
+
+            long rawSize = Files.size(rawSegment);
+            long position = 0;
+            while (position < rawSize) {
+                int length = in.readInt();
+                if (length < 0 || position + 4 + length > rawSize) {
+                    throw new IOException("Corrupt record in " + rawSegment);
+                }
+                byte[] record = writer.reserve(length + 4);
+                int start = writer.fill;
+                ByteBuffer.wrap(record, start, 4).putInt(length);
+                in.readFully(record, start + 4, length);
+                writer.add(length + 4, timeOf.applyAsLong(ByteBuffer.wrap(record, start + 4, length).slice()));
+                position += length + 4;
+            }
+            writer.finish();
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    int blockCount() {
+        return blockCount;
+    }
+
+    long firstSequence(int block) {
+        return firstSequences[block];
+    }
+
+    long minTime(int block) {
+        return minTimes[block];
+    }
+
+    long maxTime(int block) {
+        return maxTimes[block];
+    }
+
+    long rawSize() {
+        return blockCount == 0 ? 0 : rawStarts[blockCount - 1] + rawLengths[blockCount - 1];
+    }
+
+    long compressedSize() throws IOException {
+        return channel.size();
+    }
+
+    // Blocks decompressed since the segment was opened (cache hits excluded)
+    long blocksInflated() {
+        return blocksInflated;
+    }
+
+    // Block holding the record with this sequence number (the first block for earlier ones)
+    int blockForSequence(long sequence) {
+        return Math.max(0, floorIndex(firstSequences, sequence));
+    }
+
+    // Body of the record at this offset in the uncompressed segment
+    ByteBuffer recordAt(long rawOffset) throws IOException {
+        int block = floorIndex(rawStarts, rawOffset);
+        if (block < 0 || rawOffset >= rawStarts[block] + rawLengths[block]) {
+            throw new IOException("No record at offset " + rawOffset + " in " + path);
+        }
+        byte[] bytes = inflate(block);
+        int position = (int) (rawOffset - rawStarts[block]);
+        int length = ByteBuffer.wrap(bytes, position, 4).getInt();
+        return ByteBuffer.wrap(bytes, position + 4, length).slice();
+    }
+
+    // Visits each record body in blocks [fromBlock, toBlock) with its sequence number
+    void forEachRecord(int fromBlock, int toBlock, ObjLongConsumer<ByteBuffer> visitor) throws IOException {
+        for (int block = fromBlock; block < toBlock; block++) {
+            byte[] bytes = inflate(block);
+            int position = 0;
+            for (int i = 0; i < recordCounts[block]; i++) {
+                int length = ByteBuffer.wrap(bytes, position, 4).getInt();
+                visitor.accept(ByteBuffer.wrap(bytes, position + 4, length).slice(), firstSequences[block] + i);
+                position += length + 4;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    private byte[] inflate(int block) throws IOException {
+        if (block == cachedBlock) {
+            return cachedBytes;
+        }
+
+        int length = compressedLengths[block];
+        if (compressed.length < length) {
+            compressed = new byte[length];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, fileOffsets[block] + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + path);
+            }
+        }
+
+        int rawLength = rawLengths[block];
+        if (cachedBytes.length < rawLength) {
+            cachedBytes = new byte[rawLength];
+        }
+        cachedBlock = -1;
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        int inflated = 0;
+        try {
+            while (inflated < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(cachedBytes, inflated, rawLength - inflated);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                inflated += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + block + " in " + path, e);
+        }
+        if (inflated != rawLength) {
+            throw new IOException("Corrupt block " + block + " in " + path);
+        }
+
+        cachedBlock = block;
+        blocksInflated++;
+        return cachedBytes;
+    }
+
+    // Last index whose value is <= key, or -1
+    private int floorIndex(long[] values, long key) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of compressed segment");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Collects records into a block, deflates it when full and keeps its index entry
+    private static final class BlockWriter {
+        private final FileChannel out;
+        private final Deflater deflater;
+        private byte[] block = new byte[BLOCK_SIZE];
+        private byte[] deflated = new byte[BLOCK_SIZE];
+        private ByteBuffer index = ByteBuffer.allocate(64 * ENTRY_SIZE);
+        private int fill;
+        private int blocks;
+        private long rawPosition;
+        private long filePosition = HEADER_SIZE;
+        private long sequence;
+        private long blockFirstSequence;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+
+        BlockWriter(FileChannel out, Deflater deflater, long firstSequence) {
+            this.out = out;
+            this.deflater = deflater;
+            this.sequence = firstSequence;
+            this.blockFirstSequence = firstSequence;
+        }
+
+        // Room for a record of this many bytes at block[fill], closing the current block first if needed
+        byte[] reserve(int length) throws IOException {
+            if (fill > 0 && fill + length > BLOCK_SIZE) {
+                flushBlock();
+            }
+            if (block.length < fill + length) {
+                block = Arrays.copyOf(block, fill + length);
+            }
+            return block;
+        }
+
+        void add(int length, long time) {
+            if (time < 0) {
+                // Unknown time: the block must never be ruled out by a time range
+                minTime = Long.MIN_VALUE;
+                maxTime = Long.MAX_VALUE;
+            } else {
+                minTime = Math.min(minTime, time);
+                maxTime = Math.max(maxTime, time);
+            }
+            fill += length;
+            sequence++;
+        }
+
+        void finish() throws IOException {
+            if (fill > 0) {
+                flushBlock();
+            }
+            long indexOffset = filePosition;
+            writeFully(out, index.flip());
+            writeFully(out, ByteBuffer.allocate(FOOTER_SIZE).putLong(indexOffset).putInt(blocks).putInt(MAGIC).flip());
+        }
+
+        private void flushBlock() throws IOException {
+            deflater.reset();
+            deflater.setInput(block, 0, fill);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == deflated.length) {
+                    deflated = Arrays.copyOf(deflated, deflated.length * 2);
+                }
+                length += deflater.deflate(deflated, length, deflated.length - length);
+            }
+            writeFully(out, ByteBuffer.wrap(deflated, 0, length));
+
+            if (index.remaining() < ENTRY_SIZE) {
+                ByteBuffer grown = ByteBuffer.allocate(index.capacity() * 2);
+                grown.put(index.flip());
+                index = grown;
+            }
+            index.putLong(rawPosition).putLong(filePosition).putInt(length).putInt(fill)
+                    .putLong(blockFirstSequence).putLong(minTime).putLong(maxTime)
+                    .putInt((int) (sequence - blockFirstSequence));
+
+            blocks++;
+            rawPosition += fill;
+            filePosition += length;
+            fill = 0;
+            blockFirstSequence = sequence;
+            minTime = Long.MAX_VALUE;
+            maxTime = Long.MIN_VALUE;
+        }
+    }
+}
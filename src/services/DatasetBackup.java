@@ -0,0 +1,339 @@
+package services;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point-in-time copies of the dataset, each in its own directory
+ * (backup-yyyyMMdd-HHmmss-SSS) with a manifest of every file it holds.
+ *
+ * Accounts and customers are written as checksummed text from a copy taken at
+ * the moment of the backup. Transactions come from the transaction log, frozen
+ * at the same moment: sealed segments are copied whole and the active segment
+ * up to its length at the freeze, so appends that carry on meanwhile are not
+ * part of the copy. In the text format the transactions are written as text.
+ *
+ * The manifest (backup.manifest) lists each file's size and CRC32C and is
+ * written last; a directory without one is an incomplete backup. Restores
+ * check the backup against its manifest, copy it, and check the copy again.
+ */
+public final class DatasetBackup {
+    public static final String MANIFEST_FILE = "backup.manifest";
+    private static final String DIRECTORY_PREFIX = "backup-";
+    private static final DateTimeFormatter DIRECTORY_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private static final String BACKUP = "BACKUP";
+    private static final String FILE = "FILE";
+
+    public record FileEntry(String name, long bytes, int crc) {}
+
+    public record Manifest(String created, long accounts, long customers, long transactions, List<FileEntry> files) {
+        public long bytes() {
+            return files.stream().mapToLong(FileEntry::bytes).sum();
+        }
+    }
+
+    // Outcome of checking a directory against a manifest; clean when problems is empty
+    public record Verification(Path directory, Manifest manifest, List<String> problems, long durationNanos) {
+        public boolean isClean() {
+            return problems.isEmpty();
+        }
+
+        public double durationMillis() {
+            return durationNanos / 1_000_000.0;
+        }
+    }
+
+    private final Path directory;
+    private final LocalDateTime created;
+    private final List<FileEntry> files = new ArrayList<>();
+    private volatile Manifest manifest;
+
+    private DatasetBackup(Path directory, LocalDateTime created) {
+        this.directory = directory;
+        this.created = created;
+    }
+
+    // Creates a new, empty backup directory under the root
+    static DatasetBackup create(Path backupRoot) throws IOException {
+        Files.createDirectories(backupRoot);
+        LocalDateTime now = LocalDateTime.now();
+        Path directory = backupRoot.resolve(DIRECTORY_PREFIX + now.format(DIRECTORY_NAME));
+        Files.createDirectory(directory);
+        return new DatasetBackup(directory, now);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Null until the backup has been committed
+    public Manifest getManifest() {
+        return manifest;
+    }
+
+    // Writes a text file through the content's writer; returns the number of records in it
+    int writeText(String name, SnapshotWriter.Content content) throws IOException {
+        return writeText(name, null, content);
+    }
+
+    // Same, through an encoding (encrypted datasets keep their backups encrypted)
+    int writeText(String name, SnapshotWriter.Encoding encoding, SnapshotWriter.Content content) throws IOException {
+        Path target = directory.resolve(name);
+        CRC32C crc = new CRC32C();
+        int records;
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            OutputStream out = new CheckedOutputStream(Channels.newOutputStream(channel), crc);
+            if (encoding != null) {
+                out = encoding.wrap(out);
+            }
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            records = content.writeTo(writer);
+            writer.flush();
+            if (encoding != null) {
+                out.close();
+            }
+            channel.force(true);
+            files.add(new FileEntry(name, channel.size(), (int) crc.getValue()));
+        }
+        return records;
+    }
+
+    // Copies the log's files as of now into the named subdirectory; returns the records they hold
+    long copyLog(String name, TransactionLog log) throws IOException {
+        TransactionLog.Frozen frozen = log.freeze();
+        try {
+            Files.createDirectories(directory.resolve(name));
+            for (TransactionLog.FrozenFile file : frozen.files()) {
+                copy(name + "/" + file.name(), file.channel(), file.length());
+            }
+        } finally {
+            for (TransactionLog.FrozenFile file : frozen.files()) {
+                file.close();
+            }
+        }
+        return frozen.records();
+    }
+
+    private void copy(String name, FileChannel source, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        try (FileChannel target = FileChannel.open(directory.resolve(name), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            long position = 0;
+            while (position < length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - position));
+                int read = source.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException(name + " ended before the length it was frozen at");
+                }
+                buffer.flip();
+                crc.update(buffer);
+                buffer.rewind();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                position += read;
+            }
+            target.force(true);
+        }
+        files.add(new FileEntry(name, length, (int) crc.getValue()));
+    }
+
+    // Writes the manifest, which makes the backup complete
+    Manifest commit(long accounts, long customers, long transactions) throws IOException {
+        Manifest committed = new Manifest(created.toString(), accounts, customers, transactions, List.copyOf(files));
+        List<String> lines = new ArrayList<>(files.size() + 1);
+        lines.add(String.join("|", BACKUP, committed.created(), Long.toString(accounts),
+                Long.toString(customers), Long.toString(transactions)));
+        for (FileEntry file : committed.files()) {
+            lines.add(String.join("|", FILE, file.name(), Long.toString(file.bytes()),
+                    Integer.toHexString(file.crc())));
+        }
+        ManifestFile.write(directory.resolve(MANIFEST_FILE), lines);
+        manifest = committed;
+        return committed;
+    }
+
+    // Removes a backup that failed part way
+    void discard() {
+        try {
+            deleteRecursively(directory);
+        } catch (IOException | UncheckedIOException ignored) {
+            // Without a manifest the leftovers are never mistaken for a backup
+        }
+    }
+
+    // The most recent complete backup under the root, or null
+    public static Path latest(Path backupRoot) throws IOException {
+        if (!Files.isDirectory(backupRoot)) {
+            return null;
+        }
+        Path latest = null;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(backupRoot, DIRECTORY_PREFIX + "*")) {
+            for (Path directory : stream) {
+                if (Files.exists(directory.resolve(MANIFEST_FILE))
+                        && (latest == null || directory.getFileName().compareTo(latest.getFileName()) > 0)) {
+                    latest = directory;
+                }
+            }
+        }
+        return latest;
+    }
+
+    public static Manifest readManifest(Path backupDir) throws IOException {
+        Path path = backupDir.resolve(MANIFEST_FILE);
+        if (!Files.exists(path)) {
+            throw new IOException("No " + MANIFEST_FILE + " in " + backupDir + "; the backup is incomplete");
+        }
+
+        Manifest header = null;
+        List<FileEntry> files = new ArrayList<>();
+        for (String[] parts : ManifestFile.read(path)) {
+            try {
+                switch (parts[0]) {
+                    case BACKUP -> header = new Manifest(parts[1], Long.parseLong(parts[2]),
+                            Long.parseLong(parts[3]), Long.parseLong(parts[4]), List.of());
+                    case FILE -> files.add(new FileEntry(parts[1], Long.parseLong(parts[2]),
+                            Integer.parseUnsignedInt(parts[3], 16)));
+                    default -> throw new IOException("Unknown manifest entry " + parts[0]);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Manifest in " + backupDir + " is malformed", e);
+            }
+        }
+        if (header == null) {
+            throw new IOException("Manifest in " + backupDir + " is incomplete");
+        }
+        return new Manifest(header.created(), header.accounts(), header.customers(), header.transactions(),
+                List.copyOf(files));
+    }
+
+    // Checks every file of the backup against its manifest, in parallel
+    public static Verification verify(Path backupDir) throws IOException {
+        long start = System.nanoTime();
+        Manifest manifest = readManifest(backupDir);
+        List<String> problems = check(backupDir, manifest);
+        problems.addAll(unlisted(backupDir, manifest));
+        return new Verification(backupDir, manifest, List.copyOf(problems), System.nanoTime() - start);
+    }
+
+    // Verifies the backup, copies it into targetDir (which must be empty or missing) and checks
+    // the copy against the manifest; returns the check of the copy
+    public static Verification restore(Path backupDir, Path targetDir) throws IOException {
+        Verification backup = verify(backupDir);
+        if (!backup.isClean()) {
+            throw new IOException("Backup " + backupDir.getFileName() + " failed verification: "
+                    + backup.problems().get(0));
+        }
+        if (Files.exists(targetDir)) {
+            try (Stream<Path> entries = Files.list(targetDir)) {
+                if (entries.findAny().isPresent()) {
+                    throw new IOException("Restore target " + targetDir + " is not empty");
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        for (FileEntry file : backup.manifest().files()) {
+            Path target = targetDir.resolve(file.name());
+            Files.createDirectories(target.getParent());
+            Files.copy(backupDir.resolve(file.name()), target);
+        }
+        List<String> problems = check(targetDir, backup.manifest());
+        return new Verification(targetDir, backup.manifest(), List.copyOf(problems), System.nanoTime() - start);
+    }
+
+    private static List<String> check(Path directory, Manifest manifest) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        List<ForkJoinTask<String>> tasks = new ArrayList<>(manifest.files().size());
+        for (FileEntry file : manifest.files()) {
+            tasks.add(pool.submit(() -> checkFile(directory, file)));
+        }
+
+        List<String> problems = new ArrayList<>();
+        for (ForkJoinTask<String> task : tasks) {
+            try {
+                String problem = task.get();
+                if (problem != null) {
+                    problems.add(problem);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while verifying backup", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Verification failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return problems;
+    }
+
+    // Null when the file matches its entry
+    private static String checkFile(Path directory, FileEntry file) {
+        Path path = directory.resolve(file.name());
+        if (!Files.exists(path)) {
+            return file.name() + " is missing";
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() != file.bytes()) {
+                return String.format("%s is %,d bytes, the manifest says %,d", file.name(), channel.size(),
+                        file.bytes());
+            }
+            if (RecordChecksum.ofFile(channel) != file.crc()) {
+                return file.name() + " does not match its checksum";
+            }
+            return null;
+        } catch (IOException e) {
+            return file.name() + " is unreadable: " + e.getMessage();
+        }
+    }
+
+    private static List<String> unlisted(Path backupDir, Manifest manifest) throws IOException {
+        Set<String> listed = new HashSet<>();
+        for (FileEntry file : manifest.files()) {
+            listed.add(file.name());
+        }
+        List<String> problems = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(backupDir)) {
+            paths.filter(Files::isRegularFile)
+                    .map(path -> backupDir.relativize(path).toString().replace('\\', '/'))
+                    .filter(name -> !name.equals(MANIFEST_FILE) && !listed.contains(name))
+                    .sorted()
+                    .forEach(name -> problems.add(name + " is not in the manifest"));
+        }
+        return problems;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * AES keys for encrypted dataset files, kept in a local PKCS12 keystore.
+ *
+ * Keys are stored under the aliases dataset-1, dataset-2, ...; new files are
+ * encrypted with the highest one, and every encrypted file names the alias it
+ * was written with, so files written under an older key stay readable after
+ * {@link #rotate()}. A keystore that does not exist yet is created with one
+ * fresh 256-bit key.
+ */
+public final class DatasetKeys {
+    private static final String KEYSTORE_TYPE = "PKCS12";
+    private static final String ALIAS_PREFIX = "dataset-";
+    private static final int KEY_BITS = 256;
+
+    private final Path keystoreFile;
+    private final char[] password;
+    private final Map<String, SecretKey> keys;
+    private final String currentAlias;
+
+    private DatasetKeys(Path keystoreFile, char[] password, Map<String, SecretKey> keys, String currentAlias) {
+        this.keystoreFile = keystoreFile;
+        this.password = password;
+        this.keys = keys;
+        this.currentAlias = currentAlias;
+    }
+
+    // Loads the keystore, creating it with a new key if it does not exist
+    public static DatasetKeys open(Path keystoreFile, char[] password) throws IOException {
+        char[] copy = password.clone();
+        if (!Files.exists(keystoreFile)) {
+            return store(keystoreFile, copy, Map.of(), 1);
+        }
+
+        try (InputStream in = Files.newInputStream(keystoreFile)) {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+            keyStore.load(in, copy);
+            Map<String, SecretKey> keys = new HashMap<>();
+            String current = null;
+            for (String alias : Collections.list(keyStore.aliases())) {
+                if (alias.startsWith(ALIAS_PREFIX)
+                        && keyStore.getEntry(alias, new KeyStore.PasswordProtection(copy))
+                                instanceof KeyStore.SecretKeyEntry entry) {
+                    keys.put(alias, entry.getSecretKey());
+                    if (current == null || number(alias) > number(current)) {
+                        current = alias;
+                    }
+                }
+            }
+            if (current == null) {
+                throw new IOException("Keystore " + keystoreFile + " holds no dataset keys");
+            }
+            return new DatasetKeys(keystoreFile, copy, Map.copyOf(keys), current);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to read keystore " + keystoreFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Adds a new key that later saves encrypt with; existing files keep their key
+    public DatasetKeys rotate() throws IOException {
+        return store(keystoreFile, password, keys, number(currentAlias) + 1);
+    }
+
+    public String getCurrentAlias() {
+        return currentAlias;
+    }
+
+    SecretKey currentKey() {
+        return keys.get(currentAlias);
+    }
+
+    SecretKey key(String alias) throws IOException {
+        SecretKey key = keys.get(alias);
+        if (key == null) {
+            throw new IOException("Keystore " + keystoreFile.getFileName() + " has no key " + alias);
+        }
+        return key;
+    }
+
+    // Writes the keys plus a new one under the given number, replacing the keystore file atomically
+    private static DatasetKeys store(Path keystoreFile, char[] password, Map<String, SecretKey> existing,
+                                     int newNumber) throws IOException {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(KEY_BITS);
+            Map<String, SecretKey> keys = new HashMap<>(existing);
+            String alias = ALIAS_PREFIX + newNumber;
+            keys.put(alias, generator.generateKey());
+
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+            keyStore.load(null, password);
+            for (Map.Entry<String, SecretKey> key : keys.entrySet()) {
+                keyStore.setEntry(key.getKey(), new KeyStore.SecretKeyEntry(key.getValue()),
+                        new KeyStore.PasswordProtection(password));
+            }
+
+            Path parent = keystoreFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = parent.resolve(keystoreFile.getFileName() + ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    keyStore.store(out, password);
+                }
+                restrictToOwner(temp);
+                Files.move(temp, keystoreFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            return new DatasetKeys(keystoreFile, password, Map.copyOf(keys), alias);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to write keystore " + keystoreFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void restrictToOwner(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException ignored) {
+            // Not a POSIX file system; the keystore password still protects the keys
+        }
+    }
+
+    private static int number(String alias) {
+        return Integer.parseInt(alias.substring(ALIAS_PREFIX.length()));
+    }
+}
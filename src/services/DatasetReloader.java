@@ -0,0 +1,277 @@
+package services;
+
+import utils.CustomUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks up text dataset files that are replaced or edited while the
+ * application runs, and applies only what changed in them.
+ *
+ * For every watched file the reloader remembers a fingerprint (CRC32C) of each
+ * record line by its key. When the directory watcher reports a change, the file
+ * is read and split into lines without parsing; only lines whose fingerprint
+ * differs from the remembered one go to the file's handler, which parses them
+ * and applies them to the managers in one short step. Reading and diffing run on
+ * the reloader's own thread, so nothing else waits for them.
+ *
+ * Files that the snapshot writer installed itself are recognised by their
+ * checksum: their fingerprints are taken over, but nothing is applied, because
+ * the data already came from memory. Records missing from a changed file are
+ * reported, never deleted.
+ */
+public final class DatasetReloader implements AutoCloseable {
+    // Lets a copy in progress finish before the file is read
+    private static final long SETTLE_MILLIS = 200;
+
+    // Parses changed lines and applies them; returns the number of records that changed
+    @FunctionalInterface
+    interface Handler {
+        int apply(List<String> lines) throws IOException;
+    }
+
+    public record Reload(String file, int linesChanged, int recordsApplied, int recordsMissing,
+                         long durationNanos) {
+        public double durationMillis() {
+            return durationNanos / 1_000_000.0;
+        }
+    }
+
+    // Fingerprints of one file's lines by record key, and the checksum of the whole file they
+    // were taken from
+    private static final class Watched {
+        final Handler handler;
+        Map<String, Integer> fingerprints = new HashMap<>();
+        int fileChecksum;
+        boolean exists;
+
+        Watched(Handler handler) {
+            this.handler = handler;
+        }
+    }
+
+    private final Path directory;
+    private final SnapshotWriter snapshots;
+    private final Map<String, Watched> watched = new LinkedHashMap<>();
+    private final AtomicLong reloads = new AtomicLong();
+    private volatile Reload lastReload;
+
+    private WatchService watchService;
+    private Thread thread;
+
+    DatasetReloader(Path directory, SnapshotWriter snapshots) {
+        this.directory = directory;
+        this.snapshots = snapshots;
+    }
+
+    // Files are checked in the order they are added, so customers can go before the accounts
+    // that refer to them
+    DatasetReloader watch(String fileName, Handler handler) {
+        watched.put(fileName, new Watched(handler));
+        return this;
+    }
+
+    // Takes the fingerprints of the files as they are now, then starts watching the directory
+    void start() throws IOException {
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        synchronized (this) {
+            for (Map.Entry<String, Watched> entry : watched.entrySet()) {
+                scan(entry.getKey(), entry.getValue(), false);
+            }
+        }
+
+        thread = new Thread(this::watchLoop, "dataset-reloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+    // Null until a change has been applied
+    public Reload getLastReload() {
+        return lastReload;
+    }
+
+    // Checks every watched file now instead of waiting for the watcher; returns the reloads done
+    public synchronized List<Reload> checkNow() throws IOException {
+        List<Reload> done = new ArrayList<>();
+        for (Map.Entry<String, Watched> entry : watched.entrySet()) {
+            Reload reload = scan(entry.getKey(), entry.getValue(), true);
+            if (reload != null) {
+                done.add(reload);
+            }
+        }
+        return done;
+    }
+
+    @Override
+    public void close() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            CustomUtils.printError("Failed to close dataset watcher: " + e.getMessage());
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        watchService = null;
+    }
+
+    private void watchLoop() {
+        WatchService service = watchService;
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Set<String> names = new HashSet<>();
+                collect(key, names);
+                // Further events for a file still being written arrive while we wait
+                Thread.sleep(SETTLE_MILLIS);
+                while ((key = service.poll()) != null) {
+                    collect(key, names);
+                }
+                if (names.stream().anyMatch(watched::containsKey)) {
+                    checkAndReport();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed: stop watching
+        }
+    }
+
+    private void collect(WatchKey key, Set<String> names) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path path) {
+                names.add(path.toString());
+            } else if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                names.addAll(watched.keySet());
+            }
+        }
+        key.reset();
+    }
+
+    private void checkAndReport() {
+        try {
+            for (Reload reload : checkNow()) {
+                CustomUtils.print(String.format("Reloaded %s: %d changed line(s), %d record(s) updated in %.1f ms",
+                        reload.file(), reload.linesChanged(), reload.recordsApplied(), reload.durationMillis()));
+                if (reload.recordsMissing() > 0) {
+                    CustomUtils.printError(reload.recordsMissing() + " record(s) missing from " + reload.file()
+                            + " were kept");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            CustomUtils.printError("Failed to reload dataset files: " + e.getMessage());
+        }
+    }
+
+    // Diffs the file against its fingerprints and applies the changed lines; null when the file is
+    // unchanged, missing, or was written by the snapshot writer
+    private Reload scan(String fileName, Watched file, boolean apply) throws IOException {
+        long start = System.nanoTime();
+        Path path = directory.resolve(fileName);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            file.exists = false;
+            return null;
+        }
+
+        int checksum = RecordChecksum.of(bytes, 0, bytes.length);
+        if (file.exists && checksum == file.fileChecksum) {
+            return null;
+        }
+        Integer installed = snapshots.installedChecksum(path);
+        boolean ownWrite = installed != null && installed == checksum;
+
+        RecordChecksum lineChecksum = new RecordChecksum();
+        Map<String, Integer> fingerprints = new HashMap<>(Math.max(16, file.fingerprints.size() * 4 / 3 + 1));
+        List<String> changed = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i < bytes.length && bytes[i] != '\n') {
+                continue;
+            }
+            int lineEnd = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+            int payloadEnd = lineEnd > lineStart ? lineChecksum.checkTextLine(bytes, lineStart, lineEnd)
+                    : RecordChecksum.CORRUPT;
+            String key = payloadEnd == RecordChecksum.CORRUPT ? null : keyOf(bytes, lineStart, payloadEnd);
+            if (key != null) {
+                int fingerprint = RecordChecksum.of(bytes, lineStart, payloadEnd - lineStart);
+                Integer previous = file.fingerprints.get(key);
+                if (previous == null || previous != fingerprint) {
+                    changed.add(new String(bytes, lineStart, payloadEnd - lineStart, StandardCharsets.UTF_8));
+                }
+                fingerprints.put(key, fingerprint);
+            }
+            lineStart = i + 1;
+        }
+
+        int missing = 0;
+        for (String key : file.fingerprints.keySet()) {
+            if (!fingerprints.containsKey(key)) {
+                missing++;
+            }
+        }
+
+        // Taken over before applying: a line that fails to parse is not retried until it changes
+        file.fingerprints = fingerprints;
+        file.fileChecksum = checksum;
+        file.exists = true;
+        if (!apply || ownWrite) {
+            return null;
+        }
+
+        int applied = changed.isEmpty() ? 0 : file.handler.apply(changed);
+        Reload reload = new Reload(fileName, changed.size(), applied, missing, System.nanoTime() - start);
+        lastReload = reload;
+        reloads.incrementAndGet();
+        return reload;
+    }
+
+    // The second field of a record line, or null for a line without one
+    private static String keyOf(byte[] bytes, int start, int end) {
+        int first = indexOf(bytes, start, end);
+        if (first < 0) {
+            return null;
+        }
+        int second = indexOf(bytes, first + 1, end);
+        return new String(bytes, first + 1, (second < 0 ? end : second) - first - 1, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == '|') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,283 @@
+package services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Checks the record checksums of every file in a dataset directory.
+ *
+ * Text files (including the shards of a partitioned dataset and their
+ * manifests) are split on line boundaries and the account table into record
+ * ranges, so large files are checked by several workers at once; binary dataset
+ * files and log segments are checked one task per file. Records are checked
+ * over mapped or streamed bytes without being parsed into objects, so the pass
+ * runs close to the speed the files can be read.
+ *
+ * Files can be checked while the dataset is open. A record torn at the end of
+ * the log segment being written is not reported, as the log drops it on open.
+ */
+public final class DatasetVerifier {
+    private static final long TEXT_CHUNK_BYTES = 8L << 20; // 8 MB
+    private static final int TABLE_CHUNK_RECORDS = 1 << 17;
+    private static final String TRANSACTION_LOG_DIR = "txlog";
+
+    // Word masks for finding a newline byte eight bytes at a time
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    // Outcome for one file; problems lists the first few corrupt records and any read error
+    public record FileReport(String file, long records, long unchecked, long corrupt, List<String> problems) {
+        public boolean isClean() {
+            return corrupt == 0 && problems.isEmpty();
+        }
+    }
+
+    public record Report(List<FileReport> files, long bytes, long durationNanos) {
+        public long records() {
+            return files.stream().mapToLong(FileReport::records).sum();
+        }
+
+        public long unchecked() {
+            return files.stream().mapToLong(FileReport::unchecked).sum();
+        }
+
+        public long corrupt() {
+            return files.stream().mapToLong(FileReport::corrupt).sum();
+        }
+
+        public boolean isClean() {
+            return files.stream().allMatch(FileReport::isClean);
+        }
+
+        public double durationMillis() {
+            return durationNanos / 1_000_000.0;
+        }
+
+        public double megabytesPerSecond() {
+            return durationNanos == 0 ? 0 : (bytes / (1024.0 * 1024.0)) / (durationNanos / 1e9);
+        }
+    }
+
+    // Counts for one task; merged per file once every task has finished
+    static final class Tally {
+        private static final int MAX_PROBLEMS = 10;
+
+        long records;   // checksum present and matching
+        long unchecked; // written without a checksum
+        long corrupt;
+        final List<String> problems = new ArrayList<>();
+
+        void corrupt(String where) {
+            corrupt++;
+            problem(where + " failed its checksum");
+        }
+
+        void problem(String description) {
+            if (problems.size() < MAX_PROBLEMS) {
+                problems.add(description);
+            }
+        }
+
+        void add(Tally other) {
+            records += other.records;
+            unchecked += other.unchecked;
+            corrupt += other.corrupt;
+            for (String problem : other.problems) {
+                problem(problem);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Check {
+        void run(Tally tally) throws IOException;
+    }
+
+    private record PendingFile(String name, List<ForkJoinTask<Tally>> tasks) {}
+
+    private final ForkJoinPool pool;
+    private final ParallelDatasetLoader splitter;
+
+    public DatasetVerifier() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public DatasetVerifier(ForkJoinPool pool) {
+        this.pool = pool;
+        this.splitter = new ParallelDatasetLoader(pool, TEXT_CHUNK_BYTES);
+    }
+
+    // Checks every data file in the directory; a missing directory gives an empty report
+    public Report verify(Path datasetDir) throws IOException {
+        long start = System.nanoTime();
+        List<PendingFile> pending = new ArrayList<>();
+        long bytes = 0;
+
+        for (Path file : dataFiles(datasetDir)) {
+            String name = datasetDir.relativize(file).toString();
+            bytes += Files.size(file);
+            pending.add(new PendingFile(name, submitChecks(file)));
+        }
+
+        List<FileReport> files = new ArrayList<>(pending.size());
+        for (PendingFile file : pending) {
+            Tally total = new Tally();
+            for (ForkJoinTask<Tally> task : file.tasks()) {
+                total.add(await(task));
+            }
+            files.add(new FileReport(file.name(), total.records, total.unchecked, total.corrupt,
+                    List.copyOf(total.problems)));
+        }
+        return new Report(files, bytes, System.nanoTime() - start);
+    }
+
+    private static List<Path> dataFiles(Path datasetDir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(datasetDir)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(datasetDir, "*.{txt,dat,tbl}")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Path shardDir = datasetDir.resolve(ShardedDataset.DIRECTORY);
+        if (Files.isDirectory(shardDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(shardDir,
+                    "*{.txt," + ShardedDataset.MANIFEST_SUFFIX + "}")) {
+                for (Path file : stream) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(null);
+        files.addAll(TransactionLog.segmentFiles(datasetDir.resolve(TRANSACTION_LOG_DIR)));
+        return files;
+    }
+
+    private List<ForkJoinTask<Tally>> submitChecks(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        List<ForkJoinTask<Tally>> tasks = new ArrayList<>();
+
+        if (name.endsWith(".txt") || name.endsWith(ShardedDataset.MANIFEST_SUFFIX)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (long[] range : splitter.splitOnLineBoundaries(channel)) {
+                    tasks.add(submit(tally -> checkLines(file, range, tally)));
+                }
+            }
+        } else if (name.endsWith(".tbl")) {
+            AccountTable.StoredHeader header;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                header = AccountTable.readStoredHeader(channel, file);
+            } catch (IOException e) {
+                tasks.add(submit(tally -> tally.problem(e.getMessage())));
+                return tasks;
+            }
+            if (!header.checksummed()) {
+                tasks.add(submit(tally -> tally.unchecked += header.recordCount()));
+                return tasks;
+            }
+            for (int from = 0; from < header.recordCount(); from += TABLE_CHUNK_RECORDS) {
+                int chunkStart = from;
+                int chunkEnd = (int) Math.min((long) from + TABLE_CHUNK_RECORDS, header.recordCount());
+                tasks.add(submit(tally -> {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        AccountTable.verify(channel, chunkStart, chunkEnd, tally);
+                    }
+                }));
+            }
+        } else if (name.endsWith(".dat")) {
+            tasks.add(submit(tally -> BinaryDatasetCodec.verify(file, tally)));
+        } else {
+            tasks.add(submit(tally -> TransactionLog.verifySegment(file, tally)));
+        }
+        return tasks;
+    }
+
+    // Read errors are reported against the file rather than aborting the pass
+    private ForkJoinTask<Tally> submit(Check check) {
+        return pool.submit(() -> {
+            Tally tally = new Tally();
+            try {
+                check.run(tally);
+            } catch (IOException | UncheckedIOException | IllegalStateException e) {
+                tally.problem("unreadable: " + e.getMessage());
+            }
+            return tally;
+        });
+    }
+
+    private static Tally await(ForkJoinTask<Tally> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while verifying dataset", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Verification failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static void checkLines(Path file, long[] range, Tally tally) throws IOException {
+        int length = (int) (range[1] - range[0]);
+        if (length == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, range[0], length);
+            RecordChecksum checksum = new RecordChecksum();
+
+            int lineStart = 0;
+            while (lineStart < length) {
+                int newline = nextNewline(buffer, lineStart, length);
+                int lineEnd = newline;
+                if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+                if (lineEnd > lineStart) {
+                    int payloadEnd = checksum.checkTextLine(buffer, lineStart, lineEnd);
+                    if (payloadEnd == RecordChecksum.CORRUPT) {
+                        tally.corrupt("line at byte " + (range[0] + lineStart));
+                    } else if (payloadEnd == lineEnd) {
+                        tally.unchecked++;
+                    } else {
+                        tally.records++;
+                    }
+                }
+                lineStart = newline + 1;
+            }
+        }
+    }
+
+    // Index of the next '\n' in [from, to), or to; compares eight bytes per step
+    private static int nextNewline(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = buffer.getLong(i) ^ NEWLINES;
+            long found = (word - LOW_BITS) & ~word & HIGH_BITS;
+            if (found != 0) {
+                // Big-endian: the first matching byte holds the highest set bit
+                return i + Long.numberOfLeadingZeros(found) / 8;
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+}
@@ -0,0 +1,205 @@
+package services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * Memory-mapped open-addressing hash index from string keys to long values
+ * (record ordinals or file offsets).
+ *
+ * Each 16-byte slot holds the key's 64-bit hash and value + 1, so zero marks an
+ * empty slot. Keys themselves are not stored: callers pass a predicate that
+ * checks the candidate value against the real record, which also settles the
+ * rare full-hash collision. The table is kept at most half full and is rebuilt
+ * into a file twice the size when it would pass that.
+ */
+final class DiskHashIndex implements Closeable {
+    private static final int MAGIC = 0x44484958; // "DHIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int COUNT_OFFSET = 8;
+    private static final int SLOT_SIZE = 16;
+    private static final int MIN_SLOTS = 1024;
+
+    // Slots per mapping, so no single mapping reaches the 2 GB limit
+    private static final int WINDOW_SHIFT = 26;
+    private static final long WINDOW_SLOTS = 1L << WINDOW_SHIFT;
+
+    private final Path file;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private List<MappedByteBuffer> windows;
+    private long slotCount;
+    private long count;
+
+    private DiskHashIndex(Path file) {
+        this.file = file;
+    }
+
+    // Creates an empty index sized for the expected number of keys, replacing any existing file
+    static DiskHashIndex create(Path file, long expectedKeys) throws IOException {
+        DiskHashIndex index = new DiskHashIndex(file);
+        index.map(file, slotsFor(expectedKeys), true);
+        return index;
+    }
+
+    // Opens an existing index; returns null when it is missing or not a valid index file
+    static DiskHashIndex openIfValid(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < HEADER_SIZE) {
+            return null;
+        }
+        DiskHashIndex index = new DiskHashIndex(file);
+        try (FileChannel probe = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer header = probe.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            long slots = header.getLong(16);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || Long.bitCount(slots) != 1
+                    || probe.size() != HEADER_SIZE + slots * SLOT_SIZE) {
+                return null;
+            }
+        }
+        index.map(file, -1, false);
+        return index;
+    }
+
+    long size() {
+        return count;
+    }
+
+    // Value stored for a key with this hash that the predicate accepts, or -1
+    long find(long hash, LongPredicate matches) {
+        long mask = slotCount - 1;
+        for (long slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            long stored = valueAt(slot);
+            if (stored == 0) {
+                return -1;
+            }
+            if (hashAt(slot) == hash && matches.test(stored - 1)) {
+                return stored - 1;
+            }
+        }
+    }
+
+    // Adds a key the caller knows is absent
+    void put(long hash, long value) throws IOException {
+        if ((count + 1) * 2 > slotCount) {
+            grow();
+        }
+        insert(hash, value);
+        count++;
+        header.putLong(COUNT_OFFSET, count);
+    }
+
+    void force() {
+        for (MappedByteBuffer window : windows) {
+            window.force();
+        }
+        header.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private void insert(long hash, long value) {
+        long mask = slotCount - 1;
+        long slot = spread(hash) & mask;
+        while (valueAt(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        MappedByteBuffer window = windows.get((int) (slot >>> WINDOW_SHIFT));
+        int offset = (int) (slot & (WINDOW_SLOTS - 1)) * SLOT_SIZE;
+        window.putLong(offset, hash);
+        window.putLong(offset + 8, value + 1);
+    }
+
+    // Rehashes into a table twice the size, written beside the old file and swapped in
+    private void grow() throws IOException {
+        Path grownFile = file.resolveSibling(file.getFileName() + ".tmp");
+        DiskHashIndex grown = new DiskHashIndex(grownFile);
+        grown.map(grownFile, slotCount * 2, true);
+
+        for (long slot = 0; slot < slotCount; slot++) {
+            long stored = valueAt(slot);
+            if (stored != 0) {
+                grown.insert(hashAt(slot), stored - 1);
+            }
+        }
+        grown.count = count;
+        grown.header.putLong(COUNT_OFFSET, count);
+        grown.close();
+        channel.close();
+
+        Files.move(grownFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map(file, -1, false);
+    }
+
+    private void map(Path path, long slots, boolean create) throws IOException {
+        if (create) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+        if (create) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putLong(COUNT_OFFSET, 0);
+            header.putLong(16, slots);
+            count = 0;
+        } else {
+            slots = header.getLong(16);
+            count = header.getLong(COUNT_OFFSET);
+        }
+        slotCount = slots;
+
+        windows = new ArrayList<>();
+        for (long first = 0; first < slots; first += WINDOW_SLOTS) {
+            long length = Math.min(WINDOW_SLOTS, slots - first) * SLOT_SIZE;
+            windows.add(channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + first * SLOT_SIZE, length));
+        }
+    }
+
+    private long hashAt(long slot) {
+        return windows.get((int) (slot >>> WINDOW_SHIFT)).getLong((int) (slot & (WINDOW_SLOTS - 1)) * SLOT_SIZE);
+    }
+
+    private long valueAt(long slot) {
+        return windows.get((int) (slot >>> WINDOW_SHIFT))
+                .getLong((int) (slot & (WINDOW_SLOTS - 1)) * SLOT_SIZE + 8);
+    }
+
+    private static long slotsFor(long expectedKeys) {
+        long wanted = Math.max(MIN_SLOTS, expectedKeys * 2 + 1);
+        return Long.highestOneBit(wanted - 1) << 1;
+    }
+
+    private static long spread(long hash) {
+        return hash ^ (hash >>> 29);
+    }
+
+    // 64-bit FNV-1a over the characters, finished with a murmur-style mix
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
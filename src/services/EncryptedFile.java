@@ -0,0 +1,276 @@
+package services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Text dataset files encrypted with AES-GCM in independent chunks.
+ *
+ * Layout: a header (magic BKENC, version, the key alias, a random 12-byte file
+ * nonce) followed by chunks of [last flag][ciphertext length][ciphertext + tag].
+ * Each chunk seals about 256 KB of plaintext that ends on a line boundary, with an
+ * IV made from the file nonce and the chunk number, and the header, chunk
+ * number and last flag as associated data. Chunks therefore cannot be reordered,
+ * moved between files or dropped from the end without failing authentication,
+ * and each one holds whole lines, so chunks are decrypted and parsed in
+ * parallel. Chunks are large enough to keep the per-call overhead small next
+ * to the JDK's hardware-accelerated AES-GCM, and small enough that the cipher
+ * is called often enough to be compiled onto the intrinsic early in a run.
+ */
+final class EncryptedFile {
+    static final String SUFFIX = ".enc";
+    static final int CHUNK_BYTES = 1 << 18;
+
+    private static final byte[] MAGIC = "BKENC".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BYTES = 16;
+    private static final int FRAME_HEADER_BYTES = 5;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private EncryptedFile() {
+    }
+
+    // Encrypts everything written to the returned stream into out; closing it seals the last chunk
+    // and leaves out open
+    static OutputStream encrypting(OutputStream out, DatasetKeys keys) {
+        return new EncryptingStream(out, keys.getCurrentAlias(), keys.currentKey());
+    }
+
+    static Reader open(Path file, DatasetKeys keys) throws IOException {
+        return new Reader(file, keys);
+    }
+
+    record Chunk(long index, long position, int length, boolean last) {}
+
+    private static byte[] header(String alias, byte[] nonce) {
+        byte[] name = alias.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 2 + name.length + NONCE_BYTES);
+        header.put(MAGIC).put(VERSION).put((byte) name.length).put(name).put(nonce);
+        return header.array();
+    }
+
+    private static GCMParameterSpec iv(byte[] nonce, long index) {
+        byte[] iv = nonce.clone();
+        for (int i = 0; i < Long.BYTES; i++) {
+            iv[NONCE_BYTES - 1 - i] ^= (byte) (index >>> (8 * i));
+        }
+        return new GCMParameterSpec(TAG_BYTES * 8, iv);
+    }
+
+    private static void authenticate(Cipher cipher, byte[] header, long index, boolean last) {
+        cipher.updateAAD(header);
+        cipher.updateAAD(ByteBuffer.allocate(Long.BYTES + 1).putLong(index).put((byte) (last ? 1 : 0)).array());
+    }
+
+    private static final class EncryptingStream extends OutputStream {
+        private final OutputStream out;
+        private final SecretKey key;
+        private final byte[] nonce = new byte[NONCE_BYTES];
+        private final byte[] header;
+        private final Cipher cipher;
+        private byte[] plain = new byte[CHUNK_BYTES];
+        private byte[] sealed = new byte[CHUNK_BYTES + TAG_BYTES];
+        private final byte[] frameHeader = new byte[FRAME_HEADER_BYTES];
+        private int filled;
+        private long index;
+        private boolean headerWritten;
+        private boolean closed;
+
+        EncryptingStream(OutputStream out, String alias, SecretKey key) {
+            this.out = out;
+            this.key = key;
+            RANDOM.nextBytes(nonce);
+            this.header = header(alias, nonce);
+            try {
+                this.cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES-GCM is not available", e);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (filled == plain.length) {
+                    sealFullBuffer();
+                }
+                int n = Math.min(len, plain.length - filled);
+                System.arraycopy(b, off, plain, filled, n);
+                filled += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        // Seals up to the last newline and keeps the partial line for the next chunk; a line longer
+        // than the buffer grows it instead
+        private void sealFullBuffer() throws IOException {
+            int end = filled;
+            while (end > 0 && plain[end - 1] != '\n') {
+                end--;
+            }
+            if (end == 0) {
+                plain = Arrays.copyOf(plain, plain.length * 2);
+                return;
+            }
+            seal(end, false);
+            System.arraycopy(plain, end, plain, 0, filled - end);
+            filled -= end;
+        }
+
+        private void seal(int length, boolean last) throws IOException {
+            if (!headerWritten) {
+                out.write(header);
+                headerWritten = true;
+            }
+            if (sealed.length < length + TAG_BYTES) {
+                sealed = new byte[length + TAG_BYTES];
+            }
+            int sealedLength;
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, iv(nonce, index));
+                authenticate(cipher, header, index, last);
+                sealedLength = cipher.doFinal(plain, 0, length, sealed, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to encrypt chunk " + index, e);
+            }
+            ByteBuffer.wrap(frameHeader).put((byte) (last ? 1 : 0)).putInt(sealedLength);
+            out.write(frameHeader);
+            out.write(sealed, 0, sealedLength);
+            index++;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            seal(filled, true);
+            filled = 0;
+            out.flush();
+        }
+    }
+
+    // Reads the chunk table on open; chunks are then decrypted independently, from any thread
+    static final class Reader implements Closeable {
+        private final Path file;
+        private final FileChannel channel;
+        private final byte[] header;
+        private final byte[] nonce;
+        private final SecretKey key;
+        private final List<Chunk> chunks = new ArrayList<>();
+
+        private Reader(Path file, DatasetKeys keys) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                ByteBuffer prefix = read(0, MAGIC.length + 2);
+                byte[] magic = new byte[MAGIC.length];
+                prefix.get(magic);
+                if (!Arrays.equals(magic, MAGIC) || prefix.get() != VERSION) {
+                    throw new IOException(file.getFileName() + " is not an encrypted dataset file");
+                }
+                int aliasLength = prefix.get() & 0xFF;
+                byte[] alias = new byte[aliasLength];
+                this.nonce = new byte[NONCE_BYTES];
+                read(MAGIC.length + 2, aliasLength + NONCE_BYTES).get(alias).get(nonce);
+                this.header = header(new String(alias, StandardCharsets.UTF_8), nonce);
+                this.key = keys.key(new String(alias, StandardCharsets.UTF_8));
+                readChunkTable();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private void readChunkTable() throws IOException {
+            long size = channel.size();
+            long position = header.length;
+            boolean last = false;
+            while (!last) {
+                if (position + FRAME_HEADER_BYTES > size) {
+                    throw new IOException(file.getFileName() + " ends without its final chunk");
+                }
+                ByteBuffer frame = read(position, FRAME_HEADER_BYTES);
+                last = frame.get() == 1;
+                int length = frame.getInt();
+                position += FRAME_HEADER_BYTES;
+                if (length < TAG_BYTES || position + length > size) {
+                    throw new IOException(file.getFileName() + " has a damaged chunk at byte " + position);
+                }
+                chunks.add(new Chunk(chunks.size(), position, length, last));
+                position += length;
+            }
+            if (position != size) {
+                throw new IOException(file.getFileName() + " has data after its final chunk");
+            }
+        }
+
+        List<Chunk> chunks() {
+            return chunks;
+        }
+
+        // The chunk's plaintext (whole lines), decrypted straight from the mapping into reuse when it is
+        // big enough, so a task working through many chunks allocates one buffer
+        ByteBuffer decrypt(Chunk chunk, ByteBuffer reuse) throws IOException {
+            ByteBuffer sealed = channel.map(FileChannel.MapMode.READ_ONLY, chunk.position(), chunk.length());
+            int length = chunk.length() - TAG_BYTES;
+            ByteBuffer plain = reuse != null && reuse.capacity() >= length ? reuse.clear() : ByteBuffer.allocate(length);
+            try {
+                Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+                cipher.init(Cipher.DECRYPT_MODE, key, iv(nonce, chunk.index()));
+                authenticate(cipher, header, chunk.index(), chunk.last());
+                cipher.doFinal(sealed, plain);
+                return plain.flip();
+            } catch (AEADBadTagException e) {
+                throw new IOException(file.getFileName() + " chunk " + chunk.index()
+                        + " failed authentication (wrong key or damaged file)", e);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to decrypt " + file.getFileName() + ": " + e.getMessage(), e);
+            }
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException(file.getFileName() + " is truncated");
+                }
+            }
+            return buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -1,76 +1,474 @@
 package services;
 
 import account.Account;
+import account.AccountListener;
 import account.AccountManager;
+import account.AccountStore;
 import account.SavingsAccount;
 import account.CheckingAccount;
 import customer.Customer;
 import customer.CustomerManager;
 import customer.RegularCustomer;
 import customer.PremiumCustomer;
+import exceptions.CorruptRecordException;
 import transaction.Transaction;
 import transaction.TransactionManager;
 import utils.CustomUtils;
+import utils.RecordFormatter;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class FilePersistenceService {
     private static final String DATASET_DIR = "dataset";
     private static final String ACCOUNTS_FILE = "accounts.txt";
     private static final String CUSTOMERS_FILE = "customers.txt";
     private static final String TRANSACTIONS_FILE = "transactions.txt";
+    private static final String ACCOUNTS_BINARY_FILE = "accounts.dat";
+    private static final String CUSTOMERS_BINARY_FILE = "customers.dat";
+    private static final String TRANSACTIONS_BINARY_FILE = "transactions.dat";
+    private static final String ACCOUNT_TABLE_FILE = "accounts.tbl";
+    private static final String TRANSACTION_LOG_DIR = "txlog";
+    private static final String BACKUP_DIR = "backups"; // Beside the dataset directory
+    private static final int DEFAULT_ACCOUNT_CACHE_SIZE = 100_000;
+    private static final int DEFAULT_CUSTOMER_CACHE_SIZE = 100_000;
+    private static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(5);
+    private static final int DEFAULT_FLUSH_THRESHOLD = 1_000;
     private static final String DELIMITER = "\\|";
 
+    // Entry names in snapshot results
+    private static final String ACCOUNTS = "accounts";
+    private static final String CUSTOMERS = "customers";
+    private static final String TRANSACTIONS = "transactions";
+    private static final String BACKUP = "backup";
+    private static final String PLAINTEXT = "-plaintext"; // Removal of a text file replaced by its encrypted copy
+
+    // TEXT is the original pipe-delimited format, BINARY the compact encoding
+    public enum DataFormat { TEXT, BINARY }
+
     private final AccountManager accountManager;
     private final CustomerManager customerManager;
     private final TransactionManager transactionManager;
+    private final Path datasetDir;
+    private final DataFormat format;
+    private final ParallelDatasetLoader parallelLoader = new ParallelDatasetLoader();
+    private final ShardedDataset shards; // Null unless the text files are hash-partitioned
+
+    // Also read by the dataset reloader's thread
+    private Map<String, Customer> loadedCustomers = new ConcurrentHashMap<>();
+
+    // Opened on first use in binary mode; current once it mirrors every managed account
+    private AccountTable accountTable;
+    private boolean accountTableCurrent;
+    private TransactionLog transactionLog;
+    private IndexedCustomerFile customerFile; // Lazy mode only
+
+    // Saves are written on a background thread; versions tell it which files are out of date
+    private final SnapshotWriter snapshots = new SnapshotWriter();
+    private final AtomicLong accountVersion = new AtomicLong();
+    private final AtomicLong customerVersion = new AtomicLong();
+    private final Map<Path, Integer> loadedFiles = new HashMap<>();
+
+    // Set while changes are being persisted in the background
+    private volatile BackgroundFlusher flusher;
+    private volatile long flushedTransactions = -1;
+    private volatile DatasetReloader reloader; // Set while edited text files are picked up
+    private volatile DatasetKeys keys; // Text files are encrypted when set
+
+    // New customers only ever arrive with a new account
+    private final AccountListener changeTracker = new AccountListener() {
+        @Override
+        public void accountAdded(Account account) {
+            accountVersion.incrementAndGet();
+            customerVersion.incrementAndGet();
+            noteChange();
+        }
+
+        @Override
+        public void balanceChanged(Account account, double oldBalance, double newBalance) {
+            accountVersion.incrementAndGet();
+            noteChange();
+        }
 
-    private Map<String, Customer> loadedCustomers = new HashMap<>();
+        @Override
+        public void statusChanged(Account account, String oldStatus, String newStatus) {
+            accountVersion.incrementAndGet();
+            noteChange();
+        }
+
+        @Override
+        public void customerChanged(Account account, Customer oldCustomer, Customer newCustomer) {
+            customerVersion.incrementAndGet();
+            noteChange();
+        }
+
+        private void noteChange() {
+            BackgroundFlusher current = flusher;
+            if (current != null) {
+                current.noteChange();
+            }
+        }
+    };
 
     public FilePersistenceService(AccountManager accountManager,
                                   CustomerManager customerManager,
                                   TransactionManager transactionManager) {
+        this(accountManager, customerManager, transactionManager, DataFormat.TEXT);
+    }
+
+    public FilePersistenceService(AccountManager accountManager,
+                                  CustomerManager customerManager,
+                                  TransactionManager transactionManager,
+                                  DataFormat format) {
+        this(accountManager, customerManager, transactionManager, Paths.get(DATASET_DIR), format);
+    }
+
+    public FilePersistenceService(AccountManager accountManager,
+                                  CustomerManager customerManager,
+                                  TransactionManager transactionManager,
+                                  Path datasetDir,
+                                  DataFormat format) {
+        this(accountManager, customerManager, transactionManager, datasetDir, format, 1);
+    }
+
+    // More than one shard splits each text file into that many hash partitions, saved and
+    // loaded by parallel workers
+    public FilePersistenceService(AccountManager accountManager,
+                                  CustomerManager customerManager,
+                                  TransactionManager transactionManager,
+                                  Path datasetDir,
+                                  DataFormat format,
+                                  int shardCount) {
+        if (shardCount > 1 && format != DataFormat.TEXT) {
+            throw new IllegalArgumentException("Only the text format can be sharded");
+        }
+        this.shards = shardCount > 1 ? new ShardedDataset(datasetDir, shardCount) : null;
         this.accountManager = accountManager;
         this.customerManager = customerManager;
         this.transactionManager = transactionManager;
+        this.datasetDir = datasetDir;
+        this.format = format;
+        if (accountManager != null) {
+            accountManager.addAccountListener(changeTracker);
+        }
         createDatasetDirectory();
     }
 
     private void createDatasetDirectory() {
         try {
-            Path datasetPath = Paths.get(DATASET_DIR);
-            if (!Files.exists(datasetPath)) {
-                Files.createDirectories(datasetPath);
+            if (!Files.exists(datasetDir)) {
+                Files.createDirectories(datasetDir);
             }
         } catch (IOException e) {
             CustomUtils.printError("Failed to create dataset directory: " + e.getMessage());
         }
     }
 
+    public DataFormat getFormat() {
+        return format;
+    }
+
+    // From now on text files are saved as <file>.enc, AES-GCM encrypted with the keystore's current
+    // key, and plaintext copies are removed once their encrypted version is written. Encrypted files
+    // are preferred on load; existing plaintext files still load, so a dataset migrates on its next
+    // save. In binary mode the customer records, which hold the personal details, are saved as
+    // customers.txt.enc in place of customers.dat; the account table and transaction log keep only
+    // IDs and amounts and stay binary. Encrypted customers cannot be opened on demand.
+    public void encryptWith(DatasetKeys keys) {
+        if (shards != null) {
+            throw new IllegalStateException("Sharded text files cannot be encrypted");
+        }
+        if (customerFile != null) {
+            throw new IllegalStateException("Customers opened on demand cannot be encrypted");
+        }
+        this.keys = keys;
+    }
+
+    public boolean isEncrypted() {
+        return keys != null;
+    }
+
+    // 1 when the text files are not partitioned
+    public int getShardCount() {
+        return shards != null ? shards.shardCount() : 1;
+    }
+
     public void saveAllData() {
         try {
-            int accountsSaved = saveAccounts();
-            int customersSaved = saveCustomers();
-            int transactionsSaved = saveTransactions();
-
-            CustomUtils.printSuccess("Data saved successfully!");
-            CustomUtils.print("Accounts saved: " + accountsSaved);
-            CustomUtils.print("Customers saved: " + customersSaved);
-            CustomUtils.print("Transactions saved: " + transactionsSaved);
+            printSaveResult("Data saved successfully!", SnapshotWriter.await(submit(this::addAll)));
         } catch (IOException e) {
             CustomUtils.printError("Failed to save data: " + e.getMessage());
         }
     }
 
+    // Captures the data now and writes it on the snapshot thread, so the caller is not held up
+    public CompletableFuture<SnapshotWriter.Result> saveAllDataInBackground() {
+        CompletableFuture<SnapshotWriter.Result> pending;
+        try {
+            pending = submit(this::addAll);
+        } catch (IOException e) {
+            CustomUtils.printError("Failed to save data: " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CustomUtils.print("Saving in the background...");
+        return pending.whenComplete((result, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                CustomUtils.printError("Background save failed: " + cause.getMessage());
+            } else {
+                CustomUtils.printSuccess(String.format("Background save finished in %.1f ms", result.durationMillis()));
+            }
+        });
+    }
+
+    public SnapshotWriter getSnapshotWriter() {
+        return snapshots;
+    }
+
+    // Progress of a running save, or how the last one went
+    public void printSaveStatus() {
+        SnapshotWriter.Progress progress = snapshots.getProgress();
+        if (progress.running()) {
+            CustomUtils.printf("Save in progress: %d/%d files, %,d bytes, %d ms%n", progress.entriesDone(),
+                    progress.entriesTotal(), progress.bytesWritten(), progress.elapsedMillis());
+            return;
+        }
+        SnapshotWriter.Result last = snapshots.getLastResult();
+        if (last != null) {
+            CustomUtils.printf("Last save: %.1f ms, %,d bytes, %d file(s) unchanged%n",
+                    last.durationMillis(), last.bytesWritten(), last.skipped().size());
+        }
+        BackgroundFlusher current = flusher;
+        if (current != null) {
+            BackgroundFlusher.Stats stats = current.getStats();
+            CustomUtils.printf("Background flush: %,d flush(es), %,d record(s) written, %,d change(s) pending%n",
+                    stats.flushes(), stats.recordsFlushed(), stats.pendingChanges());
+        }
+    }
+
+    private void printSaveResult(String message, SnapshotWriter.Result result) {
+        CustomUtils.printSuccess(message);
+        printSaved("Accounts", result, ACCOUNTS);
+        printSaved("Customers", result, CUSTOMERS);
+        printSaved("Transactions", result, TRANSACTIONS);
+        CustomUtils.printf("Written in %.1f ms%n", result.durationMillis());
+    }
+
+    private void printSaved(String label, SnapshotWriter.Result result, String name) {
+        CustomUtils.print(label + " saved: " + result.records(name)
+                + (result.wasSkipped(name) ? " (unchanged, not rewritten)" : ""));
+    }
+
+    public void startBackgroundFlush() {
+        startBackgroundFlush(DEFAULT_FLUSH_INTERVAL, DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    // Persists changes on a background thread every interval, or once dirtyThreshold account
+    // changes have piled up. In binary mode a flush writes only the changed account records and
+    // the new transactions; text files that changed are rewritten whole.
+    public void startBackgroundFlush(Duration interval, int dirtyThreshold) {
+        stopBackgroundFlush();
+        flusher = new BackgroundFlusher(interval, dirtyThreshold, this::flushChanges,
+                () -> transactionManager.getRecordedCount() != flushedTransactions);
+    }
+
+    // Stops the background flusher after a last flush of whatever is still pending
+    public void stopBackgroundFlush() {
+        BackgroundFlusher current = flusher;
+        if (current != null) {
+            flusher = null;
+            current.close();
+        }
+    }
+
+    // Null unless background flushing is running
+    public BackgroundFlusher getBackgroundFlusher() {
+        return flusher;
+    }
+
+    private int flushChanges() throws IOException {
+        long recorded = transactionManager.getRecordedCount();
+        SnapshotWriter.Result result = SnapshotWriter.await(submit(this::addAll));
+        flushedTransactions = recorded;
+
+        int written = 0;
+        for (Map.Entry<String, Integer> entry : result.records().entrySet()) {
+            if (!result.wasSkipped(entry.getKey())) {
+                written += entry.getValue();
+            }
+        }
+        return written;
+    }
+
+    // Watches customers.txt and accounts.txt and applies lines edited outside the application.
+    // Not available in lazy mode, where records live in the binary files. Returns false if the
+    // watcher could not be started.
+    public boolean startReloading() {
+        stopReloading();
+        if (accountManager.isLazy()) {
+            CustomUtils.print("Hot reload is not available while records are loaded on demand.");
+            return false;
+        }
+        if (keys != null) {
+            CustomUtils.print("Hot reload is not available for encrypted files.");
+            return false;
+        }
+        DatasetReloader started = new DatasetReloader(datasetDir, snapshots)
+                .watch(CUSTOMERS_FILE, this::applyCustomerLines)
+                .watch(ACCOUNTS_FILE, this::applyAccountLines);
+        try {
+            started.start();
+        } catch (IOException e) {
+            started.close();
+            CustomUtils.printError("Failed to watch dataset directory: " + e.getMessage());
+            return false;
+        }
+        reloader = started;
+        return true;
+    }
+
+    public void stopReloading() {
+        DatasetReloader current = reloader;
+        if (current != null) {
+            reloader = null;
+            current.close();
+        }
+    }
+
+    // Null unless hot reload is running
+    public DatasetReloader getReloader() {
+        return reloader;
+    }
+
+    // Customers are immutable, so accounts are pointed at the reloaded copies
+    private int applyCustomerLines(List<String> lines) {
+        Map<String, Customer> reloaded = new HashMap<>();
+        for (String line : lines) {
+            Customer customer = parseCustomerLine(line);
+            if (customer != null) {
+                reloaded.put(customer.getCustomerId(), customer);
+            }
+        }
+        // Customers without accounts are kept for account lines that refer to them later
+        loadedCustomers.putAll(reloaded);
+        accountManager.replaceCustomers(reloaded);
+        return reloaded.size();
+    }
+
+    private int applyAccountLines(List<String> lines) {
+        List<Account> reloaded = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            // Accounts opened since startup have customers that were never in the loaded files
+            Account account = parseAccountLine(line, customerId -> {
+                Customer customer = loadedCustomers.get(customerId);
+                return customer != null ? customer : customerManager.getCustomerById(customerId);
+            });
+            if (account != null) {
+                reloaded.add(account);
+            }
+        }
+        return accountManager.applyReload(reloaded);
+    }
+
+    @FunctionalInterface
+    private interface Capture {
+        SnapshotWriter.Snapshot addTo(SnapshotWriter.Snapshot snapshot) throws IOException;
+    }
+
+    // Captures and queues under the service lock, so snapshots reach the writer thread in the order
+    // their data was taken; the background flusher captures on its own thread
+    private synchronized CompletableFuture<SnapshotWriter.Result> submit(Capture capture) throws IOException {
+        return snapshots.submit(capture.addTo(new SnapshotWriter.Snapshot()));
+    }
+
+    private SnapshotWriter.Snapshot addAll(SnapshotWriter.Snapshot snapshot) throws IOException {
+        addAccounts(snapshot);
+        addCustomers(snapshot);
+        addTransactions(snapshot);
+        return snapshot;
+    }
+
+    public boolean loadLazily() {
+        return loadLazily(DEFAULT_ACCOUNT_CACHE_SIZE, DEFAULT_CUSTOMER_CACHE_SIZE);
+    }
+
+    // Opens the binary dataset without reading it: accounts and customers are faulted in by
+    // number and ID through their on-disk indexes. Returns false when the files are not there.
+    public boolean loadLazily(int accountCacheSize, int customerCacheSize) {
+        Path tablePath = datasetDir.resolve(ACCOUNT_TABLE_FILE);
+        Path customersPath = datasetDir.resolve(CUSTOMERS_BINARY_FILE);
+        if (format != DataFormat.BINARY || !Files.exists(tablePath) || !Files.exists(customersPath)) {
+            return false;
+        }
+        if (keys != null) {
+            CustomUtils.print("Encrypted data cannot be opened on demand; reading it in full.");
+            return false;
+        }
+
+        try {
+            long start = System.nanoTime();
+            close();
+            customerFile = IndexedCustomerFile.open(customersPath);
+            AccountTable table = AccountTable.open(tablePath);
+            accountTable = table;
+            accountTableCurrent = true;
+
+            customerManager.enableLazyLoading(customerFile, customerCacheSize);
+            accountManager.enableLazyLoading(accountStoreFor(table), accountCacheSize);
+            accountManager.addAccountListener(table);
+            accountManager.addAccountListener(customerFile);
+            int transactionsLoaded = loadTransactions();
+
+            CustomUtils.printSuccess("Data opened on demand!");
+            CustomUtils.print("Accounts available: " + table.accountCount());
+            CustomUtils.print("Transactions available: " + transactionsLoaded);
+            CustomUtils.printf("Opened in %.1f ms%n", (System.nanoTime() - start) / 1_000_000.0);
+            return true;
+        } catch (IOException e) {
+            CustomUtils.printError("Failed to open data: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private AccountStore accountStoreFor(AccountTable table) {
+        return new AccountStore() {
+            @Override
+            public Account loadAccount(String accountNumber) {
+                try {
+                    return table.findAccount(accountNumber, customerManager::getCustomerById);
+                } catch (CorruptRecordException e) {
+                    CustomUtils.printError(e.getMessage() + " (account " + accountNumber + ")");
+                    return null;
+                }
+            }
+
+            @Override
+            public long accountCount() {
+                return table.accountCount();
+            }
+
+            @Override
+            public void forEachAccount(Consumer<Account> action) {
+                table.forEachAccount(customerManager::getCustomerById, action);
+            }
+        };
+    }
+
     public void loadAllData() {
         try {
             int customersLoaded = loadCustomers();
             int accountsLoaded = loadAccounts();
             int transactionsLoaded = loadTransactions();
+            markLoadedFilesClean();
 
             CustomUtils.printSuccess("Data loaded successfully!");
             CustomUtils.print("Customers loaded: " + customersLoaded);
@@ -81,135 +479,632 @@ public class FilePersistenceService {
         }
     }
 
-    public int saveAccounts() throws IOException {
-        Path filePath = Paths.get(DATASET_DIR, ACCOUNTS_FILE);
+    public CompletableFuture<DatasetBackup.Manifest> backupInBackground() {
+        return backupInBackground(getBackupRoot());
+    }
+
+    // Copies the data as it is now into a new directory under backupRoot. The copy is taken like a
+    // save, then written on the snapshot thread; the live files are not rewritten and the
+    // application keeps changing data meanwhile.
+    public CompletableFuture<DatasetBackup.Manifest> backupInBackground(Path backupRoot) {
+        DatasetBackup[] backup = new DatasetBackup[1];
+        CompletableFuture<SnapshotWriter.Result> pending;
+        try {
+            pending = submit(snapshot -> {
+                backup[0] = DatasetBackup.create(backupRoot);
+                try {
+                    return addBackup(snapshot, backup[0]);
+                } catch (IOException | RuntimeException e) {
+                    backup[0].discard();
+                    throw e;
+                }
+            });
+        } catch (IOException e) {
+            CustomUtils.printError("Failed to start backup: " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CustomUtils.print("Backing up in the background...");
+        return pending.thenApply(result -> backup[0].getManifest()).whenComplete((manifest, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                CustomUtils.printError("Backup failed: " + cause.getMessage());
+            } else {
+                CustomUtils.printSuccess(String.format("Backup written to %s: %d file(s), %,d bytes",
+                        backup[0].getDirectory(), manifest.files().size(), manifest.bytes()));
+            }
+        });
+    }
+
+    private SnapshotWriter.Snapshot addBackup(SnapshotWriter.Snapshot snapshot, DatasetBackup backup)
+            throws IOException {
+        // Captured now, with the rest of the snapshot; written out on the snapshot thread
         List<Account> accounts = accountManager.getAccounts();
-        int count = 0;
+        SnapshotWriter.Content accountLines = accountsText(accounts);
+        SnapshotWriter.Content customerLines = customersText(customerManager.getAllCustomers());
+        long recorded = transactionManager.getRecordedCount();
+        TransactionLog log = format == DataFormat.BINARY ? openTransactionLog() : null;
+        // Encrypted datasets are backed up encrypted
+        DatasetKeys current = keys;
+        SnapshotWriter.Encoding encoding = current != null ? encoding(current) : null;
+        String suffix = current != null ? EncryptedFile.SUFFIX : "";
+
+        return snapshot.step(BACKUP, backup.getDirectory().resolve(DatasetBackup.MANIFEST_FILE), SnapshotWriter.ALWAYS,
+                () -> {
+                    try {
+                        int accountCount = backup.writeText(ACCOUNTS_FILE + suffix, encoding, accountLines);
+                        int customerCount = backup.writeText(CUSTOMERS_FILE + suffix, encoding, customerLines);
+                        long transactionCount;
+                        if (log != null) {
+                            // Queued snapshots run one at a time, so nothing appends between these two
+                            appendToLog(log, recorded);
+                            transactionCount = backup.copyLog(TRANSACTION_LOG_DIR, log);
+                        } else {
+                            transactionCount = backup.writeText(TRANSACTIONS_FILE + suffix, encoding,
+                                    transactionsText(recorded));
+                        }
+                        return backup.commit(accountCount, customerCount, transactionCount).files().size();
+                    } catch (IOException | RuntimeException e) {
+                        backup.discard();
+                        throw e;
+                    }
+                });
+    }
 
-        try (BufferedWriter writer = Files.newBufferedWriter(filePath,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+    // Where backups go unless another directory is given
+    public Path getBackupRoot() {
+        return datasetDir.toAbsolutePath().resolveSibling(BACKUP_DIR);
+    }
 
-            for (Account account : accounts) {
-                String line = formatAccountLine(account);
-                writer.write(line);
-                writer.newLine();
-                count++;
+    // Checks the latest backup against its manifest and prints the outcome
+    public DatasetBackup.Verification verifyLatestBackup() {
+        try {
+            Path latest = DatasetBackup.latest(getBackupRoot());
+            if (latest == null) {
+                CustomUtils.printError("No backups found in " + getBackupRoot());
+                return null;
             }
+            return printVerification("Backup " + latest.getFileName(), DatasetBackup.verify(latest));
+        } catch (IOException e) {
+            CustomUtils.printError("Failed to verify backup: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Restores a backup into a new dataset directory; the data in use is not touched
+    public DatasetBackup.Verification restoreBackup(Path backupDir, Path targetDir) {
+        try {
+            return printVerification("Restore into " + targetDir, DatasetBackup.restore(backupDir, targetDir));
+        } catch (IOException e) {
+            CustomUtils.printError("Failed to restore backup: " + e.getMessage());
+            return null;
         }
+    }
 
-        return count;
+    private DatasetBackup.Verification printVerification(String label, DatasetBackup.Verification verification) {
+        DatasetBackup.Manifest manifest = verification.manifest();
+        String summary = String.format("%d file(s), %,d bytes, taken %s (%,d accounts, %,d customers, "
+                        + "%,d transactions), checked in %.1f ms", manifest.files().size(), manifest.bytes(),
+                manifest.created(), manifest.accounts(), manifest.customers(), manifest.transactions(),
+                verification.durationMillis());
+        if (verification.isClean()) {
+            CustomUtils.printSuccess("✓ " + label + " matches its manifest: " + summary);
+        } else {
+            CustomUtils.printError(label + " does not match its manifest: " + summary);
+            verification.problems().forEach(problem -> CustomUtils.print("    " + problem));
+        }
+        return verification;
+    }
+
+    public int saveAccounts() throws IOException {
+        return SnapshotWriter.await(submit(this::addAccounts)).records(ACCOUNTS);
     }
 
     public int saveCustomers() throws IOException {
-        Path filePath = Paths.get(DATASET_DIR, CUSTOMERS_FILE);
-        List<Customer> customers = customerManager.getAllCustomers();
-        int count = 0;
+        return SnapshotWriter.await(submit(this::addCustomers)).records(CUSTOMERS);
+    }
 
-        try (BufferedWriter writer = Files.newBufferedWriter(filePath,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+    public int saveTransactions() throws IOException {
+        return SnapshotWriter.await(submit(this::addTransactions)).records(TRANSACTIONS);
+    }
 
-            for (Customer customer : customers) {
-                String line = formatCustomerLine(customer);
-                writer.write(line);
-                writer.newLine();
-                count++;
+    // In binary mode only the account records changed since the last save are written
+    private SnapshotWriter.Snapshot addAccounts(SnapshotWriter.Snapshot snapshot) throws IOException {
+        if (format == DataFormat.BINARY) {
+            // Records are copied into the table's mapping now; the flush to disk happens on the writer thread
+            AccountTable table = openAccountTable();
+            int staged;
+            if (!accountTableCurrent) {
+                staged = table.stageRewrite(accountManager.getAccounts());
+                accountTableCurrent = true;
+            } else {
+                staged = table.stageChanges();
             }
+            return snapshot.step(ACCOUNTS, datasetDir.resolve(ACCOUNT_TABLE_FILE), SnapshotWriter.ALWAYS, () -> {
+                table.force();
+                return staged;
+            });
         }
 
-        return count;
+        long version = accountVersion.get();
+        List<Account> accounts = accountManager.getAccounts();
+        if (shards != null) {
+            ShardedDataset.LineWriter lines = accountLines(accounts);
+            return snapshot.step(ACCOUNTS, shards.manifestPath(ACCOUNTS), version, () -> shards.write(ACCOUNTS,
+                    accounts.size(), i -> accounts.get(i).getAccountNumber(), lines));
+        }
+        return addTextFile(snapshot, ACCOUNTS, ACCOUNTS_FILE, version, accountsText(accounts));
     }
 
-    public int saveTransactions() throws IOException {
-        Path filePath = Paths.get(DATASET_DIR, TRANSACTIONS_FILE);
-        List<Transaction> transactions = transactionManager.getAllTransactions();
-        int count = 0;
-
-        try (BufferedWriter writer = Files.newBufferedWriter(filePath,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+    private SnapshotWriter.Snapshot addCustomers(SnapshotWriter.Snapshot snapshot) {
+        if (customerFile != null) {
+            // Lazy mode: rewrite only when new customers arrived
+            IndexedCustomerFile file = customerFile;
+            return snapshot.step(CUSTOMERS, datasetDir.resolve(CUSTOMERS_BINARY_FILE), SnapshotWriter.ALWAYS,
+                    file::save);
+        }
 
-            for (Transaction transaction : transactions) {
-                String line = formatTransactionLine(transaction);
-                writer.write(line);
-                writer.newLine();
-                count++;
+        long version = customerVersion.get();
+        List<Customer> customers = customerManager.getAllCustomers();
+        if (format == DataFormat.BINARY && keys != null) {
+            // Personal details are not left in the binary file once they are saved encrypted
+            addTextFile(snapshot, CUSTOMERS, CUSTOMERS_FILE, version, customersText(customers));
+            Path binary = datasetDir.resolve(CUSTOMERS_BINARY_FILE);
+            if (Files.exists(binary)) {
+                snapshot.step(CUSTOMERS + PLAINTEXT + "-binary", binary, SnapshotWriter.ALWAYS, () -> {
+                    Files.deleteIfExists(binary);
+                    return 0;
+                });
             }
+            return snapshot;
+        }
+        if (format == DataFormat.BINARY) {
+            Path path = datasetDir.resolve(CUSTOMERS_BINARY_FILE);
+            return snapshot.step(CUSTOMERS, path, version, () -> IndexedCustomerFile.write(path, customers));
         }
+        if (shards != null) {
+            return snapshot.step(CUSTOMERS, shards.manifestPath(CUSTOMERS), version, () -> shards.write(CUSTOMERS,
+                    customers.size(), i -> customers.get(i).getCustomerId(),
+                    (line, i) -> appendCustomerLine(line, customers.get(i))));
+        }
+        return addTextFile(snapshot, CUSTOMERS, CUSTOMERS_FILE, version, customersText(customers));
+    }
 
-        return count;
+    // Transactions are never changed, so the snapshot is just how many had been recorded
+    private SnapshotWriter.Snapshot addTransactions(SnapshotWriter.Snapshot snapshot) throws IOException {
+        long recorded = transactionManager.getRecordedCount();
+        if (format == DataFormat.BINARY) {
+            // New transactions are appended to the segmented log and leave the heap
+            TransactionLog log = openTransactionLog();
+            return snapshot.step(TRANSACTIONS, datasetDir.resolve(TRANSACTION_LOG_DIR), SnapshotWriter.ALWAYS,
+                    () -> appendToLog(log, recorded));
+        }
+        if (shards != null) {
+            return snapshot.step(TRANSACTIONS, shards.manifestPath(TRANSACTIONS), recorded, () -> {
+                List<Transaction> transactions = new ArrayList<>();
+                transactionManager.forEachTransaction(recorded, transactions::add);
+                return shards.write(TRANSACTIONS, transactions.size(), i -> transactions.get(i).getAccountNumber(),
+                        (line, i) -> appendTransactionLine(line, transactions.get(i)));
+            });
+        }
+        return addTextFile(snapshot, TRANSACTIONS, TRANSACTIONS_FILE, recorded, transactionsText(recorded));
     }
 
-    public int loadAccounts() throws IOException {
-        Path filePath = Paths.get(DATASET_DIR, ACCOUNTS_FILE);
-        if (!Files.exists(filePath)) {
-            return 0;
+    // Encrypted mode writes <file>.enc and then removes a plaintext copy left from before
+    private SnapshotWriter.Snapshot addTextFile(SnapshotWriter.Snapshot snapshot, String name, String fileName,
+                                                long version, SnapshotWriter.Content content) {
+        DatasetKeys current = keys;
+        if (current == null) {
+            return snapshot.file(name, datasetDir.resolve(fileName), version, content);
+        }
+        snapshot.file(name, datasetDir.resolve(fileName + EncryptedFile.SUFFIX), version, encoding(current), content);
+        Path plaintext = datasetDir.resolve(fileName);
+        if (Files.exists(plaintext)) {
+            snapshot.step(name + PLAINTEXT, plaintext, SnapshotWriter.ALWAYS, () -> {
+                Files.deleteIfExists(plaintext);
+                return 0;
+            });
         }
+        return snapshot;
+    }
 
-        int count = 0;
-        try (BufferedReader reader = Files.newBufferedReader(filePath)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
+    private static SnapshotWriter.Encoding encoding(DatasetKeys keys) {
+        return out -> EncryptedFile.encrypting(out, keys);
+    }
 
-                Account account = parseAccountLine(line);
-                if (account != null) {
-                    accountManager.addAccount(account);
-                    count++;
-                }
+    private int appendToLog(TransactionLog log, long recorded) throws IOException {
+        if (transactionManager.getArchive() != log) {
+            // History came from elsewhere, so the log is rebuilt from what is in memory
+            log.clear();
+        }
+
+        List<Transaction> pending = transactionManager.getPendingTransactions(recorded);
+        log.appendAll(pending);
+        log.flush();
+        transactionManager.markArchived(log, pending.size());
+        return pending.size();
+    }
+
+    private TransactionLog openTransactionLog() throws IOException {
+        if (transactionLog == null) {
+            transactionLog = TransactionLog.open(datasetDir.resolve(TRANSACTION_LOG_DIR));
+        }
+        return transactionLog;
+    }
+
+    // Writes the pipe-delimited text files regardless of the configured format; encrypted when a
+    // keystore is in use
+    public void exportAsText() {
+        try {
+            SnapshotWriter.Result result = SnapshotWriter.await(submit(snapshot -> {
+                addTextFile(snapshot, ACCOUNTS, ACCOUNTS_FILE, SnapshotWriter.ALWAYS,
+                        accountsText(accountManager.getAccounts()));
+                addTextFile(snapshot, CUSTOMERS, CUSTOMERS_FILE, SnapshotWriter.ALWAYS,
+                        customersText(customerManager.getAllCustomers()));
+                return addTextFile(snapshot, TRANSACTIONS, TRANSACTIONS_FILE, SnapshotWriter.ALWAYS,
+                        transactionsText(transactionManager.getRecordedCount()));
+            }));
+
+            CustomUtils.printSuccess("Data exported as text successfully!");
+            CustomUtils.print("Accounts exported: " + result.records(ACCOUNTS));
+            CustomUtils.print("Customers exported: " + result.records(CUSTOMERS));
+            CustomUtils.print("Transactions exported: " + result.records(TRANSACTIONS));
+        } catch (IOException e) {
+            CustomUtils.printError("Failed to export data: " + e.getMessage());
+        }
+    }
+
+    private AccountTable openAccountTable() throws IOException {
+        if (accountTable == null) {
+            accountTable = AccountTable.open(datasetDir.resolve(ACCOUNT_TABLE_FILE));
+            accountManager.addAccountListener(accountTable);
+        }
+        return accountTable;
+    }
+
+    // Waits for queued saves, then releases the account table mapping and the transaction log;
+    // later saves reopen them
+    public synchronized void close() {
+        // Queued saves still use the table and the log
+        snapshots.awaitIdle();
+        if (accountTable != null) {
+            accountManager.removeAccountListener(accountTable);
+            try {
+                accountTable.close();
+            } catch (IOException e) {
+                CustomUtils.printError("Failed to close account table: " + e.getMessage());
+            }
+            accountTable = null;
+            accountTableCurrent = false;
+        }
+        if (transactionLog != null) {
+            try {
+                transactionLog.close();
+            } catch (IOException e) {
+                CustomUtils.printError("Failed to close transaction log: " + e.getMessage());
+            }
+            transactionLog = null;
+        }
+        if (customerFile != null) {
+            accountManager.removeAccountListener(customerFile);
+            try {
+                customerFile.close();
+            } catch (IOException e) {
+                CustomUtils.printError("Failed to close customer file: " + e.getMessage());
             }
+            customerFile = null;
         }
+    }
 
-        return count;
+    private SnapshotWriter.Content accountsText(List<Account> accounts) {
+        ShardedDataset.LineWriter lines = accountLines(accounts);
+        return writer -> {
+            RecordFormatter line = new RecordFormatter();
+            RecordChecksum checksum = new RecordChecksum();
+            for (int i = 0; i < accounts.size(); i++) {
+                lines.append(line.reset(), i);
+                checksum.sign(line);
+                line.writeTo(writer);
+                writer.write(System.lineSeparator());
+            }
+            return accounts.size();
+        };
     }
 
-    public int loadCustomers() throws IOException {
-        Path filePath = Paths.get(DATASET_DIR, CUSTOMERS_FILE);
+    // Balances and statuses keep changing after the snapshot, so they are copied now
+    private ShardedDataset.LineWriter accountLines(List<Account> accounts) {
+        double[] balances = new double[accounts.size()];
+        String[] statuses = new String[accounts.size()];
+        for (int i = 0; i < accounts.size(); i++) {
+            balances[i] = accounts.get(i).getBalance();
+            statuses[i] = accounts.get(i).getStatus();
+        }
+        return (line, i) -> appendAccountLine(line, accounts.get(i), balances[i], statuses[i]);
+    }
+
+    private SnapshotWriter.Content customersText(List<Customer> customers) {
+        return writer -> {
+            RecordFormatter line = new RecordFormatter();
+            RecordChecksum checksum = new RecordChecksum();
+            for (Customer customer : customers) {
+                appendCustomerLine(line.reset(), customer);
+                checksum.sign(line);
+                line.writeTo(writer);
+                writer.write(System.lineSeparator());
+            }
+            return customers.size();
+        };
+    }
+
+    private SnapshotWriter.Content transactionsText(long recorded) {
+        return writer -> {
+            RecordFormatter line = new RecordFormatter();
+            RecordChecksum checksum = new RecordChecksum();
+            int[] count = {0};
+
+            // Streams archived history straight from the log instead of copying it into a list
+            try {
+                transactionManager.forEachTransaction(recorded, transaction -> {
+                    try {
+                        appendTransactionLine(line.reset(), transaction);
+                        checksum.sign(line);
+                        line.writeTo(writer);
+                        writer.write(System.lineSeparator());
+                        count[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return count[0];
+        };
+    }
+
+    public int loadAccounts() throws IOException {
+        Path tablePath = datasetDir.resolve(ACCOUNT_TABLE_FILE);
+        if (prefersBinary(tablePath, ACCOUNTS_FILE)) {
+            return loadAccountTable(tablePath);
+        }
+
+        Path binaryPath = datasetDir.resolve(ACCOUNTS_BINARY_FILE);
+        if (prefersBinary(binaryPath, ACCOUNTS_FILE)) {
+            int count = 0;
+            for (Account account : BinaryDatasetCodec.readAccounts(binaryPath, loadedCustomers)) {
+                accountManager.addAccount(account);
+                count++;
+            }
+            return count;
+        }
+
+        if (prefersShards(ACCOUNTS)) {
+            List<Account> accounts = shards.readLines(ACCOUNTS, parallelLoader, this::parseAccountLine);
+            accounts.forEach(accountManager::addAccount);
+            noteShardsLoaded(ACCOUNTS, accounts.size());
+            return accounts.size();
+        }
+
+        Path filePath = textPath(ACCOUNTS_FILE);
         if (!Files.exists(filePath)) {
             return 0;
         }
 
-        int count = 0;
+        // Customers are fully loaded by now, so chunks can resolve their owners concurrently
+        List<Account> accounts = loadLines(filePath, this::parseAccountLine);
+        accounts.forEach(accountManager::addAccount);
+        if (!reportCorrupt(filePath, parallelLoader.getCorruptLines())) {
+            noteLoaded(filePath, DataFormat.TEXT, accounts.size());
+        }
+
+        return accounts.size();
+    }
+
+    private int loadAccountTable(Path tablePath) throws IOException {
+        close();
+        AccountTable table = AccountTable.open(tablePath);
+        List<Account> accounts = table.readAccounts(loadedCustomers);
+        accounts.forEach(accountManager::addAccount);
+        reportCorrupt(tablePath, table.getCorruptRecords());
+
+        // Listen only after loading, so the loaded accounts are not queued for rewriting
+        accountTable = table;
+        accountManager.addAccountListener(table);
+        accountTableCurrent = accounts.size() == table.size()
+                && accounts.size() == accountManager.getAccounts().size();
+        return accounts.size();
+    }
+
+    public int loadCustomers() throws IOException {
         loadedCustomers.clear();
 
-        try (BufferedReader reader = Files.newBufferedReader(filePath)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
+        // With keys, customers already saved encrypted win over a binary file left from before
+        Path binaryPath = datasetDir.resolve(CUSTOMERS_BINARY_FILE);
+        boolean savedEncrypted = keys != null
+                && Files.exists(datasetDir.resolve(CUSTOMERS_FILE + EncryptedFile.SUFFIX));
+        if (!savedEncrypted && prefersBinary(binaryPath, CUSTOMERS_FILE)) {
+            for (Customer customer : BinaryDatasetCodec.readCustomers(binaryPath)) {
+                loadedCustomers.put(customer.getCustomerId(), customer);
+            }
+            noteLoaded(binaryPath, DataFormat.BINARY, loadedCustomers.size());
+            return loadedCustomers.size();
+        }
 
-                Customer customer = parseCustomerLine(line);
-                if (customer != null) {
-                    loadedCustomers.put(customer.getCustomerId(), customer);
-                    count++;
-                }
+        if (prefersShards(CUSTOMERS)) {
+            List<Customer> customers = shards.readLines(CUSTOMERS, parallelLoader, this::parseCustomerLine);
+            for (Customer customer : customers) {
+                loadedCustomers.put(customer.getCustomerId(), customer);
             }
+            noteShardsLoaded(CUSTOMERS, customers.size());
+            return customers.size();
         }
 
-        return count;
+        Path filePath = textPath(CUSTOMERS_FILE);
+        if (!Files.exists(filePath)) {
+            return 0;
+        }
+
+        List<Customer> customers = loadLines(filePath, this::parseCustomerLine);
+        for (Customer customer : customers) {
+            loadedCustomers.put(customer.getCustomerId(), customer);
+        }
+        if (!reportCorrupt(filePath, parallelLoader.getCorruptLines())) {
+            noteLoaded(filePath, DataFormat.TEXT, customers.size());
+        }
+
+        return customers.size();
     }
 
     public int loadTransactions() throws IOException {
-        Path filePath = Paths.get(DATASET_DIR, TRANSACTIONS_FILE);
+        Path logDir = datasetDir.resolve(TRANSACTION_LOG_DIR);
+        if ((format == DataFormat.BINARY || !textFileExists(TRANSACTIONS_FILE))
+                && TransactionLog.exists(logDir)) {
+            // History stays on disk; per-account reads go through the segment indexes
+            TransactionLog log = openTransactionLog();
+            transactionManager.attachArchive(log);
+            return (int) log.size();
+        }
+
+        Path binaryPath = datasetDir.resolve(TRANSACTIONS_BINARY_FILE);
+        if (prefersBinary(binaryPath, TRANSACTIONS_FILE)) {
+            List<Transaction> transactions = BinaryDatasetCodec.readTransactions(binaryPath);
+            transactions.forEach(transactionManager::addTransaction);
+            return transactions.size();
+        }
+
+        if (prefersShards(TRANSACTIONS)) {
+            List<Transaction> transactions = shards.readTransactions(TRANSACTIONS, parallelLoader);
+            transactions.forEach(transactionManager::addTransaction);
+            if (parallelLoader.getSkippedLines() > 0) {
+                CustomUtils.printError("Skipped " + parallelLoader.getSkippedLines() + " malformed transaction line(s)");
+            } else {
+                noteShardsLoaded(TRANSACTIONS, transactions.size());
+            }
+            return transactions.size();
+        }
+
+        Path filePath = textPath(TRANSACTIONS_FILE);
         if (!Files.exists(filePath)) {
             return 0;
         }
 
-        int count = 0;
-        try (BufferedReader reader = Files.newBufferedReader(filePath)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
+        // Text transactions are scanned straight off the mapped file, one chunk per worker
+        Consumer<Transaction> sink = transactionManager::addTransaction;
+        int count = isEncryptedFile(filePath)
+                ? parallelLoader.loadEncryptedTransactions(filePath, keysFor(filePath), sink)
+                : parallelLoader.loadTransactions(filePath, sink);
+        boolean corrupt = reportCorrupt(filePath, parallelLoader.getCorruptLines());
+        if (parallelLoader.getSkippedLines() > 0) {
+            CustomUtils.printError("Skipped " + parallelLoader.getSkippedLines() + " malformed transaction line(s)");
+        } else if (!corrupt) {
+            noteLoaded(filePath, DataFormat.TEXT, count);
+        }
 
-                Transaction transaction = parseTransactionLine(line);
-                if (transaction != null) {
-                    transactionManager.addTransaction(transaction);
-                    count++;
-                }
+        return count;
+    }
+
+    // Records that failed their checksum were left out of the load; returns true if there were any
+    private boolean reportCorrupt(Path file, int corrupt) {
+        if (corrupt == 0) {
+            return false;
+        }
+        CustomUtils.printError(corrupt + " record(s) in " + file.getFileName()
+                + " failed their checksum and were not loaded. Run Verify Data Files for details.");
+        return true;
+    }
+
+    // Shards win whenever this service is sharded and has saved them, as binary files do in binary mode
+    private boolean prefersShards(String entity) {
+        return shards != null && shards.exists(entity);
+    }
+
+    // Shards that do not match their manifest are still loaded, but are rewritten on the next save
+    private void noteShardsLoaded(String entity, int records) {
+        List<String> mismatched = shards.getMismatchedFiles();
+        for (String file : mismatched) {
+            CustomUtils.printError("Shard file " + file + " does not match its manifest");
+        }
+        boolean corrupt = reportCorrupt(shards.manifestPath(entity), parallelLoader.getCorruptLines());
+        if (mismatched.isEmpty() && !corrupt) {
+            noteLoaded(shards.manifestPath(entity), DataFormat.TEXT, records);
+        }
+    }
+
+    // A file just read in this service's own format needs no rewrite until the data changes
+    private void noteLoaded(Path file, DataFormat fileFormat, int records) {
+        if (fileFormat == format) {
+            loadedFiles.put(file, records);
+        }
+    }
+
+    // The file a text load reads: in encrypted mode the .enc file unless only plaintext exists yet.
+    // Without keys an encrypted file is still chosen when it is the only one, so the load fails
+    // loudly instead of finding nothing.
+    private Path textPath(String fileName) {
+        Path plaintext = datasetDir.resolve(fileName);
+        Path encrypted = datasetDir.resolve(fileName + EncryptedFile.SUFFIX);
+        boolean preferEncrypted = keys != null
+                ? Files.exists(encrypted) || !Files.exists(plaintext)
+                : Files.exists(encrypted) && !Files.exists(plaintext);
+        return preferEncrypted ? encrypted : plaintext;
+    }
+
+    private boolean textFileExists(String fileName) {
+        return Files.exists(datasetDir.resolve(fileName))
+                || Files.exists(datasetDir.resolve(fileName + EncryptedFile.SUFFIX));
+    }
+
+    private boolean isEncryptedFile(Path file) {
+        return file.getFileName().toString().endsWith(EncryptedFile.SUFFIX);
+    }
+
+    private <T> List<T> loadLines(Path file, Function<String, T> parser) throws IOException {
+        return isEncryptedFile(file) ? parallelLoader.loadEncryptedLines(file, keysFor(file), parser)
+                : parallelLoader.loadLines(file, parser);
+    }
+
+    private DatasetKeys keysFor(Path encryptedFile) throws IOException {
+        DatasetKeys current = keys;
+        if (current == null) {
+            throw new IOException(encryptedFile.getFileName() + " is encrypted and no keystore was given");
+        }
+        return current;
+    }
+
+    // Versions are taken once everything is loaded, since adding accounts bumps them
+    private void markLoadedFilesClean() {
+        for (Map.Entry<Path, Integer> loaded : loadedFiles.entrySet()) {
+            String name = loaded.getKey().getFileName().toString();
+            if (isEncryptedFile(loaded.getKey())) {
+                name = name.substring(0, name.length() - EncryptedFile.SUFFIX.length());
             }
+            long version = switch (name) {
+                case ACCOUNTS_FILE, ACCOUNTS + ShardedDataset.MANIFEST_SUFFIX -> accountVersion.get();
+                case TRANSACTIONS_FILE, TRANSACTIONS + ShardedDataset.MANIFEST_SUFFIX ->
+                        transactionManager.getRecordedCount();
+                default -> customerVersion.get();
+            };
+            snapshots.markClean(loaded.getKey(), version, loaded.getValue());
         }
+        loadedFiles.clear();
+    }
 
-        return count;
+    // Binary files win when the binary format is configured, or when no text file exists
+    private boolean prefersBinary(Path binaryPath, String textFile) {
+        if (!Files.exists(binaryPath)) {
+            return false;
+        }
+        if (format == DataFormat.BINARY) {
+            return true;
+        }
+        return !textFileExists(textFile);
     }
 
     private Account parseAccountLine(String line) {
+        return parseAccountLine(line, loadedCustomers::get);
+    }
+
+    private Account parseAccountLine(String line, Function<String, Customer> customers) {
         try {
             String[] parts = line.split(DELIMITER);
             if (parts.length < 8 || !parts[0].equals("ACCOUNT")) {
@@ -222,7 +1117,7 @@ public class FilePersistenceService {
             double balance = Double.parseDouble(parts[4]);
             String status = parts[5];
 
-            Customer customer = loadedCustomers.get(customerId);
+            Customer customer = customers.apply(customerId);
             if (customer == null) {
                 CustomUtils.printError("Customer not found for account: " + accountNumber);
                 return null;
@@ -230,13 +1125,11 @@ public class FilePersistenceService {
 
             Account account;
             if (accountType.equals("Savings")) {
-                account = new SavingsAccount(customer, balance);
-
+                account = new SavingsAccount(accountNumber, customer, balance, status);
             } else {
-                account = new CheckingAccount(customer, balance);
+                account = new CheckingAccount(accountNumber, customer, balance, status);
             }
 
-            account.setStatus(status);
             return account;
 
         } catch (Exception e) {
@@ -252,6 +1145,7 @@ public class FilePersistenceService {
                 return null;
             }
 
+            String customerId = parts[1];
             String name = parts[2];
             int age = Integer.parseInt(parts[3]);
             String contact = parts[4];
@@ -260,9 +1154,9 @@ public class FilePersistenceService {
 
             Customer customer;
             if (customerType.equals("Premium")) {
-                customer = new PremiumCustomer(name, age, contact, address);
+                customer = new PremiumCustomer(customerId, name, age, contact, address);
             } else {
-                customer = new RegularCustomer(name, age, contact, address);
+                customer = new RegularCustomer(customerId, name, age, contact, address);
             }
 
             return customer;
@@ -273,75 +1167,42 @@ public class FilePersistenceService {
         }
     }
 
-    private Transaction parseTransactionLine(String line) {
-        try {
-            String[] parts = line.split(DELIMITER);
-            if (parts.length < 7 || !parts[0].equals("TRANSACTION")) {
-                return null;
-            }
-
-            String accountNumber = parts[2];
-            String type = parts[3];
-            double amount = Double.parseDouble(parts[4]);
-            double balanceAfter = Double.parseDouble(parts[5]);
-            String timestamp = parts[6];
-
-            Transaction transaction;
-            if (parts.length > 7) {
-                String relatedAccount = parts[7];
-                transaction = new Transaction(accountNumber, type, amount, balanceAfter, relatedAccount);
-            } else {
-                transaction = new Transaction(accountNumber, type, amount, balanceAfter);
-            }
-
-            return transaction;
-
-        } catch (Exception e) {
-            CustomUtils.printError("Failed to parse transaction line: " + e.getMessage());
-            return null;
-        }
-    }
-
-    private String formatAccountLine(Account account) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("ACCOUNT").append("|");
-        sb.append(account.getAccountNumber()).append("|");
-        sb.append(account.getAccountType()).append("|");
-        sb.append(account.getCustomer().getCustomerId()).append("|");
-        sb.append(String.format("%.2f", account.getBalance())).append("|");
-        sb.append(account.getStatus()).append("|");
-
-        if (account instanceof SavingsAccount) {
-            SavingsAccount savings = (SavingsAccount) account;
-            sb.append(savings.getInterestRate()).append("|");
-            sb.append(String.format("%.2f", savings.getMinimumBalance()));
-        } else if (account instanceof CheckingAccount) {
-            CheckingAccount checking = (CheckingAccount) account;
-            sb.append(String.format("%.2f", checking.getOverdraftLimit())).append("|");
-            sb.append(String.format("%.2f", checking.getMonthlyFee()));
+    // Record writers append straight into the reusable line buffer
+    private void appendAccountLine(RecordFormatter line, Account account, double balance, String status) {
+        line.append("ACCOUNT").append('|')
+                .append(account.getAccountNumber()).append('|')
+                .append(account.getAccountType()).append('|')
+                .append(account.getCustomer().getCustomerId()).append('|')
+                .appendMoney(balance).append('|')
+                .append(status).append('|');
+
+        if (account instanceof SavingsAccount savings) {
+            line.append(Double.toString(savings.getInterestRate())).append('|')
+                    .appendMoney(savings.getMinimumBalance());
+        } else if (account instanceof CheckingAccount checking) {
+            line.appendMoney(checking.getOverdraftLimit()).append('|')
+                    .appendMoney(checking.getMonthlyFee());
         }
-
-        return sb.toString();
     }
 
-    private String formatCustomerLine(Customer customer) {
-        return "CUSTOMER" + "|" +
-                customer.getCustomerId() + "|" +
-                customer.getName() + "|" +
-                customer.getAge() + "|" +
-                customer.getContact() + "|" +
-                customer.getAddress() + "|" +
-                customer.getCustomerType();
+    private void appendCustomerLine(RecordFormatter line, Customer customer) {
+        line.append("CUSTOMER").append('|')
+                .append(customer.getCustomerId()).append('|')
+                .append(customer.getName()).append('|')
+                .append(customer.getAge()).append('|')
+                .append(customer.getContact()).append('|')
+                .append(customer.getAddress()).append('|')
+                .append(customer.getCustomerType());
     }
 
-    private String formatTransactionLine(Transaction transaction) {
-        return "TRANSACTION" + "|" +
-                transaction.getTransactionId() + "|" +
-                transaction.getAccountNumber() + "|" +
-                transaction.getType() + "|" +
-                String.format("%.2f", transaction.getAmount()) + "|" +
-                String.format("%.2f", transaction.getBalanceAfter()) + "|" +
-                transaction.getTimestamp();
+    private void appendTransactionLine(RecordFormatter line, Transaction transaction) {
+        line.append("TRANSACTION").append('|')
+                .append(transaction.getTransactionId()).append('|')
+                .append(transaction.getAccountNumber()).append('|')
+                .append(transaction.getType()).append('|')
+                .appendMoney(transaction.getAmount()).append('|')
+                .appendMoney(transaction.getBalanceAfter()).append('|')
+                .append(transaction.getTimestamp());
     }
 
     public void saveAccountsOnly() {
@@ -374,23 +1235,56 @@ public class FilePersistenceService {
         }
     }
 
-    public boolean dataFilesExist() {
-        Path accountsPath = Paths.get(DATASET_DIR, ACCOUNTS_FILE);
-        Path customersPath = Paths.get(DATASET_DIR, CUSTOMERS_FILE);
-        Path transactionsPath = Paths.get(DATASET_DIR, TRANSACTIONS_FILE);
+    // Checks every record checksum in the dataset directory in parallel and prints the outcome
+    public DatasetVerifier.Report verifyDataset() {
+        // Let a save in progress finish, so no file is checked half-written
+        snapshots.awaitIdle();
+        try {
+            DatasetVerifier.Report report = new DatasetVerifier().verify(datasetDir);
+            for (DatasetVerifier.FileReport file : report.files()) {
+                if (file.isClean()) {
+                    CustomUtils.print(String.format("  %-28s %,d record(s) OK%s", file.file(), file.records(),
+                            file.unchecked() > 0 ? String.format(", %,d without checksum", file.unchecked()) : ""));
+                } else {
+                    CustomUtils.printError(String.format("%s: %,d corrupt record(s)", file.file(), file.corrupt()));
+                    file.problems().forEach(problem -> CustomUtils.print("    " + problem));
+                }
+            }
 
-        return Files.exists(accountsPath) &&
-                Files.exists(customersPath) &&
-                Files.exists(transactionsPath);
+            String summary = String.format("%,d record(s) in %d file(s) checked in %.1f ms (%.0f MB/s)",
+                    report.records() + report.unchecked() + report.corrupt(), report.files().size(),
+                    report.durationMillis(), report.megabytesPerSecond());
+            if (report.isClean()) {
+                CustomUtils.printSuccess("✓ Data files verified: " + summary);
+            } else {
+                CustomUtils.printError("Data files have problems: " + summary);
+            }
+            return report;
+        } catch (IOException e) {
+            CustomUtils.printError("Failed to verify data files: " + e.getMessage());
+            return null;
+        }
     }
 
-    public boolean anyDataFileExists() {
-        Path accountsPath = Paths.get(DATASET_DIR, ACCOUNTS_FILE);
-        Path customersPath = Paths.get(DATASET_DIR, CUSTOMERS_FILE);
-        Path transactionsPath = Paths.get(DATASET_DIR, TRANSACTIONS_FILE);
+    public boolean dataFilesExist() {
+        return (prefersShards(ACCOUNTS) && prefersShards(CUSTOMERS) && prefersShards(TRANSACTIONS)) ||
+                (textFileExists(ACCOUNTS_FILE) && textFileExists(CUSTOMERS_FILE) &&
+                        textFileExists(TRANSACTIONS_FILE)) ||
+                ((Files.exists(datasetDir.resolve(ACCOUNT_TABLE_FILE)) ||
+                        Files.exists(datasetDir.resolve(ACCOUNTS_BINARY_FILE))) &&
+                        Files.exists(datasetDir.resolve(CUSTOMERS_BINARY_FILE)) &&
+                        (Files.exists(datasetDir.resolve(TRANSACTION_LOG_DIR)) ||
+                                Files.exists(datasetDir.resolve(TRANSACTIONS_BINARY_FILE))));
+    }
 
-        return Files.exists(accountsPath) ||
-                Files.exists(customersPath) ||
-                Files.exists(transactionsPath);
+    public boolean anyDataFileExists() {
+        return prefersShards(ACCOUNTS) || prefersShards(CUSTOMERS) || prefersShards(TRANSACTIONS) ||
+                textFileExists(ACCOUNTS_FILE) || textFileExists(CUSTOMERS_FILE) ||
+                textFileExists(TRANSACTIONS_FILE) ||
+                Files.exists(datasetDir.resolve(ACCOUNTS_BINARY_FILE)) ||
+                Files.exists(datasetDir.resolve(ACCOUNT_TABLE_FILE)) ||
+                Files.exists(datasetDir.resolve(CUSTOMERS_BINARY_FILE)) ||
+                Files.exists(datasetDir.resolve(TRANSACTIONS_BINARY_FILE)) ||
+                Files.exists(datasetDir.resolve(TRANSACTION_LOG_DIR));
     }
-}
\ No newline at end of file
+}
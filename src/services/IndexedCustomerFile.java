@@ -0,0 +1,182 @@
+package services;
+
+import account.Account;
+import account.AccountListener;
+import customer.Customer;
+import customer.CustomerStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Random access to customers.dat through a hash index of record offsets
+ * (customers.dat.idx), used as the store behind a lazy CustomerManager.
+ *
+ * Customers of accounts created since the last save are held in memory until
+ * {@link #save()} rewrites the file with them appended. The rewrite goes to a
+ * temporary file that replaces the old one atomically, so lookups keep working
+ * from the previous file while it runs.
+ */
+final class IndexedCustomerFile implements CustomerStore, AccountListener, Closeable {
+    private final Path file;
+    private final Path indexFile;
+    private final Map<String, Customer> unsaved = new LinkedHashMap<>();
+
+    private FileChannel channel;
+    private BinaryDatasetCodec.FileHeader header;
+    private DiskHashIndex offsets;
+
+    private IndexedCustomerFile(Path file) {
+        this.file = file;
+        this.indexFile = file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    static IndexedCustomerFile open(Path file) throws IOException {
+        IndexedCustomerFile customers = new IndexedCustomerFile(file);
+        customers.openFiles();
+        return customers;
+    }
+
+    private void openFiles() throws IOException {
+        header = BinaryDatasetCodec.readCustomerHeader(file);
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        offsets = DiskHashIndex.openIfValid(indexFile);
+        if (offsets == null || offsets.size() != header.recordCount()) {
+            // Missing or out of step with the data file: index the records once
+            if (offsets != null) {
+                offsets.close();
+            }
+            offsets = DiskHashIndex.create(indexFile, header.recordCount());
+            DiskHashIndex index = offsets;
+            try {
+                BinaryDatasetCodec.forEachCustomer(file, (customer, offset) -> putOffset(index, customer, offset));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            offsets.force();
+        }
+    }
+
+    // Writes customers.dat and its offset index side by side, then swaps both in
+    static int write(Path file, List<Customer> customers) throws IOException {
+        Path indexFile = file.resolveSibling(file.getFileName() + ".idx");
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Path tempIndex = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+        try (DiskHashIndex index = DiskHashIndex.create(tempIndex, customers.size())) {
+            BinaryDatasetCodec.writeCustomers(tempFile, customers,
+                    (customer, offset) -> putOffset(index, customer, offset));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tempIndex, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return customers.size();
+    }
+
+    private static void putOffset(DiskHashIndex index, Customer customer, long offset) {
+        try {
+            index.put(DiskHashIndex.hash(customer.getCustomerId()), offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized Customer loadCustomer(String customerId) {
+        Customer pending = unsaved.get(customerId);
+        if (pending != null) {
+            return pending;
+        }
+
+        Customer[] found = new Customer[1];
+        offsets.find(DiskHashIndex.hash(customerId), offset -> {
+            Customer candidate = readAt(offset);
+            if (candidate.getCustomerId().equals(customerId)) {
+                found[0] = candidate;
+                return true;
+            }
+            return false;
+        });
+        return found[0];
+    }
+
+    @Override
+    public synchronized void forEachCustomer(Consumer<Customer> action) {
+        try {
+            BinaryDatasetCodec.forEachCustomer(file, (customer, offset) -> action.accept(customer));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        unsaved.values().forEach(action);
+    }
+
+    // Customers of newly opened accounts stay in memory until the next save
+    @Override
+    public synchronized void accountAdded(Account account) {
+        Customer customer = account.getCustomer();
+        if (!unsaved.containsKey(customer.getCustomerId()) && loadCustomer(customer.getCustomerId()) == null) {
+            unsaved.put(customer.getCustomerId(), customer);
+        }
+    }
+
+    synchronized int unsavedCount() {
+        return unsaved.size();
+    }
+
+    // Rewrites the file with the unsaved customers appended and swaps it in; returns the record count
+    synchronized int save() throws IOException {
+        if (unsaved.isEmpty()) {
+            return 0;
+        }
+
+        List<Customer> all = new ArrayList<>();
+        forEachCustomer(all::add);
+
+        closeFiles();
+        try {
+            write(file, all);
+            unsaved.clear();
+        } finally {
+            openFiles();
+        }
+        return all.size();
+    }
+
+    private Customer readAt(long offset) {
+        try {
+            return BinaryDatasetCodec.readCustomerAt(channel, offset, header);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeFiles();
+    }
+
+    private void closeFiles() throws IOException {
+        if (offsets != null) {
+            offsets.close();
+            offsets = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package services;
+
+import utils.RecordFormatter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Small text files describing other files: one entry per line, fields
+ * separated by '|', every line signed with {@link RecordChecksum}. A manifest
+ * is replaced atomically, so readers see either the old one or the new one,
+ * and a line that does not check out makes the whole manifest unreadable.
+ */
+final class ManifestFile {
+    private static final String DELIMITER = "\\|";
+
+    private ManifestFile() {
+    }
+
+    // Signs the lines into a temp file beside the target, forces it and renames it over the target
+    static void write(Path target, List<String> lines) throws IOException {
+        RecordFormatter line = new RecordFormatter();
+        RecordChecksum checksum = new RecordChecksum();
+        StringBuilder text = new StringBuilder();
+        for (String entry : lines) {
+            checksum.sign(line.reset().append(entry));
+            text.append(line).append(System.lineSeparator());
+        }
+
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    // The fields of every line, in order
+    static List<String[]> read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        RecordChecksum checksum = new RecordChecksum();
+        List<String[]> entries = new ArrayList<>();
+
+        int lineStart = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i < bytes.length && bytes[i] != '\n') {
+                continue;
+            }
+            int lineEnd = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+            if (lineEnd > lineStart) {
+                int payloadEnd = checksum.checkTextLine(bytes, lineStart, lineEnd);
+                if (payloadEnd == RecordChecksum.CORRUPT || payloadEnd == lineEnd) {
+                    throw new IOException("Manifest " + file.getFileName() + " is corrupt");
+                }
+                entries.add(new String(bytes, lineStart, payloadEnd - lineStart, StandardCharsets.UTF_8)
+                        .split(DELIMITER));
+            }
+            lineStart = i + 1;
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,301 @@
+package services;
+
+import transaction.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Loads transactions.txt by memory-mapping it and scanning field boundaries
+ * directly over the mapped bytes.
+ *
+ * Amounts are parsed straight from the digits, and the values that repeat on
+ * almost every line (account number, type, timestamp) are resolved through a
+ * small byte-keyed cache so each distinct value becomes one shared String.
+ * Only the transaction ID, which is unique per line, is decoded on its own.
+ * Stored IDs and timestamps are restored verbatim. A line's checksum suffix,
+ * when present, is verified over the mapped bytes before the line is split.
+ *
+ * Instances keep per-file scratch state and are not thread-safe.
+ */
+public final class MappedTransactionLoader {
+    // Mappings are capped below 2 GB; larger files are mapped window by window
+    private static final long MAX_WINDOW = 1L << 30;
+    private static final int MAX_FIELDS = 8;
+    private static final byte SEPARATOR = '|';
+    private static final byte[] RECORD_TAG = "TRANSACTION".getBytes(StandardCharsets.US_ASCII);
+
+    // Powers of ten that are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private final Path file;
+    private final int[] fieldStarts = new int[MAX_FIELDS + 1];
+    private final SliceInterner interner = new SliceInterner(4096);
+    private final RecordChecksum checksum = new RecordChecksum();
+    private byte[] scratch = new byte[64];
+
+    private int loadedCount;
+    private int skippedCount;
+    private int corruptCount;
+
+    public MappedTransactionLoader(Path file) {
+        this.file = file;
+    }
+
+    // Parses the whole file, handing each transaction to the sink in file order
+    public int load(Consumer<Transaction> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return load(channel, 0, channel.size(), sink);
+        }
+    }
+
+    // Parses the lines in [start, end); start must sit on a line boundary
+    public int load(FileChannel channel, long start, long end, Consumer<Transaction> sink) throws IOException {
+        long position = start;
+
+        while (position < end) {
+            long windowSize = Math.min(MAX_WINDOW, end - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+
+            int limit = (int) windowSize;
+            if (position + windowSize < end) {
+                // Stop at the last complete line; the next window picks up the rest
+                while (limit > 0 && window.get(limit - 1) != '\n') {
+                    limit--;
+                }
+                if (limit == 0) {
+                    throw new IOException("Line longer than mapping window in " + file);
+                }
+            }
+
+            parseLines(window, 0, limit, sink);
+            position += limit;
+        }
+
+        return loadedCount;
+    }
+
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    // Lines whose checksum did not match; these are not counted as skipped
+    public int getCorruptCount() {
+        return corruptCount;
+    }
+
+    // Parses every line in buffer[from, to), tolerating a missing trailing newline
+    void parseLines(ByteBuffer buffer, int from, int to, Consumer<Transaction> sink) {
+        int lineStart = from;
+
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                parseLine(buffer, lineStart, i, sink);
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < to) {
+            parseLine(buffer, lineStart, to, sink);
+        }
+    }
+
+    private void parseLine(ByteBuffer buffer, int start, int end, Consumer<Transaction> sink) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (isBlank(buffer, start, end)) {
+            return;
+        }
+        end = checksum.checkTextLine(buffer, start, end);
+        if (end == RecordChecksum.CORRUPT) {
+            corruptCount++;
+            return;
+        }
+
+        // fieldStarts[i] is where field i begins; fieldStarts[i + 1] - 1 is its separator
+        int fields = 0;
+        fieldStarts[fields++] = start;
+        for (int i = start; i < end && fields < MAX_FIELDS; i++) {
+            if (buffer.get(i) == SEPARATOR) {
+                fieldStarts[fields++] = i + 1;
+            }
+        }
+        int lastFieldEnd = end;
+        for (int i = fieldStarts[fields - 1]; i < end; i++) {
+            if (buffer.get(i) == SEPARATOR) {
+                lastFieldEnd = i;
+                break;
+            }
+        }
+        fieldStarts[fields] = lastFieldEnd + 1;
+
+        if (fields < 7 || !matches(buffer, start, fieldEnd(1), RECORD_TAG)) {
+            skippedCount++;
+            return;
+        }
+
+        try {
+            String transactionId = decode(buffer, fieldStarts[1], fieldEnd(2));
+            String accountNumber = interner.intern(buffer, fieldStarts[2], fieldEnd(3));
+            String type = interner.intern(buffer, fieldStarts[3], fieldEnd(4));
+            double amount = parseAmount(buffer, fieldStarts[4], fieldEnd(5));
+            double balanceAfter = parseAmount(buffer, fieldStarts[5], fieldEnd(6));
+            String timestamp = interner.intern(buffer, fieldStarts[6], fieldEnd(7));
+
+            sink.accept(new Transaction(transactionId, accountNumber, type, amount, balanceAfter, timestamp));
+            loadedCount++;
+        } catch (NumberFormatException e) {
+            skippedCount++;
+        }
+    }
+
+    // End (exclusive) of the field that precedes field index next
+    private int fieldEnd(int next) {
+        return fieldStarts[next] - 1;
+    }
+
+    // Decimal amounts such as 1500.00 or -20.5 are parsed without building a String
+    static double parseAmount(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                if (digits == 18) {
+                    return parseSlow(buffer, start, end);
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenPoint) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                return parseSlow(buffer, start, end);
+            }
+        }
+
+        if (digits == 0) {
+            throw new NumberFormatException("Empty amount");
+        }
+
+        // Both operands are exact, so the division is correctly rounded like parseDouble
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static double parseSlow(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    private String decode(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(start, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(ByteBuffer buffer, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b != ' ' && b != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Open-addressing cache from byte slices to canonical Strings
+    private static final class SliceInterner {
+        private final byte[][] keys;
+        private final String[] values;
+        private final int mask;
+        private int size;
+
+        SliceInterner(int capacity) {
+            int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+            this.keys = new byte[tableSize][];
+            this.values = new String[tableSize];
+            this.mask = tableSize - 1;
+        }
+
+        String intern(ByteBuffer buffer, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (keys[slot] != null) {
+                if (sameBytes(keys[slot], buffer, start, end)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            byte[] key = new byte[end - start];
+            buffer.get(start, key);
+            String value = new String(key, StandardCharsets.UTF_8);
+
+            // Keep the table at most half full; past that, values are simply not cached
+            if (size < (mask + 1) / 2) {
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+            }
+            return value;
+        }
+
+        private static boolean sameBytes(byte[] key, ByteBuffer buffer, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package services;
+
+import transaction.Transaction;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Splits dataset files into byte-range chunks that start and end on newline
+ * boundaries and parses the chunks concurrently on a fork/join pool.
+ *
+ * Each chunk produces its own result list; the lists are handed back in file
+ * order, so callers can merge them into the managers exactly as a sequential
+ * loop would have. Several files (the shards of a partitioned dataset) can be
+ * parsed in one pass, with their chunks sharing the pool. Lines carrying a checksum (see {@link RecordChecksum}) are
+ * checked over the mapped bytes before they are decoded; the suffix is
+ * stripped before parsing and lines that fail are counted, not parsed.
+ * Encrypted files are split along their sealed chunks instead, decrypted by
+ * the task that parses them.
+ */
+public class ParallelDatasetLoader {
+    private static final long DEFAULT_CHUNK_BYTES = 8L << 20; // 8 MB
+    private static final int BOUNDARY_PROBE_BYTES = 4096;
+
+    private final ForkJoinPool pool;
+    private final long chunkBytes;
+    private volatile int skippedLines;
+    private volatile int corruptLines;
+
+    public ParallelDatasetLoader() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_BYTES);
+    }
+
+    public ParallelDatasetLoader(ForkJoinPool pool, long chunkBytes) {
+        if (chunkBytes <= 0 || chunkBytes > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Chunk size must be between 1 byte and 1 GB");
+        }
+        this.pool = pool;
+        this.chunkBytes = chunkBytes;
+    }
+
+    // Malformed lines skipped by the last transaction load
+    public int getSkippedLines() {
+        return skippedLines;
+    }
+
+    // Lines that failed their checksum in the last load
+    public int getCorruptLines() {
+        return corruptLines;
+    }
+
+    // Parses every non-blank line; null results are dropped, order is preserved
+    public <T> List<T> loadLines(Path file, Function<String, T> parser) throws IOException {
+        return loadLinesPerFile(List.of(file), parser).get(0);
+    }
+
+    // Parses several files at once, chunks of every file sharing the pool; one list per file
+    public <T> List<List<T>> loadLinesPerFile(List<Path> files, Function<String, T> parser) throws IOException {
+        List<List<LineChunk<T>>> chunked = parseChunks(files,
+                (file, channel, range) -> parseLineChunk(channel, range, parser));
+
+        List<List<T>> perFile = new ArrayList<>(chunked.size());
+        int corrupt = 0;
+        for (List<LineChunk<T>> chunks : chunked) {
+            List<T> results = new ArrayList<>();
+            for (LineChunk<T> chunk : chunks) {
+                results.addAll(chunk.results());
+                corrupt += chunk.corrupt();
+            }
+            perFile.add(results);
+        }
+        corruptLines = corrupt;
+        return perFile;
+    }
+
+    // Feeds transactions to the sink in file order and returns how many were loaded
+    public int loadTransactions(Path file, Consumer<Transaction> sink) throws IOException {
+        List<TransactionChunk> chunks = parseChunks(List.of(file), this::parseTransactionChunk).get(0);
+
+        int loaded = 0;
+        for (TransactionChunk chunk : chunks) {
+            chunk.transactions().forEach(sink);
+            loaded += chunk.transactions().size();
+        }
+        countProblems(List.of(chunks));
+        return loaded;
+    }
+
+    // Transactions of several files parsed at once; one list per file, each in file order
+    public List<List<Transaction>> loadTransactionsPerFile(List<Path> files) throws IOException {
+        List<List<TransactionChunk>> chunked = parseChunks(files, this::parseTransactionChunk);
+
+        List<List<Transaction>> perFile = new ArrayList<>(chunked.size());
+        for (List<TransactionChunk> chunks : chunked) {
+            List<Transaction> transactions = new ArrayList<>();
+            for (TransactionChunk chunk : chunks) {
+                transactions.addAll(chunk.transactions());
+            }
+            perFile.add(transactions);
+        }
+        countProblems(chunked);
+        return perFile;
+    }
+
+    // Encrypted files (see EncryptedFile) hold whole lines per sealed chunk, so runs of chunks adding
+    // up to the plaintext chunk size are decrypted and parsed by one task each; results come back in
+    // file order
+    public <T> List<T> loadEncryptedLines(Path file, DatasetKeys keys, Function<String, T> parser)
+            throws IOException {
+        List<LineChunk<T>> chunks = decryptChunks(file, keys, (reader, run) -> {
+            List<T> results = new ArrayList<>();
+            int corrupt = 0;
+            ByteBuffer plain = null;
+            for (EncryptedFile.Chunk chunk : run) {
+                plain = reader.decrypt(chunk, plain);
+                LineChunk<T> parsed = parseLineBuffer(plain, plain.limit(), parser);
+                results.addAll(parsed.results());
+                corrupt += parsed.corrupt();
+            }
+            return new LineChunk<>(results, corrupt);
+        });
+
+        List<T> results = new ArrayList<>();
+        int corrupt = 0;
+        for (LineChunk<T> chunk : chunks) {
+            results.addAll(chunk.results());
+            corrupt += chunk.corrupt();
+        }
+        corruptLines = corrupt;
+        return results;
+    }
+
+    public int loadEncryptedTransactions(Path file, DatasetKeys keys, Consumer<Transaction> sink)
+            throws IOException {
+        List<TransactionChunk> chunks = decryptChunks(file, keys, (reader, run) -> {
+            List<Transaction> transactions = new ArrayList<>();
+            MappedTransactionLoader loader = new MappedTransactionLoader(file);
+            ByteBuffer plain = null;
+            for (EncryptedFile.Chunk chunk : run) {
+                plain = reader.decrypt(chunk, plain);
+                loader.parseLines(plain, 0, plain.limit(), transactions::add);
+            }
+            return new TransactionChunk(transactions, loader.getSkippedCount(), loader.getCorruptCount());
+        });
+
+        int loaded = 0;
+        for (TransactionChunk chunk : chunks) {
+            chunk.transactions().forEach(sink);
+            loaded += chunk.transactions().size();
+        }
+        countProblems(List.of(chunks));
+        return loaded;
+    }
+
+    private <R> List<R> decryptChunks(Path file, DatasetKeys keys, RunParser<R> parser) throws IOException {
+        try (EncryptedFile.Reader reader = EncryptedFile.open(file, keys)) {
+            List<EncryptedFile.Chunk> chunks = reader.chunks();
+            int perRun = (int) Math.max(1, chunkBytes / EncryptedFile.CHUNK_BYTES);
+            if (chunks.size() <= perRun) {
+                return List.of(parser.parse(reader, chunks));
+            }
+
+            List<ForkJoinTask<R>> tasks = new ArrayList<>();
+            for (int from = 0; from < chunks.size(); from += perRun) {
+                List<EncryptedFile.Chunk> run = chunks.subList(from, Math.min(chunks.size(), from + perRun));
+                tasks.add(pool.submit(() -> {
+                    try {
+                        return parser.parse(reader, run);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+            List<R> results = new ArrayList<>(tasks.size());
+            for (ForkJoinTask<R> task : tasks) {
+                results.add(await(task));
+            }
+            return results;
+        }
+    }
+
+    private void countProblems(List<List<TransactionChunk>> chunked) {
+        int skipped = 0;
+        int corrupt = 0;
+        for (List<TransactionChunk> chunks : chunked) {
+            for (TransactionChunk chunk : chunks) {
+                skipped += chunk.skipped();
+                corrupt += chunk.corrupt();
+            }
+        }
+        skippedLines = skipped;
+        corruptLines = corrupt;
+    }
+
+    // Results per file, each in chunk order; the channels stay open until every chunk is parsed
+    private <R> List<List<R>> parseChunks(List<Path> files, ChunkParser<R> parser) throws IOException {
+        List<FileChannel> channels = new ArrayList<>(files.size());
+        try {
+            List<List<long[]>> ranges = new ArrayList<>(files.size());
+            int total = 0;
+            for (Path file : files) {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                channels.add(channel);
+                ranges.add(splitOnLineBoundaries(channel));
+                total += ranges.get(ranges.size() - 1).size();
+            }
+
+            // A single chunk is cheaper to parse on the calling thread
+            if (total == 1) {
+                return List.of(List.of(parser.parse(files.get(0), channels.get(0), ranges.get(0).get(0))));
+            }
+
+            List<List<ForkJoinTask<R>>> tasks = new ArrayList<>(files.size());
+            for (int f = 0; f < files.size(); f++) {
+                Path file = files.get(f);
+                FileChannel channel = channels.get(f);
+                List<ForkJoinTask<R>> fileTasks = new ArrayList<>(ranges.get(f).size());
+                for (long[] range : ranges.get(f)) {
+                    fileTasks.add(pool.submit(() -> {
+                        try {
+                            return parser.parse(file, channel, range);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                }
+                tasks.add(fileTasks);
+            }
+
+            List<List<R>> results = new ArrayList<>(tasks.size());
+            for (List<ForkJoinTask<R>> fileTasks : tasks) {
+                List<R> fileResults = new ArrayList<>(fileTasks.size());
+                for (ForkJoinTask<R> task : fileTasks) {
+                    fileResults.add(await(task));
+                }
+                results.add(fileResults);
+            }
+            return results;
+        } finally {
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    private static <R> R await(ForkJoinTask<R> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading dataset", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            throw new IOException("Failed to parse dataset chunk: " + cause.getMessage(), cause);
+        }
+    }
+
+    // Chunk ranges as {start, end}; every range after the first begins just past a newline
+    List<long[]> splitOnLineBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<long[]> ranges = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(BOUNDARY_PROBE_BYTES);
+
+        long start = 0;
+        while (start < size) {
+            long end = start + chunkBytes;
+            if (end >= size) {
+                end = size;
+            } else {
+                end = nextLineStart(channel, end, size, probe);
+            }
+            ranges.add(new long[]{start, end});
+            start = end;
+        }
+
+        if (ranges.isEmpty()) {
+            ranges.add(new long[]{0, 0});
+        }
+        return ranges;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer probe)
+            throws IOException {
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private <T> LineChunk<T> parseLineChunk(FileChannel channel, long[] range, Function<String, T> parser)
+            throws IOException {
+        int length = (int) (range[1] - range[0]);
+        if (length == 0) {
+            return new LineChunk<>(new ArrayList<>(), 0);
+        }
+        return parseLineBuffer(channel.map(FileChannel.MapMode.READ_ONLY, range[0], length), length, parser);
+    }
+
+    private static <T> LineChunk<T> parseLineBuffer(ByteBuffer buffer, int length, Function<String, T> parser) {
+        List<T> results = new ArrayList<>();
+        int corrupt = 0;
+        RecordChecksum checksum = new RecordChecksum();
+        byte[] line = new byte[256];
+        int lineStart = 0;
+
+        for (int i = 0; i <= length; i++) {
+            if (i < length && buffer.get(i) != '\n') {
+                continue;
+            }
+
+            int lineEnd = i;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            int lineLength = lineEnd - lineStart;
+            if (lineLength > 0) {
+                if (lineLength > line.length) {
+                    line = new byte[Math.max(lineLength, line.length * 2)];
+                }
+                buffer.get(lineStart, line, 0, lineLength);
+
+                lineLength = checksum.checkTextLine(line, 0, lineLength);
+                if (lineLength == RecordChecksum.CORRUPT) {
+                    corrupt++;
+                    lineStart = i + 1;
+                    continue;
+                }
+                String text = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+
+                if (!text.isBlank()) {
+                    T parsed = parser.apply(text);
+                    if (parsed != null) {
+                        results.add(parsed);
+                    }
+                }
+            }
+            lineStart = i + 1;
+        }
+        return new LineChunk<>(results, corrupt);
+    }
+
+    private TransactionChunk parseTransactionChunk(Path file, FileChannel channel, long[] range)
+            throws IOException {
+        List<Transaction> transactions = new ArrayList<>();
+        MappedTransactionLoader loader = new MappedTransactionLoader(file);
+        loader.load(channel, range[0], range[1], transactions::add);
+        return new TransactionChunk(transactions, loader.getSkippedCount(), loader.getCorruptCount());
+    }
+
+    private record LineChunk<T>(List<T> results, int corrupt) {}
+
+    private record TransactionChunk(List<Transaction> transactions, int skipped, int corrupt) {}
+
+    @FunctionalInterface
+    private interface RunParser<R> {
+        R parse(EncryptedFile.Reader reader, List<EncryptedFile.Chunk> run) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ChunkParser<R> {
+        R parse(Path file, FileChannel channel, long[] range) throws IOException;
+    }
+}
@@ -0,0 +1,138 @@
+package services;
+
+import utils.RecordFormatter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C checksums for persisted records.
+ *
+ * Text records end in "|#" and eight lowercase hex digits holding the CRC32C of
+ * the UTF-8 bytes before the "|". Lines without the suffix (files written before
+ * checksums existed, or edited by hand) are still accepted as unchecked. Binary
+ * formats store the same checksum as a raw int after each record.
+ *
+ * {@link CRC32C} is a JVM intrinsic, and direct (mapped) buffers are checksummed
+ * in place, so verifying a record costs far less than parsing it.
+ *
+ * Instances sign and check text lines with reused scratch state; they are not
+ * thread-safe.
+ */
+public final class RecordChecksum {
+    // "|#" plus eight hex digits
+    static final int TEXT_SUFFIX_LENGTH = 10;
+    static final int CORRUPT = -1;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < HEX.length; i++) {
+            HEX_VALUES[HEX[i]] = (byte) i;
+        }
+    }
+
+    private final CRC32C crc = new CRC32C();
+    private byte[] scratch = new byte[256];
+
+    // Appends the checksum suffix for the line built so far
+    public void sign(RecordFormatter line) {
+        int length = line.length();
+        crc.reset();
+        if (isAscii(line, length)) {
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = (byte) line.charAt(i);
+            }
+            crc.update(scratch, 0, length);
+        } else {
+            crc.update(line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        int value = (int) crc.getValue();
+        line.append('|').append('#');
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            line.append(HEX[(value >>> shift) & 0xF]);
+        }
+    }
+
+    private static boolean isAscii(CharSequence line, int length) {
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static int of(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    // Checksum of buffer[start, end), leaving the buffer's position and limit alone
+    public static int of(ByteBuffer buffer, int start, int end) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(start, end - start));
+        return (int) crc.getValue();
+    }
+
+    // Checksum of a whole file, read in 64 KB pieces
+    public static int ofFile(FileChannel channel) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        long position = 0;
+        int read;
+        while ((read = channel.read(buffer, position)) > 0) {
+            crc.update(buffer.flip());
+            buffer.clear();
+            position += read;
+        }
+        return (int) crc.getValue();
+    }
+
+    // End of the line in buffer[start, end) without its checksum suffix when the checksum
+    // matches, end when the line has no suffix, or CORRUPT. The line is copied into this
+    // instance's scratch array in one bulk read, so checking it allocates nothing.
+    int checkTextLine(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(start, scratch, 0, length);
+        int payloadEnd = checkTextLine(scratch, 0, length);
+        return payloadEnd == CORRUPT ? CORRUPT : start + payloadEnd;
+    }
+
+    // Same as above, for a line already in an array
+    int checkTextLine(byte[] line, int start, int end) {
+        int suffix = end - TEXT_SUFFIX_LENGTH;
+        if (suffix < start || line[suffix] != '|' || line[suffix + 1] != '#') {
+            return end;
+        }
+        // Table lookups instead of range checks: random hex digits defeat branch prediction
+        int stored = 0;
+        int invalid = 0;
+        for (int i = suffix + 2; i < end; i++) {
+            int value = HEX_VALUES[line[i] & 0xFF];
+            invalid |= value;
+            stored = (stored << 4) | (value & 0xF);
+        }
+        if (invalid < 0) {
+            return end;
+        }
+
+        crc.reset();
+        crc.update(line, start, suffix - start);
+        return stored == (int) crc.getValue() ? suffix : CORRUPT;
+    }
+}
@@ -0,0 +1,340 @@
+package services;
+
+import transaction.Transaction;
+import utils.RecordFormatter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Text dataset files split into hash partitions, so each entity is written and
+ * read by several workers at once.
+ *
+ * A record goes to shard {@code hash(key) mod N}, keyed by account number for
+ * accounts and transactions and by customer ID for customers, so one account's
+ * history always lands in one shard. Lines use the usual pipe-delimited format
+ * with checksums. Next to the shards an order file holds one byte per record,
+ * the shard it went to, which lets a load put the records back in their saved
+ * order.
+ *
+ * Each entity has a manifest listing its shards and order file with their
+ * record counts, sizes and whole-file CRC32C. A save writes a new generation of
+ * files, then renames the manifest over the old one; that rename is the commit
+ * point, and the previous generation is deleted after it. A crash part way
+ * through a save leaves the last committed generation intact.
+ */
+final class ShardedDataset {
+    static final String DIRECTORY = "shards";
+    static final String MANIFEST_SUFFIX = ".manifest";
+    static final int MAX_SHARDS = 256; // The order file stores a shard index per byte
+
+    private static final String MANIFEST = "MANIFEST";
+    private static final String SHARD = "SHARD";
+    private static final String ORDER = "ORDER";
+
+    // Builds the line for record index into a reset formatter; the checksum is added afterwards
+    @FunctionalInterface
+    interface LineWriter {
+        void append(RecordFormatter line, int index);
+    }
+
+    private record FileEntry(String name, long records, long bytes, int crc) {}
+
+    private record Manifest(long generation, List<FileEntry> shards, FileEntry order) {}
+
+    private final Path directory;
+    private final int shardCount;
+    private final ForkJoinPool pool;
+    private final List<String> mismatchedFiles = new ArrayList<>();
+
+    ShardedDataset(Path datasetDir, int shardCount) {
+        this(datasetDir, shardCount, ForkJoinPool.commonPool());
+    }
+
+    ShardedDataset(Path datasetDir, int shardCount, ForkJoinPool pool) {
+        if (shardCount < 1 || shardCount > MAX_SHARDS) {
+            throw new IllegalArgumentException("Shard count must be between 1 and " + MAX_SHARDS);
+        }
+        this.directory = datasetDir.resolve(DIRECTORY);
+        this.shardCount = shardCount;
+        this.pool = pool;
+    }
+
+    int shardCount() {
+        return shardCount;
+    }
+
+    Path manifestPath(String entity) {
+        return directory.resolve(entity + MANIFEST_SUFFIX);
+    }
+
+    boolean exists(String entity) {
+        return Files.exists(manifestPath(entity));
+    }
+
+    // Shard and order files whose whole-file checksum did not match the manifest in the last read
+    List<String> getMismatchedFiles() {
+        return List.copyOf(mismatchedFiles);
+    }
+
+    static int shardOf(String key, int shardCount) {
+        return (int) Long.remainderUnsigned(DiskHashIndex.hash(key), shardCount);
+    }
+
+    // Writes count records into a new generation of shard files, one worker per shard,
+    // then commits it by replacing the manifest
+    int write(String entity, int count, IntFunction<String> keyOf, LineWriter lines) throws IOException {
+        Files.createDirectories(directory);
+        long generation = exists(entity) ? readManifest(entity).generation() + 1 : 1;
+
+        byte[] order = new byte[count];
+        int[] sizes = new int[shardCount];
+        for (int i = 0; i < count; i++) {
+            int shard = shardOf(keyOf.apply(i), shardCount);
+            order[i] = (byte) shard;
+            sizes[shard]++;
+        }
+        int[][] members = new int[shardCount][];
+        for (int shard = 0; shard < shardCount; shard++) {
+            members[shard] = new int[sizes[shard]];
+        }
+        int[] filled = new int[shardCount];
+        for (int i = 0; i < count; i++) {
+            int shard = order[i] & 0xFF;
+            members[shard][filled[shard]++] = i;
+        }
+
+        List<ForkJoinTask<FileEntry>> tasks = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            Path file = directory.resolve(fileName(entity, generation, "s" + shard + ".txt"));
+            int[] indexes = members[shard];
+            tasks.add(pool.submit(() -> {
+                try {
+                    return writeShard(file, indexes, lines);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        FileEntry orderEntry = writeOrder(directory.resolve(fileName(entity, generation, "order")), order);
+
+        List<FileEntry> shards = new ArrayList<>(shardCount);
+        for (ForkJoinTask<FileEntry> task : tasks) {
+            shards.add(await(task, "writing"));
+        }
+
+        writeManifest(entity, new Manifest(generation, shards, orderEntry));
+        deleteOtherGenerations(entity, generation);
+        return count;
+    }
+
+    private static String fileName(String entity, long generation, String suffix) {
+        return String.format("%s-g%06d-%s", entity, generation, suffix);
+    }
+
+    private static FileEntry writeShard(Path file, int[] indexes, LineWriter lines) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), StandardCharsets.UTF_8), 1 << 16);
+            RecordFormatter line = new RecordFormatter();
+            RecordChecksum checksum = new RecordChecksum();
+            for (int index : indexes) {
+                lines.append(line.reset(), index);
+                checksum.sign(line);
+                line.writeTo(writer);
+                writer.write(System.lineSeparator());
+            }
+            writer.flush();
+            channel.force(true);
+            return new FileEntry(file.getFileName().toString(), indexes.length, channel.size(), (int) crc.getValue());
+        }
+    }
+
+    private static FileEntry writeOrder(Path file, byte[] order) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(order);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        return new FileEntry(file.getFileName().toString(), order.length, order.length,
+                RecordChecksum.of(order, 0, order.length));
+    }
+
+    // Replacing the manifest is the commit point of the save
+    private void writeManifest(String entity, Manifest manifest) throws IOException {
+        List<String> lines = new ArrayList<>(manifest.shards().size() + 2);
+        lines.add(String.join("|", MANIFEST, entity, Long.toString(manifest.generation()),
+                Integer.toString(manifest.shards().size()), Long.toString(manifest.order().records())));
+        for (int shard = 0; shard < manifest.shards().size(); shard++) {
+            lines.add(entryLine(SHARD, Integer.toString(shard), manifest.shards().get(shard)));
+        }
+        lines.add(entryLine(ORDER, "-", manifest.order()));
+        ManifestFile.write(manifestPath(entity), lines);
+    }
+
+    private static String entryLine(String kind, String position, FileEntry entry) {
+        return String.join("|", kind, position, entry.name(), Long.toString(entry.records()),
+                Long.toString(entry.bytes()), Integer.toHexString(entry.crc()));
+    }
+
+    private Manifest readManifest(String entity) throws IOException {
+        Path path = manifestPath(entity);
+        long generation = -1;
+        int declaredShards = -1;
+        List<FileEntry> shards = new ArrayList<>();
+        FileEntry order = null;
+        for (String[] parts : ManifestFile.read(path)) {
+            try {
+                switch (parts[0]) {
+                    case MANIFEST -> {
+                        generation = Long.parseLong(parts[2]);
+                        declaredShards = Integer.parseInt(parts[3]);
+                    }
+                    case SHARD -> shards.add(parseEntry(parts));
+                    case ORDER -> order = parseEntry(parts);
+                    default -> throw new IOException("Unknown manifest entry " + parts[0]);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Manifest " + path.getFileName() + " is malformed", e);
+            }
+        }
+
+        if (generation < 0 || order == null || shards.size() != declaredShards) {
+            throw new IOException("Manifest " + path.getFileName() + " is incomplete");
+        }
+        return new Manifest(generation, shards, order);
+    }
+
+    private static FileEntry parseEntry(String[] parts) {
+        return new FileEntry(parts[2], Long.parseLong(parts[3]), Long.parseLong(parts[4]),
+                Integer.parseUnsignedInt(parts[5], 16));
+    }
+
+    // Parses every shard in parallel; records come back in the order they were saved
+    <T> List<T> readLines(String entity, ParallelDatasetLoader loader, Function<String, T> parser)
+            throws IOException {
+        Manifest manifest = readManifest(entity);
+        byte[] order = checkFiles(manifest);
+        return interleave(order, loader.loadLinesPerFile(shardPaths(manifest), parser));
+    }
+
+    List<Transaction> readTransactions(String entity, ParallelDatasetLoader loader) throws IOException {
+        Manifest manifest = readManifest(entity);
+        byte[] order = checkFiles(manifest);
+        return interleave(order, loader.loadTransactionsPerFile(shardPaths(manifest)));
+    }
+
+    private List<Path> shardPaths(Manifest manifest) {
+        List<Path> paths = new ArrayList<>(manifest.shards().size());
+        for (FileEntry shard : manifest.shards()) {
+            paths.add(directory.resolve(shard.name()));
+        }
+        return paths;
+    }
+
+    // Checksums every file against the manifest in parallel and returns the order file.
+    // Mismatches are recorded, not thrown: the records still carry their own checksums.
+    private byte[] checkFiles(Manifest manifest) throws IOException {
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>(manifest.shards().size());
+        for (FileEntry shard : manifest.shards()) {
+            Path file = directory.resolve(shard.name());
+            tasks.add(pool.submit(() -> {
+                try {
+                    return matches(file, shard);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+
+        mismatchedFiles.clear();
+        byte[] order = Files.readAllBytes(directory.resolve(manifest.order().name()));
+        if (order.length != manifest.order().bytes()
+                || RecordChecksum.of(order, 0, order.length) != manifest.order().crc()) {
+            mismatchedFiles.add(manifest.order().name());
+        }
+        for (int shard = 0; shard < tasks.size(); shard++) {
+            if (!await(tasks.get(shard), "reading")) {
+                mismatchedFiles.add(manifest.shards().get(shard).name());
+            }
+        }
+        return order;
+    }
+
+    private static boolean matches(Path file, FileEntry entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.size() == entry.bytes() && RecordChecksum.ofFile(channel) == entry.crc();
+        }
+    }
+
+    // Takes records from the shards in the order the order file lists them. Records a shard
+    // dropped (corrupt or unparsable lines) shift that shard's later records up; whatever is
+    // left over once the order file runs out is appended.
+    static <T> List<T> interleave(byte[] order, List<List<T>> shards) {
+        int[] next = new int[shards.size()];
+        List<T> results = new ArrayList<>(order.length);
+        for (byte entry : order) {
+            int shard = entry & 0xFF;
+            if (shard < shards.size() && next[shard] < shards.get(shard).size()) {
+                results.add(shards.get(shard).get(next[shard]++));
+            }
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<T> rest = shards.get(shard);
+            results.addAll(rest.subList(next[shard], rest.size()));
+        }
+        return results;
+    }
+
+    // Removes shard files of every generation except the committed one
+    private void deleteOtherGenerations(String entity, long generation) throws IOException {
+        String current = String.format("%s-g%06d-", entity, generation);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, entity + "-g*")) {
+            for (Path file : stream) {
+                if (!file.getFileName().toString().startsWith(current)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static <R> R await(ForkJoinTask<R> task, String action) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while " + action + " shards", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            throw new IOException("Failed " + action + " shards: " + cause.getMessage(), cause);
+        }
+    }
+}
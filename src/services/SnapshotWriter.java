@@ -0,0 +1,301 @@
+package services;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes dataset snapshots on a background thread, one snapshot at a time.
+ *
+ * The caller captures whatever mutable state a snapshot needs before submitting
+ * it, so the writer only ever sees a consistent copy. Whole files are written to
+ * a temp file beside the target, forced to disk and renamed over the target, so
+ * a crash leaves either the old file or the new one. Structures that persist
+ * themselves (the in-place account table, the append-only transaction log) run
+ * as steps on the same thread.
+ *
+ * Each entry carries the version of the data it was captured from; an entry
+ * whose version matches the last one written to an existing target is skipped.
+ */
+public final class SnapshotWriter {
+    // Version for entries that are written every time
+    public static final long ALWAYS = -1;
+
+    // Formats a whole file; returns the number of records written
+    @FunctionalInterface
+    public interface Content {
+        int writeTo(Writer writer) throws IOException;
+    }
+
+    // Transforms a whole file on its way to disk (e.g. encryption); closing the returned stream
+    // finishes the file but must leave out open, since it is forced afterwards
+    @FunctionalInterface
+    public interface Encoding {
+        OutputStream wrap(OutputStream out) throws IOException;
+    }
+
+    // Persists a structure that manages its own files; returns the number of records written
+    @FunctionalInterface
+    public interface Step {
+        int run() throws IOException;
+    }
+
+    public record Progress(boolean running, int entriesDone, int entriesTotal, long bytesWritten, long elapsedMillis) {
+    }
+
+    // Records per entry name (the last written count for skipped entries) and timings
+    public record Result(Map<String, Integer> records, Set<String> skipped, long bytesWritten, long durationNanos) {
+        public int records(String name) {
+            return records.getOrDefault(name, 0);
+        }
+
+        public boolean wasSkipped(String name) {
+            return skipped.contains(name);
+        }
+
+        public double durationMillis() {
+            return durationNanos / 1_000_000.0;
+        }
+    }
+
+    public static final class Snapshot {
+        private final List<Entry> entries = new ArrayList<>();
+
+        // Whole file, installed by atomic rename
+        public Snapshot file(String name, Path target, long version, Content content) {
+            return file(name, target, version, null, content);
+        }
+
+        // Whole file passed through an encoding before it reaches the disk
+        public Snapshot file(String name, Path target, long version, Encoding encoding, Content content) {
+            entries.add(new Entry(name, target, version, encoding, content, null));
+            return this;
+        }
+
+        // Work on a structure that writes its own files
+        public Snapshot step(String name, Path target, long version, Step step) {
+            entries.add(new Entry(name, target, version, null, null, step));
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return entries.isEmpty();
+        }
+    }
+
+    private record Entry(String name, Path target, long version, Encoding encoding, Content content, Step step) {
+    }
+
+    private record Written(long version, int records) {
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Map<Path, Written> written = new ConcurrentHashMap<>();
+    private final Map<Path, Integer> installed = new ConcurrentHashMap<>(); // CRC32C of each file renamed into place
+
+    // Progress of the snapshot being written
+    private volatile boolean running;
+    private volatile int entriesDone;
+    private volatile int entriesTotal;
+    private volatile long startNanos;
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private volatile Result lastResult;
+    private final AtomicLong snapshotsWritten = new AtomicLong();
+    private final AtomicLong entriesSkipped = new AtomicLong();
+
+    public SnapshotWriter() {
+        // One daemon thread, started on demand and retired when idle
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Queues the snapshot behind any earlier ones
+    public CompletableFuture<Result> submit(Snapshot snapshot) {
+        List<Entry> entries = List.copyOf(snapshot.entries);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return writeEntries(entries);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    // Queues the snapshot and waits for it
+    public Result write(Snapshot snapshot) throws IOException {
+        return await(submit(snapshot));
+    }
+
+    // Waits for a submitted snapshot, rethrowing its IOException
+    public static Result await(CompletableFuture<Result> pending) throws IOException {
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw e;
+        }
+    }
+
+    // Waits until every snapshot submitted so far has been written
+    public void awaitIdle() {
+        CompletableFuture.runAsync(() -> { }, executor).join();
+    }
+
+    // Records that a target already holds the data at this version (e.g. it was just loaded)
+    public void markClean(Path target, long version, int records) {
+        written.put(target, new Written(version, records));
+    }
+
+    // CRC32C of the last whole file this writer installed at the target, or null; lets watchers
+    // tell the writer's own files from ones replaced by someone else
+    public Integer installedChecksum(Path target) {
+        return installed.get(target);
+    }
+
+    public Progress getProgress() {
+        long elapsed = running ? (System.nanoTime() - startNanos) / 1_000_000 : 0;
+        return new Progress(running, entriesDone, entriesTotal, bytesWritten.get(), elapsed);
+    }
+
+    public boolean isBusy() {
+        return running || !executor.getQueue().isEmpty();
+    }
+
+    // Result of the last completed snapshot, or null
+    public Result getLastResult() {
+        return lastResult;
+    }
+
+    public long getSnapshotsWritten() {
+        return snapshotsWritten.get();
+    }
+
+    public long getEntriesSkipped() {
+        return entriesSkipped.get();
+    }
+
+    private Result writeEntries(List<Entry> entries) throws IOException {
+        startNanos = System.nanoTime();
+        bytesWritten.set(0);
+        entriesDone = 0;
+        entriesTotal = entries.size();
+        running = true;
+
+        Map<String, Integer> records = new LinkedHashMap<>();
+        Set<String> skipped = new HashSet<>();
+        try {
+            for (Entry entry : entries) {
+                Written previous = written.get(entry.target());
+                if (entry.version() != ALWAYS && previous != null && previous.version() == entry.version()
+                        && Files.exists(entry.target())) {
+                    records.put(entry.name(), previous.records());
+                    skipped.add(entry.name());
+                    entriesSkipped.incrementAndGet();
+                } else {
+                    int count = entry.step() != null ? entry.step().run() : writeAtomically(entry);
+                    records.put(entry.name(), count);
+                    if (entry.version() != ALWAYS) {
+                        written.put(entry.target(), new Written(entry.version(), count));
+                    }
+                }
+                entriesDone++;
+            }
+        } finally {
+            running = false;
+        }
+
+        Result result = new Result(Collections.unmodifiableMap(records), Collections.unmodifiableSet(skipped),
+                bytesWritten.get(), System.nanoTime() - startNanos);
+        lastResult = result;
+        snapshotsWritten.incrementAndGet();
+        return result;
+    }
+
+    // Temp file beside the target, forced, then renamed over it
+    private int writeAtomically(Entry entry) throws IOException {
+        Path target = entry.target();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            int count;
+            CRC32C crc = new CRC32C();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                OutputStream out = new CheckedOutputStream(
+                        new CountingOutputStream(Channels.newOutputStream(channel)), crc);
+                if (entry.encoding() != null) {
+                    out = entry.encoding().wrap(out);
+                }
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+                count = entry.content().writeTo(writer);
+                writer.flush();
+                if (entry.encoding() != null) {
+                    out.close();
+                }
+                channel.force(true);
+            }
+            // Recorded before the rename so a watcher woken by it already knows the file
+            installed.put(target, (int) crc.getValue());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return count;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    // Feeds the progress byte count as data reaches the channel
+    private final class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytesWritten.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytesWritten.addAndGet(len);
+        }
+    }
+}
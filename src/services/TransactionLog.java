@@ -0,0 +1,986 @@
+package services;
+
+import exceptions.CorruptRecordException;
+import transaction.Transaction;
+import transaction.TransactionHistory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Append-only transaction log split into size-bounded segments
+ * (segment-000001.log, segment-000002.log, ...).
+ *
+ * When a segment fills up it is sealed: a companion .idx file is written with
+ * a Bloom filter over the account numbers in the segment and a sorted directory
+ * mapping each account to the offsets of its records. Sealed indexes are
+ * memory-mapped, so a history read for one account skips segments whose filter
+ * rules it out, binary-searches the directory of the rest and reads only the
+ * matching records. The segment being written keeps the same index in memory.
+ *
+ * Sealed segments are then compressed into independently deflated blocks
+ * (segment-NNNNNN.blk, see {@link CompressedSegment}) and the raw file is
+ * deleted. Reads by sequence number or time range decompress only the blocks
+ * whose index entries overlap the range.
+ *
+ * Records are a 4-byte length followed by the account number, transaction ID,
+ * type and timestamp as u2-length UTF-8 strings, the amount and balance as
+ * doubles and the CRC32C of those fields. Records written before checksums were
+ * added simply end after the balance. A torn record at the end of the last
+ * segment is truncated on open; a record that fails its checksum is skipped
+ * when it is read and counted in {@link #getLastCorruptRecords()}.
+ */
+public final class TransactionLog implements TransactionHistory, Closeable {
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20; // 64 MB
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String BLOCK_SUFFIX = ".blk";
+
+    private static final int INDEX_MAGIC = 0x54584958; // "TXIX"
+    private static final int INDEX_VERSION = 1;
+    private static final int INDEX_HEADER_SIZE = 24;
+    private static final int DIRECTORY_ENTRY_SIZE = 16;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final List<SealedSegment> sealed = new ArrayList<>();
+
+    // Segment being appended to; null until the first append after open or seal
+    private FileChannel activeChannel;
+    private Path activePath;
+    private int activeNumber;
+    private long activeSize;
+    private int activeRecords;
+    private final Map<String, OffsetList> activeIndex = new HashMap<>();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(256);
+
+    private long sealedRecords;
+    private int lastSegmentsRead;
+    private long lastBlocksRead;
+    private int lastCorruptRecords;
+
+    private TransactionLog(Path dir, long segmentBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+    }
+
+    public static TransactionLog open(Path dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public static TransactionLog open(Path dir, long segmentBytes) throws IOException {
+        if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between 1 byte and 2 GB");
+        }
+        Files.createDirectories(dir);
+        TransactionLog log = new TransactionLog(dir, segmentBytes);
+        try {
+            log.recover();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        return log;
+    }
+
+    // True when the directory holds at least one segment
+    public static boolean exists(Path dir) throws IOException {
+        return !listSegments(dir).isEmpty();
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Integer, Path> segments = listSegments(dir);
+        int last = segments.isEmpty() ? 0 : segments.lastKey();
+
+        for (Map.Entry<Integer, Path> entry : segments.entrySet()) {
+            int number = entry.getKey();
+            Path indexPath = indexPathFor(number);
+            SealedSegment segment = Files.exists(indexPath) ? openSealed(number, entry.getValue()) : null;
+
+            if (segment != null) {
+                sealed.add(segment);
+                sealedRecords += segment.records;
+                if (segment.blocks != null) {
+                    // Left behind when a seal stopped between compressing and deleting
+                    Files.deleteIfExists(logPathFor(number));
+                }
+            } else if (isCompressed(entry.getValue())) {
+                throw new IOException("Index missing for compressed segment " + entry.getValue());
+            } else if (number == last) {
+                resumeActive(number, entry.getValue());
+            } else {
+                // Sealed but its index was lost; rebuild it from the records
+                resumeActive(number, entry.getValue());
+                seal();
+            }
+        }
+        activeNumber = Math.max(activeNumber, last);
+    }
+
+    // Segment files by number; a compressed copy wins over a raw file left by an interrupted seal
+    private static TreeMap<Integer, Path> listSegments(Path dir) throws IOException {
+        TreeMap<Integer, Path> segments = new TreeMap<>();
+        if (!Files.isDirectory(dir)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                String suffix = name.endsWith(LOG_SUFFIX) ? LOG_SUFFIX : name.endsWith(BLOCK_SUFFIX) ? BLOCK_SUFFIX : null;
+                if (suffix == null) {
+                    continue;
+                }
+                try {
+                    int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - suffix.length()));
+                    Path existing = segments.get(number);
+                    if (existing == null || isCompressed(path)) {
+                        segments.put(number, path);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // Not one of ours
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static boolean isCompressed(Path segment) {
+        return segment.getFileName().toString().endsWith(BLOCK_SUFFIX);
+    }
+
+    public synchronized void append(Transaction transaction) throws IOException {
+        encode(transaction);
+        int length = recordBuffer.remaining();
+
+        if (activeChannel != null && activeRecords > 0 && activeSize + length > segmentBytes) {
+            seal();
+        }
+        if (activeChannel == null) {
+            startSegment();
+        }
+
+        activeIndex.computeIfAbsent(transaction.getAccountNumber(), key -> new OffsetList())
+                .add((int) activeSize);
+        if (writeBuffer.remaining() < length) {
+            flushWriteBuffer();
+        }
+        if (length > writeBuffer.capacity()) {
+            writeFully(activeChannel, recordBuffer);
+        } else {
+            writeBuffer.put(recordBuffer);
+        }
+        activeSize += length;
+        activeRecords++;
+    }
+
+    public synchronized void appendAll(List<Transaction> transactions) throws IOException {
+        for (Transaction transaction : transactions) {
+            append(transaction);
+        }
+    }
+
+    // Makes appended records durable
+    public synchronized void flush() throws IOException {
+        if (activeChannel != null) {
+            flushWriteBuffer();
+            activeChannel.force(false);
+        }
+    }
+
+    @Override
+    public synchronized long size() {
+        return sealedRecords + activeRecords;
+    }
+
+    public synchronized int getSegmentCount() {
+        return sealed.size() + (activeChannel != null ? 1 : 0);
+    }
+
+    // Segments whose records were actually read by the last readAccount call
+    public synchronized int getLastSegmentsRead() {
+        return lastSegmentsRead;
+    }
+
+    // Compressed blocks decompressed by the last read
+    public synchronized long getLastBlocksRead() {
+        return lastBlocksRead;
+    }
+
+    // Records the last read skipped because they failed their checksum
+    @Override
+    public synchronized int getLastCorruptRecords() {
+        return lastCorruptRecords;
+    }
+
+    // Bytes the records take uncompressed, and on disk
+    public synchronized long getRawBytes() throws IOException {
+        long total = activeSize;
+        for (SealedSegment segment : sealed) {
+            total += segment.blocks != null ? segment.blocks.rawSize() : Files.size(segment.logPath);
+        }
+        return total;
+    }
+
+    public synchronized long getDiskBytes() throws IOException {
+        long total = activeSize;
+        for (SealedSegment segment : sealed) {
+            total += segment.blocks != null ? segment.blocks.compressedSize() : Files.size(segment.logPath);
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized List<Transaction> readAccount(String accountNumber) throws IOException {
+        List<Transaction> result = new ArrayList<>();
+        long hash = DiskHashIndex.hash(accountNumber);
+        long blocksBefore = blocksInflated();
+        int segmentsRead = 0;
+        lastCorruptRecords = 0;
+
+        for (SealedSegment segment : sealed) {
+            if (!segment.mightContain(hash)) {
+                continue;
+            }
+            int before = result.size();
+            if (segment.blocks != null) {
+                readEntries(segment.blocks::recordAt, segment, hash, accountNumber, result);
+            } else {
+                try (FileChannel channel = FileChannel.open(segment.logPath, StandardOpenOption.READ)) {
+                    readEntries(new RawReader(channel)::read, segment, hash, accountNumber, result);
+                }
+            }
+            if (result.size() > before) {
+                segmentsRead++;
+            }
+        }
+
+        OffsetList active = activeIndex.get(accountNumber);
+        if (active != null) {
+            flushWriteBuffer();
+            RawReader reader = new RawReader(activeChannel);
+            for (int i = 0; i < active.size; i++) {
+                accept(reader.read(active.values[i]), result::add);
+            }
+            segmentsRead++;
+        }
+
+        lastSegmentsRead = segmentsRead;
+        lastBlocksRead = blocksInflated() - blocksBefore;
+        return result;
+    }
+
+    private void readEntries(RecordReader reader, SealedSegment segment, long hash, String accountNumber,
+                             List<Transaction> result) throws IOException {
+        for (int entry = segment.firstEntry(hash); entry >= 0 && entry < segment.keyCount
+                && segment.entryHash(entry) == hash; entry++) {
+            int start = segment.entryStart(entry);
+            int count = segment.entryCount(entry);
+            for (int i = 0; i < count; i++) {
+                Transaction transaction = decodeOrSkip(reader.read(segment.offset(start + i)));
+                if (transaction == null) {
+                    continue;
+                }
+                // Entries with the same hash may belong to another account
+                if (!transaction.getAccountNumber().equals(accountNumber)) {
+                    break;
+                }
+                result.add(transaction);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void forEach(Consumer<Transaction> action) throws IOException {
+        lastCorruptRecords = 0;
+        for (SealedSegment segment : sealed) {
+            if (segment.blocks != null) {
+                segment.blocks.forEachRecord(0, segment.blocks.blockCount(),
+                        (record, sequence) -> accept(record, action));
+            } else {
+                scan(segment.logPath, (offset, record) -> accept(record, action));
+            }
+        }
+        if (activeChannel != null) {
+            flushWriteBuffer();
+            scan(activePath, (offset, record) -> accept(record, action));
+        }
+    }
+
+    // Transactions whose position in the log is in [fromSequence, toSequence), in log order
+    public synchronized void forEachInRange(long fromSequence, long toSequence, Consumer<Transaction> action)
+            throws IOException {
+        long blocksBefore = blocksInflated();
+        lastCorruptRecords = 0;
+        ObjLongConsumer<ByteBuffer> inRange = (record, sequence) -> {
+            if (sequence >= fromSequence && sequence < toSequence) {
+                accept(record, action);
+            }
+        };
+
+        for (SealedSegment segment : sealed) {
+            if (segment.firstSequence + segment.records <= fromSequence || segment.firstSequence >= toSequence) {
+                continue;
+            }
+            CompressedSegment blocks = segment.blocks;
+            if (blocks != null) {
+                int last = blocks.blockForSequence(toSequence - 1);
+                blocks.forEachRecord(blocks.blockForSequence(fromSequence), last + 1, inRange);
+            } else {
+                scanSequenced(segment.logPath, segment.firstSequence, inRange);
+            }
+        }
+        if (activeChannel != null && sealedRecords + activeRecords > fromSequence && sealedRecords < toSequence) {
+            flushWriteBuffer();
+            scanSequenced(activePath, sealedRecords, inRange);
+        }
+        lastBlocksRead = blocksInflated() - blocksBefore;
+    }
+
+    // Transactions timestamped in [from, to), in log order; blocks outside the range are not read
+    @Override
+    public synchronized void forEachBetween(LocalDateTime from, LocalDateTime to, Consumer<Transaction> action)
+            throws IOException {
+        long fromMillis = Transaction.timestampMillis(from);
+        long toMillis = Transaction.timestampMillis(to);
+        long blocksBefore = blocksInflated();
+        lastCorruptRecords = 0;
+        TimestampCache times = new TimestampCache();
+        ObjLongConsumer<ByteBuffer> inRange = (record, sequence) -> {
+            long time = times.millisOf(record);
+            if (time >= fromMillis && time < toMillis) {
+                accept(record, action);
+            }
+        };
+
+        for (SealedSegment segment : sealed) {
+            CompressedSegment blocks = segment.blocks;
+            if (blocks == null) {
+                scanSequenced(segment.logPath, segment.firstSequence, inRange);
+                continue;
+            }
+            for (int block = 0; block < blocks.blockCount(); block++) {
+                if (blocks.maxTime(block) >= fromMillis && blocks.minTime(block) < toMillis) {
+                    blocks.forEachRecord(block, block + 1, inRange);
+                }
+            }
+        }
+        if (activeChannel != null) {
+            flushWriteBuffer();
+            scanSequenced(activePath, sealedRecords, inRange);
+        }
+        lastBlocksRead = blocksInflated() - blocksBefore;
+    }
+
+    private void scanSequenced(Path path, long firstSequence, ObjLongConsumer<ByteBuffer> visitor)
+            throws IOException {
+        long[] sequence = {firstSequence};
+        scan(path, (offset, record) -> visitor.accept(record, sequence[0]++));
+    }
+
+    private long blocksInflated() {
+        long total = 0;
+        for (SealedSegment segment : sealed) {
+            if (segment.blocks != null) {
+                total += segment.blocks.blocksInflated();
+            }
+        }
+        return total;
+    }
+
+    // A log file as of a freeze: an open handle and how much of it belongs to the frozen log
+    record FrozenFile(String name, FileChannel channel, long length) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Every file of a frozen log and the number of records they hold
+    record Frozen(List<FrozenFile> files, long records) {
+    }
+
+    // Handles to every file of the log as it stands now, with its record count taken under the same
+    // lock, so the count matches the files exactly. Sealed files are never rewritten and the
+    // active segment only grows, so each handle read up to its length is a point-in-time copy that
+    // appends made after the freeze do not disturb; an open handle also keeps a file readable if a
+    // later seal or clear deletes it. Callers close the handles.
+    synchronized Frozen freeze() throws IOException {
+        if (activeChannel != null) {
+            flushWriteBuffer();
+        }
+        List<FrozenFile> files = new ArrayList<>();
+        try {
+            for (SealedSegment segment : sealed) {
+                String name = segment.logPath.getFileName().toString();
+                Path indexPath = dir.resolve(name.substring(0, name.lastIndexOf('.')) + INDEX_SUFFIX);
+                files.add(freezeFile(segment.logPath, -1));
+                files.add(freezeFile(indexPath, -1));
+            }
+            if (activeChannel != null) {
+                files.add(freezeFile(activePath, activeSize));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (FrozenFile file : files) {
+                file.close();
+            }
+            throw e;
+        }
+        return new Frozen(files, sealedRecords + activeRecords);
+    }
+
+    // A length of -1 freezes the whole file
+    private static FrozenFile freezeFile(Path path, long length) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        return new FrozenFile(path.getFileName().toString(), channel, length < 0 ? channel.size() : length);
+    }
+
+    // Deletes every segment; the next append starts a fresh log
+    public synchronized void clear() throws IOException {
+        closeActive();
+        closeSealed();
+        sealedRecords = 0;
+        for (Map.Entry<Integer, Path> entry : listSegments(dir).entrySet()) {
+            Files.deleteIfExists(logPathFor(entry.getKey()));
+            Files.deleteIfExists(blockPathFor(entry.getKey()));
+            Files.deleteIfExists(indexPathFor(entry.getKey()));
+        }
+        activeNumber = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeActive();
+        closeSealed();
+    }
+
+    private void closeSealed() throws IOException {
+        for (SealedSegment segment : sealed) {
+            if (segment.blocks != null) {
+                segment.blocks.close();
+            }
+        }
+        sealed.clear();
+    }
+
+    private void closeActive() throws IOException {
+        if (activeChannel != null) {
+            flushWriteBuffer();
+            activeChannel.force(false);
+            activeChannel.close();
+            activeChannel = null;
+        }
+        activeIndex.clear();
+        activeRecords = 0;
+        activeSize = 0;
+    }
+
+    private void startSegment() throws IOException {
+        activeNumber++;
+        activePath = logPathFor(activeNumber);
+        activeChannel = FileChannel.open(activePath, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeSize = 0;
+        activeRecords = 0;
+        activeIndex.clear();
+    }
+
+    // Rebuilds the in-memory index of an unsealed segment and drops a torn tail record
+    private void resumeActive(int number, Path path) throws IOException {
+        activeNumber = number;
+        Files.deleteIfExists(indexPathFor(number));
+        activePath = path;
+        activeIndex.clear();
+        activeRecords = 0;
+
+        long validEnd = scan(path, (offset, record) -> {
+            activeIndex.computeIfAbsent(readString(record), key -> new OffsetList()).add((int) offset);
+            activeRecords++;
+        }, true);
+
+        activeChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (activeChannel.size() > validEnd) {
+            activeChannel.truncate(validEnd);
+        }
+        activeChannel.position(validEnd);
+        activeSize = validEnd;
+    }
+
+    // Writes the active segment's index and makes it read-only
+    private void seal() throws IOException {
+        flushWriteBuffer();
+        activeChannel.force(false);
+        activeChannel.close();
+        activeChannel = null;
+
+        String[] keys = activeIndex.keySet().toArray(new String[0]);
+        long[] hashes = new long[keys.length];
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            hashes[i] = DiskHashIndex.hash(keys[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+
+        int bloomLongs = Math.max(1, (keys.length * BLOOM_BITS_PER_KEY + 63) / 64);
+        long[] bloom = new long[bloomLongs];
+        for (long hash : hashes) {
+            addToBloom(bloom, hash);
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER_SIZE + bloomLongs * 8
+                + keys.length * DIRECTORY_ENTRY_SIZE + activeRecords * 4);
+        index.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putInt(activeRecords)
+                .putInt(bloomLongs).putInt(keys.length).putInt(0);
+        for (long word : bloom) {
+            index.putLong(word);
+        }
+        int start = 0;
+        for (Integer i : order) {
+            OffsetList offsets = activeIndex.get(keys[i]);
+            index.putLong(hashes[i]).putInt(start).putInt(offsets.size);
+            start += offsets.size;
+        }
+        for (Integer i : order) {
+            OffsetList offsets = activeIndex.get(keys[i]);
+            for (int j = 0; j < offsets.size; j++) {
+                index.putInt(offsets.values[j]);
+            }
+        }
+        index.flip();
+
+        Path indexPath = indexPathFor(activeNumber);
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, index);
+            channel.force(false);
+        }
+
+        // Compress the sealed records; the raw file goes once the compressed copy is in place.
+        // If compression fails the raw segment is kept, as it reads through the same index.
+        Path segmentPath = activePath;
+        try {
+            TimestampCache times = new TimestampCache();
+            CompressedSegment.write(activePath, blockPathFor(activeNumber), sealedRecords, times::millisOf);
+            segmentPath = blockPathFor(activeNumber);
+            Files.delete(activePath);
+        } catch (IOException e) {
+            if (segmentPath == activePath) {
+                Files.deleteIfExists(blockPathFor(activeNumber));
+            }
+        }
+
+        SealedSegment segment = openSealed(activeNumber, segmentPath);
+        sealed.add(segment);
+        sealedRecords += segment.records;
+        activeIndex.clear();
+        activeRecords = 0;
+        activeSize = 0;
+    }
+
+    // Returns null when the index is missing or unusable, so the caller rebuilds it
+    private SealedSegment openSealed(int number, Path segmentPath) throws IOException {
+        Path indexPath = indexPathFor(number);
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < INDEX_HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != INDEX_VERSION) {
+                return null;
+            }
+            int records = index.getInt(8);
+            int bloomLongs = index.getInt(12);
+            int keyCount = index.getInt(16);
+            long expected = INDEX_HEADER_SIZE + (long) bloomLongs * 8
+                    + (long) keyCount * DIRECTORY_ENTRY_SIZE + (long) records * 4;
+            if (expected != size) {
+                return null;
+            }
+            CompressedSegment blocks = isCompressed(segmentPath) ? CompressedSegment.open(segmentPath) : null;
+            return new SealedSegment(segmentPath, blocks, sealedRecords, index, records, bloomLongs, keyCount);
+        }
+    }
+
+    private void encode(Transaction transaction) {
+        byte[] id = transaction.getTransactionId().getBytes(StandardCharsets.UTF_8);
+        byte[] account = transaction.getAccountNumber().getBytes(StandardCharsets.UTF_8);
+        byte[] type = transaction.getType().getBytes(StandardCharsets.UTF_8);
+        byte[] timestamp = transaction.getTimestamp().getBytes(StandardCharsets.UTF_8);
+        int fieldsLength = 8 + id.length + account.length + type.length + timestamp.length + 16;
+        int bodyLength = fieldsLength + 4;
+
+        if (recordBuffer.capacity() < bodyLength + 4) {
+            recordBuffer = ByteBuffer.allocate(Math.max(bodyLength + 4, recordBuffer.capacity() * 2));
+        }
+        recordBuffer.clear();
+        recordBuffer.putInt(bodyLength);
+        // Account number first, so recovery can index a record without decoding all of it
+        putString(recordBuffer, account);
+        putString(recordBuffer, id);
+        putString(recordBuffer, type);
+        putString(recordBuffer, timestamp);
+        recordBuffer.putDouble(transaction.getAmount());
+        recordBuffer.putDouble(transaction.getBalanceAfter());
+        recordBuffer.putInt(RecordChecksum.of(recordBuffer.array(), 4, fieldsLength));
+        recordBuffer.flip();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Transaction field too long");
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void accept(ByteBuffer record, Consumer<Transaction> action) {
+        Transaction transaction = decodeOrSkip(record);
+        if (transaction != null) {
+            action.accept(transaction);
+        }
+    }
+
+    // Null, and counted, when the record fails its checksum
+    private Transaction decodeOrSkip(ByteBuffer record) {
+        try {
+            return decode(record);
+        } catch (CorruptRecordException e) {
+            lastCorruptRecords++;
+            return null;
+        }
+    }
+
+    private static Transaction decode(ByteBuffer record) {
+        int start = record.position();
+        String accountNumber = readString(record);
+        String transactionId = readString(record);
+        String type = readString(record);
+        String timestamp = readString(record);
+        double amount = record.getDouble();
+        double balanceAfter = record.getDouble();
+        if (record.remaining() >= 4
+                && record.getInt(record.position()) != RecordChecksum.of(record, start, record.position())) {
+            throw new CorruptRecordException("Transaction record " + transactionId + " failed its checksum");
+        }
+        return new Transaction(transactionId, accountNumber, type, amount, balanceAfter, timestamp);
+    }
+
+    // Segment files in order, for checking a log without opening it
+    static List<Path> segmentFiles(Path dir) throws IOException {
+        return new ArrayList<>(listSegments(dir).values());
+    }
+
+    // Checks every record of one segment; a torn tail on the segment being written is not an error
+    static void verifySegment(Path segment, DatasetVerifier.Tally tally) throws IOException {
+        if (isCompressed(segment)) {
+            try (CompressedSegment blocks = CompressedSegment.open(segment)) {
+                blocks.forEachRecord(0, blocks.blockCount(),
+                        (record, sequence) -> verifyRecord(record, tally, "record " + sequence));
+            }
+        } else {
+            scan(segment, (offset, record) -> verifyRecord(record, tally, "record at byte " + offset), true);
+        }
+    }
+
+    private static void verifyRecord(ByteBuffer record, DatasetVerifier.Tally tally, String where) {
+        int start = record.position();
+        try {
+            for (int i = 0; i < 4; i++) {
+                record.position(record.position() + 2 + (record.getShort(record.position()) & 0xFFFF));
+            }
+            int fieldsEnd = record.position() + 16;
+            int trailing = record.limit() - fieldsEnd;
+            if (trailing == 0) {
+                tally.unchecked++;
+            } else if (trailing == 4 && record.getInt(fieldsEnd) == RecordChecksum.of(record, start, fieldsEnd)) {
+                tally.records++;
+            } else {
+                tally.corrupt(where);
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            // Field lengths point outside the record
+            tally.corrupt(where);
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getShort() & 0xFFFF;
+        String value = new String(record.array(), record.arrayOffset() + record.position(), length,
+                StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    // Reads the record body at offset into buffer (growing it if needed), positioned at the body
+    private static ByteBuffer readRecord(FileChannel channel, long offset, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        readAt(channel, buffer, offset, 4);
+        int length = buffer.getInt(0);
+        int total = length + 4;
+        if (total > buffer.capacity()) {
+            buffer = ByteBuffer.allocate(total);
+        }
+        buffer.clear();
+        readAt(channel, buffer, offset, total);
+        buffer.position(4);
+        return buffer;
+    }
+
+    private static void readAt(FileChannel channel, ByteBuffer buffer, long offset, int length) throws IOException {
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of transaction segment");
+            }
+        }
+        buffer.flip();
+    }
+
+    // Time of a record body in epoch milliseconds (-1 if unknown); consecutive records
+    // usually share a timestamp, so the last one parsed is remembered
+    private static final class TimestampCache {
+        private String lastText;
+        private long lastMillis;
+
+        long millisOf(ByteBuffer record) {
+            ByteBuffer fields = record.duplicate();
+            for (int i = 0; i < 3; i++) {
+                fields.position(fields.position() + 2 + (fields.getShort(fields.position()) & 0xFFFF));
+            }
+            String timestamp = readString(fields);
+            if (!timestamp.equals(lastText)) {
+                lastText = timestamp;
+                lastMillis = Transaction.timestampMillis(timestamp);
+            }
+            return lastMillis;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordReader {
+        ByteBuffer read(long offset) throws IOException;
+    }
+
+    // Reads records from a raw segment, reusing one buffer
+    private static final class RawReader {
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        RawReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ByteBuffer read(long offset) throws IOException {
+            buffer = readRecord(channel, offset, buffer);
+            return buffer;
+        }
+    }
+
+    private long scan(Path path, RecordVisitor visitor) throws IOException {
+        return scan(path, visitor, false);
+    }
+
+    // Visits each complete record in order and returns the end of the last complete one
+    private static long scan(Path path, RecordVisitor visitor, boolean tolerateTornTail) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            long bufferStart = 0;
+            long size = channel.size();
+
+            while (bufferStart < size) {
+                buffer.clear();
+                channel.read(buffer, bufferStart);
+                buffer.flip();
+
+                int consumed = 0;
+                while (buffer.remaining() >= 4) {
+                    int length = buffer.getInt(buffer.position());
+                    long recordStart = bufferStart + consumed;
+                    if (length < 0 || recordStart + 4 + length > size) {
+                        // A record running past the end of the file was torn mid-write
+                        if (!tolerateTornTail) {
+                            throw new IOException("Truncated record at end of " + path);
+                        }
+                        return recordStart;
+                    }
+                    if (buffer.remaining() < length + 4) {
+                        if (length + 4 > buffer.capacity()) {
+                            buffer = ByteBuffer.allocate(length + 4);
+                        }
+                        break;
+                    }
+                    ByteBuffer record = buffer.slice(buffer.position() + 4, length);
+                    try {
+                        visitor.visit(bufferStart + consumed, record);
+                    } catch (BufferUnderflowException e) {
+                        throw new IOException("Corrupt record in " + path, e);
+                    }
+                    buffer.position(buffer.position() + length + 4);
+                    consumed += length + 4;
+                }
+
+                if (consumed == 0) {
+                    // Not even one complete record left: a torn tail
+                    if (bufferStart + buffer.limit() >= size) {
+                        if (!tolerateTornTail) {
+                            throw new IOException("Truncated record at end of " + path);
+                        }
+                        return bufferStart;
+                    }
+                    continue;
+                }
+                bufferStart += consumed;
+            }
+            return bufferStart;
+        }
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        if (activeChannel != null && writeBuffer.position() > 0) {
+            writeBuffer.flip();
+            writeFully(activeChannel, writeBuffer);
+            writeBuffer.clear();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private Path logPathFor(int number) {
+        return dir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, LOG_SUFFIX));
+    }
+
+    private Path blockPathFor(int number) {
+        return dir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, BLOCK_SUFFIX));
+    }
+
+    private Path indexPathFor(int number) {
+        return dir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, INDEX_SUFFIX));
+    }
+
+    private static void addToBloom(long[] bits, long hash) {
+        long size = bits.length * 64L;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(hash + i * (hash >>> 32 | 1), size);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(long offset, ByteBuffer record) throws IOException;
+    }
+
+    // Growable list of record offsets within one segment
+    private static final class OffsetList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    // A sealed segment, raw or compressed, with its memory-mapped Bloom filter and account directory
+    private static final class SealedSegment {
+        final Path logPath;
+        final CompressedSegment blocks; // null for a raw segment
+        final long firstSequence;
+        final MappedByteBuffer index;
+        final int records;
+        final int bloomLongs;
+        final int keyCount;
+        final int directoryStart;
+        final int offsetsStart;
+
+        SealedSegment(Path logPath, CompressedSegment blocks, long firstSequence, MappedByteBuffer index,
+                      int records, int bloomLongs, int keyCount) {
+            this.logPath = logPath;
+            this.blocks = blocks;
+            this.firstSequence = firstSequence;
+            this.index = index;
+            this.records = records;
+            this.bloomLongs = bloomLongs;
+            this.keyCount = keyCount;
+            this.directoryStart = INDEX_HEADER_SIZE + bloomLongs * 8;
+            this.offsetsStart = directoryStart + keyCount * DIRECTORY_ENTRY_SIZE;
+        }
+
+        boolean mightContain(long hash) {
+            long size = bloomLongs * 64L;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = Math.floorMod(hash + i * (hash >>> 32 | 1), size);
+                long word = index.getLong(INDEX_HEADER_SIZE + (int) (bit >>> 6) * 8);
+                if ((word & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // First directory entry whose hash is >= the given one
+        int firstEntry(long hash) {
+            int low = 0;
+            int high = keyCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (entryHash(mid) < hash) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        long entryHash(int entry) {
+            return index.getLong(directoryStart + entry * DIRECTORY_ENTRY_SIZE);
+        }
+
+        int entryStart(int entry) {
+            return index.getInt(directoryStart + entry * DIRECTORY_ENTRY_SIZE + 8);
+        }
+
+        int entryCount(int entry) {
+            return index.getInt(directoryStart + entry * DIRECTORY_ENTRY_SIZE + 12);
+        }
+
+        int offset(int position) {
+            return index.getInt(offsetsStart + position * 4);
+        }
+    }
+}
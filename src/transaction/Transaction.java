@@ -3,10 +3,13 @@ package transaction;
 import utils.CustomUtils;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 public class Transaction {
     private static int transactionCounter = 0;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy hh:mm a");
 
     private final String transactionId;
     private final String accountNumber;
@@ -34,14 +37,50 @@ public class Transaction {
         this.timestamp = generateTimestamp();
     }
 
+    // Restores a persisted transaction with its original ID and timestamp
+    public Transaction(String transactionId, String accountNumber, String type, double amount,
+                       double balanceAfter, String timestamp) {
+        this.transactionId = transactionId;
+        this.accountNumber = accountNumber;
+        this.type = type;
+        this.amount = amount;
+        this.balanceAfter = balanceAfter;
+        this.timestamp = timestamp;
+        advanceCounterPast(transactionId);
+    }
+
     private String generateTransactionId() {
         transactionCounter++;
         return String.format("TXN%03d", transactionCounter);
     }
 
+    // Keep generated IDs ahead of any restored ones so they never collide
+    private static synchronized void advanceCounterPast(String transactionId) {
+        try {
+            int number = Integer.parseInt(transactionId.substring(3));
+            if (number > transactionCounter) {
+                transactionCounter = number;
+            }
+        } catch (RuntimeException ignored) {
+            // Non-standard IDs do not affect the counter
+        }
+    }
+
     private String generateTimestamp() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy hh:mm a");
-        return LocalDateTime.now().format(formatter);
+        return LocalDateTime.now().format(TIMESTAMP_FORMAT);
+    }
+
+    // Local date-time as milliseconds since the epoch, for ordering; -1 when the text does not parse
+    public static long timestampMillis(String timestamp) {
+        try {
+            return LocalDateTime.parse(timestamp, TIMESTAMP_FORMAT).toEpochSecond(ZoneOffset.UTC) * 1000;
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    public static long timestampMillis(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC) * 1000;
     }
 
     // Getters
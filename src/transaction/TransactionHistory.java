@@ -0,0 +1,25 @@
+package transaction;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Persisted transaction history that a TransactionManager can read instead of holding it in memory
+public interface TransactionHistory {
+
+    // Transactions for one account, oldest first
+    List<Transaction> readAccount(String accountNumber) throws IOException;
+
+    // Every persisted transaction, oldest first
+    void forEach(Consumer<Transaction> action) throws IOException;
+
+    // Transactions timestamped in [from, to), oldest first
+    void forEachBetween(LocalDateTime from, LocalDateTime to, Consumer<Transaction> action) throws IOException;
+
+    long size();
+
+    // Records the last read skipped because they failed their checksum. Reads synchronize on the
+    // history, so a caller holding its lock across a read and this call gets that read's count.
+    int getLastCorruptRecords();
+}
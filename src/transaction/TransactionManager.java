@@ -1,13 +1,40 @@
 package transaction;
 
 import utils.CustomUtils;
+import utils.Leaderboard;
+import utils.RecordFormatter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class TransactionManager {
+    // Most transactions the day's leaderboard keeps
+    public static final int LEADERBOARD_SIZE = 100;
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
     // Changed from array to ArrayList
     private final List<Transaction> transactions;
 
+    // When set, older transactions live only in the archive and the list holds the ones recorded since
+    private TransactionHistory archive;
+
+    // Every transaction ever added, so snapshots can name a point in the history
+    private long recordedCount;
+
+    // The day's largest transactions by amount, emptied when the day turns
+    private final Leaderboard<Transaction> largestToday = new Leaderboard<>(LEADERBOARD_SIZE);
+    private LocalDate leaderboardDay = LocalDate.now();
+    private String leaderboardDayText = DAY_FORMAT.format(leaderboardDay);
+
+    // Archived records skipped because they failed their checksum, over every read
+    private long corruptRecordsSkipped;
+
     public TransactionManager() {
         this.transactions = new ArrayList<>(200);
     }
@@ -19,8 +46,138 @@ public class TransactionManager {
 
 
     // Add transaction to ArrayList
-    public void addTransaction(Transaction transaction) {
+    public synchronized void addTransaction(Transaction transaction) {
         transactions.add(transaction);
+        recordedCount++;
+        rankForToday(transaction);
+    }
+
+    // Timestamps start with the day, so the day's transactions are told apart without parsing
+    private void rankForToday(Transaction transaction) {
+        turnDay();
+        if (transaction.getTimestamp().startsWith(leaderboardDayText)) {
+            largestToday.update(transaction.getTransactionId(), transaction, transaction.getAmount());
+        }
+    }
+
+    private void turnDay() {
+        LocalDate today = LocalDate.now();
+        if (!today.equals(leaderboardDay)) {
+            largestToday.clear();
+            leaderboardDay = today;
+            leaderboardDayText = DAY_FORMAT.format(today);
+        }
+    }
+
+    // Up to limit of today's transactions, largest amount first; at most LEADERBOARD_SIZE are kept
+    public List<Transaction> getLargestTransactionsToday(int limit) {
+        synchronized (this) {
+            turnDay();
+        }
+        return largestToday.top(limit);
+    }
+
+    public synchronized long getRecordedCount() {
+        return recordedCount;
+    }
+
+    // Reads older history from the archive from now on; transactions already in memory stay pending.
+    // The archive's transactions from today join the leaderboard.
+    public synchronized void attachArchive(TransactionHistory archive) {
+        this.archive = archive;
+        turnDay();
+        try {
+            int corrupt;
+            synchronized (archive) {
+                archive.forEachBetween(leaderboardDay.atStartOfDay(), leaderboardDay.plusDays(1).atStartOfDay(),
+                        this::rankForToday);
+                corrupt = archive.getLastCorruptRecords();
+            }
+            noteCorrupt(corrupt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized TransactionHistory getArchive() {
+        return archive;
+    }
+
+    // Transactions not yet written to the archive (all of them when there is none)
+    public synchronized List<Transaction> getPendingTransactions() {
+        return new ArrayList<>(transactions);
+    }
+
+    // Pending transactions among the first recordedLimit ever added
+    public synchronized List<Transaction> getPendingTransactions(long recordedLimit) {
+        long firstPending = recordedCount - transactions.size();
+        int count = (int) Math.max(0, Math.min(transactions.size(), recordedLimit - firstPending));
+        return new ArrayList<>(transactions.subList(0, count));
+    }
+
+    // The first count pending transactions are now in the archive and can leave the heap
+    public synchronized void markArchived(TransactionHistory archive, int count) {
+        this.archive = archive;
+        transactions.subList(0, count).clear();
+    }
+
+    // Archived transactions first, then pending ones, without copying the whole history
+    public void forEachTransaction(Consumer<Transaction> action) {
+        forEachTransaction(Long.MAX_VALUE, action);
+    }
+
+    // Same, stopping at the first recordedLimit transactions ever added
+    public void forEachTransaction(long recordedLimit, Consumer<Transaction> action) {
+        TransactionHistory history;
+        List<Transaction> pending;
+        synchronized (this) {
+            history = archive;
+            pending = getPendingTransactions(recordedLimit);
+        }
+
+        if (history != null) {
+            Set<String> pendingIds = idsOf(pending);
+            try {
+                int corrupt;
+                synchronized (history) {
+                    history.forEach(transaction -> {
+                        action.accept(transaction);
+                        pendingIds.remove(transaction.getTransactionId());
+                    });
+                    corrupt = history.getLastCorruptRecords();
+                }
+                noteCorrupt(corrupt);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // A background save may have archived some pending ones while the history was read
+            pending.removeIf(transaction -> !pendingIds.contains(transaction.getTransactionId()));
+        }
+        pending.forEach(action);
+    }
+
+    // The archive serializes its reads on itself, so holding its lock across a read and the count
+    // that follows gives that read's count even while other threads read history
+    private void noteCorrupt(int corrupt) {
+        if (corrupt == 0) {
+            return;
+        }
+        synchronized (this) {
+            corruptRecordsSkipped += corrupt;
+        }
+        CustomUtils.printError("Skipped " + corrupt + " archived transaction record(s) that failed their checksum");
+    }
+
+    public synchronized long getCorruptRecordsSkipped() {
+        return corruptRecordsSkipped;
+    }
+
+    private static Set<String> idsOf(List<Transaction> transactions) {
+        Set<String> ids = new HashSet<>();
+        for (Transaction transaction : transactions) {
+            ids.add(transaction.getTransactionId());
+        }
+        return ids;
     }
 
 
@@ -45,20 +202,23 @@ public class TransactionManager {
                 "ID", "Account", "Type", "Amount", "Balance After", "Timestamp");
         CustomUtils.print("─".repeat(90));
 
+        // One reusable buffer for every row instead of a Formatter per printf
+        RecordFormatter row = new RecordFormatter();
         for (Transaction transaction : accountTransactions) {
-            CustomUtils.printf("%-10s %-12s %-10s $%-11.2f $%-14.2f %-20s%n",
-                    transaction.getTransactionId(),
-                    transaction.getAccountNumber(),
-                    transaction.getType(),
-                    transaction.getAmount(),
-                    transaction.getBalanceAfter(),
-                    transaction.getTimestamp());
+            row.reset()
+                    .appendPadded(transaction.getTransactionId(), 10).append(' ')
+                    .appendPadded(transaction.getAccountNumber(), 12).append(' ')
+                    .appendPadded(transaction.getType(), 10).append(" $")
+                    .appendMoneyPadded(transaction.getAmount(), 11).append(" $")
+                    .appendMoneyPadded(transaction.getBalanceAfter(), 14).append(' ')
+                    .appendPadded(transaction.getTimestamp(), 20);
+            CustomUtils.print(row.toString());
         }
 
         // Display summary
         CustomUtils.print("─".repeat(90));
-        double totalDeposits = calculateTotalDeposits(accountNumber);
-        double totalWithdrawals = calculateTotalWithdrawals(accountNumber);
+        double totalDeposits = sumByType(accountTransactions, "DEPOSIT");
+        double totalWithdrawals = sumByType(accountTransactions, "WITHDRAWAL");
         double netChange = totalDeposits - totalWithdrawals;
 
         CustomUtils.printf("Summary: Total Deposits: $%.2f | Total Withdrawals: $%.2f | Net Change: $%.2f%n",
@@ -70,33 +230,102 @@ public class TransactionManager {
 
     // Calculate total deposits for an account
     public double calculateTotalDeposits(String accountNumber) {
-        return transactions.stream()
-                .filter(t -> t.getAccountNumber().equals(accountNumber))
-                .filter(t -> t.getType().equals("DEPOSIT"))
-                .mapToDouble(Transaction::getAmount)
-                .sum();
+        return sumByType(getTransactionsForAccount(accountNumber), "DEPOSIT");
     }
 
     // Calculate total withdrawals for an account
     public double calculateTotalWithdrawals(String accountNumber) {
-        return transactions.stream()
-                .filter(t -> t.getAccountNumber().equals(accountNumber))
-                .filter(t -> t.getType().equals("WITHDRAWAL"))
+        return sumByType(getTransactionsForAccount(accountNumber), "WITHDRAWAL");
+    }
+
+    // Over transactions already read, so callers holding them need not read the history again
+    public static double sumByType(List<Transaction> accountTransactions, String type) {
+        return accountTransactions.stream()
+                .filter(t -> t.getType().equals(type))
                 .mapToDouble(Transaction::getAmount)
                 .sum();
     }
 
-    // Get transactions for a specific account
+    // Get transactions for a specific account; archived history is read through its index
     public List<Transaction> getTransactionsForAccount(String accountNumber) {
-        return transactions.stream()
-                .filter(t -> t.getAccountNumber().equals(accountNumber))
-                .collect(Collectors.toList());
+        TransactionHistory history;
+        List<Transaction> pending;
+        synchronized (this) {
+            history = archive;
+            pending = transactions.stream()
+                    .filter(t -> t.getAccountNumber().equals(accountNumber))
+                    .collect(Collectors.toList());
+        }
+
+        if (history == null) {
+            return pending;
+        }
+        try {
+            List<Transaction> accountTransactions;
+            int corrupt;
+            synchronized (history) {
+                accountTransactions = history.readAccount(accountNumber);
+                corrupt = history.getLastCorruptRecords();
+            }
+            noteCorrupt(corrupt);
+            // Skip pending ones a background save has archived since they were copied
+            Set<String> archivedIds = idsOf(accountTransactions);
+            for (Transaction transaction : pending) {
+                if (!archivedIds.contains(transaction.getTransactionId())) {
+                    accountTransactions.add(transaction);
+                }
+            }
+            return accountTransactions;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
 
+    // Transactions timestamped in [from, to); archived history reads only the blocks in range
+    public List<Transaction> getTransactionsBetween(LocalDateTime from, LocalDateTime to) {
+        long fromMillis = Transaction.timestampMillis(from);
+        long toMillis = Transaction.timestampMillis(to);
+        TransactionHistory history;
+        List<Transaction> pending;
+        synchronized (this) {
+            history = archive;
+            pending = transactions.stream()
+                    .filter(t -> {
+                        long time = Transaction.timestampMillis(t.getTimestamp());
+                        return time >= fromMillis && time < toMillis;
+                    })
+                    .collect(Collectors.toList());
+        }
+
+        if (history == null) {
+            return pending;
+        }
+        try {
+            List<Transaction> inRange = new ArrayList<>();
+            int corrupt;
+            synchronized (history) {
+                history.forEachBetween(from, to, inRange::add);
+                corrupt = history.getLastCorruptRecords();
+            }
+            noteCorrupt(corrupt);
+            Set<String> archivedIds = idsOf(inRange);
+            for (Transaction transaction : pending) {
+                if (!archivedIds.contains(transaction.getTransactionId())) {
+                    inRange.add(transaction);
+                }
+            }
+            return inRange;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     // Get all transactions
     public List<Transaction> getAllTransactions() {
-        return new ArrayList<>(transactions);
+        List<Transaction> all = new ArrayList<>();
+        forEachTransaction(all::add);
+        return all;
     }
 
 
@@ -2,6 +2,10 @@ package ui;
 
 import account.Account;
 import account.AccountManager;
+import customer.Customer;
+import customer.CustomerManager;
+import transaction.Transaction;
+import transaction.TransactionManager;
 
 import java.util.List;
 import java.util.Scanner;
@@ -13,9 +17,22 @@ public class AccountUI {
     private AccountManager accountManager;
     private Scanner scanner;
     private AccountManagerUI accountManagerUI ;
+    private CustomerManager customerManager;
+    private TransactionManager transactionManager;
 
     public AccountUI(AccountManager accountManager, Scanner scanner) {
+        this(accountManager, new CustomerManager(accountManager), scanner);
+    }
+
+    public AccountUI(AccountManager accountManager, CustomerManager customerManager, Scanner scanner) {
+        this(accountManager, customerManager, null, scanner);
+    }
+
+    public AccountUI(AccountManager accountManager, CustomerManager customerManager,
+                     TransactionManager transactionManager, Scanner scanner) {
         this.accountManager = accountManager;
+        this.transactionManager = transactionManager;
+        this.customerManager = customerManager;
         this.scanner = scanner;
         this.accountManagerUI = new AccountManagerUI(accountManager, scanner);
     }
@@ -37,11 +54,12 @@ public class AccountUI {
                     case 2: viewAccountDetails(); break;
                     case 3: searchAccount(); break;
                     case 4: accountManagerUI.manageAccounts(); break;
-                    case 5: return; // Go back to main menu
-                    default: CustomUtils.print("Invalid choice! Please enter 1-5.");
+                    case 5: viewLeaderboards(); break;
+                    case 6: return; // Go back to main menu
+                    default: CustomUtils.print("Invalid choice! Please enter 1-6.");
                 }
 
-                if (accountChoice != 5) {
+                if (accountChoice != 6) {
                     CustomUtils.printInline("\nPress Enter to continue...");
                     scanner.nextLine();
                 }
@@ -52,7 +70,7 @@ public class AccountUI {
                 accountChoice = 0;
             }
 
-        } while (accountChoice != 5);
+        } while (accountChoice != 6);
     }
 
     private void displayAccountMenu() {
@@ -68,7 +86,8 @@ public class AccountUI {
         CustomUtils.print("2. View Account Details");
         CustomUtils.print("3. Search Account");
         CustomUtils.print("4. Manage Accounts");
-        CustomUtils.print("5. Back to Main Menu");
+        CustomUtils.print("5. Leaderboards");
+        CustomUtils.print("6. Back to Main Menu");
         CustomUtils.print();
     }
 
@@ -76,6 +95,40 @@ public class AccountUI {
         accountManager.viewAllAccounts();
     }
 
+    public void viewLeaderboards() {
+        int shown = 10;
+        CustomUtils.print("\n" + "─".repeat(50));
+        CustomUtils.print("LEADERBOARDS");
+        CustomUtils.print("─".repeat(50));
+
+        CustomUtils.print("\nTop Accounts by Balance:");
+        int rank = 1;
+        for (Account account : accountManager.getTopAccountsByBalance(shown)) {
+            CustomUtils.print(String.format("%2d. %s | %s | $%.2f", rank++,
+                    account.getAccountNumber(), account.getCustomer().getName(), account.getBalance()));
+        }
+
+        CustomUtils.print("\nTop Customers by Accounts:");
+        rank = 1;
+        for (Customer customer : customerManager.getTopCustomersByAccountCount(shown)) {
+            CustomUtils.print(String.format("%2d. %s | %s | %d account(s)", rank++, customer.getCustomerId(),
+                    customer.getName(), customerManager.getAccountCountForCustomer(customer.getCustomerId())));
+        }
+
+        if (transactionManager != null) {
+            CustomUtils.print("\nLargest Transactions Today:");
+            List<Transaction> largest = transactionManager.getLargestTransactionsToday(shown);
+            if (largest.isEmpty()) {
+                CustomUtils.print("No transactions today.");
+            }
+            rank = 1;
+            for (Transaction transaction : largest) {
+                CustomUtils.print(String.format("%2d. %s | %s | %s | $%.2f", rank++, transaction.getTransactionId(),
+                        transaction.getAccountNumber(), transaction.getType(), transaction.getAmount()));
+            }
+        }
+    }
+
     public void viewAccountDetails() {
         CustomUtils.print("\n" + "─".repeat(50));
         CustomUtils.print("VIEW ACCOUNT DETAILS");
@@ -90,6 +143,23 @@ public class AccountUI {
             account.displayAccountDetails();
         } else {
             CustomUtils.print("Account not found!");
+            suggestAccounts(accountNumber);
+        }
+    }
+
+    // Lists the most recently active accounts starting with what was typed
+    private void suggestAccounts(String prefix) {
+        if (prefix.isBlank()) {
+            return;
+        }
+        List<Account> suggestions = customerManager.completeAccounts(prefix.trim(), 5,
+                CustomerManager.Ranking.RECENT_ACTIVITY);
+        if (!suggestions.isEmpty()) {
+            CustomUtils.print("Did you mean:");
+            for (Account suggestion : suggestions) {
+                CustomUtils.print(String.format("  %s | %s | %s",
+                        suggestion.getAccountNumber(), suggestion.getCustomer().getName(), suggestion.getAccountType()));
+            }
         }
     }
 
@@ -149,6 +219,7 @@ public class AccountUI {
             account.displayAccountDetails();
         } else {
             CustomUtils.print("Account not found!");
+            suggestAccounts(accountNumber);
         }
     }
 
@@ -6,6 +6,7 @@ import account.Account;
 import account.AccountManager;
 import java.util.Scanner;
 import java.util.List;
+import java.util.Map;
 
 public class CustomerUI {
     private AccountManager accountManager;
@@ -13,8 +14,12 @@ public class CustomerUI {
     private Scanner scanner;
 
     public CustomerUI(AccountManager accountManager, Scanner scanner) {
+        this(accountManager, new CustomerManager(accountManager), scanner);
+    }
+
+    public CustomerUI(AccountManager accountManager, CustomerManager customerManager, Scanner scanner) {
         this.accountManager = accountManager;
-        this.customerManager = new CustomerManager(accountManager);
+        this.customerManager = customerManager;
         this.scanner = scanner;
     }
 
@@ -86,8 +91,9 @@ public class CustomerUI {
                 "ID", "Name", "Age", "Contact", "Type", "Accounts");
         System.out.println("─".repeat(80));
 
+        Map<String, Integer> accountCounts = customerManager.getAccountCountsByCustomer();
         for (Customer customer : customers) {
-            int accountCount = customerManager.getAccountCountForCustomer(customer.getCustomerId());
+            int accountCount = accountCounts.getOrDefault(customer.getCustomerId(), 0);
 
             System.out.printf("%-10s %-20s %-10d %-15s %-12s %-15s%n",
                     customer.getCustomerId(),
@@ -124,6 +130,7 @@ public class CustomerUI {
 
         if (customer == null) {
             System.out.println("Customer not found!");
+            suggestCustomers(customerId);
             return;
         }
 
@@ -235,6 +242,21 @@ public class CustomerUI {
         System.out.println("Found " + results.size() + " customer(s)");
     }
 
+    // Lists the customers with the highest balances whose name or ID starts with what was typed
+    private void suggestCustomers(String prefix) {
+        if (prefix.isBlank()) {
+            return;
+        }
+        List<Customer> suggestions = customerManager.completeCustomers(prefix.trim(), 5,
+                CustomerManager.Ranking.TOTAL_BALANCE);
+        if (!suggestions.isEmpty()) {
+            System.out.println("Did you mean:");
+            for (Customer suggestion : suggestions) {
+                System.out.printf("  %-10s %-20s%n", suggestion.getCustomerId(), suggestion.getName());
+            }
+        }
+    }
+
     private void searchCustomersByType(String customerType) {
         List<Customer> customers = customerManager.getCustomersByType(customerType);
 
@@ -250,8 +272,9 @@ public class CustomerUI {
                 "ID", "Name", "Age", "Contact", "Accounts");
         System.out.println("─".repeat(80));
 
+        Map<String, Integer> accountCounts = customerManager.getAccountCountsByCustomer();
         for (Customer customer : customers) {
-            int accountCount = customerManager.getAccountCountForCustomer(customer.getCustomerId());
+            int accountCount = accountCounts.getOrDefault(customer.getCustomerId(), 0);
 
             System.out.printf("%-10s %-20s %-10d %-15s %-12s%n",
                     customer.getCustomerId(),
@@ -55,6 +55,24 @@ public final class InputValidator {
         }
     }
 
+    // Canonical form of a contact number for lookups: its digits as one number, behind a leading 1 so
+    // leading zeros count. Spaces, dashes, parentheses and a leading + do not matter. -1 when the
+    // contact has no digits or more than 18.
+    public static long contactKey(String contact) {
+        long key = 1;
+        int digits = 0;
+        for (int i = 0; i < contact.length(); i++) {
+            char c = contact.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 18) {
+                    return -1;
+                }
+                key = key * 10 + (c - '0');
+            }
+        }
+        return digits == 0 ? -1 : key;
+    }
+
     // Address validation
     public static void validateAddress(String address) throws ValidationException {
         if (address == null || address.trim().isEmpty()) {
@@ -0,0 +1,105 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The highest-scored items of a changing collection, kept ranked as they are
+ * written so reading the top k costs O(k).
+ *
+ * Every item has a key and one entry in a skip list ordered by score; items
+ * with equal scores keep the order in which their keys first joined the board.
+ * An update adds the key's new entry, makes it current and then drops the old
+ * one. Reads walk the skip list without locking and pass over entries that are
+ * no longer current, so a reader racing an update sees the item once, at its
+ * old or new place. Updates are serialized on the board.
+ *
+ * A board with a capacity keeps only that many best items: an item scored below
+ * all of them is dropped, and the lowest makes room for a better one. It suits
+ * items whose score never changes, since an item pushed out cannot come back
+ * when the score of one kept falls.
+ */
+public final class Leaderboard<T> {
+    private final int capacity;
+    private final ConcurrentSkipListSet<Ranked<T>> ranked = new ConcurrentSkipListSet<>();
+    private final Map<String, Ranked<T>> current = new ConcurrentHashMap<>();
+    private long joined;
+
+    public Leaderboard() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public Leaderboard(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public int size() {
+        return current.size();
+    }
+
+    // Ranks the item under key by score, in place of what the key held
+    public synchronized void update(String key, T item, double score) {
+        Ranked<T> previous = current.get(key);
+        if (previous == null && current.size() == capacity) {
+            Ranked<T> lowest = ranked.last();
+            if (score <= lowest.score) {
+                return;
+            }
+            current.remove(lowest.key);
+            ranked.remove(lowest);
+        }
+
+        Ranked<T> entry = new Ranked<>(score, previous != null ? previous.joined : joined++, key, item);
+        if (previous != null && previous.compareTo(entry) == 0) {
+            // Same place: the set would take the new entry for the old one
+            ranked.remove(previous);
+            previous = null;
+        }
+        ranked.add(entry);
+        current.put(key, entry);
+        if (previous != null) {
+            ranked.remove(previous);
+        }
+    }
+
+    public synchronized void remove(String key) {
+        Ranked<T> entry = current.remove(key);
+        if (entry != null) {
+            ranked.remove(entry);
+        }
+    }
+
+    public synchronized void clear() {
+        current.clear();
+        ranked.clear();
+    }
+
+    // Up to limit items, highest score first
+    public List<T> top(int limit) {
+        List<T> results = new ArrayList<>(Math.max(0, Math.min(limit, current.size())));
+        for (Ranked<T> entry : ranked) {
+            if (results.size() >= limit) {
+                break;
+            }
+            if (current.get(entry.key) == entry) {
+                results.add(entry.item);
+            }
+        }
+        return results;
+    }
+
+    // Higher scores first, then the key that joined the board first
+    private record Ranked<T>(double score, long joined, String key, T item) implements Comparable<Ranked<T>> {
+        @Override
+        public int compareTo(Ranked<T> other) {
+            int byScore = Double.compare(other.score, score);
+            return byScore != 0 ? byScore : Long.compare(joined, other.joined);
+        }
+    }
+}
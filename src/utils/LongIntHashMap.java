@@ -0,0 +1,131 @@
+package utils;
+
+/**
+ * Map from long keys to non-negative int values without boxing: keys and
+ * values sit in two parallel arrays with open addressing and linear probing,
+ * kept at most half full. Removal shifts the following entries of the probe
+ * run back, so there are no tombstones and lookups stay short. Not
+ * thread-safe.
+ */
+public final class LongIntHashMap {
+    public static final int MISSING = -1;
+
+    // Key 0 marks a free slot, so an entry with key 0 is kept aside
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int zeroValue = MISSING;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size + (zeroValue != MISSING ? 1 : 0);
+    }
+
+    // The value for key, or MISSING
+    public int get(long key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            long k = keys[slot];
+            if (k == key) {
+                return values[slot];
+            }
+            if (k == 0) {
+                return MISSING;
+            }
+        }
+    }
+
+    // Returns the previous value, or MISSING
+    public int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative: " + value);
+        }
+        if (key == 0) {
+            int previous = zeroValue;
+            zeroValue = value;
+            return previous;
+        }
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return MISSING;
+    }
+
+    // Returns the removed value, or MISSING
+    public int remove(long key) {
+        if (key == 0) {
+            int previous = zeroValue;
+            zeroValue = MISSING;
+            return previous;
+        }
+        int slot = slot(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == 0) {
+                return MISSING;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int removed = values[slot];
+        size--;
+
+        // Moves back every later entry of the run that may not be found past the gap otherwise
+        int gap = slot;
+        for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = 0;
+        return removed;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
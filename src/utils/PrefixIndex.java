@@ -0,0 +1,369 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Prefix completion over string keys, returning the best-scored values first.
+ *
+ * Keys are kept in a few sorted arrays of doubling size (an array of 2^k keys
+ * is merged into the next one when a second one forms), so the arrays stay
+ * dense and a key is copied O(log n) times in all. New keys are only appended
+ * to a pending list; the next completion sorts that list and merges it in, so
+ * indexing a whole dataset at load time costs one sort. Each array carries, for every
+ * ranking, a max tree over its keys' scores. A completion finds the prefix's
+ * range in every array by binary search and then takes the best subtrees first
+ * from one priority queue, so the top N cost O((N + log n) log n) however many
+ * keys share the prefix. Scores can change at any time; an update rewrites one
+ * path of each tree holding the value.
+ *
+ * Keys are matched ignoring case. A value may be indexed under several keys and
+ * appears once in a completion. Completions share a read lock and run in
+ * parallel; updates take the write lock. Values with equal scores come in no
+ * particular order.
+ */
+public final class PrefixIndex<T> {
+    private final int rankings;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // levels[k] holds at most 2^k entries, or is null
+    private Level<T>[] levels;
+    // The first entry of every value; the rest are chained through Entry.sameValue
+    private final Map<T, Entry<T>> entriesByValue = new IdentityHashMap<>();
+    private int size;
+
+    // Keys added since the last completion, in arrival order, and their scores by ranking
+    private Entry<T>[] pending;
+    private double[][] pendingScores;
+    private int pendingCount;
+    private volatile boolean merged = true;
+
+    // rankings is the number of independent scores each value has
+    @SuppressWarnings("unchecked")
+    public PrefixIndex(int rankings) {
+        this.rankings = rankings;
+        this.levels = (Level<T>[]) new Level<?>[4];
+        this.pending = (Entry<T>[]) new Entry<?>[16];
+        this.pendingScores = new double[rankings][16];
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Indexes value under key with its current scores; scores are shared with the value's other keys
+    public void put(String key, T value, double... scores) {
+        lock.writeLock().lock();
+        try {
+            Entry<T> entry = new Entry<>(normalize(key), value);
+            entry.sameValue = entriesByValue.put(value, entry);
+            for (Entry<T> other = entry.sameValue; other != null; other = other.sameValue) {
+                for (int ranking = 0; ranking < rankings; ranking++) {
+                    setScore(other, ranking, scores[ranking]);
+                }
+            }
+
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+                for (int ranking = 0; ranking < rankings; ranking++) {
+                    pendingScores[ranking] = Arrays.copyOf(pendingScores[ranking], pendingCount * 2);
+                }
+            }
+            entry.index = pendingCount;
+            pending[pendingCount] = entry;
+            for (int ranking = 0; ranking < rankings; ranking++) {
+                pendingScores[ranking][pendingCount] = scores[ranking];
+            }
+            pendingCount++;
+            merged = false;
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Drops every key of the value
+    public void remove(T value) {
+        lock.writeLock().lock();
+        try {
+            for (Entry<T> entry = entriesByValue.remove(value); entry != null; entry = entry.sameValue) {
+                entry.removed = true;
+                for (int ranking = 0; ranking < rankings; ranking++) {
+                    setScore(entry, ranking, Double.NEGATIVE_INFINITY);
+                }
+                size--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void setScore(T value, int ranking, double score) {
+        lock.writeLock().lock();
+        try {
+            for (Entry<T> entry = entriesByValue.get(value); entry != null; entry = entry.sameValue) {
+                setScore(entry, ranking, score);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Up to limit values with a key starting with prefix, highest score under the ranking first
+    public List<T> complete(String prefix, int limit, int ranking) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        String from = normalize(prefix);
+        if (!merged) {
+            lock.writeLock().lock();
+            try {
+                mergePending();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        lock.readLock().lock();
+        try {
+            PriorityQueue<Candidate<T>> queue = new PriorityQueue<>();
+            for (Level<T> level : levels) {
+                if (level != null) {
+                    level.addRange(queue, ranking, level.lowerBound(from), level.upperBound(from));
+                }
+            }
+
+            List<T> results = new ArrayList<>(limit);
+            Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            while (results.size() < limit && !queue.isEmpty()) {
+                Candidate<T> best = queue.poll();
+                if (best.score == Double.NEGATIVE_INFINITY) {
+                    break; // only removed entries are left
+                }
+                Level<T> level = best.level;
+                int node = best.node;
+                if (node >= level.entries.length) {
+                    Entry<T> entry = level.entries[node - level.entries.length];
+                    if (seen.add(entry.value)) {
+                        results.add(entry.value);
+                    }
+                } else {
+                    double[] tree = level.trees[ranking];
+                    queue.add(new Candidate<>(level, 2 * node, tree[2 * node]));
+                    queue.add(new Candidate<>(level, 2 * node + 1, tree[2 * node + 1]));
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void setScore(Entry<T> entry, int ranking, double score) {
+        if (entry.level == null) {
+            pendingScores[ranking][entry.index] = score;
+        } else {
+            entry.level.set(ranking, entry.index, score);
+        }
+    }
+
+    // Sorts the pending keys and merges them in like a binary counter: every level up to the first
+    // free one big enough joins them there
+    @SuppressWarnings("unchecked")
+    private void mergePending() {
+        if (pendingCount == 0) {
+            merged = true;
+            return;
+        }
+        Entry<T>[] entries = Arrays.copyOf(pending, pendingCount);
+        Arrays.sort(entries, Entry::compareTo);
+        double[][] leafScores = new double[rankings][pendingCount];
+        for (int ranking = 0; ranking < rankings; ranking++) {
+            for (int i = 0; i < entries.length; i++) {
+                leafScores[ranking][i] = pendingScores[ranking][entries[i].index];
+            }
+        }
+        Arrays.fill(pending, 0, pendingCount, null);
+        pendingCount = 0;
+
+        int k = 0;
+        while (k < levels.length && (levels[k] != null || (1L << k) < entries.length)) {
+            Level<T> older = levels[k];
+            if (older != null) {
+                int count = 0;
+                for (Entry<T> e : older.entries) {
+                    count += e.removed ? 0 : 1;
+                }
+                for (Entry<T> e : entries) {
+                    count += e.removed ? 0 : 1;
+                }
+
+                // Both sides are sorted by key; removed entries are dropped
+                Entry<T>[] merging = (Entry<T>[]) new Entry<?>[count];
+                double[][] mergingScores = new double[rankings][count];
+                int i = 0;
+                int j = 0;
+                int out = 0;
+                while (i < older.entries.length || j < entries.length) {
+                    boolean fromOlder = j == entries.length
+                            || (i < older.entries.length && older.entries[i].compareTo(entries[j]) <= 0);
+                    Entry<T> next = fromOlder ? older.entries[i] : entries[j];
+                    if (!next.removed) {
+                        for (int ranking = 0; ranking < rankings; ranking++) {
+                            mergingScores[ranking][out] = fromOlder ? older.score(ranking, i) : leafScores[ranking][j];
+                        }
+                        merging[out++] = next;
+                    }
+                    if (fromOlder) {
+                        i++;
+                    } else {
+                        j++;
+                    }
+                }
+                entries = merging;
+                leafScores = mergingScores;
+                levels[k] = null;
+            }
+            k++;
+        }
+        if (k == levels.length) {
+            levels = Arrays.copyOf(levels, levels.length * 2);
+        }
+        levels[k] = new Level<>(entries, leafScores);
+        merged = true;
+    }
+
+    private static String normalize(String key) {
+        return key.toLowerCase();
+    }
+
+    // Level is null while the entry is pending, and index is then its place in the pending list
+    private static final class Entry<T> implements Comparable<Entry<T>> {
+        final String key;
+        // The first four characters, so most comparisons do not reach the string
+        final long head;
+        final T value;
+        Entry<T> sameValue;
+        Level<T> level;
+        int index;
+        boolean removed;
+
+        Entry(String key, T value) {
+            this.key = key;
+            this.value = value;
+            long packed = 0;
+            for (int i = 0; i < 4; i++) {
+                packed = (packed << 16) | (i < key.length() ? key.charAt(i) : 0);
+            }
+            this.head = packed;
+        }
+
+        @Override
+        public int compareTo(Entry<T> other) {
+            int byHead = Long.compareUnsigned(head, other.head);
+            return byHead != 0 ? byHead : key.compareTo(other.key);
+        }
+    }
+
+    // Entries sorted by key, with a max tree per ranking over their scores: entry i is node n + i
+    // and node m covers nodes 2m and 2m + 1
+    private static final class Level<T> {
+        final Entry<T>[] entries;
+        final double[][] trees;
+
+        Level(Entry<T>[] entries, double[][] leafScores) {
+            this.entries = entries;
+            int n = entries.length;
+            this.trees = new double[leafScores.length][];
+            for (int ranking = 0; ranking < leafScores.length; ranking++) {
+                double[] tree = new double[2 * n];
+                System.arraycopy(leafScores[ranking], 0, tree, n, n);
+                for (int node = n - 1; node >= 1; node--) {
+                    tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+                }
+                trees[ranking] = tree;
+            }
+            for (int i = 0; i < n; i++) {
+                entries[i].level = this;
+                entries[i].index = i;
+            }
+        }
+
+        double score(int ranking, int index) {
+            return trees[ranking][entries.length + index];
+        }
+
+        void set(int ranking, int index, double score) {
+            double[] tree = trees[ranking];
+            int node = entries.length + index;
+            tree[node] = score;
+            for (node >>= 1; node >= 1; node >>= 1) {
+                tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+
+        // First entry with a key not below prefix
+        int lowerBound(String prefix) {
+            int low = 0;
+            int high = entries.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (entries[mid].key.compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // First entry past the keys starting with prefix
+        int upperBound(String prefix) {
+            int low = lowerBound(prefix);
+            int high = entries.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (entries[mid].key.startsWith(prefix)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Queues the tree nodes that exactly cover entries [from, to)
+        void addRange(PriorityQueue<Candidate<T>> queue, int ranking, int from, int to) {
+            double[] tree = trees[ranking];
+            int n = entries.length;
+            for (int low = from + n, high = to + n; low < high; low >>= 1, high >>= 1) {
+                if ((low & 1) == 1) {
+                    queue.add(new Candidate<>(this, low, tree[low]));
+                    low++;
+                }
+                if ((high & 1) == 1) {
+                    high--;
+                    queue.add(new Candidate<>(this, high, tree[high]));
+                }
+            }
+        }
+    }
+
+    private record Candidate<T>(Level<T> level, int node, double score) implements Comparable<Candidate<T>> {
+        @Override
+        public int compareTo(Candidate<T> other) {
+            return Double.compare(other.score, score);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Reusable character buffer for building persisted records and display lines.
+ *
+ * Money values are written with exactly two decimals (the same digits as
+ * {@code String.format("%.2f")}), optionally with thousands separators, straight
+ * into the buffer: no Formatter, no boxed doubles and no temporary Strings.
+ * Call {@link #reset()} between records and reuse the same instance.
+ *
+ * Not thread-safe; use one instance per thread.
+ */
+public final class RecordFormatter implements CharSequence {
+    // From here on, value * 100 passes 2^53 and whole cents are no longer exact in a double
+    private static final double MAX_FAST_MONEY = (double) (1L << 53) / 100;
+
+    private char[] buffer;
+    private int length;
+
+    public RecordFormatter() {
+        this(128);
+    }
+
+    public RecordFormatter(int initialCapacity) {
+        this.buffer = new char[Math.max(16, initialCapacity)];
+    }
+
+    public RecordFormatter reset() {
+        length = 0;
+        return this;
+    }
+
+    public RecordFormatter append(String value) {
+        int count = value.length();
+        ensureCapacity(count);
+        value.getChars(0, count, buffer, length);
+        length += count;
+        return this;
+    }
+
+    public RecordFormatter append(char value) {
+        ensureCapacity(1);
+        buffer[length++] = value;
+        return this;
+    }
+
+    public RecordFormatter append(long value) {
+        if (value < 0) {
+            append('-');
+            if (value == Long.MIN_VALUE) {
+                return append("9223372036854775808");
+            }
+            value = -value;
+        }
+        appendDigits(value, false);
+        return this;
+    }
+
+    // Left-aligned and space-padded to width, like %-Ns
+    public RecordFormatter appendPadded(String value, int width) {
+        append(value);
+        return pad(width - value.length());
+    }
+
+    // Fixed two decimals, e.g. 1234.5 -> "1234.50"
+    public RecordFormatter appendMoney(double value) {
+        return appendMoney(value, false);
+    }
+
+    // Two decimals with thousands separators, e.g. 1234.5 -> "1,234.50"
+    public RecordFormatter appendMoneyGrouped(double value) {
+        return appendMoney(value, true);
+    }
+
+    // Grouped money value left-aligned in a column of the given width
+    public RecordFormatter appendMoneyPadded(double value, int width) {
+        int start = length;
+        appendMoneyGrouped(value);
+        return pad(width - (length - start));
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(buffer, 0, length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return buffer[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(buffer, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+
+    private RecordFormatter appendMoney(double value, boolean grouped) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= MAX_FAST_MONEY) {
+            return append(grouped ? String.format("%,.2f", value) : String.format("%.2f", value));
+        }
+
+        double scaled = Math.abs(value) * 100;
+        long cents = (long) scaled;
+        double fraction = scaled - cents;
+
+        // Formatter rounds the shortest decimal form of the value, which can sit up to half an ulp
+        // from the double itself, so near a tie the scaled double cannot decide
+        if (Math.abs(fraction - 0.5) < Math.max(1e-6, 100 * Math.ulp(value))) {
+            // Like Formatter, round the shortest decimal form of the value half-up
+            cents = BigDecimal.valueOf(Math.abs(value)).setScale(2, RoundingMode.HALF_UP)
+                    .movePointRight(2).longValueExact();
+        } else if (fraction > 0.5) {
+            cents++;
+        }
+
+        // Like %.2f, keep the sign of negative values even when they round to zero
+        if (Double.doubleToRawLongBits(value) < 0) {
+            append('-');
+        }
+        appendDigits(cents / 100, grouped);
+        append('.');
+        long remainder = cents % 100;
+        append((char) ('0' + remainder / 10));
+        append((char) ('0' + remainder % 10));
+        return this;
+    }
+
+    private void appendDigits(long value, boolean grouped) {
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int separators = grouped ? (digits - 1) / 3 : 0;
+        int width = digits + separators;
+        ensureCapacity(width);
+
+        int position = length + width - 1;
+        int written = 0;
+        do {
+            if (grouped && written > 0 && written % 3 == 0) {
+                buffer[position--] = ',';
+            }
+            buffer[position--] = (char) ('0' + value % 10);
+            value /= 10;
+            written++;
+        } while (value != 0);
+
+        length += width;
+    }
+
+    private RecordFormatter pad(int spaces) {
+        if (spaces > 0) {
+            ensureCapacity(spaces);
+            for (int i = 0; i < spaces; i++) {
+                buffer[length++] = ' ';
+            }
+        }
+        return this;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            char[] grown = new char[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Substring search over one text field of many values, through an inverted
+ * index of the field's trigrams (every run of three characters of the lowercased
+ * text).
+ *
+ * Each value gets an increasing number when it is indexed, and every trigram
+ * keeps the numbers of the values containing it as a sorted, delta-encoded
+ * varint list with a skip entry every 128 numbers, so most lists take one or
+ * two bytes per value. A query looks up the lists of its own trigrams, walks
+ * them together from the shortest one, skipping ahead in the longer ones, and
+ * checks each value left over with {@code contains}, so results are exactly
+ * those of a lowercase {@code contains} scan, in the order values were indexed.
+ * Queries shorter than three characters fall back to that scan.
+ *
+ * A value whose text changes is indexed again under a new number and its old
+ * number is dropped; the old number stays in the lists and is skipped. Not
+ * thread-safe: the owner guards it with its own lock.
+ */
+public final class TrigramIndex<T> {
+    private static final int SKIP_INTERVAL = 128;
+
+    private final Function<T, String> text;
+    private final List<T> values = new ArrayList<>();
+    private final Map<String, Integer> numbers = new HashMap<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private int live;
+
+    // text gives the field a value is searched by
+    public TrigramIndex(Function<T, String> text) {
+        this.text = text;
+    }
+
+    public int size() {
+        return live;
+    }
+
+    // Indexes the value under key, replacing what the key held. A replacement with the same text
+    // keeps its place; otherwise it moves to the end of the order.
+    public void put(String key, T value) {
+        String normalized = normalize(text.apply(value));
+        Integer number = numbers.get(key);
+        if (number != null) {
+            T previous = values.get(number);
+            if (previous != value && normalize(text.apply(previous)).equals(normalized)) {
+                values.set(number, value);
+                return;
+            }
+            values.set(number, null);
+            live--;
+        }
+
+        int added = values.size();
+        values.add(value);
+        numbers.put(key, added);
+        live++;
+        for (int i = 0; i + 3 <= normalized.length(); i++) {
+            postings.computeIfAbsent(trigram(normalized, i), t -> new Postings()).add(added);
+        }
+    }
+
+    public void remove(String key) {
+        Integer number = numbers.remove(key);
+        if (number != null) {
+            values.set(number, null);
+            live--;
+        }
+    }
+
+    // Values whose text contains the query, ignoring case, in index order
+    public List<T> search(String query) {
+        String normalized = normalize(query);
+        List<T> results = new ArrayList<>();
+        if (normalized.length() < 3) {
+            for (T value : values) {
+                if (value != null && matches(value, normalized)) {
+                    results.add(value);
+                }
+            }
+            return results;
+        }
+
+        Postings[] lists = new Postings[normalized.length() - 2];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(trigram(normalized, i));
+            if (lists[i] == null) {
+                return results;
+            }
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.count, b.count));
+
+        Cursor[] cursors = new Cursor[lists.length];
+        for (int i = 0; i < lists.length; i++) {
+            cursors[i] = new Cursor(lists[i]);
+        }
+        int candidate = cursors[0].next();
+        while (candidate >= 0) {
+            int agreed = candidate;
+            for (int i = 1; i < cursors.length && agreed == candidate; i++) {
+                agreed = cursors[i].advance(candidate);
+            }
+            if (agreed < 0) {
+                break;
+            }
+            if (agreed == candidate) {
+                T value = values.get(candidate);
+                // Trigrams can all be present without being adjacent, so the text is checked
+                if (value != null && matches(value, normalized)) {
+                    results.add(value);
+                }
+                candidate = cursors[0].next();
+            } else {
+                candidate = cursors[0].advance(agreed);
+            }
+        }
+        return results;
+    }
+
+    private boolean matches(T value, String normalized) {
+        return normalize(text.apply(value)).contains(normalized);
+    }
+
+    // The same normalization the scans it replaces used
+    private static String normalize(String s) {
+        return s.toLowerCase();
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    // Increasing numbers as varint gaps, with the number before every 128th one and its offset
+    private static final class Postings {
+        byte[] bytes = new byte[4];
+        int length;
+        int count;
+        int last = -1;
+        int[] skipBefore = new int[1];
+        int[] skipOffset = new int[1];
+
+        void add(int number) {
+            if (number == last) {
+                return; // the trigram occurs twice in one text
+            }
+            if (count % SKIP_INTERVAL == 0) {
+                int skip = count / SKIP_INTERVAL;
+                if (skip == skipBefore.length) {
+                    skipBefore = Arrays.copyOf(skipBefore, skip * 2);
+                    skipOffset = Arrays.copyOf(skipOffset, skip * 2);
+                }
+                skipBefore[skip] = last;
+                skipOffset[skip] = length;
+            }
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+            }
+            int gap = number - last;
+            while ((gap & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+            last = number;
+            count++;
+        }
+    }
+
+    private static final class Cursor {
+        private final Postings list;
+        private int offset;
+        private int index;
+        private int current = -1;
+
+        Cursor(Postings list) {
+            this.list = list;
+        }
+
+        // The next number, or -1 when the list is used up
+        int next() {
+            if (index == list.count) {
+                return -1;
+            }
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = list.bytes[offset++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            index++;
+            current += gap;
+            return current;
+        }
+
+        // The first number at or after target, or -1 when there is none
+        int advance(int target) {
+            if (index > 0 && current >= target) {
+                return current;
+            }
+            // Jump to the last block that starts before target, when it lies ahead
+            int low = index / SKIP_INTERVAL + 1;
+            int high = (list.count - 1) / SKIP_INTERVAL;
+            int block = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (list.skipBefore[mid] < target) {
+                    block = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (block >= 0) {
+                index = block * SKIP_INTERVAL;
+                offset = list.skipOffset[block];
+                current = list.skipBefore[block];
+            }
+            int number;
+            do {
+                number = next();
+            } while (number >= 0 && number < target);
+            return number;
+        }
+    }
+}
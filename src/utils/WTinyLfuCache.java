@@ -0,0 +1,347 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded cache with W-TinyLFU admission and eviction.
+ *
+ * New entries land in a small LRU window (1% of the capacity). When the window
+ * overflows, its oldest entry competes with the main space's eviction victim and
+ * the one seen more often, according to a compact count-min frequency sketch,
+ * stays. The main space is a segmented LRU: entries hit again while on
+ * probation are promoted to the protected segment (80% of the main space).
+ * One-off scans therefore cannot flush out entries that are used repeatedly.
+ *
+ * Loads run outside the lock, so a slow load does not block hits on other keys.
+ * Null values are never cached.
+ */
+public final class WTinyLfuCache<K, V> {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final int maximumSize;
+    private final int windowMax;
+    private final int mainMax;
+    private final int protectedMax;
+
+    private final Map<K, Node<K, V>> data;
+    private final AccessQueue<K, V> window = new AccessQueue<>();
+    private final AccessQueue<K, V> probation = new AccessQueue<>();
+    private final AccessQueue<K, V> protectedQueue = new AccessQueue<>();
+    private final FrequencySketch sketch;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public WTinyLfuCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.windowMax = Math.max(1, maximumSize / 100);
+        this.mainMax = maximumSize - windowMax;
+        this.protectedMax = (int) (mainMax * 0.8);
+        this.data = new HashMap<>(Math.min(maximumSize, 1 << 16));
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    // Cached value, or the loader's value (cached when non-null)
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        synchronized (this) {
+            Node<K, V> node = data.get(key);
+            if (node != null) {
+                hits++;
+                onAccess(node);
+                return node.value;
+            }
+            misses++;
+            sketch.increment(key.hashCode());
+        }
+
+        V value = loader.apply(key);
+        if (value == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            // Another thread may have loaded the same key meanwhile; keep the first value
+            Node<K, V> existing = data.get(key);
+            if (existing != null) {
+                return existing.value;
+            }
+            insert(key, value);
+            return value;
+        }
+    }
+
+    public synchronized V getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        hits++;
+        onAccess(node);
+        return node.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        Node<K, V> node = data.get(key);
+        if (node != null) {
+            node.value = value;
+            onAccess(node);
+            return;
+        }
+        sketch.increment(key.hashCode());
+        insert(key, value);
+    }
+
+    public synchronized void invalidate(K key) {
+        Node<K, V> node = data.remove(key);
+        if (node != null) {
+            queueOf(node).remove(node);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        data.clear();
+        window.clear();
+        probation.clear();
+        protectedQueue.clear();
+    }
+
+    public synchronized int size() {
+        return data.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("size=%d/%d, hits=%d, misses=%d, hit rate=%.1f%%, evictions=%d",
+                data.size(), maximumSize, hits, misses, getHitRate() * 100, evictions);
+    }
+
+    private void insert(K key, V value) {
+        Node<K, V> node = new Node<>(key, value);
+        data.put(key, node);
+        node.queue = WINDOW;
+        window.addLast(node);
+        evictFromWindow();
+    }
+
+    private void onAccess(Node<K, V> node) {
+        sketch.increment(node.key.hashCode());
+
+        if (node.queue == PROBATION) {
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protectedQueue.addLast(node);
+
+            // Keep the protected segment within bounds by demoting its oldest entry
+            if (protectedQueue.size > protectedMax) {
+                Node<K, V> demoted = protectedQueue.removeFirst();
+                demoted.queue = PROBATION;
+                probation.addLast(demoted);
+            }
+        } else {
+            queueOf(node).moveToEnd(node);
+        }
+    }
+
+    // Window overflow competes for a place in the main space
+    private void evictFromWindow() {
+        while (window.size > windowMax) {
+            Node<K, V> candidate = window.removeFirst();
+
+            if (probation.size + protectedQueue.size < mainMax) {
+                candidate.queue = PROBATION;
+                probation.addLast(candidate);
+                continue;
+            }
+
+            Node<K, V> victim = probation.size > 0 ? probation.first() : protectedQueue.first();
+            if (victim != null
+                    && sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                queueOf(victim).remove(victim);
+                data.remove(victim.key);
+                candidate.queue = PROBATION;
+                probation.addLast(candidate);
+            } else {
+                data.remove(candidate.key);
+            }
+            evictions++;
+        }
+    }
+
+    private AccessQueue<K, V> queueOf(Node<K, V> node) {
+        return switch (node.queue) {
+            case WINDOW -> window;
+            case PROBATION -> probation;
+            default -> protectedQueue;
+        };
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        int queue;
+        Node<K, V> previous;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // Intrusive doubly-linked list, least recently used first
+    private static final class AccessQueue<K, V> {
+        private Node<K, V> head;
+        private Node<K, V> tail;
+        private int size;
+
+        Node<K, V> first() {
+            return head;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.previous = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        Node<K, V> removeFirst() {
+            Node<K, V> node = head;
+            remove(node);
+            return node;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.previous == null) {
+                head = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToEnd(Node<K, V> node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            size = 0;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, four per key, packed sixteen to a long.
+     * All counters are halved once the number of increments reaches ten times the
+     * cache size, so old popularity fades.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int length = Integer.highestOneBit(Math.max(16, Math.min(maximumSize, 1 << 30)) - 1) << 1;
+            this.table = new long[length];
+            this.tableMask = length - 1;
+            this.sampleSize = (int) Math.min(10L * maximumSize, Integer.MAX_VALUE);
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                long mixed = mix(hash, i);
+                int counter = (int) ((table[indexOf(mixed)] >>> shiftOf(mixed)) & 0xF);
+                frequency = Math.min(frequency, counter);
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                long mixed = mix(hash, i);
+                int index = indexOf(mixed);
+                int shift = shiftOf(mixed);
+                if (((table[index] >>> shift) & 0xF) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+
+        private static long mix(int hash, int row) {
+            long mixed = (hash + SEEDS[row]) * SEEDS[(row + 1) & 3];
+            return mixed ^ (mixed >>> 32);
+        }
+
+        private int indexOf(long mixed) {
+            return (int) (mixed >>> 4) & tableMask;
+        }
+
+        private static int shiftOf(long mixed) {
+            return (int) (mixed & 15) << 2;
+        }
+    }
+}
@@ -1,13 +1,17 @@
 
 import account.Account;
+import account.AccountListener;
 import account.AccountManager;
+import account.AccountQuery;
 import account.CheckingAccount;
 import account.SavingsAccount;
 import customer.Customer;
+import customer.PremiumCustomer;
 import customer.RegularCustomer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -189,4 +193,113 @@ public class AccountManagerTest {
         assertNotNull(accountManager.findAccount(anotherSavings.getAccountNumber()));
     }
 
-}
\ No newline at end of file
+    @Test
+    void listenersSeeAddsAndBalanceChanges() throws Exception {
+        List<String> events = new ArrayList<>();
+        accountManager.addAccountListener(new AccountListener() {
+            @Override
+            public void accountAdded(Account account) {
+                events.add("added " + account.getAccountNumber());
+            }
+
+            @Override
+            public void balanceChanged(Account account, double oldBalance, double newBalance) {
+                events.add("balance " + oldBalance + "->" + newBalance);
+            }
+
+            @Override
+            public void statusChanged(Account account, String oldStatus, String newStatus) {
+                events.add("status " + newStatus);
+            }
+        });
+
+        accountManager.addAccount(checkingAccount);
+        checkingAccount.deposit(500.0);
+        checkingAccount.withdraw(200.0);
+        checkingAccount.setStatus("Inactive");
+
+        assertEquals(List.of("added " + checkingAccount.getAccountNumber(),
+                "balance 1000.0->1500.0", "balance 1500.0->1300.0", "status Inactive"), events);
+    }
+
+    @Test
+    void topAccountsFollowBalanceChanges() throws Exception {
+        SavingsAccount smallest = new SavingsAccount(customer, 600.0);
+        accountManager.addAccount(checkingAccount);
+        accountManager.addAccount(savingsAccount);
+        accountManager.addAccount(smallest);
+        assertEquals(List.of(savingsAccount, checkingAccount, smallest), accountManager.getTopAccountsByBalance(10));
+
+        checkingAccount.deposit(1500.0);
+        smallest.deposit(1400.0);
+        assertEquals(List.of(checkingAccount, savingsAccount), accountManager.getTopAccountsByBalance(2));
+        assertEquals(List.of(checkingAccount, savingsAccount, smallest), accountManager.getTopAccountsByBalance(3),
+                "Equal balances stay in the order added");
+
+        checkingAccount.withdraw(2000.0);
+        assertEquals(List.of(savingsAccount, smallest, checkingAccount), accountManager.getTopAccountsByBalance(3));
+    }
+
+    @Test
+    void typeTotalsFollowAddsAndBalanceChanges() throws Exception {
+        SavingsAccount secondSavings = new SavingsAccount(customer, 800.0);
+        accountManager.addAccount(savingsAccount);
+        accountManager.addAccount(checkingAccount);
+        accountManager.addAccount(secondSavings);
+
+        checkingAccount.withdraw(1500.0);
+        savingsAccount.transfer(checkingAccount, 300.0);
+        secondSavings.deposit(200.0);
+
+        assertEquals(2700.0, accountManager.getTotalBalanceByAccountType("Savings"), 0.001);
+        assertEquals(-200.0, accountManager.getTotalBalanceByAccountType("Checking"), 0.001);
+        assertEquals(2500.0, accountManager.getTotalBalance(), 0.001);
+        assertEquals(0.0, accountManager.getTotalBalanceByAccountType("Fixed"), 0.001);
+        assertEquals(List.of(savingsAccount, secondSavings), accountManager.searchByAccountType("Savings"));
+        assertEquals(2, accountManager.getAccountCountByType("Savings"));
+        assertEquals(1, accountManager.getAccountCountByType("Checking"));
+        assertTrue(accountManager.searchByAccountType("Fixed").isEmpty());
+
+        SavingsAccount reloaded = new SavingsAccount(savingsAccount.getAccountNumber(), customer, 50.0, "Active");
+        accountManager.applyReload(List.of(reloaded));
+        assertEquals(1050.0, accountManager.getTotalBalanceByAccountType("Savings"), 0.001);
+        assertEquals(850.0, accountManager.getTotalBalance(), 0.001);
+    }
+
+    @Test
+    void queriesCombineAttributesAndFollowChanges() throws Exception {
+        Customer premium = new PremiumCustomer("Jane Smith", 35, "0557654321", "Kumasi");
+        CheckingAccount premiumChecking = new CheckingAccount(premium, 15_000.0);
+        CheckingAccount premiumOverdrawn = new CheckingAccount(premium, 200.0);
+        SavingsAccount premiumSavings = new SavingsAccount(premium, 12_000.0);
+        accountManager.addAccount(checkingAccount);
+        accountManager.addAccount(savingsAccount);
+        accountManager.addAccount(premiumChecking);
+        accountManager.addAccount(premiumOverdrawn);
+        accountManager.addAccount(premiumSavings);
+        premiumOverdrawn.withdraw(700.0);
+
+        AccountQuery premiumActiveOverdrawnChecking = AccountQuery.type("Checking")
+                .and(AccountQuery.customerType("Premium"))
+                .and(AccountQuery.status("Active"))
+                .and(AccountQuery.overdrawn());
+        assertEquals(List.of(premiumOverdrawn), accountManager.findAccounts(premiumActiveOverdrawnChecking));
+
+        premiumOverdrawn.setStatus("Inactive");
+        assertTrue(accountManager.findAccounts(premiumActiveOverdrawnChecking).isEmpty());
+        assertEquals(List.of(checkingAccount, savingsAccount, premiumChecking, premiumSavings),
+                accountManager.findAccounts(AccountQuery.status("Inactive").not()));
+        assertEquals(List.of(checkingAccount, premiumChecking, premiumSavings),
+                accountManager.findAccounts(AccountQuery.customerType("Regular").not()
+                        .and(AccountQuery.status("Active")).or(AccountQuery.type("Checking")
+                                .and(AccountQuery.customerType("Regular")))));
+        assertEquals(2, accountManager.countAccounts(AccountQuery.type("Savings")));
+        assertEquals(0, accountManager.countAccounts(AccountQuery.status("Frozen")));
+
+        premiumOverdrawn.deposit(1000.0);
+        assertEquals(0, accountManager.countAccounts(AccountQuery.overdrawn()));
+        SavingsAccount reloaded = new SavingsAccount(savingsAccount.getAccountNumber(), customer, 100.0, "Active");
+        accountManager.applyReload(List.of(reloaded));
+        assertEquals(List.of(savingsAccount), accountManager.findAccounts(AccountQuery.belowSavingsMinimum()));
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.Test;
+import utils.CompressedBitmap;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressedBitmapTest {
+
+    @Test
+    void matchesABitSetForSparseAndDenseChunks() {
+        Random random = new Random(11);
+        CompressedBitmap[] bitmaps = new CompressedBitmap[3];
+        BitSet[] expected = new BitSet[3];
+        // Densities on both sides of the array limit, spread over several chunks
+        double[] densities = {0.01, 0.3, 0.9};
+        for (int b = 0; b < bitmaps.length; b++) {
+            bitmaps[b] = new CompressedBitmap();
+            expected[b] = new BitSet();
+            for (int value = 0; value < 200_000; value++) {
+                if (random.nextDouble() < densities[b]) {
+                    bitmaps[b].add(value);
+                    expected[b].set(value);
+                }
+            }
+            for (int i = 0; i < 20_000; i++) {
+                int value = random.nextInt(200_000);
+                bitmaps[b].remove(value);
+                expected[b].clear(value);
+            }
+            assertEquals(expected[b], toBitSet(bitmaps[b]));
+            assertEquals(expected[b].cardinality(), bitmaps[b].cardinality());
+        }
+
+        for (int a = 0; a < bitmaps.length; a++) {
+            for (int b = 0; b < bitmaps.length; b++) {
+                BitSet and = (BitSet) expected[a].clone();
+                and.and(expected[b]);
+                BitSet or = (BitSet) expected[a].clone();
+                or.or(expected[b]);
+                BitSet andNot = (BitSet) expected[a].clone();
+                andNot.andNot(expected[b]);
+                assertEquals(and, toBitSet(bitmaps[a].and(bitmaps[b])), a + " and " + b);
+                assertEquals(or, toBitSet(bitmaps[a].or(bitmaps[b])), a + " or " + b);
+                assertEquals(andNot, toBitSet(bitmaps[a].andNot(bitmaps[b])), a + " andNot " + b);
+            }
+        }
+        assertEquals(expected[1], toBitSet(bitmaps[1]), "Operands are left as they were");
+    }
+
+    @Test
+    void chunksConvertBothWays() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int value = 0; value < 10_000; value++) {
+            bitmap.add(value * 3);
+        }
+        assertEquals(10_000, bitmap.cardinality());
+        for (int value = 0; value < 9_990; value++) {
+            bitmap.remove(value * 3);
+        }
+
+        List<Integer> values = new ArrayList<>();
+        bitmap.forEach(values::add);
+        assertEquals(10, values.size());
+        assertEquals(29_970, (int) values.get(0));
+        assertTrue(bitmap.contains(29_997));
+        assertFalse(bitmap.contains(29_998));
+        assertFalse(bitmap.contains(-1));
+
+        bitmap.remove(-5);
+        for (int value : values) {
+            bitmap.remove(value);
+        }
+        assertTrue(bitmap.isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> bitmap.add(-1));
+    }
+
+    @Test
+    void rangeHoldsEveryValueBelowTheCount() {
+        for (int count : new int[]{0, 1, 63, 4096, 4097, 65_536, 70_000}) {
+            BitSet expected = new BitSet();
+            expected.set(0, count);
+            assertEquals(expected, toBitSet(CompressedBitmap.range(count)), "Range " + count);
+        }
+    }
+
+    private static BitSet toBitSet(CompressedBitmap bitmap) {
+        BitSet bits = new BitSet();
+        bitmap.forEach(bits::set);
+        return bits;
+    }
+}
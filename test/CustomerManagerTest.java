@@ -1,10 +1,12 @@
 
 import account.Account;
 import account.AccountManager;
+import account.AccountStore;
 import account.CheckingAccount;
 import account.SavingsAccount;
 import customer.Customer;
 import customer.CustomerManager;
+import customer.CustomerStore;
 import customer.PremiumCustomer;
 import customer.RegularCustomer;
 import org.junit.jupiter.api.BeforeEach;
@@ -12,6 +14,8 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -370,4 +374,259 @@ public class CustomerManagerTest {
         assertNotNull(emptySearch);
         assertNotNull(whitespaceSearch);
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("A manager created over existing accounts indexes them")
+    void registryIsSeededFromExistingAccounts() {
+        CustomerManager late = new CustomerManager(accountManager);
+
+        assertEquals(2, late.getAllCustomers().size());
+        assertEquals(2, late.getAccountCountForCustomer(regularCustomer.getCustomerId()));
+        assertEquals(3000.0, late.getTotalBalanceForCustomer(regularCustomer.getCustomerId()), 0.01);
+    }
+
+    @Test
+    @DisplayName("Registry follows balance changes and replaced customers")
+    void registryFollowsAccountChanges() {
+        Account account = customerManager.getAccountsForCustomer(premiumCustomer.getCustomerId()).get(0);
+        account.deposit(1000.0);
+        assertEquals(6000.0, customerManager.getTotalBalanceForCustomer(premiumCustomer.getCustomerId()), 0.01);
+        assertEquals(premiumCustomer, customerManager.getCustomerWithHighestBalance());
+
+        Customer moved = new RegularCustomer(regularCustomer.getCustomerId(), "John Moved", 31, "0551234567", "Tema");
+        accountManager.replaceCustomers(Map.of(moved.getCustomerId(), moved));
+
+        assertSame(moved, customerManager.getCustomerById(regularCustomer.getCustomerId()));
+        assertEquals(2, customerManager.getAccountCountForCustomer(moved.getCustomerId()));
+        assertEquals(1, customerManager.getCustomersByLocation("Tema").size());
+        assertEquals(2, customerManager.getAllCustomers().size());
+    }
+
+    @Test
+    @DisplayName("Autocomplete ranks customers and accounts by balance or recent activity")
+    void autocompleteRanksSuggestions() {
+        Customer janet = new RegularCustomer("Janet Owusu", 40, "0550000001", "Tamale");
+        Account janetAccount = new SavingsAccount(janet, 800.0);
+        accountManager.addAccount(janetAccount);
+
+        assertEquals(List.of(premiumCustomer, janet),
+                customerManager.completeCustomers("ja", 5, CustomerManager.Ranking.TOTAL_BALANCE));
+        assertEquals(List.of(janet, premiumCustomer),
+                customerManager.completeCustomers("JA", 5, CustomerManager.Ranking.RECENT_ACTIVITY));
+        assertEquals(List.of(regularCustomer),
+                customerManager.completeCustomers(regularCustomer.getCustomerId(), 5,
+                        CustomerManager.Ranking.TOTAL_BALANCE));
+
+        Account johnChecking = customerManager.getAccountsForCustomer(regularCustomer.getCustomerId()).get(0);
+        johnChecking.deposit(10.0);
+        List<Account> recent = customerManager.completeAccounts("acc", 2, CustomerManager.Ranking.RECENT_ACTIVITY);
+        assertEquals(List.of(johnChecking, janetAccount), recent);
+
+        janetAccount.deposit(10_000.0);
+        assertEquals(janet, customerManager.completeCustomers("j", 1, CustomerManager.Ranking.TOTAL_BALANCE).get(0));
+    }
+
+    @Test
+    @DisplayName("Get customer by contact ignores phone number formatting")
+    void getCustomerByContactIgnoresFormatting() {
+        assertEquals(regularCustomer, customerManager.getCustomerByContact("0551234567"));
+        assertEquals(regularCustomer, customerManager.getCustomerByContact("055-123-4567"));
+        assertEquals(premiumCustomer, customerManager.getCustomerByContact(" (055) 765 4321 "));
+        assertNull(customerManager.getCustomerByContact("551234567"), "Leading zeros are part of the number");
+        assertNull(customerManager.getCustomerByContact("no digits"));
+
+        Customer formatted = new RegularCustomer("Kofi Mensah", 45, "+233 20 111 2222", "Ho");
+        accountManager.addAccount(new CheckingAccount(formatted, 100.0));
+        assertEquals(formatted, customerManager.getCustomerByContact("233201112222"));
+
+        Customer moved = new RegularCustomer(formatted.getCustomerId(), "Kofi Mensah", 45, "0209998888", "Ho");
+        accountManager.replaceCustomers(Map.of(moved.getCustomerId(), moved));
+        assertNull(customerManager.getCustomerByContact("+233 20 111 2222"));
+        assertEquals(moved, customerManager.getCustomerByContact("020 999 8888"));
+    }
+
+    @Test
+    @DisplayName("Age range queries and average age follow added and replaced customers")
+    void ageIndexFollowsCustomers() {
+        Customer young = new RegularCustomer("Ama Young", 19, "0550000002", "Cape Coast");
+        Customer senior = new PremiumCustomer("Yaw Senior", 70, "0550000003", "Ho");
+        accountManager.addAccount(new SavingsAccount(young, 600.0));
+        accountManager.addAccount(new CheckingAccount(senior, 9000.0));
+
+        assertEquals(List.of(young, regularCustomer, premiumCustomer), customerManager.getCustomersInAgeRange(18, 40));
+        assertEquals(2, customerManager.countCustomersInAgeRange(30, 35));
+        assertEquals(0, customerManager.countCustomersInAgeRange(40, 30));
+        assertEquals(4, customerManager.countCustomersInAgeRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals((30 + 35 + 19 + 70) / 4.0, customerManager.getAverageCustomerAge(), 1e-9);
+
+        Customer older = new RegularCustomer(young.getCustomerId(), "Ama Young", 25, "0550000002", "Cape Coast");
+        accountManager.replaceCustomers(Map.of(older.getCustomerId(), older));
+        assertEquals(List.of(older), customerManager.getCustomersInAgeRange(20, 29));
+        assertTrue(customerManager.getCustomersInAgeRange(18, 19).isEmpty());
+        assertEquals((30 + 35 + 25 + 70) / 4.0, customerManager.getAverageCustomerAge(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("Statistics follow new customers, closed accounts and replaced customers")
+    void statisticsAreMaintainedIncrementally() {
+        Account closing = customerManager.getAccountsForCustomer(regularCustomer.getCustomerId()).get(1);
+        closing.setStatus("Closed");
+        accountManager.addAccount(new SavingsAccount(new PremiumCustomer("Esi Boateng", 50, "0550000004", "Sunyani"), 20000.0));
+
+        CustomerManager.CustomerStatistics stats = customerManager.getCustomerStatistics();
+        assertEquals(3, stats.getTotalCustomers());
+        assertEquals(1, stats.getRegularCustomers());
+        assertEquals(2, stats.getPremiumCustomers());
+        assertEquals(4, stats.getTotalAccounts());
+        assertEquals(1, stats.getClosedAccounts());
+
+        closing.setStatus("Active");
+        Customer upgraded = new PremiumCustomer(regularCustomer.getCustomerId(), "John Doe", 30, "0551234567", "Accra");
+        accountManager.replaceCustomers(Map.of(upgraded.getCustomerId(), upgraded));
+
+        stats = customerManager.getCustomerStatistics();
+        assertEquals(3, stats.getTotalCustomers());
+        assertEquals(0, stats.getRegularCustomers());
+        assertEquals(3, stats.getPremiumCustomers());
+        assertEquals(0, stats.getClosedAccounts());
+    }
+
+    @Test
+    @DisplayName("Statistics snapshots stay consistent while accounts are added")
+    void statisticsSnapshotsAreConsistent() throws InterruptedException {
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 2_000; i++) {
+                accountManager.addAccount(new CheckingAccount(
+                        new RegularCustomer("Load Test", 40, "0551111111", "Accra"), 100.0));
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            CustomerManager.CustomerStatistics stats = customerManager.getCustomerStatistics();
+            // Each added account brings its own customer, so the two counts move together
+            assertEquals(stats.getTotalCustomers() + 1, stats.getTotalAccounts());
+        }
+        writer.join();
+        assertEquals(2_002, customerManager.getCustomerStatistics().getTotalCustomers());
+    }
+
+    @Test
+    @DisplayName("Running totals follow deposits, withdrawals and transfers")
+    void runningTotalsFollowBalanceChanges() throws Exception {
+        List<Account> johnAccounts = customerManager.getAccountsForCustomer(regularCustomer.getCustomerId());
+        Account janeAccount = customerManager.getAccountsForCustomer(premiumCustomer.getCustomerId()).get(0);
+
+        johnAccounts.get(0).transfer(janeAccount, 400.0);
+        johnAccounts.get(1).withdraw(100.0);
+        assertEquals(2500.0, customerManager.getTotalBalanceForCustomer(regularCustomer.getCustomerId()), 0.001);
+        assertEquals(5400.0, customerManager.getTotalBalanceForCustomer(premiumCustomer.getCustomerId()), 0.001);
+
+        Customer tied = new RegularCustomer("Tie Later", 33, "0550000005", "Wa");
+        accountManager.addAccount(new CheckingAccount(tied, 5400.0));
+        assertEquals(premiumCustomer, customerManager.getCustomerWithHighestBalance(), "Ties go to the earliest");
+        assertEquals(List.of(premiumCustomer, tied, regularCustomer), customerManager.getCustomersWithHighBalance(2500.0));
+        assertEquals(List.of(premiumCustomer, tied), customerManager.getCustomersWithHighBalance(2500.01));
+
+        johnAccounts.get(0).deposit(10_000.0);
+        assertEquals(regularCustomer, customerManager.getCustomerWithHighestBalance());
+        assertEquals(List.of(regularCustomer), customerManager.getCustomersWithHighBalance(6000.0));
+    }
+
+    @Test
+    @DisplayName("Customers are ranked by account count as accounts are added and moved")
+    void topCustomersByAccountCount() {
+        assertEquals(List.of(regularCustomer, premiumCustomer), customerManager.getTopCustomersByAccountCount(5));
+
+        for (int i = 0; i < 2; i++) {
+            accountManager.addAccount(new SavingsAccount(premiumCustomer, 20_000.0));
+        }
+        assertEquals(List.of(premiumCustomer, regularCustomer), customerManager.getTopCustomersByAccountCount(5));
+        assertEquals(List.of(premiumCustomer), customerManager.getTopCustomersByAccountCount(1));
+        assertEquals(premiumCustomer, customerManager.getCustomerWithMostAccounts());
+
+        Customer newcomer = new RegularCustomer("New Comer", 28, "0550000006", "Ho");
+        accountManager.addAccount(new CheckingAccount(newcomer, 100.0));
+        assertEquals(List.of(premiumCustomer, regularCustomer, newcomer), customerManager.getTopCustomersByAccountCount(5));
+    }
+
+    @Test
+    @DisplayName("A shared contact passes to the earliest customer still holding it")
+    void sharedContactPassesToTheEarliestHolder() {
+        Customer first = new RegularCustomer("Esi First", 40, "0240000001", "Tema");
+        Customer second = new RegularCustomer("Esi Second", 41, "024 000 0001", "Tema");
+        Customer third = new RegularCustomer("Esi Third", 42, "024-000-0001", "Tema");
+        accountManager.addAccount(new CheckingAccount(first, 100.0));
+        accountManager.addAccount(new CheckingAccount(third, 100.0));
+        accountManager.addAccount(new CheckingAccount(second, 100.0));
+        assertEquals(first, customerManager.getCustomerByContact("0240000001"));
+
+        Customer firstMoved = new RegularCustomer(first.getCustomerId(), "Esi First", 40, "0240000009", "Tema");
+        accountManager.replaceCustomers(Map.of(first.getCustomerId(), firstMoved));
+        assertEquals(third, customerManager.getCustomerByContact("0240000001"), "Third registered before second");
+
+        Customer thirdMoved = new RegularCustomer(third.getCustomerId(), "Esi Third", 42, "0240000008", "Tema");
+        accountManager.replaceCustomers(Map.of(third.getCustomerId(), thirdMoved));
+        assertEquals(second, customerManager.getCustomerByContact("0240000001"));
+
+        accountManager.replaceCustomers(Map.of(first.getCustomerId(), first));
+        assertEquals(first, customerManager.getCustomerByContact("0240000001"));
+        assertEquals(thirdMoved, customerManager.getCustomerByContact("0240000008"));
+
+        accountManager.replaceCustomers(Map.of(first.getCustomerId(), firstMoved,
+                third.getCustomerId(), third));
+        accountManager.replaceCustomers(Map.of(second.getCustomerId(),
+                new RegularCustomer(second.getCustomerId(), "Esi Second", 41, "0240000007", "Tema")));
+        assertEquals(third, customerManager.getCustomerByContact("0240000001"));
+    }
+
+    @Test
+    @DisplayName("Lazy statistics read the accounts in one pass")
+    void lazyStatisticsReadTheAccountsOnce() {
+        List<Customer> storedCustomers = List.of(regularCustomer, premiumCustomer);
+        List<Account> storedAccounts = accountManager.getAccounts();
+        int[] passes = new int[1];
+        AccountManager lazyAccounts = new AccountManager();
+        CustomerManager lazyCustomers = new CustomerManager(lazyAccounts);
+        lazyCustomers.enableLazyLoading(new CustomerStore() {
+            @Override
+            public Customer loadCustomer(String customerId) {
+                return storedCustomers.stream().filter(c -> c.getCustomerId().equals(customerId)).findFirst().orElse(null);
+            }
+
+            @Override
+            public void forEachCustomer(Consumer<Customer> action) {
+                storedCustomers.forEach(action);
+            }
+        }, 10);
+        lazyAccounts.enableLazyLoading(new AccountStore() {
+            @Override
+            public Account loadAccount(String accountNumber) {
+                return null;
+            }
+
+            @Override
+            public long accountCount() {
+                return storedAccounts.size();
+            }
+
+            @Override
+            public void forEachAccount(Consumer<Account> action) {
+                passes[0]++;
+                storedAccounts.forEach(action);
+            }
+        }, 10);
+
+        CustomerManager.CustomerStatistics stats = lazyCustomers.getCustomerStatistics();
+        assertEquals(2, stats.getTotalCustomers());
+        assertEquals(3, stats.getTotalAccounts());
+        assertEquals(1, passes[0]);
+
+        assertEquals(regularCustomer, lazyCustomers.getCustomerWithMostAccounts());
+        assertEquals(premiumCustomer, lazyCustomers.getCustomerWithHighestBalance());
+        assertEquals(List.of(regularCustomer), lazyCustomers.getCustomersWithMultipleAccounts(2));
+        assertEquals(List.of(premiumCustomer), lazyCustomers.getCustomersWithHighBalance(4000.0));
+        assertEquals(Map.of(regularCustomer.getCustomerId(), 2, premiumCustomer.getCustomerId(), 1),
+                lazyCustomers.getAccountCountsByCustomer());
+        assertEquals(6, passes[0]);
+    }
+}
@@ -1,17 +1,35 @@
+import account.Account;
 import account.AccountManager;
 import account.SavingsAccount;
 import account.CheckingAccount;
 import customer.CustomerManager;
 import customer.RegularCustomer;
 import customer.PremiumCustomer;
+import services.BackgroundFlusher;
+import services.BinaryDatasetCodec;
+import services.DatasetBackup;
+import services.DatasetKeys;
+import services.DatasetReloader;
+import services.DatasetVerifier;
 import services.FilePersistenceService;
+import services.ParallelDatasetLoader;
+import services.SnapshotWriter;
+import services.TransactionLog;
 import transaction.Transaction;
 import transaction.TransactionManager;
 
 import org.junit.jupiter.api.*;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -105,4 +123,853 @@ public class FilePersistenceServiceTest {
 
         // You can add more specific exception tests if needed
     }
+
+    @Test
+    @Order(4)
+    public void testBinaryRoundTripKeepsIdentifiers() throws Exception {
+        FilePersistenceService binaryService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.BINARY);
+
+        RegularCustomer regular = new RegularCustomer("Binary User", 28, "0551112222", "Binary Street");
+        PremiumCustomer premium = new PremiumCustomer("Binary Premium", 45, "0553334444", "Premium Road");
+        SavingsAccount savings = new SavingsAccount(regular, 1234.56);
+        CheckingAccount checking = new CheckingAccount(premium, 15000.00);
+        checking.setStatus("Inactive");
+        accountManager.addAccount(savings);
+        accountManager.addAccount(checking);
+
+        Transaction deposit = new Transaction(savings.getAccountNumber(), "DEPOSIT", 234.56, 1234.56);
+        Transaction withdrawal = new Transaction(checking.getAccountNumber(), "WITHDRAWAL", 100.00, 14900.00);
+        transactionManager.addTransaction(deposit);
+        transactionManager.addTransaction(withdrawal);
+
+        binaryService.saveAllData();
+        assertTrue(Files.exists(testDir.resolve("accounts.tbl")), "Account table not created");
+        assertFalse(Files.exists(testDir.resolve("accounts.txt")), "Text file should only be written on export");
+
+        AccountManager loadedAccounts = new AccountManager();
+        CustomerManager loadedCustomers = new CustomerManager(loadedAccounts);
+        TransactionManager loadedTransactions = new TransactionManager();
+        new FilePersistenceService(loadedAccounts, loadedCustomers, loadedTransactions,
+                testDir, FilePersistenceService.DataFormat.BINARY).loadAllData();
+
+        assertEquals(2, loadedAccounts.getActualAccountCount());
+        assertEquals(2, loadedCustomers.getAllCustomers().size());
+        assertEquals(2, loadedTransactions.getAllTransactions().size());
+
+        Account restoredChecking = loadedAccounts.findAccount(checking.getAccountNumber());
+        assertNotNull(restoredChecking, "Account number should be preserved");
+        assertEquals(15000.00, restoredChecking.getBalance(), 0.001);
+        assertEquals("Inactive", restoredChecking.getStatus());
+        assertEquals(premium.getCustomerId(), restoredChecking.getCustomer().getCustomerId());
+        assertEquals("Premium", restoredChecking.getCustomer().getCustomerType());
+
+        Transaction restoredDeposit = loadedTransactions.getAllTransactions().get(0);
+        assertEquals(deposit.getTransactionId(), restoredDeposit.getTransactionId());
+        assertEquals(deposit.getTimestamp(), restoredDeposit.getTimestamp());
+        assertEquals(234.56, restoredDeposit.getAmount(), 0.001);
+    }
+
+    @Test
+    @Order(5)
+    public void testExportAsTextAlongsideBinary() throws Exception {
+        FilePersistenceService binaryService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.BINARY);
+
+        RegularCustomer customer = new RegularCustomer("Export User", 33, "0559990000", "Export Lane");
+        accountManager.addAccount(new CheckingAccount(customer, 250.00));
+
+        binaryService.exportAsText();
+
+        assertTrue(Files.exists(testDir.resolve("accounts.txt")), "Text export should write accounts.txt");
+        assertTrue(Files.exists(testDir.resolve("customers.txt")), "Text export should write customers.txt");
+        assertTrue(Files.readString(testDir.resolve("accounts.txt")).startsWith("ACCOUNT|"));
+    }
+
+    @Test
+    @Order(6)
+    public void testRejectsFileWithBadHeader() throws Exception {
+        Path bogus = testDir.resolve("customers.dat");
+        Files.writeString(bogus, "not a binary dataset");
+
+        assertThrows(IOException.class, () -> BinaryDatasetCodec.readCustomers(bogus));
+    }
+
+    @Test
+    @Order(7)
+    public void testTextTransactionsRestoredVerbatim() throws Exception {
+        Files.writeString(testDir.resolve("transactions.txt"),
+                "TRANSACTION|TXN901|ACC901|DEPOSIT|2000.00|2000.00|12-12-2025 04:15 PM\n" +
+                "TRANSACTION|TXN902|ACC901|WITHDRAWAL|0.10|1999.90|13-12-2025 09:05 AM\r\n" +
+                "garbage line\n" +
+                "\n" +
+                "TRANSACTION|TXN903|ACC902|TRANSFER_IN|1234567.89|1234567.89|13-12-2025 09:05 AM|ACC901");
+
+        FilePersistenceService textService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.TEXT);
+
+        assertEquals(3, textService.loadTransactions());
+
+        List<Transaction> loaded = transactionManager.getAllTransactions();
+        assertEquals("TXN901", loaded.get(0).getTransactionId());
+        assertEquals("12-12-2025 04:15 PM", loaded.get(0).getTimestamp());
+        assertEquals(0.10, loaded.get(1).getAmount(), 0.0);
+        assertEquals(1999.90, loaded.get(1).getBalanceAfter(), 0.0);
+        assertEquals("13-12-2025 09:05 AM", loaded.get(1).getTimestamp());
+        assertEquals(1234567.89, loaded.get(2).getAmount(), 0.0);
+        assertSame(loaded.get(1).getTimestamp(), loaded.get(2).getTimestamp(),
+                "Repeated timestamps should share one String");
+    }
+
+    @Test
+    @Order(8)
+    public void testParallelChunksKeepFileOrder() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 1; i <= 500; i++) {
+            lines.append("TRANSACTION|TXN").append(5000 + i).append("|ACC").append(i % 7)
+                    .append("|DEPOSIT|").append(i).append(".25|").append(i * 2).append(".50|12-12-2025 04:15 PM\n");
+        }
+        Path file = testDir.resolve("transactions.txt");
+        Files.writeString(file, lines);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelDatasetLoader loader = new ParallelDatasetLoader(pool, 97);
+            List<Transaction> loaded = new ArrayList<>();
+
+            assertEquals(500, loader.loadTransactions(file, loaded::add));
+            for (int i = 0; i < 500; i++) {
+                assertEquals("TXN" + (5001 + i), loaded.get(i).getTransactionId());
+            }
+
+            List<String> ids = loader.loadLines(file, line -> line.split("\\|")[1]);
+            assertEquals(500, ids.size());
+            assertEquals("TXN5001", ids.get(0));
+            assertEquals("TXN5500", ids.get(499));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @Order(9)
+    public void testTextLoadJoinsAccountsToStoredCustomerIds() throws Exception {
+        Files.writeString(testDir.resolve("customers.txt"),
+                "CUSTOMER|CUS801|Ama Mensah|30|0551234567|Accra|Premium\n" +
+                "CUSTOMER|CUS802|Kofi Boateng|41|0557654321|Kumasi|Regular\n");
+        Files.writeString(testDir.resolve("accounts.txt"),
+                "ACCOUNT|ACC801|Checking|CUS802|250.00|Active|1000.00|10.00\n" +
+                "ACCOUNT|ACC802|Savings|CUS801|900.00|Inactive|3.5|500.00\n");
+
+        FilePersistenceService textService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.TEXT);
+
+        assertEquals(2, textService.loadCustomers());
+        assertEquals(2, textService.loadAccounts());
+
+        Account checking = accountManager.findAccount("ACC801");
+        assertNotNull(checking);
+        assertEquals("CUS802", checking.getCustomer().getCustomerId());
+        assertEquals("Kofi Boateng", checking.getCustomer().getName());
+        assertEquals("Inactive", accountManager.findAccount("ACC802").getStatus());
+    }
+
+    @Test
+    @Order(10)
+    public void testAccountTableWritesOnlyChangedRecords() throws Exception {
+        FilePersistenceService binaryService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.BINARY);
+
+        RegularCustomer owner = new RegularCustomer("Table User", 33, "0550001111", "Table Street");
+        for (int i = 0; i < 50; i++) {
+            accountManager.addAccount(new CheckingAccount(owner, 100.0 + i));
+        }
+        Account from = accountManager.getAccounts().get(10);
+        Account to = accountManager.getAccounts().get(40);
+
+        assertEquals(50, binaryService.saveAccounts(), "First save writes every record");
+        assertEquals(0, binaryService.saveAccounts(), "Nothing changed, nothing written");
+
+        from.withdraw(25.0);
+        to.deposit(25.0);
+        assertEquals(2, binaryService.saveAccounts(), "A transfer should touch two records");
+
+        SavingsAccount added = new SavingsAccount(owner, 700.0);
+        accountManager.addAccount(added);
+        to.setStatus("Inactive");
+        assertEquals(2, binaryService.saveAccounts(), "One append plus one in-place update");
+        binaryService.saveCustomers();
+        binaryService.close();
+
+        AccountManager loadedAccounts = new AccountManager();
+        FilePersistenceService reloaded = new FilePersistenceService(loadedAccounts,
+                new CustomerManager(loadedAccounts), new TransactionManager(),
+                testDir, FilePersistenceService.DataFormat.BINARY);
+        reloaded.loadCustomers();
+        assertEquals(51, reloaded.loadAccounts());
+
+        assertEquals(from.getBalance(), loadedAccounts.findAccount(from.getAccountNumber()).getBalance(), 0.001);
+        assertEquals(165.0, loadedAccounts.findAccount(to.getAccountNumber()).getBalance(), 0.001);
+        assertEquals("Inactive", loadedAccounts.findAccount(to.getAccountNumber()).getStatus());
+        assertEquals(added.getAccountNumber(), loadedAccounts.getAccounts().get(50).getAccountNumber());
+
+        // Loaded accounts start in sync with the table, so the next save is incremental again
+        loadedAccounts.getAccounts().get(0).deposit(1.0);
+        assertEquals(1, reloaded.saveAccounts());
+        reloaded.close();
+    }
+
+    @Test
+    @Order(11)
+    public void testTransactionLogReadsOnlySegmentsHoldingTheAccount() throws Exception {
+        Path logDir = testDir.resolve("txlog");
+        try (TransactionLog log = TransactionLog.open(logDir, 2048)) {
+            for (int i = 0; i < 400; i++) {
+                log.append(new Transaction("TXN9" + i, "ACC9" + (i % 20), "DEPOSIT", i, 1000 + i,
+                        "01-01-2025 10:00 AM"));
+            }
+            // One rare account written only at the very end
+            log.append(new Transaction("TXN9999", "ACC999", "WITHDRAWAL", 5, 995, "02-01-2025 11:00 AM"));
+            log.flush();
+
+            assertTrue(log.getSegmentCount() > 10, "Small segments should roll over");
+            assertEquals(401, log.size());
+
+            List<Transaction> history = log.readAccount("ACC93");
+            assertEquals(20, history.size());
+            assertEquals("TXN93", history.get(0).getTransactionId());
+            assertEquals("TXN9383", history.get(19).getTransactionId());
+
+            assertEquals(1, log.readAccount("ACC999").size());
+            assertEquals(1, log.getLastSegmentsRead(), "Only the segment holding the account is read");
+            assertTrue(log.readAccount("ACC_MISSING").isEmpty());
+        }
+
+        // Simulate a crash mid-append: a torn record at the tail of the last segment
+        Path last;
+        try (var files = Files.list(logDir)) {
+            last = files.filter(p -> p.toString().endsWith(".log")).sorted().reduce((a, b) -> b).orElseThrow();
+        }
+        Files.write(last, new byte[]{0, 0, 0, 90, 0, 6}, StandardOpenOption.APPEND);
+
+        try (TransactionLog reopened = TransactionLog.open(logDir, 2048)) {
+            assertEquals(401, reopened.size(), "Index should be rebuilt and the torn record dropped");
+            assertEquals(20, reopened.readAccount("ACC917").size());
+            assertEquals(995, reopened.readAccount("ACC999").get(0).getBalanceAfter(), 0.001);
+
+            int[] replayed = {0};
+            reopened.forEach(t -> replayed[0]++);
+            assertEquals(401, replayed[0]);
+        }
+    }
+
+    @Test
+    @Order(12)
+    public void testBinaryLoadKeepsTransactionHistoryOnDisk() throws Exception {
+        FilePersistenceService binaryService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.BINARY);
+        transactionManager.addTransaction(new Transaction("ACC701", "DEPOSIT", 100, 100));
+        transactionManager.addTransaction(new Transaction("ACC702", "DEPOSIT", 50, 50));
+        assertEquals(2, binaryService.saveTransactions());
+        assertTrue(transactionManager.getPendingTransactions().isEmpty(), "Saved transactions leave the heap");
+
+        transactionManager.addTransaction(new Transaction("ACC701", "WITHDRAWAL", 30, 70));
+        assertEquals(1, binaryService.saveTransactions(), "Only new transactions are appended");
+        binaryService.close();
+
+        TransactionManager loaded = new TransactionManager();
+        FilePersistenceService reloaded = new FilePersistenceService(new AccountManager(), customerManager,
+                loaded, testDir, FilePersistenceService.DataFormat.BINARY);
+        assertEquals(3, reloaded.loadTransactions());
+        assertTrue(loaded.getPendingTransactions().isEmpty());
+
+        loaded.addTransaction(new Transaction("ACC701", "DEPOSIT", 5, 75));
+        List<Transaction> history = loaded.getTransactionsForAccount("ACC701");
+        assertEquals(3, history.size(), "Archived and pending history are combined");
+        assertEquals(105, loaded.calculateTotalDeposits("ACC701"), 0.001);
+        assertEquals(30, loaded.calculateTotalWithdrawals("ACC701"), 0.001);
+        assertEquals(4, loaded.getAllTransactions().size());
+        reloaded.close();
+    }
+
+    @Test
+    @Order(13)
+    public void testLazyLoadFaultsInAccountsAndCustomers() throws Exception {
+        FilePersistenceService binaryService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.BINARY);
+        for (int i = 0; i < 200; i++) {
+            RegularCustomer owner = new RegularCustomer("Lazy User " + i, 30, "055" + (3000000 + i), "Lazy Lane");
+            accountManager.addAccount(new SavingsAccount(owner, 1000.0 + i));
+        }
+        binaryService.saveAllData();
+        binaryService.close();
+        String firstNumber = accountManager.getAccounts().get(0).getAccountNumber();
+
+        AccountManager lazyAccounts = new AccountManager();
+        CustomerManager lazyCustomers = new CustomerManager(lazyAccounts);
+        FilePersistenceService lazyService = new FilePersistenceService(lazyAccounts, lazyCustomers,
+                new TransactionManager(), testDir, FilePersistenceService.DataFormat.BINARY);
+        assertTrue(lazyService.loadLazily(20, 20));
+        assertEquals(200, lazyAccounts.getActualAccountCount());
+
+        Account first = lazyAccounts.findAccount(firstNumber);
+        assertNotNull(first);
+        assertEquals(1000.0, first.getBalance(), 0.001);
+        assertEquals("Lazy User 0", first.getCustomer().getName());
+        assertSame(first, lazyAccounts.findAccount(firstNumber), "Second lookup should hit the cache");
+        assertTrue(lazyAccounts.getCache().getHitCount() >= 1);
+        assertNull(lazyAccounts.findAccount("ACC_NOPE"));
+
+        // Change the account, then push it out of the cache with other lookups
+        first.deposit(50.0);
+        for (Account account : accountManager.getAccounts()) {
+            lazyAccounts.findAccount(account.getAccountNumber());
+        }
+        assertTrue(lazyAccounts.getCache().size() <= 20);
+        assertEquals(1050.0, lazyAccounts.findAccount(firstNumber).getBalance(), 0.001,
+                "Unsaved changes must survive eviction");
+
+        // New account with a new customer while lazy
+        PremiumCustomer newcomer = new PremiumCustomer("Lazy Newcomer", 50, "0559998888", "New Road");
+        CheckingAccount opened = new CheckingAccount(newcomer, 20000.0);
+        assertTrue(lazyAccounts.addAccount(opened));
+        assertFalse(lazyAccounts.addAccount(opened), "Duplicate numbers are still rejected");
+        assertSame(newcomer, lazyCustomers.getCustomerById(newcomer.getCustomerId()));
+        assertEquals(201, lazyAccounts.getActualAccountCount());
+
+        assertEquals(2, lazyService.saveAccounts(), "Only the changed and the new account are written");
+        assertEquals(201, lazyService.saveCustomers());
+        lazyService.close();
+
+        AccountManager reopenedAccounts = new AccountManager();
+        CustomerManager reopenedCustomers = new CustomerManager(reopenedAccounts);
+        FilePersistenceService reopened = new FilePersistenceService(reopenedAccounts, reopenedCustomers,
+                new TransactionManager(), testDir, FilePersistenceService.DataFormat.BINARY);
+        assertTrue(reopened.loadLazily(20, 20));
+        assertEquals(1050.0, reopenedAccounts.findAccount(firstNumber).getBalance(), 0.001);
+        assertEquals("Lazy Newcomer",
+                reopenedAccounts.findAccount(opened.getAccountNumber()).getCustomer().getName());
+        assertEquals(201, reopenedCustomers.getAllCustomers().size());
+        assertEquals(201, reopenedAccounts.getAccounts().size());
+        reopened.close();
+    }
+
+    @Test
+    @Order(14)
+    public void testBackgroundSaveWritesSnapshotAndSkipsUnchangedFiles() throws Exception {
+        FilePersistenceService textService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.TEXT);
+        RegularCustomer owner = new RegularCustomer("Snapshot User", 33, "0551112222", "Snapshot Street");
+        SavingsAccount account = new SavingsAccount(owner, 4000.00);
+        accountManager.addAccount(account);
+        transactionManager.addTransaction(new Transaction(account.getAccountNumber(), "Deposit", 4000.00, 4000.00));
+
+        CompletableFuture<SnapshotWriter.Result> saving = textService.saveAllDataInBackground();
+        account.deposit(250.00); // After the snapshot was taken
+        SnapshotWriter.Result first = saving.join();
+
+        assertEquals(1, first.records("accounts"));
+        assertFalse(first.wasSkipped("accounts"));
+        String accountsText = Files.readString(testDir.resolve("accounts.txt"));
+        assertTrue(accountsText.contains("|4000.00|"), "The file should hold the balance at snapshot time");
+        try (var files = Files.list(testDir)) {
+            assertTrue(files.noneMatch(path -> path.toString().endsWith(".tmp")), "Temp files should be renamed away");
+        }
+
+        // Only the account changed since, so customers and transactions are left alone
+        textService.saveAllData();
+        SnapshotWriter.Result second = textService.getSnapshotWriter().getLastResult();
+        assertFalse(second.wasSkipped("accounts"));
+        assertTrue(second.wasSkipped("customers"));
+        assertTrue(second.wasSkipped("transactions"));
+        assertEquals(1, second.records("customers"));
+        assertTrue(Files.readString(testDir.resolve("accounts.txt")).contains("|4250.00|"));
+
+        // Freshly loaded files are already current
+        AccountManager reloadedAccounts = new AccountManager();
+        FilePersistenceService reloaded = new FilePersistenceService(reloadedAccounts,
+                new CustomerManager(reloadedAccounts), new TransactionManager(), testDir,
+                FilePersistenceService.DataFormat.TEXT);
+        reloaded.loadAllData();
+        reloaded.saveAllData();
+        SnapshotWriter.Result afterLoad = reloaded.getSnapshotWriter().getLastResult();
+        assertTrue(afterLoad.wasSkipped("accounts") && afterLoad.wasSkipped("customers")
+                && afterLoad.wasSkipped("transactions"));
+        assertEquals(3, reloaded.getSnapshotWriter().getEntriesSkipped());
+    }
+
+    @Test
+    @Order(15)
+    public void testCompressedSegmentsReadOnlyTheBlocksInRange() throws Exception {
+        Path logDir = testDir.resolve("txlog");
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("dd-MM-yyyy hh:mm a");
+        LocalDateTime start = LocalDateTime.of(2023, 1, 1, 9, 0);
+        int total = 60_000;
+        try (TransactionLog log = TransactionLog.open(logDir, 1 << 20)) {
+            for (int i = 0; i < total; i++) {
+                log.append(new Transaction("TXN7" + i, "ACC7" + (i % 50), i % 3 == 0 ? "WITHDRAWAL" : "DEPOSIT",
+                        10 + i % 500, 5000 + i, start.plusMinutes(i).format(format)));
+            }
+            log.flush();
+
+            try (var files = Files.list(logDir)) {
+                assertTrue(files.filter(p -> p.toString().endsWith(".blk")).count() >= 2,
+                        "Sealed segments should be compressed");
+            }
+            assertTrue(log.getDiskBytes() * 2 < log.getRawBytes(), "Repetitive history should compress well");
+
+            List<Transaction> bySequence = new ArrayList<>();
+            log.forEachInRange(100, 110, bySequence::add);
+            assertEquals(10, bySequence.size());
+            assertEquals("TXN7100", bySequence.get(0).getTransactionId());
+            assertEquals(1, log.getLastBlocksRead(), "A short range should inflate a single block");
+
+            List<Transaction> byTime = new ArrayList<>();
+            log.forEachBetween(start.plusMinutes(20_000), start.plusMinutes(20_005), byTime::add);
+            assertEquals(5, byTime.size());
+            assertEquals("TXN720000", byTime.get(0).getTransactionId());
+            assertTrue(log.getLastBlocksRead() <= 2);
+
+            // Account reads go through the same offsets into the compressed blocks
+            List<Transaction> history = log.readAccount("ACC77");
+            assertEquals(total / 50, history.size());
+            assertEquals("TXN77", history.get(0).getTransactionId());
+        }
+
+        try (TransactionLog reopened = TransactionLog.open(logDir, 1 << 20)) {
+            assertEquals(total, reopened.size());
+            List<Transaction> tail = new ArrayList<>();
+            reopened.forEachInRange(total - 3, total + 10, tail::add);
+            assertEquals(3, tail.size());
+            assertEquals("TXN7" + (total - 1), tail.get(2).getTransactionId());
+            assertEquals(total / 50, reopened.readAccount("ACC749").size());
+        }
+    }
+
+    @Test
+    @Order(16)
+    public void testChecksumsCatchCorruptRecords() throws Exception {
+        RegularCustomer owner = new RegularCustomer("Checked User", 40, "0551112222", "Checksum Road");
+        CheckingAccount first = new CheckingAccount(owner, 250.00);
+        CheckingAccount second = new CheckingAccount(owner, 375.00);
+        accountManager.addAccount(first);
+        accountManager.addAccount(second);
+        transactionManager.addTransaction(new Transaction(first.getAccountNumber(), "Deposit", 50.00, 300.00));
+
+        // Text: a changed digit drops that record loudly instead of loading a wrong balance
+        FilePersistenceService textService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.TEXT);
+        textService.saveAllData();
+        Path accountsText = testDir.resolve("accounts.txt");
+        assertTrue(Files.readString(accountsText).contains("|#"), "Text records should carry a checksum");
+        assertTrue(textService.verifyDataset().isClean());
+
+        Files.writeString(accountsText, Files.readString(accountsText).replace("375.00", "975.00"));
+        DatasetVerifier.Report report = textService.verifyDataset();
+        assertFalse(report.isClean());
+        assertEquals(1, report.corrupt());
+
+        AccountManager textAccounts = new AccountManager();
+        FilePersistenceService textReload = new FilePersistenceService(textAccounts,
+                new CustomerManager(textAccounts), new TransactionManager(), testDir,
+                FilePersistenceService.DataFormat.TEXT);
+        textReload.loadCustomers();
+        assertEquals(1, textReload.loadAccounts());
+        assertNull(textAccounts.findAccount(second.getAccountNumber()));
+
+        // Binary: a flipped bit in the account table or the transaction log is found by the verifier
+        Path binaryDir = testDir.resolve("binary");
+        FilePersistenceService binaryService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, binaryDir, FilePersistenceService.DataFormat.BINARY);
+        binaryService.saveAllData();
+        binaryService.close();
+        assertTrue(binaryService.verifyDataset().isClean());
+
+        flipByte(binaryDir.resolve("accounts.tbl"), 32 + 64 + 53);
+        try (var segments = Files.list(binaryDir.resolve("txlog"))) {
+            flipByte(segments.filter(p -> p.toString().endsWith(".log")).findFirst().orElseThrow(), 10);
+        }
+        report = binaryService.verifyDataset();
+        assertEquals(2, report.corrupt());
+        for (DatasetVerifier.FileReport file : report.files()) {
+            assertEquals(file.file().equals("accounts.tbl") || file.file().endsWith(".log"), !file.isClean(),
+                    file.file());
+        }
+
+        AccountManager binaryAccounts = new AccountManager();
+        TransactionManager binaryTransactions = new TransactionManager();
+        FilePersistenceService binaryReload = new FilePersistenceService(binaryAccounts,
+                new CustomerManager(binaryAccounts), binaryTransactions, binaryDir,
+                FilePersistenceService.DataFormat.BINARY);
+        binaryReload.loadCustomers();
+        assertEquals(1, binaryReload.loadAccounts(), "The corrupt record should be left out");
+        assertEquals(first.getBalance(), binaryAccounts.findAccount(first.getAccountNumber()).getBalance());
+
+        // Reading history skips and counts the corrupt transaction instead of failing the read
+        binaryReload.loadTransactions();
+        long skippedBefore = binaryTransactions.getCorruptRecordsSkipped();
+        assertTrue(binaryTransactions.getAllTransactions().isEmpty());
+        assertEquals(1, binaryTransactions.getArchive().getLastCorruptRecords());
+        assertEquals(skippedBefore + 1, binaryTransactions.getCorruptRecordsSkipped());
+        String statement = binaryAccounts.generateAccountStatement(first.getAccountNumber(), binaryTransactions);
+        assertTrue(statement.contains("No transactions found."));
+        binaryReload.close();
+    }
+
+    @Test
+    @Order(17)
+    public void testShardedSaveAndLoadKeepsOrder() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            RegularCustomer owner = new RegularCustomer("Shard User " + i, 30 + i % 20, "055" + i, "Shard Street");
+            SavingsAccount account = new SavingsAccount(owner, 1000.00 + i);
+            accountManager.addAccount(account);
+            transactionManager.addTransaction(new Transaction(account.getAccountNumber(), "Deposit", 10.00 + i,
+                    1010.00 + 2 * i));
+        }
+
+        FilePersistenceService sharded = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.TEXT, 4);
+        sharded.saveAllData();
+        Path shardDir = testDir.resolve("shards");
+        assertTrue(Files.exists(shardDir.resolve("accounts.manifest")));
+        try (var files = Files.list(shardDir)) {
+            assertEquals(4, files.filter(p -> p.getFileName().toString().startsWith("accounts-")
+                    && p.toString().endsWith(".txt")).count());
+        }
+        assertFalse(Files.exists(testDir.resolve("accounts.txt")), "Sharded saves replace the single files");
+        assertTrue(sharded.dataFilesExist());
+        assertTrue(sharded.verifyDataset().isClean());
+
+        // A second generation replaces the first once its manifest is in place
+        accountManager.getAccounts().get(0).deposit(5.00);
+        sharded.saveAllData();
+        try (var files = Files.list(shardDir)) {
+            assertEquals(4 + 1 + 1, files.filter(p -> p.getFileName().toString().startsWith("accounts")).count());
+        }
+
+        AccountManager reloadedAccounts = new AccountManager();
+        TransactionManager reloadedTransactions = new TransactionManager();
+        FilePersistenceService reloaded = new FilePersistenceService(reloadedAccounts,
+                new CustomerManager(reloadedAccounts), reloadedTransactions, testDir,
+                FilePersistenceService.DataFormat.TEXT, 4);
+        reloaded.loadAllData();
+
+        List<Account> expected = accountManager.getAccounts();
+        List<Account> actual = reloadedAccounts.getAccounts();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getAccountNumber(), actual.get(i).getAccountNumber(),
+                    "Records should come back in their saved order");
+            assertEquals(expected.get(i).getBalance(), actual.get(i).getBalance());
+        }
+        List<Transaction> transactions = reloadedTransactions.getAllTransactions();
+        assertEquals(40, transactions.size());
+        assertEquals(transactionManager.getAllTransactions().get(7).getTransactionId(),
+                transactions.get(7).getTransactionId());
+
+        // Freshly loaded shards are current, so nothing is rewritten
+        reloaded.saveAllData();
+        SnapshotWriter.Result afterLoad = reloaded.getSnapshotWriter().getLastResult();
+        assertTrue(afterLoad.wasSkipped("accounts") && afterLoad.wasSkipped("customers")
+                && afterLoad.wasSkipped("transactions"));
+
+        assertThrows(IllegalArgumentException.class, () -> new FilePersistenceService(accountManager,
+                customerManager, transactionManager, testDir, FilePersistenceService.DataFormat.BINARY, 4));
+    }
+
+    @Test
+    @Order(18)
+    public void testBackgroundFlushWritesOnlyChangedAccounts() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            accountManager.addAccount(new SavingsAccount(
+                    new RegularCustomer("Flush User " + i, 25, "055" + i, "Flush Lane"), 2000.00));
+        }
+        FilePersistenceService binaryService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir, FilePersistenceService.DataFormat.BINARY);
+        binaryService.saveAllData();
+
+        // A long interval, so only the threshold can trigger the first flush
+        binaryService.startBackgroundFlush(Duration.ofHours(1), 3);
+        Account first = accountManager.getAccounts().get(0);
+        Account second = accountManager.getAccounts().get(1);
+        first.deposit(100.00);
+        second.deposit(200.00);
+        transactionManager.addTransaction(new Transaction(first.getAccountNumber(), "Deposit", 100.00, 2100.00));
+        first.deposit(50.00);
+
+        BackgroundFlusher flusher = binaryService.getBackgroundFlusher();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (flusher.getStats().flushes() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        BackgroundFlusher.Stats stats = flusher.getStats();
+        assertEquals(1, stats.flushes());
+        assertEquals(3, stats.recordsFlushed(), "Two changed accounts and one new transaction");
+
+        // Stopping flushes what is still pending
+        second.deposit(25.00);
+        binaryService.stopBackgroundFlush();
+        assertNull(binaryService.getBackgroundFlusher());
+        assertEquals(2, flusher.getStats().flushes());
+        binaryService.close();
+
+        AccountManager reloadedAccounts = new AccountManager();
+        FilePersistenceService reloaded = new FilePersistenceService(reloadedAccounts,
+                new CustomerManager(reloadedAccounts), new TransactionManager(), testDir,
+                FilePersistenceService.DataFormat.BINARY);
+        reloaded.loadCustomers();
+        reloaded.loadAccounts();
+        assertEquals(2150.00, reloadedAccounts.findAccount(first.getAccountNumber()).getBalance(), 0.001);
+        assertEquals(2225.00, reloadedAccounts.findAccount(second.getAccountNumber()).getBalance(), 0.001);
+        assertEquals(1, reloaded.loadTransactions());
+        reloaded.close();
+    }
+
+    @Test
+    @Order(19)
+    public void testOnlineBackupIsPointInTimeAndVerifiable() throws Exception {
+        RegularCustomer owner = new RegularCustomer("Backup User", 38, "0557778888", "Backup Avenue");
+        SavingsAccount account = new SavingsAccount(owner, 3000.00);
+        accountManager.addAccount(account);
+        transactionManager.addTransaction(new Transaction(account.getAccountNumber(), "Deposit", 3000.00, 3000.00));
+
+        Path dataDir = testDir.resolve("data");
+        Path backupRoot = testDir.resolve("backups");
+        FilePersistenceService binaryService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, dataDir, FilePersistenceService.DataFormat.BINARY);
+        binaryService.saveAllData();
+        transactionManager.addTransaction(new Transaction(account.getAccountNumber(), "Deposit", 500.00, 3500.00));
+        account.deposit(500.00);
+
+        // Changes made after the call are not part of the backup
+        CompletableFuture<DatasetBackup.Manifest> backingUp = binaryService.backupInBackground(backupRoot);
+        account.deposit(1000.00);
+        transactionManager.addTransaction(new Transaction(account.getAccountNumber(), "Deposit", 1000.00, 4500.00));
+        DatasetBackup.Manifest manifest = backingUp.join();
+        assertEquals(1, manifest.accounts());
+        assertEquals(2, manifest.transactions());
+
+        Path backupDir = DatasetBackup.latest(backupRoot);
+        assertNotNull(backupDir);
+        assertTrue(DatasetBackup.verify(backupDir).isClean());
+
+        Path restoredDir = testDir.resolve("restored");
+        DatasetBackup.Verification restored = binaryService.restoreBackup(backupDir, restoredDir);
+        assertNotNull(restored);
+        assertTrue(restored.isClean());
+        binaryService.close();
+
+        AccountManager restoredAccounts = new AccountManager();
+        TransactionManager restoredTransactions = new TransactionManager();
+        new FilePersistenceService(restoredAccounts, new CustomerManager(restoredAccounts), restoredTransactions,
+                restoredDir, FilePersistenceService.DataFormat.BINARY).loadAllData();
+        assertEquals(3500.00, restoredAccounts.findAccount(account.getAccountNumber()).getBalance(), 0.001);
+        assertEquals(2, restoredTransactions.getAllTransactions().size());
+
+        // A damaged backup is reported and refused
+        flipByte(backupDir.resolve("accounts.txt"), 12);
+        DatasetBackup.Verification damaged = DatasetBackup.verify(backupDir);
+        assertFalse(damaged.isClean());
+        assertTrue(damaged.problems().get(0).startsWith("accounts.txt"));
+        assertNull(binaryService.restoreBackup(backupDir, testDir.resolve("refused")));
+        assertFalse(Files.exists(testDir.resolve("refused")));
+    }
+
+    @Test
+    @Order(20)
+    public void testHotReloadAppliesOnlyChangedLines() throws Exception {
+        RegularCustomer first = new RegularCustomer("Reload First", 30, "0551112222", "First Street");
+        RegularCustomer second = new RegularCustomer("Reload Second", 40, "0553334444", "Second Street");
+        SavingsAccount changing = new SavingsAccount(first, 1000.00);
+        CheckingAccount untouched = new CheckingAccount(second, 2000.00);
+        accountManager.addAccount(changing);
+        accountManager.addAccount(untouched);
+
+        Path dataDir = testDir.resolve("data");
+        FilePersistenceService textService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, dataDir, FilePersistenceService.DataFormat.TEXT);
+        textService.saveAllData();
+        assertTrue(textService.startReloading());
+        DatasetReloader reloader = textService.getReloader();
+
+        // Hand edits: one corrected balance and status, one corrected customer name
+        Path accountsFile = dataDir.resolve("accounts.txt");
+        List<String> accountLines = new ArrayList<>();
+        for (String line : Files.readAllLines(accountsFile)) {
+            accountLines.add(line.startsWith("ACCOUNT|" + changing.getAccountNumber() + "|")
+                    ? "ACCOUNT|" + changing.getAccountNumber() + "|Savings|" + first.getCustomerId()
+                            + "|1250.00|Inactive|0.035|500.00"
+                    : line);
+        }
+        Path customersFile = dataDir.resolve("customers.txt");
+        List<String> customerLines = new ArrayList<>();
+        for (String line : Files.readAllLines(customersFile)) {
+            customerLines.add(line.startsWith("CUSTOMER|" + second.getCustomerId() + "|")
+                    ? "CUSTOMER|" + second.getCustomerId() + "|Reload Renamed|40|0553334444|Second Street|Regular"
+                    : line);
+        }
+        Files.write(customersFile, customerLines);
+        Files.write(accountsFile, accountLines);
+
+        // The watcher normally gets there first; checkNow covers file systems that report late
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (reloader.getReloadCount() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        reloader.checkNow();
+
+        // Updated in place, so references held elsewhere see the correction
+        assertSame(changing, accountManager.findAccount(changing.getAccountNumber()));
+        assertEquals(1250.00, changing.getBalance(), 0.001);
+        assertEquals("Inactive", changing.getStatus());
+        assertEquals(2000.00, untouched.getBalance(), 0.001);
+        assertEquals("Reload Renamed", untouched.getCustomer().getName());
+        assertEquals("Reload Renamed", customerManager.getCustomerById(second.getCustomerId()).getName());
+
+        // The application's own saves are not applied back over newer changes
+        changing.deposit(100.00);
+        textService.saveAccounts();
+        changing.deposit(50.00);
+        assertTrue(reloader.checkNow().isEmpty());
+        assertEquals(1400.00, changing.getBalance(), 0.001);
+
+        textService.stopReloading();
+        assertNull(textService.getReloader());
+        textService.close();
+    }
+
+    @Test
+    @Order(21)
+    public void testEncryptedFilesRoundTripAndRejectTampering() throws Exception {
+        PremiumCustomer owner = new PremiumCustomer("Secret Holder", 52, "0559990000", "Private Lane");
+        CheckingAccount account = new CheckingAccount(owner, 4200.00);
+        accountManager.addAccount(account);
+        transactionManager.addTransaction(new Transaction(account.getAccountNumber(), "Deposit", 200.00, 4200.00));
+
+        Path dataDir = testDir.resolve("data");
+        Path keystore = testDir.resolve("keys").resolve("dataset.p12");
+        char[] password = "test-password".toCharArray();
+        DatasetKeys keys = DatasetKeys.open(keystore, password);
+
+        FilePersistenceService plainService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, dataDir, FilePersistenceService.DataFormat.TEXT);
+        plainService.saveAllData();
+        plainService.encryptWith(keys);
+        assertTrue(plainService.isEncrypted());
+        plainService.saveAllData();
+        plainService.getSnapshotWriter().awaitIdle();
+
+        // The plaintext files are replaced, and no customer details remain readable on disk
+        Path customers = dataDir.resolve("customers.txt.enc");
+        assertFalse(Files.exists(dataDir.resolve("customers.txt")));
+        assertFalse(Files.exists(dataDir.resolve("accounts.txt")));
+        assertFalse(Files.exists(dataDir.resolve("transactions.txt")));
+        assertFalse(new String(Files.readAllBytes(customers), StandardCharsets.ISO_8859_1).contains("Secret Holder"));
+
+        // A reopened keystore decrypts the files
+        AccountManager loadedAccounts = new AccountManager();
+        TransactionManager loadedTransactions = new TransactionManager();
+        FilePersistenceService loadService = new FilePersistenceService(loadedAccounts,
+                new CustomerManager(loadedAccounts), loadedTransactions, dataDir, FilePersistenceService.DataFormat.TEXT);
+        loadService.encryptWith(DatasetKeys.open(keystore, password));
+        assertEquals(1, loadService.loadCustomers());
+        assertEquals(1, loadService.loadAccounts());
+        assertEquals(1, loadService.loadTransactions());
+        Account loaded = loadedAccounts.findAccount(account.getAccountNumber());
+        assertEquals(4200.00, loaded.getBalance(), 0.001);
+        assertEquals("Secret Holder", loaded.getCustomer().getName());
+
+        // Without keys the files are refused instead of silently loading nothing
+        AccountManager noKeyAccounts = new AccountManager();
+        FilePersistenceService noKeys = new FilePersistenceService(noKeyAccounts, new CustomerManager(noKeyAccounts),
+                new TransactionManager(), dataDir, FilePersistenceService.DataFormat.TEXT);
+        assertThrows(IOException.class, noKeys::loadCustomers);
+
+        // Any change to the ciphertext fails authentication
+        flipByte(customers, (int) Files.size(customers) - 3);
+        AccountManager tamperedAccounts = new AccountManager();
+        FilePersistenceService tampered = new FilePersistenceService(tamperedAccounts,
+                new CustomerManager(tamperedAccounts), new TransactionManager(), dataDir,
+                FilePersistenceService.DataFormat.TEXT);
+        tampered.encryptWith(keys);
+        IOException error = assertThrows(IOException.class, tampered::loadCustomers);
+        assertTrue(error.getMessage().contains("failed authentication"));
+
+        // Files written under a rotated-out key stay readable
+        DatasetKeys rotated = keys.rotate();
+        assertNotEquals(keys.getCurrentAlias(), rotated.getCurrentAlias());
+        AccountManager rotatedAccounts = new AccountManager();
+        FilePersistenceService rotatedService = new FilePersistenceService(rotatedAccounts,
+                new CustomerManager(rotatedAccounts), new TransactionManager(), dataDir,
+                FilePersistenceService.DataFormat.TEXT);
+        rotatedService.encryptWith(DatasetKeys.open(keystore, password));
+        assertEquals(1, rotatedService.loadTransactions());
+
+        assertThrows(IllegalStateException.class, () -> new FilePersistenceService(accountManager, customerManager,
+                transactionManager, testDir.resolve("sharded"), FilePersistenceService.DataFormat.TEXT, 4)
+                .encryptWith(keys));
+    }
+
+    @Test
+    @Order(22)
+    public void testBinaryDatasetKeepsCustomersEncrypted() throws Exception {
+        RegularCustomer owner = new RegularCustomer("Hidden Owner", 44, "0551112222", "Quiet Street");
+        SavingsAccount account = new SavingsAccount(owner, 2500.00);
+        accountManager.addAccount(account);
+        transactionManager.addTransaction(new Transaction(account.getAccountNumber(), "Deposit", 2500.00, 2500.00));
+
+        Path dataDir = testDir.resolve("data");
+        Path keystore = testDir.resolve("keys").resolve("dataset.p12");
+        char[] password = "test-password".toCharArray();
+        DatasetKeys keys = DatasetKeys.open(keystore, password);
+
+        // A dataset saved before encryption was turned on migrates on its next save
+        FilePersistenceService binaryService = new FilePersistenceService(accountManager, customerManager,
+                transactionManager, dataDir, FilePersistenceService.DataFormat.BINARY);
+        binaryService.saveAllData();
+        assertTrue(Files.exists(dataDir.resolve("customers.dat")));
+        binaryService.encryptWith(keys);
+        binaryService.saveAllData();
+        binaryService.getSnapshotWriter().awaitIdle();
+        assertFalse(Files.exists(dataDir.resolve("customers.dat")));
+        assertFalse(new String(Files.readAllBytes(dataDir.resolve("customers.txt.enc")), StandardCharsets.ISO_8859_1)
+                .contains("Hidden Owner"));
+
+        // Backups and text exports are encrypted as well
+        binaryService.backupInBackground(testDir.resolve("backups")).join();
+        Path backupDir = DatasetBackup.latest(testDir.resolve("backups"));
+        assertTrue(Files.exists(backupDir.resolve("customers.txt.enc")));
+        assertFalse(Files.exists(backupDir.resolve("customers.txt")));
+        binaryService.exportAsText();
+        assertFalse(Files.exists(dataDir.resolve("customers.txt")));
+        binaryService.close();
+
+        // Encrypted customers are read in full even when opening on demand is asked for
+        AccountManager loadedAccounts = new AccountManager();
+        TransactionManager loadedTransactions = new TransactionManager();
+        FilePersistenceService loadService = new FilePersistenceService(loadedAccounts,
+                new CustomerManager(loadedAccounts), loadedTransactions, dataDir,
+                FilePersistenceService.DataFormat.BINARY);
+        loadService.encryptWith(DatasetKeys.open(keystore, password));
+        assertFalse(loadService.loadLazily());
+        loadService.loadAllData();
+        assertFalse(loadedAccounts.isLazy());
+        Account loaded = loadedAccounts.findAccount(account.getAccountNumber());
+        assertEquals(2500.00, loaded.getBalance(), 0.001);
+        assertEquals("Hidden Owner", loaded.getCustomer().getName());
+        assertEquals(1, loadedTransactions.getAllTransactions().size());
+        loadService.close();
+
+        // Without keys the customers are refused
+        AccountManager noKeyAccounts = new AccountManager();
+        FilePersistenceService noKeys = new FilePersistenceService(noKeyAccounts, new CustomerManager(noKeyAccounts),
+                new TransactionManager(), dataDir, FilePersistenceService.DataFormat.BINARY);
+        assertThrows(IOException.class, noKeys::loadCustomers);
+    }
+
+    private static void flipByte(Path file, int offset) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[offset] ^= 0x01;
+        Files.write(file, bytes);
+    }
 }
@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Test;
+import utils.Leaderboard;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LeaderboardTest {
+
+    @Test
+    void matchesASortAfterRandomUpdates() {
+        Leaderboard<String> board = new Leaderboard<>();
+        // Insertion order is the order keys first joined, which breaks ties
+        Map<String, Integer> scores = new LinkedHashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5_000; i++) {
+            String key = "K" + random.nextInt(500);
+            if (random.nextInt(10) == 0) {
+                board.remove(key);
+                scores.remove(key);
+            } else {
+                int score = random.nextInt(50);
+                board.update(key, key, score);
+                scores.put(key, score);
+            }
+        }
+
+        List<String> expected = new ArrayList<>(scores.keySet());
+        expected.sort(Comparator.comparing(scores::get).reversed());
+        assertEquals(scores.size(), board.size());
+        assertEquals(expected.subList(0, 100), board.top(100));
+        assertEquals(expected, board.top(Integer.MAX_VALUE));
+        assertTrue(board.top(0).isEmpty());
+    }
+
+    @Test
+    void sameScoreUpdateReplacesTheItemInPlace() {
+        Leaderboard<String> board = new Leaderboard<>();
+        board.update("A", "first A", 10);
+        board.update("B", "B", 10);
+        board.update("A", "second A", 10);
+
+        assertEquals(List.of("second A", "B"), board.top(5));
+        assertEquals(2, board.size());
+    }
+
+    @Test
+    void boundedBoardKeepsTheBestItems() {
+        Leaderboard<Integer> board = new Leaderboard<>(3);
+        for (int amount : new int[]{5, 1, 9, 3, 7, 2, 9}) {
+            board.update("T" + board.size() + "-" + amount, amount, amount);
+        }
+
+        assertEquals(List.of(9, 9, 7), board.top(10));
+        assertEquals(3, board.size());
+        board.clear();
+        assertTrue(board.top(10).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new Leaderboard<>(0));
+    }
+}
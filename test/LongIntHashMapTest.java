@@ -0,0 +1,41 @@
+import org.junit.jupiter.api.Test;
+import utils.LongIntHashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LongIntHashMapTest {
+
+    @Test
+    void behavesLikeAHashMap() {
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(3);
+        // A small key range so puts, overwrites and removals hit the same probe runs
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(5_000) - 100;
+            if (random.nextInt(3) == 0) {
+                Integer removed = expected.remove(key);
+                assertEquals(removed == null ? LongIntHashMap.MISSING : removed, map.remove(key));
+            } else {
+                int value = random.nextInt(1_000);
+                Integer previous = expected.put(key, value);
+                assertEquals(previous == null ? LongIntHashMap.MISSING : previous, map.put(key, value));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = -100; key < 4_900; key++) {
+            Integer value = expected.get(key);
+            assertEquals(value == null ? LongIntHashMap.MISSING : value, map.get(key), "Key " + key);
+        }
+    }
+
+    @Test
+    void rejectsNegativeValues() {
+        assertThrows(IllegalArgumentException.class, () -> new LongIntHashMap().put(1, -1));
+    }
+}
@@ -0,0 +1,207 @@
+import account.Account;
+import account.AccountManager;
+import account.CheckingAccount;
+import account.SavingsAccount;
+import customer.Customer;
+import customer.CustomerManager;
+import customer.PremiumCustomer;
+import customer.RegularCustomer;
+import services.DatasetKeys;
+import services.DatasetVerifier;
+import services.FilePersistenceService;
+import services.ParallelDatasetLoader;
+import services.TransactionLog;
+import transaction.Transaction;
+import transaction.TransactionManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+/**
+ * Rough throughput measurements for saving and rendering records.
+ * Run with: java -cp <classes>:<test classes> PersistenceBenchmark [accounts] [transactions]
+ */
+public class PersistenceBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int transactionCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        runAll(accountCount, transactionCount);
+    }
+
+    public static void runAll(int accountCount, int transactionCount) throws IOException {
+        System.out.println("=".repeat(60));
+        System.out.println("PERSISTENCE BENCHMARK");
+        System.out.println("=".repeat(60));
+
+        AccountManager accountManager = new AccountManager(accountCount);
+        CustomerManager customerManager = new CustomerManager(accountManager);
+        TransactionManager transactionManager = new TransactionManager(transactionCount);
+        populate(accountManager, transactionManager, accountCount, transactionCount);
+
+        Path dir = Files.createTempDirectory("bank_bench_");
+        try {
+            FilePersistenceService textService = new FilePersistenceService(accountManager, customerManager,
+                    transactionManager, dir, FilePersistenceService.DataFormat.TEXT);
+
+            // Touch the data each round; unchanged files are skipped by the snapshot writer
+            Account touched = accountManager.getAccounts().get(0);
+            report("Save accounts (text)", accountCount, () -> {
+                touched.setBalance(touched.getBalance() + 1);
+                return textService.saveAccounts();
+            });
+            report("Save transactions (text)", transactionCount, () -> {
+                transactionManager.addTransaction(new Transaction(touched.getAccountNumber(), "DEPOSIT", 1,
+                        touched.getBalance()));
+                return textService.saveTransactions();
+            });
+            // Every line's checksum is checked on load
+            Path transactionsText = dir.resolve("transactions.txt");
+            ParallelDatasetLoader loader = new ParallelDatasetLoader();
+            report("Load transactions (text)", transactionCount,
+                    () -> loader.loadTransactions(transactionsText, transaction -> { }));
+
+            // Hash-partitioned files, one worker per shard; scales with the cores available
+            int shardCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+            Path shardedDir = dir.resolve("sharded");
+            FilePersistenceService shardedService = new FilePersistenceService(accountManager, customerManager,
+                    transactionManager, shardedDir, FilePersistenceService.DataFormat.TEXT, shardCount);
+            report("Save transactions (" + shardCount + " shards)", transactionCount, () -> {
+                transactionManager.addTransaction(new Transaction(touched.getAccountNumber(), "DEPOSIT", 1,
+                        touched.getBalance()));
+                return shardedService.saveTransactions();
+            });
+            report("Load transactions (" + shardCount + " shards)", transactionCount, () -> {
+                AccountManager emptyAccounts = new AccountManager();
+                return new FilePersistenceService(emptyAccounts, new CustomerManager(emptyAccounts),
+                        new TransactionManager(transactionCount), shardedDir, FilePersistenceService.DataFormat.TEXT,
+                        shardCount).loadTransactions();
+            });
+
+            // AES-GCM in 1 MB chunks; compare with the plaintext rows above for the overhead
+            Path encryptedDir = dir.resolve("encrypted");
+            DatasetKeys keys = DatasetKeys.open(dir.resolve("bench.p12"), "bench".toCharArray());
+            FilePersistenceService encryptedService = new FilePersistenceService(accountManager, customerManager,
+                    transactionManager, encryptedDir, FilePersistenceService.DataFormat.TEXT);
+            encryptedService.encryptWith(keys);
+            report("Save transactions (AES-GCM)", transactionCount, () -> {
+                transactionManager.addTransaction(new Transaction(touched.getAccountNumber(), "DEPOSIT", 1,
+                        touched.getBalance()));
+                return encryptedService.saveTransactions();
+            });
+            Path transactionsEncrypted = encryptedDir.resolve("transactions.txt.enc");
+            report("Load transactions (AES-GCM)", transactionCount,
+                    () -> loader.loadEncryptedTransactions(transactionsEncrypted, keys, transaction -> { }));
+
+            FilePersistenceService binaryService = new FilePersistenceService(accountManager, customerManager,
+                    transactionManager, dir, FilePersistenceService.DataFormat.BINARY);
+            binaryService.saveAccounts();
+            Account from = accountManager.getAccounts().get(0);
+            Account to = accountManager.getAccounts().get(accountCount - 1);
+            report("Save after transfer (table)", accountCount, () -> {
+                from.setBalance(from.getBalance() - 1);
+                to.setBalance(to.getBalance() + 1);
+                binaryService.saveAccounts();
+                return accountCount;
+            });
+
+            String sampleAccount = accountManager.getAccounts().get(0).getAccountNumber();
+            int perStatement = transactionManager.getTransactionsForAccount(sampleAccount).size();
+            report("Render statement lines", perStatement, () -> {
+                accountManager.generateAccountStatement(sampleAccount, transactionManager);
+                return perStatement;
+            });
+
+            // Move the history into the segmented log, then read one ordinary account back from it
+            binaryService.saveTransactions();
+            String quietAccount = accountManager.getAccounts().get(accountCount / 2 + 1).getAccountNumber();
+            int perHistory = transactionManager.getTransactionsForAccount(quietAccount).size();
+            report("Read account history (log)", perHistory,
+                    () -> transactionManager.getTransactionsForAccount(quietAccount).size());
+
+            // Sealed segments are stored as independently deflated blocks
+            TransactionLog log = (TransactionLog) transactionManager.getArchive();
+            long middle = transactionCount / 4;
+            report("Range read 1,000 (blocks)", 1_000, () -> {
+                int[] read = {0};
+                log.forEachInRange(middle, middle + 1_000, transaction -> read[0]++);
+                return read[0];
+            });
+            System.out.printf("%-28s %,12d bytes -> %,d bytes on disk (%.1fx)%n", "Transaction log size",
+                    log.getRawBytes(), log.getDiskBytes(), (double) log.getRawBytes() / log.getDiskBytes());
+            binaryService.close();
+
+            // Checksums of every file written above: text, account table, customers and log
+            DatasetVerifier verifier = new DatasetVerifier();
+            DatasetVerifier.Report[] last = new DatasetVerifier.Report[1];
+            report("Verify dataset", (int) verifier.verify(dir).records(), () -> {
+                last[0] = verifier.verify(dir);
+                return (int) last[0].records();
+            });
+            System.out.printf("%-28s %,12d bytes  %10.0f MB/s%n", "Verified", last[0].bytes(),
+                    last[0].megabytesPerSecond());
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void populate(AccountManager accountManager, TransactionManager transactionManager,
+                                 int accountCount, int transactionCount) {
+        for (int i = 0; i < accountCount; i++) {
+            Customer customer = (i % 5 == 0)
+                    ? new PremiumCustomer("Bench Premium " + i, 30 + i % 40, "055" + (1000000 + i), "Accra")
+                    : new RegularCustomer("Bench Regular " + i, 20 + i % 50, "055" + (2000000 + i), "Kumasi");
+            Account account = (i % 2 == 0)
+                    ? new SavingsAccount(customer, 1000 + i * 1.25)
+                    : new CheckingAccount(customer, 250 + i * 0.75);
+            accountManager.addAccount(account);
+        }
+
+        // Concentrate a share of the history on the first account so statements have real work to do
+        String[] accountNumbers = accountManager.getAccounts().stream()
+                .map(Account::getAccountNumber)
+                .toArray(String[]::new);
+        for (int i = 0; i < transactionCount; i++) {
+            String accountNumber = (i % 10 == 0) ? accountNumbers[0] : accountNumbers[i % accountCount];
+            transactionManager.addTransaction(new Transaction(accountNumber,
+                    i % 3 == 0 ? "WITHDRAWAL" : "DEPOSIT", 10 + i % 5000 + 0.37, 100000 + i * 0.11));
+        }
+    }
+
+    private static void report(String label, int records, Task task) throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            task.run();
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        double seconds = best / 1_000_000_000.0;
+        System.out.printf("%-28s %,12d records  %10.1f ms  %,14.0f records/s%n",
+                label, records, best / 1_000_000.0, records / seconds);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) {
+                }
+            });
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        int run() throws IOException;
+    }
+}
@@ -0,0 +1,63 @@
+import org.junit.jupiter.api.Test;
+import utils.PrefixIndex;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrefixIndexTest {
+
+    @Test
+    void returnsTheBestScoredCompletions() {
+        PrefixIndex<String> index = new PrefixIndex<>(1);
+        Random random = new Random(7);
+        List<String> keys = new ArrayList<>();
+        List<Double> scores = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            String key = "ACC" + random.nextInt(100_000);
+            double score = random.nextInt(1_000_000);
+            keys.add(key);
+            scores.add(score);
+            index.put(key, key + "#" + i, score);
+        }
+
+        for (String prefix : new String[]{"acc", "ACC1", "acc99", "acc12345", "x"}) {
+            List<Integer> matching = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                if (keys.get(i).toLowerCase().startsWith(prefix.toLowerCase())) {
+                    matching.add(i);
+                }
+            }
+            matching.sort(Comparator.comparingDouble(i -> -scores.get(i)));
+            List<Double> expected = matching.stream().limit(10).map(scores::get).toList();
+
+            List<Double> actual = index.complete(prefix, 10, 0).stream()
+                    .map(value -> scores.get(Integer.parseInt(value.substring(value.indexOf('#') + 1))))
+                    .toList();
+            assertEquals(expected, actual, "Prefix '" + prefix + "'");
+        }
+    }
+
+    @Test
+    void followsScoreChangesAndRemovals() {
+        PrefixIndex<String> index = new PrefixIndex<>(2);
+        index.put("Ama Mensah", "ama", 100, 1);
+        index.put("CUS001", "ama", 100, 1);
+        index.put("Amos Owusu", "amos", 50, 2);
+        index.put("Kofi Addo", "kofi", 500, 3);
+
+        assertEquals(List.of("ama", "amos"), index.complete("am", 5, 0));
+        assertEquals(List.of("amos", "ama"), index.complete("am", 5, 1));
+        assertEquals(List.of("ama"), index.complete("cus", 5, 0), "A value found by two keys is listed once");
+
+        index.setScore("amos", 0, 1_000);
+        assertEquals(List.of("amos", "ama"), index.complete("AM", 5, 0));
+
+        index.remove("amos");
+        assertEquals(List.of("kofi", "ama"), index.complete("", 5, 0));
+        assertEquals(3, index.size());
+    }
+}
@@ -0,0 +1,64 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import utils.RecordFormatter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordFormatterTest {
+    private RecordFormatter formatter;
+
+    @BeforeEach
+    void setUp() {
+        formatter = new RecordFormatter(16);
+    }
+
+    @Test
+    @DisplayName("Money values match String.format(\"%.2f\") digit for digit")
+    void moneyMatchesStringFormat() {
+        double[] values = {0, -0.001, 0.005, 1.005, 2.675, 0.125, 999.995, 1500, -20.5, 123456789.987};
+
+        for (double value : values) {
+            assertEquals(String.format("%.2f", value), formatter.reset().appendMoney(value).toString(),
+                    "Plain money mismatch for " + value);
+            assertEquals(String.format("%,.2f", value), formatter.reset().appendMoneyGrouped(value).toString(),
+                    "Grouped money mismatch for " + value);
+        }
+    }
+
+    @Test
+    @DisplayName("Money values around the largest exact cent count match String.format")
+    void moneyMatchesStringFormatAtTheExactLimit() {
+        double limit = (double) (1L << 53) / 100;
+        double[] values = {123456789012345.67, -123456789012345.67, limit, -limit,
+                Math.nextDown(limit), Math.nextUp(limit), 90071992547409.91, 90071992547409.93, 1e15 - 0.5};
+
+        for (double value : values) {
+            assertEquals(String.format("%.2f", value), formatter.reset().appendMoney(value).toString(),
+                    "Plain money mismatch for " + value);
+            assertEquals(String.format("%,.2f", value), formatter.reset().appendMoneyGrouped(value).toString(),
+                    "Grouped money mismatch for " + value);
+        }
+    }
+
+    @Test
+    @DisplayName("Padded columns line up like %-Ns")
+    void paddedColumns() {
+        formatter.appendPadded("TXN001", 10).append('|')
+                .appendMoneyPadded(1500, 11).append('|')
+                .append(42L);
+
+        assertEquals(String.format("%-10s|%-11s|42", "TXN001", "1,500.00"), formatter.toString());
+    }
+
+    @Test
+    @DisplayName("Reset reuses the buffer and grows past its initial capacity")
+    void resetAndGrow() {
+        formatter.append("x".repeat(100));
+        assertEquals(100, formatter.length());
+
+        formatter.reset().append("ACC001").append('|').appendMoney(5.5);
+        assertEquals("ACC001|5.50", formatter.toString());
+        assertEquals('|', formatter.charAt(6));
+    }
+}
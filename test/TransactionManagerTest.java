@@ -262,4 +262,35 @@ public class TransactionManagerTest {
         // Should not throw any exceptions
         assertDoesNotThrow(() -> largeManager.viewTransactionsByAccount("ACC0"));
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Largest transactions today come first and older days are left out")
+    void largestTransactionsToday() {
+        Transaction small = new Transaction("ACC001", "DEPOSIT", 50.0, 50.0);
+        Transaction large = new Transaction("ACC002", "WITHDRAWAL", 900.0, 100.0);
+        Transaction middle = new Transaction("ACC001", "DEPOSIT", 300.0, 350.0);
+        Transaction yesterday = new Transaction("TXN900", "ACC003", "DEPOSIT", 5000.0, 5000.0,
+                java.time.LocalDateTime.now().minusDays(1)
+                        .format(java.time.format.DateTimeFormatter.ofPattern("dd-MM-yyyy hh:mm a")));
+        transactionManager.addTransaction(small);
+        transactionManager.addTransaction(large);
+        transactionManager.addTransaction(yesterday);
+        transactionManager.addTransaction(middle);
+
+        assertEquals(List.of(large, middle, small), transactionManager.getLargestTransactionsToday(10));
+        assertEquals(List.of(large), transactionManager.getLargestTransactionsToday(1));
+    }
+
+    @Test
+    @DisplayName("The daily leaderboard keeps only the largest transactions")
+    void largestTransactionsTodayAreBounded() {
+        for (int i = 1; i <= TransactionManager.LEADERBOARD_SIZE + 50; i++) {
+            transactionManager.addTransaction(new Transaction("ACC001", "DEPOSIT", i, i));
+        }
+
+        List<Transaction> largest = transactionManager.getLargestTransactionsToday(Integer.MAX_VALUE);
+        assertEquals(TransactionManager.LEADERBOARD_SIZE, largest.size());
+        assertEquals(TransactionManager.LEADERBOARD_SIZE + 50, largest.get(0).getAmount(), 0.001);
+        assertEquals(51, largest.get(largest.size() - 1).getAmount(), 0.001);
+    }
+}
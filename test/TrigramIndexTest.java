@@ -0,0 +1,55 @@
+import org.junit.jupiter.api.Test;
+import utils.TrigramIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrigramIndexTest {
+
+    @Test
+    void matchesAContainsScan() {
+        String[] parts = {"Kwame", "Ama", "Kofi", "Mensah", "Asante", "Boateng", "Owusu", "Addo", "Kumasi", "Accra"};
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>();
+        TrigramIndex<String> index = new TrigramIndex<>(name -> name);
+        // Enough values that the lists use their skip entries
+        for (int i = 0; i < 20_000; i++) {
+            String name = parts[random.nextInt(parts.length)] + " " + parts[random.nextInt(parts.length)] + " " + i;
+            names.add(name);
+            index.put("C" + i, name);
+        }
+
+        for (String query : new String[]{"", "a", "Ah", "mensah", "KWAME AMA", "ama k", "addo 19", "99", "zzz", "h b"}) {
+            List<String> expected = new ArrayList<>();
+            for (String name : names) {
+                if (name.toLowerCase().contains(query.toLowerCase())) {
+                    expected.add(name);
+                }
+            }
+            assertEquals(expected, index.search(query), "Query '" + query + "'");
+        }
+    }
+
+    @Test
+    void replacedValuesAreFoundByTheirNewTextOnly() {
+        TrigramIndex<String> index = new TrigramIndex<>(name -> name);
+        index.put("C1", "John Doe");
+        index.put("C2", "Jane Smith");
+        String sameText = new String("John Doe");
+        index.put("C1", sameText);
+
+        assertSame(sameText, index.search("doe").get(0));
+        assertEquals(List.of("John Doe", "Jane Smith"), index.search("j"), "Same text keeps its place");
+
+        index.put("C1", "Johnny Walker");
+        assertTrue(index.search("doe").isEmpty());
+        assertEquals(List.of("Jane Smith", "Johnny Walker"), index.search("j"));
+
+        index.remove("C2");
+        assertTrue(index.search("smith").isEmpty());
+        assertEquals(1, index.size());
+    }
+}
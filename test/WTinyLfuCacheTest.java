@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.Test;
+import utils.WTinyLfuCache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WTinyLfuCacheTest {
+
+    @Test
+    void staysWithinMaximumSize() {
+        WTinyLfuCache<Integer, String> cache = new WTinyLfuCache<>(100);
+        for (int i = 0; i < 10_000; i++) {
+            cache.get(i, key -> "value" + key);
+        }
+
+        assertTrue(cache.size() <= 100, "Cache grew past its bound: " + cache.size());
+        assertEquals(10_000, cache.getMissCount());
+        assertEquals(10_000 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        WTinyLfuCache<String, String> cache = new WTinyLfuCache<>(10);
+        cache.get("a", key -> "A");
+        cache.get("a", key -> {
+            throw new AssertionError("Should be served from the cache");
+        });
+        assertNull(cache.get("missing", key -> null));
+        assertNull(cache.getIfPresent("missing"), "Null loads must not be cached");
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    void frequentKeysSurviveAOneOffScan() {
+        WTinyLfuCache<Integer, Integer> cache = new WTinyLfuCache<>(200);
+        for (int round = 0; round < 20; round++) {
+            for (int hot = 0; hot < 100; hot++) {
+                cache.get(hot, key -> key);
+            }
+        }
+
+        // A long scan of keys that are each seen once
+        for (int cold = 1_000; cold < 50_000; cold++) {
+            cache.get(cold, key -> key);
+        }
+
+        int survivors = 0;
+        for (int hot = 0; hot < 100; hot++) {
+            if (cache.getIfPresent(hot) != null) {
+                survivors++;
+            }
+        }
+        assertTrue(survivors >= 95, "Scan evicted hot entries; survivors=" + survivors);
+    }
+}